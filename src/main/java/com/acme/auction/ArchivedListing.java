@@ -0,0 +1,335 @@
+package com.acme.auction;
+
+import com.acme.auctionclient.BidRecord;
+import com.acme.auctionclient.Money;
+import com.acme.auctionclient.OperationStatus;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-only copy of a closed listing, as kept by the {@link ListingArchive}.
+ * <p/>
+ * The listing is closed for good, so bids and buy it now requests are ignored
+ * the same way a closed live listing ignores them.
+ */
+public final class ArchivedListing implements AuctionListing {
+    private static final int FORMAT_VERSION = 1;
+
+    private final long listingKey;
+    private final String listingOwner;
+    private final long startingPriceCents;
+    private final long buyItNowPriceCents;
+    private final int auctionLength;
+    private final long startingTimeMillis;
+    private final long endingTimeMillis;
+    private final boolean boughtUsingBuyItNow;
+    private final String winningUser;
+    private final long winningPriceCents;
+    private final String currentBidder;
+    private final long currentBidCents;
+    private final BidHistory bidHistory;
+
+    private ArchivedListing(long listingKey, String listingOwner, long startingPriceCents, long buyItNowPriceCents,
+                            int auctionLength, long startingTimeMillis, long endingTimeMillis,
+                            boolean boughtUsingBuyItNow, String winningUser, long winningPriceCents,
+                            String currentBidder, long currentBidCents, BidHistory bidHistory) {
+        this.listingKey = listingKey;
+        this.listingOwner = listingOwner;
+        this.startingPriceCents = startingPriceCents;
+        this.buyItNowPriceCents = buyItNowPriceCents;
+        this.auctionLength = auctionLength;
+        this.startingTimeMillis = startingTimeMillis;
+        this.endingTimeMillis = endingTimeMillis;
+        this.boughtUsingBuyItNow = boughtUsingBuyItNow;
+        this.winningUser = winningUser;
+        this.winningPriceCents = winningPriceCents;
+        this.currentBidder = currentBidder;
+        this.currentBidCents = currentBidCents;
+        this.bidHistory = bidHistory;
+    }
+
+    /**
+     * Copies a closed listing.
+     */
+    public static ArchivedListing of(AuctionListing listing) {
+        if (!listing.isAuctionClosed()) {
+            throw new IllegalArgumentException("Only closed listings can be archived");
+        }
+        Bid currentBid = listing.getCurrentBid();
+        BidHistory bidHistory = new BidHistory();
+        for (BidRecord bid : listing.getBidHistory(0, listing.getBidCount())) {
+            bidHistory.append(bid.getBidder(), bid.getBidAmountCents(), bid.getBidTimeMillis());
+        }
+        return new ArchivedListing(listing.getListingKey(), listing.getListingOwner(),
+                listing.getStartingPriceCents(), listing.getBuyItNowPriceCents(), listing.getAuctionLength(),
+                listing.getStartingTime().getTime(), listing.getEndingTime().getTime(),
+                listing.isBoughtUsingBuyItNow(), listing.getWinningUser(), listing.getWinningPriceCents(),
+                currentBid == null ? null : currentBid.getBidder(),
+                currentBid == null ? Money.NO_AMOUNT_CENTS : currentBid.getBidValueCents(), bidHistory);
+    }
+
+    /**
+     * Writes the listing in a compact binary form. Each user is written once and
+     * referred to by index, numbers are variable length and bid times are deltas.
+     */
+    public byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            DataOutputStream output = new DataOutputStream(bytes);
+            List<BidRecord> bids = bidHistory.getBids(0, bidHistory.size());
+
+            List<String> users = new ArrayList<String>();
+            Map<String, Integer> userIndexes = new HashMap<String, Integer>();
+            int ownerIndex = userIndex(listingOwner, users, userIndexes);
+            int winnerIndex = userIndex(winningUser, users, userIndexes);
+            int currentBidderIndex = userIndex(currentBidder, users, userIndexes);
+            int[] bidderIndexes = new int[bids.size()];
+            for (int i = 0; i < bidderIndexes.length; i++) {
+                bidderIndexes[i] = userIndex(bids.get(i).getBidder(), users, userIndexes);
+            }
+
+            output.writeByte(FORMAT_VERSION);
+            output.writeLong(listingKey);
+            writeVarLong(output, users.size());
+            for (String user : users) {
+                output.writeUTF(user);
+            }
+            writeVarLong(output, ownerIndex);
+            writeVarLong(output, winnerIndex);
+            writeVarLong(output, currentBidderIndex);
+            writeVarLong(output, startingPriceCents);
+            writeVarLong(output, buyItNowPriceCents);
+            writeVarLong(output, winningPriceCents);
+            writeVarLong(output, currentBidCents);
+            writeVarLong(output, auctionLength);
+            output.writeLong(startingTimeMillis);
+            writeVarLong(output, endingTimeMillis - startingTimeMillis);
+            output.writeBoolean(boughtUsingBuyItNow);
+
+            writeVarLong(output, bids.size());
+            long previousTimeMillis = startingTimeMillis;
+            for (int i = 0; i < bidderIndexes.length; i++) {
+                BidRecord bid = bids.get(i);
+                writeVarLong(output, bidderIndexes[i]);
+                writeVarLong(output, bid.getBidAmountCents());
+                writeVarLong(output, zigZag(bid.getBidTimeMillis() - previousTimeMillis));
+                previousTimeMillis = bid.getBidTimeMillis();
+            }
+            output.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to encode listing", e);
+        }
+    }
+
+    public static ArchivedListing decode(byte[] encoded) {
+        try {
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(encoded));
+            int version = input.readByte();
+            if (version != FORMAT_VERSION) {
+                throw new IllegalStateException("Unknown archived listing format " + version);
+            }
+            long listingKey = input.readLong();
+            String[] users = new String[(int) readVarLong(input) + 1];
+            for (int i = 1; i < users.length; i++) {
+                users[i] = input.readUTF();
+            }
+            String listingOwner = users[(int) readVarLong(input) + 1];
+            String winningUser = users[(int) readVarLong(input) + 1];
+            String currentBidder = users[(int) readVarLong(input) + 1];
+            long startingPriceCents = readVarLong(input);
+            long buyItNowPriceCents = readVarLong(input);
+            long winningPriceCents = readVarLong(input);
+            long currentBidCents = readVarLong(input);
+            int auctionLength = (int) readVarLong(input);
+            long startingTimeMillis = input.readLong();
+            long endingTimeMillis = startingTimeMillis + readVarLong(input);
+            boolean boughtUsingBuyItNow = input.readBoolean();
+
+            BidHistory bidHistory = new BidHistory();
+            long bidCount = readVarLong(input);
+            long bidTimeMillis = startingTimeMillis;
+            for (long i = 0; i < bidCount; i++) {
+                String bidder = users[(int) readVarLong(input) + 1];
+                long bidAmountCents = readVarLong(input);
+                bidTimeMillis += unZigZag(readVarLong(input));
+                bidHistory.append(bidder, bidAmountCents, bidTimeMillis);
+            }
+            return new ArchivedListing(listingKey, listingOwner, startingPriceCents, buyItNowPriceCents,
+                    auctionLength, startingTimeMillis, endingTimeMillis, boughtUsingBuyItNow, winningUser,
+                    winningPriceCents, currentBidder, currentBidCents, bidHistory);
+        } catch (IOException e) {
+            throw new IllegalStateException("Corrupt archived listing", e);
+        }
+    }
+
+    public long bid(String user, BigDecimal bidAmount) {
+        return UNCHANGED;
+    }
+
+    public long bid(String user, long bidAmountCents) {
+        return UNCHANGED;
+    }
+
+    public long proxyBid(String user, BigDecimal maximumBidAmount) {
+        return UNCHANGED;
+    }
+
+    public long proxyBid(String user, long maximumBidAmountCents) {
+        return UNCHANGED;
+    }
+
+    public long bid(String[] bidders, long[] bidAmountsCents, int bidCount, OperationStatus[] outcomes) {
+        Arrays.fill(outcomes, 0, bidCount, OperationStatus.CLOSED);
+        return UNCHANGED;
+    }
+
+    public long buyItNow(String user) {
+        return UNCHANGED;
+    }
+
+    public boolean isAuctionClosed() {
+        return true;
+    }
+
+    public boolean closeIfEnded(long nowMillis) {
+        return true;
+    }
+
+    public Date getStartingTime() {
+        return new Date(startingTimeMillis);
+    }
+
+    public Date getEndingTime() {
+        return new Date(endingTimeMillis);
+    }
+
+    public String getListingOwner() {
+        return listingOwner;
+    }
+
+    public String getListingId() {
+        return ListingIds.toString(listingKey);
+    }
+
+    public long getListingKey() {
+        return listingKey;
+    }
+
+    public Bid getCurrentBid() {
+        if (currentBidder == null) return null;
+        final String bidder = currentBidder;
+        final long bidValueCents = currentBidCents;
+        return new Bid() {
+            public String getBidder() {
+                return bidder;
+            }
+
+            public BigDecimal getBidValue() {
+                return Money.toBigDecimal(bidValueCents);
+            }
+
+            public long getBidValueCents() {
+                return bidValueCents;
+            }
+        };
+    }
+
+    public List<BidRecord> getBidHistory(int offset, int limit) {
+        return bidHistory.getBids(offset, limit);
+    }
+
+    public int getBidCount() {
+        return bidHistory.size();
+    }
+
+    public String getWinningUser() {
+        return winningUser;
+    }
+
+    public BigDecimal getWinningPrice() {
+        return Money.toBigDecimalOrNull(winningPriceCents);
+    }
+
+    public long getWinningPriceCents() {
+        return winningPriceCents;
+    }
+
+    public BigDecimal getStartingPrice() {
+        return Money.toBigDecimal(startingPriceCents);
+    }
+
+    public long getStartingPriceCents() {
+        return startingPriceCents;
+    }
+
+    public BigDecimal getBuyItNowPrice() {
+        return Money.toBigDecimalOrNull(buyItNowPriceCents);
+    }
+
+    public long getBuyItNowPriceCents() {
+        return buyItNowPriceCents;
+    }
+
+    public int getAuctionLength() {
+        return auctionLength;
+    }
+
+    public boolean isBoughtUsingBuyItNow() {
+        return boughtUsingBuyItNow;
+    }
+
+    /**
+     * @return index of the user, -1 for null, adding new users to the table
+     */
+    private static int userIndex(String user, List<String> users, Map<String, Integer> userIndexes) {
+        if (user == null) return -1;
+        Integer index = userIndexes.get(user);
+        if (index == null) {
+            index = users.size();
+            users.add(user);
+            userIndexes.put(user, index);
+        }
+        return index;
+    }
+
+    private static void writeVarLong(DataOutput output, long value) throws IOException {
+        //Shifted by one so the -1 used for missing users and amounts fits the unsigned form.
+        long remaining = value + 1;
+        while ((remaining & ~0x7FL) != 0) {
+            output.writeByte((int) ((remaining & 0x7F) | 0x80));
+            remaining >>>= 7;
+        }
+        output.writeByte((int) remaining);
+    }
+
+    private static long readVarLong(DataInput input) throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = input.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value - 1;
+        }
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,9 @@
+package com.acme.auction;
+
+/**
+ * Implementation of this interface closes auction listings once
+ * their ending time has passed, without waiting for a read.
+ */
+public interface AuctionCloseScheduler {
+    void scheduleClose(AuctionListing auctionListing);
+}
@@ -1,37 +1,101 @@
 package com.acme.auction;
 
+import com.acme.auctionclient.BidRecord;
+import com.acme.auctionclient.OperationStatus;
+
 import java.math.BigDecimal;
 import java.util.Date;
+import java.util.List;
 
 /**
  * Implementation of this interface is responsible for dealing with
  * the details of a particular auction listing.
+ * <p/>
+ * Amounts are available both as BigDecimal and as long cents. The cent based
+ * methods use {@link com.acme.auctionclient.Money#NO_AMOUNT_CENTS} in place of null.
+ * <p/>
+ * The methods changing the listing read the clock once and return the time they
+ * decided at, so a mutation log can record exactly the time a replay must use.
+ * They return {@link #UNCHANGED} when the call left the listing as it was.
  */
 public interface AuctionListing {
-    void bid(String user, BigDecimal bidAmount);
+    /**
+     * Returned by the methods changing the listing when nothing changed.
+     */
+    long UNCHANGED = Long.MIN_VALUE;
+
+    long bid(String user, BigDecimal bidAmount);
+
+    long bid(String user, long bidAmountCents);
+
+    /**
+     * Registers the most the user is willing to pay. The listing bids on the user's
+     * behalf, so the visible price only rises to the second highest maximum plus
+     * the bid increment.
+     */
+    long proxyBid(String user, BigDecimal maximumBidAmount);
 
-    void buyItNow(String user);
+    long proxyBid(String user, long maximumBidAmountCents);
+
+    /**
+     * Applies several bids, in order, as a single update of the listing.
+     *
+     * @param bidders         bidding users
+     * @param bidAmountsCents bid amounts in cents, aligned with bidders
+     * @param bidCount        number of bids to apply from the start of the arrays
+     * @param outcomes        receives the outcome of each bid, aligned with bidders
+     * @return the time every accepted bid was decided at, or {@link #UNCHANGED}
+     */
+    long bid(String[] bidders, long[] bidAmountsCents, int bidCount, OperationStatus[] outcomes);
+
+    long buyItNow(String user);
 
     boolean isAuctionClosed();
 
+    /**
+     * Closes the listing if nowMillis is after its ending time. Used by schedulers
+     * which already know the time, so no clock lookup is made.
+     *
+     * @return true if the listing is closed, whether by this call or earlier
+     */
+    boolean closeIfEnded(long nowMillis);
+
     Date getStartingTime();
 
     Date getEndingTime();
 
     String getListingOwner();
 
+    /**
+     * @return the listing id as seen by clients, see {@link ListingIds}
+     */
     String getListingId();
 
+    long getListingKey();
+
     Bid getCurrentBid();
 
+    /**
+     * Reads a page of the accepted bids, oldest first.
+     */
+    List<BidRecord> getBidHistory(int offset, int limit);
+
+    int getBidCount();
+
     String getWinningUser();
 
     BigDecimal getWinningPrice();
 
+    long getWinningPriceCents();
+
     BigDecimal getStartingPrice();
 
+    long getStartingPriceCents();
+
     BigDecimal getBuyItNowPrice();
 
+    long getBuyItNowPriceCents();
+
     int getAuctionLength();
 
     boolean isBoughtUsingBuyItNow();
@@ -40,5 +104,7 @@ public interface AuctionListing {
         String getBidder();
 
         BigDecimal getBidValue();
+
+        long getBidValueCents();
     }
 }
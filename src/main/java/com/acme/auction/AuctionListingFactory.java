@@ -9,4 +9,11 @@ import java.math.BigDecimal;
 public interface AuctionListingFactory {
     AuctionListing createAuctionListing(String listingOwner, BigDecimal startingPrice,
                                         @Nullable BigDecimal buyItNowPrice, int auctionLength);
+
+    /**
+     * Cent based variant of {@link #createAuctionListing(String, BigDecimal, BigDecimal, int)}.
+     * Pass {@link com.acme.auctionclient.Money#NO_AMOUNT_CENTS} when there is no buy it now price.
+     */
+    AuctionListing createAuctionListing(String listingOwner, long startingPriceCents,
+                                        long buyItNowPriceCents, int auctionLength);
 }
@@ -0,0 +1,25 @@
+package com.acme.auction;
+
+/**
+ * Implementation of this interface is told about the life cycle events of the
+ * listings made by a listing factory. Events are delivered on the thread that
+ * caused them, possibly while the listing is locked, so implementations must be
+ * quick and thread safe.
+ * <p/>
+ * Listings read back from storage after a restart are announced again, as created
+ * and, if they were already closed when stored, as closed, so listeners keeping
+ * running totals rebuild them. Restored listings that close later tell the listener
+ * when they do, like any other listing.
+ */
+public interface AuctionListingListener {
+    /**
+     * Called once a listing has been created.
+     */
+    void listingCreated(AuctionListing auctionListing);
+
+    /**
+     * Called exactly once per listing, by the thread that closed it, whether it was
+     * bought using buy it now or reached its ending time.
+     */
+    void listingClosed(AuctionListing auctionListing);
+}
@@ -1,10 +1,17 @@
 package com.acme.auction;
 
+import com.acme.auctionclient.AsyncAuctionService;
 import com.acme.auctionclient.AuctionService;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.AbstractModule;
+import com.google.inject.Provides;
 import com.google.inject.Singleton;
+import com.google.inject.name.Named;
 import com.google.inject.name.Names;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 /**
  * Guice module responsible for wiring up the auction system.
  * In a real client/server system there would be separate client
@@ -14,25 +21,99 @@ import com.google.inject.name.Names;
  */
 public class AuctionModule extends AbstractModule {
     private final boolean useAdjustableTimeService;
+    private final boolean useShardedEngine;
+    private final int asyncThreadCount;
+    private final long closeSchedulerTickMillis;
+    private final long clockResolutionMillis;
 
     public AuctionModule(boolean useAdjustableTimeService) {
+        this(useAdjustableTimeService, false);
+    }
+
+    public AuctionModule(boolean useAdjustableTimeService, boolean useShardedEngine) {
+        this(useAdjustableTimeService, useShardedEngine, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param useAdjustableTimeService bind an adjustable time service for testing
+     * @param useShardedEngine         bind AuctionService to the sharded single writer engine
+     *                                 instead of the default caller thread implementation
+     * @param asyncThreadCount         number of threads running AsyncAuctionService operations
+     */
+    public AuctionModule(boolean useAdjustableTimeService, boolean useShardedEngine, int asyncThreadCount) {
+        this(useAdjustableTimeService, useShardedEngine, asyncThreadCount,
+                TimingWheelAuctionCloseScheduler.DEFAULT_TICK_MILLIS, CachedTimeService.DEFAULT_RESOLUTION_MILLIS);
+    }
+
+    /**
+     * @param closeSchedulerTickMillis bucket granularity of the timing wheel closing listings
+     * @param clockResolutionMillis    refresh period of the cached clock behind the time services
+     */
+    public AuctionModule(boolean useAdjustableTimeService, boolean useShardedEngine, int asyncThreadCount,
+                         long closeSchedulerTickMillis, long clockResolutionMillis) {
         super();
         this.useAdjustableTimeService = useAdjustableTimeService;
+        this.useShardedEngine = useShardedEngine;
+        this.asyncThreadCount = asyncThreadCount;
+        this.closeSchedulerTickMillis = closeSchedulerTickMillis;
+        this.clockResolutionMillis = clockResolutionMillis;
     }
 
     @Override
     protected void configure() {
         bindTimeServiceClasses();
 
-        bind(AuctionService.class)
-                .to(DefaultAuctionService.class)
+        bind(AuthenticationService.class)
+                .to(DefaultAuthenticationService.class)
+                .in(Singleton.class);
+        if (useShardedEngine) {
+            bind(AuctionService.class)
+                    .to(ShardedAuctionService.class)
+                    .in(Singleton.class);
+        } else {
+            bind(AuctionService.class)
+                    .to(DefaultAuctionService.class)
+                    .in(Singleton.class);
+        }
+        bindConstant().annotatedWith(Names.named(TimingWheelAuctionCloseScheduler.TICK_MILLIS_NAME))
+                .to(closeSchedulerTickMillis);
+        bind(AuctionCloseScheduler.class)
+                .to(TimingWheelAuctionCloseScheduler.class)
+                .in(Singleton.class);
+        bind(ListingIdGenerator.class)
+                .to(DefaultListingIdGenerator.class)
                 .in(Singleton.class);
         bind(AuctionListingFactory.class)
                 .to(DefaultAuctionListingFactory.class)
                 .in(Singleton.class);
+        bind(FeeLedger.class).in(Singleton.class);
+        bind(AuctionListingListener.class).to(FeeLedger.class);
+        bind(MutationLog.class)
+                .to(NullMutationLog.class)
+                .in(Singleton.class);
+        bind(ListingRepository.class)
+                .to(NullListingRepository.class)
+                .in(Singleton.class);
+
+        //The async flavour wraps the AuctionService singleton so both see the same listings.
+        bind(AsyncAuctionService.class)
+                .to(DefaultAsyncAuctionService.class)
+                .in(Singleton.class);
+    }
+
+    @Provides
+    @Singleton
+    @Named(DefaultAsyncAuctionService.EXECUTOR_NAME)
+    ExecutorService provideAsyncAuctionExecutor() {
+        return Executors.newFixedThreadPool(asyncThreadCount, new ThreadFactoryBuilder()
+                .setNameFormat("async-auction-%d")
+                .setDaemon(true)
+                .build());
     }
 
     private void bindTimeServiceClasses() {
+        bindConstant().annotatedWith(Names.named(CachedTimeService.RESOLUTION_MILLIS_NAME))
+                .to(clockResolutionMillis);
         if (useAdjustableTimeService) {
             bind(AdjustableTimeService.class)
                     .to(DefaultAdjustableTimeService.class)
@@ -45,11 +126,11 @@ public class AuctionModule extends AbstractModule {
 
             //The DefaultAdjustableTimeService requires the raw time service itself.
             bind(TimeService.class).annotatedWith(Names.named("rawTimeService"))
-                    .to(DefaultTimeService.class)
+                    .to(CachedTimeService.class)
                     .in(Singleton.class);
         } else {
             bind(TimeService.class)
-                    .to(DefaultTimeService.class)
+                    .to(CachedTimeService.class)
                     .in(Singleton.class);
         }
     }
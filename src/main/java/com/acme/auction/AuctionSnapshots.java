@@ -0,0 +1,420 @@
+package com.acme.auction;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Snapshots of the state of a {@link DefaultAuctionService} logging to a
+ * {@link WriteAheadLog}, and recovery from the latest snapshot and the log after it.
+ * <p/>
+ * A snapshot holds every live listing with its bids, and the auth tokens. It is
+ * taken while bidding goes on: each listing is copied while changes to it are held
+ * back, together with the log position it is current up to. Listings moved to a
+ * {@link ListingArchive} are left to the archive's files, which are flushed to disk
+ * while the snapshot is taken. On recovery the
+ * snapshot is decoded in parallel, then only the log records after the snapshot
+ * started are replayed, skipping those a listing's copy already holds. Replayed
+ * commands see the time they were originally made at, so the recovered state,
+ * and with it every invoice, is the state before the restart. Every restored and
+ * archived listing is announced to the listener of the service's listing factory,
+ * so running totals such as the {@link FeeLedger} are rebuilt along with it.
+ * <p/>
+ * Usage, before the service takes any request:
+ * <pre>
+ * AuctionSnapshots snapshots = new AuctionSnapshots(directory, auctionService, writeAheadLog, timeService);
+ * snapshots.recover();
+ * snapshots.startPeriodicSnapshots(periodMillis);
+ * </pre>
+ * Only listings created by {@link DefaultAuctionListingFactory} can be snapshotted.
+ */
+public class AuctionSnapshots {
+    public static final int LISTINGS_PER_CHUNK = 4096;
+    public static final int KEPT_SNAPSHOT_COUNT = 2;
+
+    private static final long MAGIC = 0x534e415053484f54L;
+    private static final int FORMAT_VERSION = 1;
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+
+    private final File directory;
+    private final DefaultAuctionService auctionService;
+    private final WriteAheadLog writeAheadLog;
+    private final TimeService timeService;
+    private final ReplayTimeService replayTimeService;
+    private final DefaultAuctionListingFactory restoringListingFactory;
+    private final int decoderThreadCount;
+    private final Object snapshotLock = new Object();
+    private ScheduledExecutorService snapshotter;
+    private volatile RecoveryStatistics recoveryStatistics;
+    private volatile IOException lastSnapshotFailure;
+
+    public AuctionSnapshots(File directory, DefaultAuctionService auctionService, WriteAheadLog writeAheadLog,
+                            TimeService timeService) throws IOException {
+        this(directory, auctionService, writeAheadLog, timeService, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param directory          directory holding the snapshots, created if missing
+     * @param decoderThreadCount number of threads decoding a snapshot on recovery
+     */
+    public AuctionSnapshots(File directory, DefaultAuctionService auctionService, WriteAheadLog writeAheadLog,
+                            TimeService timeService, int decoderThreadCount) throws IOException {
+        super();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create snapshot directory " + directory);
+        }
+        this.directory = directory;
+        this.auctionService = auctionService;
+        this.writeAheadLog = writeAheadLog;
+        this.timeService = timeService;
+        this.replayTimeService = new ReplayTimeService(timeService);
+        AuctionListingFactory auctionListingFactory = auctionService.getAuctionListingFactory();
+        this.restoringListingFactory = auctionListingFactory instanceof DefaultAuctionListingFactory
+                ? ((DefaultAuctionListingFactory) auctionListingFactory).withTimeService(replayTimeService)
+                : new DefaultAuctionListingFactory(replayTimeService);
+        this.decoderThreadCount = decoderThreadCount;
+    }
+
+    /**
+     * Writes a snapshot of the current state. The file only appears under its final
+     * name once complete and synced, after which older snapshots are removed.
+     *
+     * @return the snapshot file
+     */
+    public File writeSnapshot() throws IOException {
+        synchronized (snapshotLock) {
+            long startPosition = auctionService.snapshotStartPosition(writeAheadLog);
+            File snapshotFile = new File(directory, String.format("%s%020d%s", SNAPSHOT_PREFIX, startPosition,
+                    SNAPSHOT_SUFFIX));
+            File partialFile = new File(directory, snapshotFile.getName() + ".partial");
+            FileOutputStream fileOutput = new FileOutputStream(partialFile);
+            try {
+                final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileOutput, 1 << 16));
+                output.writeLong(MAGIC);
+                output.writeInt(FORMAT_VERSION);
+                output.writeLong(startPosition);
+                output.writeLong(timeService.currentTimeMillis());
+                writeAuthTokens(output);
+
+                final ChunkWriter chunkWriter = new ChunkWriter(output);
+                auctionService.visitListings(new DefaultAuctionService.ListingVisitor() {
+                    public void visit(AuctionListing auctionListing) throws IOException {
+                        //Nothing can be logged for the listing while it is visited.
+                        chunkWriter.add(writeAheadLog.getAppendedPosition(), auctionListing);
+                    }
+                });
+                chunkWriter.finish();
+                output.writeInt(0);
+                output.flush();
+                fileOutput.getFD().sync();
+            } finally {
+                fileOutput.close();
+            }
+            if (!partialFile.renameTo(snapshotFile)) {
+                throw new IOException("Unable to rename " + partialFile + " to " + snapshotFile);
+            }
+            deleteOldSnapshots();
+            return snapshotFile;
+        }
+    }
+
+    /**
+     * Loads the latest snapshot, if any, and replays the log after it. Must be run
+     * before the service takes requests.
+     */
+    public RecoveryStatistics recover() throws IOException {
+        long startNanos = System.nanoTime();
+        File[] snapshotFiles = snapshotFiles();
+        File snapshotFile = snapshotFiles.length == 0 ? null : snapshotFiles[snapshotFiles.length - 1];
+        ConcurrentLongObjectMap<Long> listingLogPositions = new ConcurrentLongObjectMap<Long>();
+        long replayFromPosition = 0;
+        int snapshotListingCount = 0;
+        if (snapshotFile != null) {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile),
+                    1 << 16));
+            try {
+                if (input.readLong() != MAGIC || input.readInt() != FORMAT_VERSION) {
+                    throw new IOException("Not a snapshot " + snapshotFile);
+                }
+                replayFromPosition = input.readLong();
+                input.readLong();
+                readAuthTokens(input);
+                snapshotListingCount = readChunks(input, replayFromPosition, listingLogPositions);
+            } finally {
+                input.close();
+            }
+        }
+        //Archived listings are neither in the snapshot nor replayed from the log.
+        auctionService.visitArchivedListings(new DefaultAuctionService.ListingVisitor() {
+            public void visit(AuctionListing auctionListing) {
+                restoringListingFactory.announceRestoredListing(auctionListing);
+            }
+        });
+        long snapshotNanos = System.nanoTime();
+
+        long replayedRecordCount = 0;
+        long skippedRecordCount = 0;
+        WriteAheadLogReader reader = new WriteAheadLogReader(writeAheadLog.getDirectory(), replayFromPosition);
+        try {
+            while (reader.next()) {
+                Long listingLogPosition = listingLogPositions.get(reader.getListingKey());
+                if (listingLogPosition != null && reader.getPosition() <= listingLogPosition) {
+                    skippedRecordCount++;
+                } else if (replay(reader)) {
+                    replayedRecordCount++;
+                } else {
+                    skippedRecordCount++;
+                }
+            }
+        } finally {
+            reader.close();
+            replayTimeService.endReplay();
+        }
+        auctionService.scheduleCloseOfLiveListings();
+        long endNanos = System.nanoTime();
+
+        recoveryStatistics = new RecoveryStatistics(snapshotFile == null ? null : snapshotFile.getName(),
+                snapshotListingCount, replayedRecordCount, skippedRecordCount,
+                TimeUnit.NANOSECONDS.toMillis(snapshotNanos - startNanos),
+                TimeUnit.NANOSECONDS.toMillis(endNanos - snapshotNanos));
+        return recoveryStatistics;
+    }
+
+    /**
+     * @return statistics of the last recovery, null before the first one
+     */
+    public RecoveryStatistics getRecoveryStatistics() {
+        return recoveryStatistics;
+    }
+
+    /**
+     * Writes a snapshot every period on a background thread.
+     */
+    public synchronized void startPeriodicSnapshots(long periodMillis) {
+        if (snapshotter != null) {
+            throw new IllegalStateException("Periodic snapshots already started");
+        }
+        snapshotter = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("auction-snapshotter")
+                .setDaemon(true)
+                .build());
+        snapshotter.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    writeSnapshot();
+                    lastSnapshotFailure = null;
+                } catch (IOException e) {
+                    //The log still holds everything, the next period tries again.
+                    lastSnapshotFailure = e;
+                }
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return why the last periodic snapshot failed, null if it succeeded
+     */
+    public IOException getLastSnapshotFailure() {
+        return lastSnapshotFailure;
+    }
+
+    public synchronized void shutdown() {
+        if (snapshotter != null) {
+            snapshotter.shutdownNow();
+            snapshotter = null;
+        }
+    }
+
+    private void writeAuthTokens(DataOutputStream output) throws IOException {
+        AuthenticationService authenticationService = auctionService.getAuthenticationService();
+        Map<String, String> authTokens = authenticationService instanceof DefaultAuthenticationService
+                ? ((DefaultAuthenticationService) authenticationService).getAuthTokens()
+                : new HashMap<String, String>();
+        output.writeInt(authTokens.size());
+        for (Map.Entry<String, String> entry : authTokens.entrySet()) {
+            output.writeUTF(entry.getKey());
+            output.writeUTF(entry.getValue());
+        }
+    }
+
+    private void readAuthTokens(DataInputStream input) throws IOException {
+        int tokenCount = input.readInt();
+        Map<String, String> authTokens = new HashMap<String, String>();
+        for (int i = 0; i < tokenCount; i++) {
+            authTokens.put(input.readUTF(), input.readUTF());
+        }
+        AuthenticationService authenticationService = auctionService.getAuthenticationService();
+        if (authenticationService instanceof DefaultAuthenticationService) {
+            ((DefaultAuthenticationService) authenticationService).restoreAuthTokens(authTokens);
+        }
+    }
+
+    /**
+     * Reads the chunks on this thread and decodes them on the decoder threads.
+     *
+     * @return number of listings restored
+     */
+    private int readChunks(DataInputStream input, final long replayFromPosition,
+                           final ConcurrentLongObjectMap<Long> listingLogPositions) throws IOException {
+        ExecutorService decoders = Executors.newFixedThreadPool(decoderThreadCount, new ThreadFactoryBuilder()
+                .setNameFormat("snapshot-decoder-%d")
+                .setDaemon(true)
+                .build());
+        try {
+            List<Future<Integer>> decodedChunks = new ArrayList<Future<Integer>>();
+            int chunkLength;
+            while ((chunkLength = input.readInt()) != 0) {
+                final int listingCount = input.readInt();
+                final byte[] chunk = new byte[chunkLength];
+                input.readFully(chunk);
+                decodedChunks.add(decoders.submit(new Callable<Integer>() {
+                    public Integer call() throws IOException {
+                        DataInputStream chunkInput = new DataInputStream(new BufferedInputStream(
+                                new InflaterInputStream(new ByteArrayInputStream(chunk))));
+                        for (int i = 0; i < listingCount; i++) {
+                            long listingLogPosition = chunkInput.readLong();
+                            AuctionListing auctionListing = restoringListingFactory.readListing(chunkInput);
+                            if (listingLogPosition > replayFromPosition) {
+                                listingLogPositions.put(auctionListing.getListingKey(), listingLogPosition);
+                            }
+                            auctionService.restoreListing(auctionListing);
+                            restoringListingFactory.announceRestoredListing(auctionListing);
+                        }
+                        return listingCount;
+                    }
+                }));
+            }
+            int restoredCount = 0;
+            for (Future<Integer> decodedChunk : decodedChunks) {
+                restoredCount += decodedChunk.get();
+            }
+            return restoredCount;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while decoding snapshot");
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to decode snapshot", e.getCause());
+        } finally {
+            decoders.shutdownNow();
+        }
+    }
+
+    /**
+     * Applies a log record at the time it was logged.
+     *
+     * @return false if the record concerns a listing that is not known
+     */
+    private boolean replay(WriteAheadLogReader reader) {
+        replayTimeService.replayAt(reader.getTimeMillis());
+        AuctionListing auctionListing = auctionService.findListing(reader.getListingKey());
+        if (reader.getType() == WriteAheadLog.LISTING_CREATED) {
+            if (auctionListing != null) return false;
+            AuctionListing restoredListing = restoringListingFactory.restoreAuctionListing(reader.getListingKey(),
+                    reader.getUser(), reader.getAmountCents(), reader.getBuyItNowPriceCents(),
+                    reader.getAuctionLength(), reader.getTimeMillis());
+            auctionService.restoreListing(restoredListing);
+            restoringListingFactory.announceRestoredListing(restoredListing);
+            return true;
+        }
+        if (auctionListing == null) return false;
+
+        switch (reader.getType()) {
+            case WriteAheadLog.BID:
+                auctionListing.bid(reader.getUser(), reader.getAmountCents());
+                break;
+            case WriteAheadLog.PROXY_BID:
+                auctionListing.proxyBid(reader.getUser(), reader.getAmountCents());
+                break;
+            case WriteAheadLog.BUY_IT_NOW:
+                auctionListing.buyItNow(reader.getUser());
+                break;
+        }
+        return true;
+    }
+
+    private File[] snapshotFiles() {
+        File[] snapshotFiles = directory.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(SNAPSHOT_SUFFIX);
+            }
+        });
+        //Names hold the zero padded start position, so they sort oldest first.
+        Arrays.sort(snapshotFiles);
+        return snapshotFiles;
+    }
+
+    private void deleteOldSnapshots() {
+        File[] snapshotFiles = snapshotFiles();
+        for (int i = 0; i < snapshotFiles.length - KEPT_SNAPSHOT_COUNT; i++) {
+            if (!snapshotFiles[i].delete()) {
+                snapshotFiles[i].deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Groups listings into separately compressed chunks, each of which can be decoded on its own.
+     */
+    private static final class ChunkWriter {
+        private final DataOutputStream output;
+        private final ByteArrayOutputStream chunkBytes = new ByteArrayOutputStream(1 << 16);
+        private DataOutputStream chunkOutput;
+        private Deflater deflater;
+        private int listingCount;
+
+        private ChunkWriter(DataOutputStream output) {
+            this.output = output;
+        }
+
+        private void add(long listingLogPosition, AuctionListing auctionListing) throws IOException {
+            if (chunkOutput == null) {
+                chunkBytes.reset();
+                deflater = new Deflater(Deflater.BEST_SPEED);
+                chunkOutput = new DataOutputStream(new DeflaterOutputStream(chunkBytes, deflater, 1 << 12));
+            }
+            chunkOutput.writeLong(listingLogPosition);
+            DefaultAuctionListingFactory.writeListing(auctionListing, chunkOutput);
+            if (++listingCount == LISTINGS_PER_CHUNK) {
+                finish();
+            }
+        }
+
+        private void finish() throws IOException {
+            if (chunkOutput == null) return;
+
+            chunkOutput.close();
+            deflater.end();
+            output.writeInt(chunkBytes.size());
+            output.writeInt(listingCount);
+            chunkBytes.writeTo(output);
+            chunkOutput = null;
+            listingCount = 0;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.acme.auction;
+
+import com.acme.auctionclient.AuctionServiceException;
+
+/**
+ * Responsible for authenticating users and resolving the auth tokens
+ * handed out by {@link #login(String, String)} back to a user.
+ */
+public interface AuthenticationService {
+    String login(String username, String password) throws AuctionServiceException;
+
+    String validateTokenAndAcquireUser(String authToken) throws AuctionServiceException;
+
+    /**
+     * Ends the session of a token, if tokens of this service can be revoked.
+     *
+     * @return true if the token named a live session, which it no longer does
+     */
+    boolean logout(String authToken);
+}
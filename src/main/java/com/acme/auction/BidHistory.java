@@ -0,0 +1,83 @@
+package com.acme.auction;
+
+import com.acme.auctionclient.BidRecord;
+import com.google.common.collect.ImmutableList;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only record of the bids that moved a single listing, each with the
+ * amount the bidder submitted. Proxy bids that take or keep the lead are recorded
+ * at the price they set, since the history is shown to every bidder.
+ * <p/>
+ * Bids are stored column-wise in growable primitive arrays rather than as objects.
+ * Bidders are dictionary encoded per listing, so a bid costs an int bidder code,
+ * a long amount in cents and a long timestamp: 20 bytes plus array growth slack.
+ * <p/>
+ * All access is synchronized on the history itself. Listings append while holding
+ * that lock as part of accepting a bid, which keeps the history in bid order.
+ */
+public class BidHistory {
+    private static final int INITIAL_CAPACITY = 4;
+
+    private final Map<String, Integer> bidderToCodeMap = new HashMap<String, Integer>();
+    private String[] bidders = new String[INITIAL_CAPACITY];
+    private int bidderCount;
+    private int[] bidderCodes = new int[INITIAL_CAPACITY];
+    private long[] bidAmountsCents = new long[INITIAL_CAPACITY];
+    private long[] bidTimesMillis = new long[INITIAL_CAPACITY];
+    private int bidCount;
+
+    public synchronized void append(String bidder, long bidAmountCents, long bidTimeMillis) {
+        if (bidCount == bidderCodes.length) {
+            int newCapacity = bidCount + (bidCount >> 1);
+            bidderCodes = Arrays.copyOf(bidderCodes, newCapacity);
+            bidAmountsCents = Arrays.copyOf(bidAmountsCents, newCapacity);
+            bidTimesMillis = Arrays.copyOf(bidTimesMillis, newCapacity);
+        }
+        bidderCodes[bidCount] = encodeBidder(bidder);
+        bidAmountsCents[bidCount] = bidAmountCents;
+        bidTimesMillis[bidCount] = bidTimeMillis;
+        bidCount++;
+    }
+
+    public synchronized int size() {
+        return bidCount;
+    }
+
+    /**
+     * Reads a page of the history, oldest bid first.
+     *
+     * @param offset index of the first bid to return
+     * @param limit  maximum number of bids to return
+     * @return the requested bids, empty if offset is past the end
+     */
+    public synchronized List<BidRecord> getBids(int offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("offset and limit must not be negative");
+        }
+        int end = (int) Math.min((long) offset + limit, bidCount);
+
+        ImmutableList.Builder<BidRecord> bidListBuilder = ImmutableList.builder();
+        for (int i = offset; i < end; i++) {
+            bidListBuilder.add(new BidRecord(bidders[bidderCodes[i]], bidAmountsCents[i], bidTimesMillis[i]));
+        }
+        return bidListBuilder.build();
+    }
+
+    private int encodeBidder(String bidder) {
+        Integer code = bidderToCodeMap.get(bidder);
+        if (code == null) {
+            if (bidderCount == bidders.length) {
+                bidders = Arrays.copyOf(bidders, bidderCount * 2);
+            }
+            code = bidderCount;
+            bidders[bidderCount++] = bidder;
+            bidderToCodeMap.put(bidder, code);
+        }
+        return code;
+    }
+}
@@ -0,0 +1,757 @@
+package com.acme.auction;
+
+import com.acme.auctionclient.AuctionService;
+import com.acme.auctionclient.AuctionServiceException;
+import com.acme.auctionclient.BatchBid;
+import com.acme.auctionclient.BidRecord;
+import com.acme.auctionclient.BinaryProtocol;
+import com.acme.auctionclient.InvoiceCursor;
+import com.acme.auctionclient.InvoiceLine;
+import com.acme.auctionclient.OperationStatus;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Non blocking server exposing an {@link AuctionService} over {@link BinaryProtocol}.
+ * <p/>
+ * An acceptor thread hands new connections, round robin, to a small set of selector
+ * threads. A selector thread reads and decodes the requests of its connections,
+ * then hands each to a worker thread, which calls the auction service and encodes
+ * the response. The selector thread writes the response once the worker is done,
+ * so an auction service call waiting on the durable mutation log or a shard only
+ * holds up its own connection. A connection has one request executing at a time.
+ * <p/>
+ * Idle connections hold no buffer. Each selector thread reads into a direct buffer
+ * it owns, and a connection with a partial request, an executing request or an
+ * unsent response borrows a buffer from the thread's pool, so memory grows with
+ * the number of busy connections rather than with the number of open ones. Strings
+ * are decoded through a {@link WireStringCache} and results encoded straight into
+ * the buffers, so once warmed up the I/O path allocates little per message; the
+ * auction service calls themselves still do.
+ * <p/>
+ * A connection that stops reading its responses is not read from until they are
+ * sent. A frame longer than {@link BinaryProtocol#MAX_FRAME_SIZE} closes the
+ * connection, and so does any failure serving a connection, without stopping the
+ * selector thread serving it.
+ */
+public class BinaryAuctionServer {
+    public static final int DEFAULT_SELECTOR_THREAD_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    /**
+     * Length of the queue of connections waiting to be accepted.
+     */
+    public static final int ACCEPT_BACKLOG = 4096;
+    static final int STRING_CACHE_SIZE = 4096;
+    public static final int DEFAULT_WORKER_THREAD_COUNT = 4 * Runtime.getRuntime().availableProcessors();
+    static final int MAX_POOLED_BUFFERS = 256;
+    /**
+     * Smallest encoding of a bid in a batch: two empty strings and the amount.
+     */
+    static final int MIN_BATCH_BID_BYTES = 2 + 2 + 8;
+
+    private final AuctionService auctionService;
+    private final InetSocketAddress bindAddress;
+    private final SelectorLoop[] selectorLoops;
+    private final ExecutorService workerExecutor;
+    private final boolean ownsWorkerExecutor;
+    private ServerSocketChannel serverChannel;
+    private Thread acceptorThread;
+    private volatile boolean running;
+
+    public BinaryAuctionServer(AuctionService auctionService, InetSocketAddress bindAddress) {
+        this(auctionService, bindAddress, DEFAULT_SELECTOR_THREAD_COUNT);
+    }
+
+    /**
+     * @param bindAddress         address to listen on, port 0 picks a free port
+     * @param selectorThreadCount number of threads serving the connections
+     */
+    public BinaryAuctionServer(AuctionService auctionService, InetSocketAddress bindAddress, int selectorThreadCount) {
+        this(auctionService, bindAddress, selectorThreadCount, Executors.newFixedThreadPool(DEFAULT_WORKER_THREAD_COUNT,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("auction-worker-%d").build()), true);
+    }
+
+    /**
+     * @param bindAddress         address to listen on, port 0 picks a free port
+     * @param selectorThreadCount number of threads serving the connections
+     * @param workerExecutor      executor running the auction service calls, left running on shutdown
+     */
+    public BinaryAuctionServer(AuctionService auctionService, InetSocketAddress bindAddress, int selectorThreadCount,
+                               ExecutorService workerExecutor) {
+        this(auctionService, bindAddress, selectorThreadCount, workerExecutor, false);
+    }
+
+    private BinaryAuctionServer(AuctionService auctionService, InetSocketAddress bindAddress, int selectorThreadCount,
+                                ExecutorService workerExecutor, boolean ownsWorkerExecutor) {
+        super();
+        if (selectorThreadCount < 1) {
+            throw new IllegalArgumentException("selectorThreadCount must be positive");
+        }
+        this.auctionService = auctionService;
+        this.bindAddress = bindAddress;
+        this.selectorLoops = new SelectorLoop[selectorThreadCount];
+        this.workerExecutor = workerExecutor;
+        this.ownsWorkerExecutor = ownsWorkerExecutor;
+    }
+
+    public synchronized void start() throws IOException {
+        if (running) {
+            throw new IllegalStateException("Server already started");
+        }
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.socket().bind(bindAddress, ACCEPT_BACKLOG);
+        running = true;
+
+        ThreadFactory selectorThreadFactory = new ThreadFactoryBuilder()
+                .setDaemon(true).setNameFormat("auction-selector-%d").build();
+        for (int i = 0; i < selectorLoops.length; i++) {
+            selectorLoops[i] = new SelectorLoop(Selector.open());
+            selectorThreadFactory.newThread(selectorLoops[i]).start();
+        }
+        acceptorThread = new ThreadFactoryBuilder().setDaemon(true).setNameFormat("auction-acceptor").build()
+                .newThread(new Runnable() {
+                    public void run() {
+                        acceptConnections();
+                    }
+                });
+        acceptorThread.start();
+    }
+
+    /**
+     * @return the port the server listens on, useful when started on port 0
+     */
+    public int getLocalPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public int getConnectionCount() {
+        int connectionCount = 0;
+        for (SelectorLoop selectorLoop : selectorLoops) {
+            if (selectorLoop != null) {
+                connectionCount += selectorLoop.connectionCount;
+            }
+        }
+        return connectionCount;
+    }
+
+    /**
+     * Stops accepting connections and closes the open ones.
+     */
+    public synchronized void shutdown() {
+        if (!running) return;
+        running = false;
+        closeQuietly(serverChannel);
+        for (SelectorLoop selectorLoop : selectorLoops) {
+            selectorLoop.selector.wakeup();
+        }
+        if (ownsWorkerExecutor) {
+            workerExecutor.shutdown();
+        }
+    }
+
+    private void acceptConnections() {
+        int next = 0;
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                //Skip selector threads whose selector failed, they serve nothing any more.
+                int tries = 0;
+                while (selectorLoops[next].stopped && tries < selectorLoops.length) {
+                    next = (next + 1) % selectorLoops.length;
+                    tries++;
+                }
+                if (selectorLoops[next].stopped) {
+                    closeQuietly(channel);
+                    continue;
+                }
+                selectorLoops[next].adopt(channel);
+                next = (next + 1) % selectorLoops.length;
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                //Typically out of file descriptors, give the open connections a chance to close.
+                Thread.yield();
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            //Nothing left to do with it.
+        }
+    }
+
+    /**
+     * Executes a decoded request on a worker thread and encodes its response, in
+     * read mode, into the buffer the selector thread handed over.
+     */
+    private void respond(Request request, ByteBuffer response) {
+        try {
+            execute(request, response);
+        } catch (AuctionServiceException e) {
+            response.clear();
+            response.position(4);
+            response.put(BinaryProtocol.REJECTED);
+            BinaryProtocol.putString(response, e.getMessage());
+        } catch (RuntimeException e) {
+            response.clear();
+            response.position(4);
+            fail(response, e);
+        }
+        finish(response);
+    }
+
+    private static void fail(ByteBuffer response, RuntimeException e) {
+        response.put(BinaryProtocol.FAILED);
+        BinaryProtocol.putString(response, String.valueOf(e));
+    }
+
+    /**
+     * Fills in the frame length and readies the response for writing.
+     */
+    private static void finish(ByteBuffer response) {
+        response.putInt(0, response.position() - 4);
+        response.flip();
+    }
+
+    private void execute(Request request, ByteBuffer response) throws AuctionServiceException {
+        switch (request.operation) {
+            case BinaryProtocol.LOGIN:
+                response.put(BinaryProtocol.OK);
+                BinaryProtocol.putString(response, auctionService.login(request.username, request.password));
+                break;
+            case BinaryProtocol.LOGOUT:
+                response.put(BinaryProtocol.OK);
+                response.put((byte) (auctionService.logout(request.authToken) ? 1 : 0));
+                break;
+            case BinaryProtocol.CREATE_LISTING: {
+                String listingId = auctionService.createListing(request.authToken, request.startingPriceCents,
+                        request.buyItNowPriceCents, request.auctionLength);
+                response.put(BinaryProtocol.OK);
+                BinaryProtocol.putString(response, listingId);
+                break;
+            }
+            case BinaryProtocol.BID:
+                auctionService.bid(request.authToken, request.listingId, request.amountCents);
+                response.put(BinaryProtocol.OK);
+                break;
+            case BinaryProtocol.PROXY_BID:
+                auctionService.proxyBid(request.authToken, request.listingId, request.amountCents);
+                response.put(BinaryProtocol.OK);
+                break;
+            case BinaryProtocol.BID_BATCH: {
+                OperationStatus[] outcomes = auctionService.bidBatch(request.bids);
+                response.put(BinaryProtocol.OK);
+                response.putInt(outcomes.length);
+                for (OperationStatus outcome : outcomes) {
+                    BinaryProtocol.putStatus(response, outcome);
+                }
+                break;
+            }
+            case BinaryProtocol.BUY_IT_NOW:
+                auctionService.buyItNow(request.authToken, request.listingId);
+                response.put(BinaryProtocol.OK);
+                break;
+            case BinaryProtocol.FETCH_INVOICES: {
+                List<InvoiceLine> invoiceLines = auctionService.fetchInvoices(request.authToken, request.listingId);
+                response.put(BinaryProtocol.OK);
+                response.putInt(invoiceLines.size());
+                for (InvoiceLine invoiceLine : invoiceLines) {
+                    BinaryProtocol.putInvoiceLine(response, invoiceLine);
+                }
+                break;
+            }
+            case BinaryProtocol.FETCH_USER_INVOICES: {
+                long position = request.position;
+                InvoiceCursor cursor = auctionService.fetchUserInvoices(request.authToken, request.fromMillis,
+                        request.toMillis);
+                ResumableInvoiceCursor resumableCursor = null;
+                if (cursor instanceof ResumableInvoiceCursor) {
+                    resumableCursor = (ResumableInvoiceCursor) cursor;
+                    resumableCursor.seek(position);
+                } else {
+                    //Cursors of other services cannot resume, their positions count lines.
+                    for (long i = 0; i < position && cursor.hasNext(); i++) {
+                        cursor.next();
+                    }
+                }
+                response.put(BinaryProtocol.OK);
+                int countPosition = response.position();
+                response.putInt(0);
+                int count = 0;
+                //Keep room for the trailing more flag and position.
+                response.limit(response.capacity() - 9);
+                boolean more = false;
+                long nextPosition = resumableCursor == null ? position : resumableCursor.getPosition();
+                while (cursor.hasNext()) {
+                    int linePosition = response.position();
+                    try {
+                        BinaryProtocol.putInvoiceLine(response, cursor.next());
+                        count++;
+                    } catch (BufferOverflowException e) {
+                        response.position(linePosition);
+                        more = true;
+                        break;
+                    }
+                    nextPosition = resumableCursor == null ? position + count : resumableCursor.getPosition();
+                }
+                response.limit(response.capacity());
+                response.putInt(countPosition, count);
+                response.put((byte) (more ? 1 : 0));
+                response.putLong(nextPosition);
+                break;
+            }
+            case BinaryProtocol.FETCH_BID_HISTORY: {
+                List<BidRecord> bidRecords = auctionService.fetchBidHistory(request.authToken, request.listingId,
+                        request.offset, request.limit);
+                response.put(BinaryProtocol.OK);
+                int countPosition = response.position();
+                response.putInt(0);
+                int count = 0;
+                for (BidRecord bidRecord : bidRecords) {
+                    int recordPosition = response.position();
+                    try {
+                        BinaryProtocol.putBidRecord(response, bidRecord);
+                        count++;
+                    } catch (BufferOverflowException e) {
+                        response.position(recordPosition);
+                        break;
+                    }
+                }
+                response.putInt(countPosition, count);
+                break;
+            }
+            case BinaryProtocol.TRY_CREATE_LISTING:
+                response.put(BinaryProtocol.OK);
+                BinaryProtocol.putOutcome(response, auctionService.tryCreateListing(request.authToken,
+                        request.startingPriceCents, request.buyItNowPriceCents, request.auctionLength));
+                break;
+            case BinaryProtocol.TRY_BID:
+                response.put(BinaryProtocol.OK);
+                BinaryProtocol.putOutcome(response, auctionService.tryBid(request.authToken, request.listingId,
+                        request.amountCents));
+                break;
+            case BinaryProtocol.TRY_BUY_IT_NOW:
+                response.put(BinaryProtocol.OK);
+                BinaryProtocol.putOutcome(response, auctionService.tryBuyItNow(request.authToken, request.listingId));
+                break;
+            default:
+                throw new IllegalStateException("Undecoded operation " + request.operation);
+        }
+    }
+
+    /**
+     * Connection state. Pending input is kept in write mode, ready for the next read,
+     * pending output in write mode too, ready for the next response. While a request
+     * is executed by a worker the connection is not read from, so its responses go
+     * out in the order of its requests.
+     */
+    private static final class Connection {
+        private final SocketChannel channel;
+        private SelectionKey key;
+        private ByteBuffer pendingInput;
+        private ByteBuffer pendingOutput;
+        private Request request;
+        private boolean executing;
+
+        private Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * Decoded request of a connection, reused for its next request. The selector
+     * thread fills it in and hands it to a worker, which executes it and encodes the
+     * response; plain fields are safely published by the executor and the queue of
+     * completed requests.
+     */
+    private final class Request implements Runnable {
+        private final SelectorLoop selectorLoop;
+        private final Connection connection;
+        private byte operation;
+        private String username;
+        private String password;
+        private String authToken;
+        private String listingId;
+        private long startingPriceCents;
+        private long buyItNowPriceCents;
+        private long amountCents;
+        private int auctionLength;
+        private long fromMillis;
+        private long toMillis;
+        private long position;
+        private int offset;
+        private int limit;
+        private List<BatchBid> bids;
+        private ByteBuffer response;
+
+        private Request(SelectorLoop selectorLoop, Connection connection) {
+            this.selectorLoop = selectorLoop;
+            this.connection = connection;
+        }
+
+        public void run() {
+            respond(this, response);
+            selectorLoop.completedRequests.add(this);
+            selectorLoop.selector.wakeup();
+        }
+
+        private void clear() {
+            username = null;
+            password = null;
+            authToken = null;
+            listingId = null;
+            bids = null;
+            response = null;
+        }
+    }
+
+    private final class SelectorLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> adoptedChannels = new ConcurrentLinkedQueue<SocketChannel>();
+        private final Queue<Request> completedRequests = new ConcurrentLinkedQueue<Request>();
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(BinaryProtocol.BUFFER_SIZE);
+        private final ArrayDeque<ByteBuffer> bufferPool = new ArrayDeque<ByteBuffer>();
+        private final WireStringCache strings = new WireStringCache(STRING_CACHE_SIZE);
+        private volatile int connectionCount;
+        private volatile boolean stopped;
+
+        private SelectorLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        private void adopt(SocketChannel channel) {
+            adoptedChannels.add(channel);
+            selector.wakeup();
+        }
+
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+                    registerAdoptedChannels();
+                    sendCompletedResponses();
+                    Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+                    while (selectedKeys.hasNext()) {
+                        SelectionKey key = selectedKeys.next();
+                        selectedKeys.remove();
+                        serve(key);
+                    }
+                }
+            } catch (IOException e) {
+                //The selector itself failed, nothing can be served any more.
+            } finally {
+                stopped = true;
+                closeAll();
+            }
+        }
+
+        private void registerAdoptedChannels() {
+            SocketChannel channel;
+            while ((channel = adoptedChannels.poll()) != null) {
+                Connection connection = new Connection(channel);
+                try {
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                    connectionCount++;
+                } catch (ClosedChannelException e) {
+                    //Closed by the client before it could be registered.
+                }
+            }
+        }
+
+        private void serve(SelectionKey key) {
+            Connection connection = (Connection) key.attachment();
+            try {
+                if (key.isValid() && key.isWritable()) {
+                    flush(connection);
+                }
+                if (key.isValid() && key.isReadable()) {
+                    read(connection);
+                }
+            } catch (IOException e) {
+                close(connection);
+            } catch (RuntimeException e) {
+                //Whatever went wrong is confined to this connection.
+                close(connection);
+            }
+        }
+
+        private void read(Connection connection) throws IOException {
+            ByteBuffer input = connection.pendingInput;
+            if (input == null) {
+                input = readBuffer;
+                input.clear();
+            }
+            if (connection.channel.read(input) < 0) {
+                close(connection);
+                return;
+            }
+            input.flip();
+            processFrames(connection, input);
+        }
+
+        private void flush(Connection connection) throws IOException {
+            ByteBuffer output = connection.pendingOutput;
+            output.flip();
+            connection.channel.write(output);
+            output.compact();
+            if (output.position() > 0) return;
+
+            release(output);
+            connection.pendingOutput = null;
+            processPendingInput(connection);
+        }
+
+        /**
+         * Serves the requests that arrived while the connection was busy.
+         */
+        private void processPendingInput(Connection connection) throws IOException {
+            if (connection.pendingInput != null) {
+                connection.pendingInput.flip();
+                processFrames(connection, connection.pendingInput);
+            } else {
+                connection.key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        /**
+         * Dispatches the complete frames of input, which is in read mode, one at a
+         * time, then keeps the remaining bytes as the connection's pending input.
+         */
+        private void processFrames(Connection connection, ByteBuffer input) throws IOException {
+            while (connection.pendingOutput == null && !connection.executing && input.remaining() >= 4) {
+                int frameLength = input.getInt(input.position());
+                if (frameLength < 1 || frameLength > BinaryProtocol.MAX_FRAME_SIZE) {
+                    close(connection);
+                    return;
+                }
+                if (input.remaining() < 4 + frameLength) break;
+
+                int frameEnd = input.position() + 4 + frameLength;
+                int limit = input.limit();
+                input.position(input.position() + 4);
+                input.limit(frameEnd);
+                dispatch(connection, input);
+                input.limit(limit);
+                input.position(frameEnd);
+                if (!connection.channel.isOpen()) return;
+            }
+
+            if (!input.hasRemaining()) {
+                if (connection.pendingInput != null) {
+                    release(connection.pendingInput);
+                    connection.pendingInput = null;
+                }
+            } else if (input == readBuffer) {
+                connection.pendingInput = acquire();
+                connection.pendingInput.put(input);
+            } else {
+                input.compact();
+            }
+            if (connection.executing) {
+                connection.key.interestOps(0);
+            } else {
+                connection.key.interestOps(connection.pendingOutput == null ? SelectionKey.OP_READ : SelectionKey.OP_WRITE);
+            }
+        }
+
+        /**
+         * Decodes a request on the selector thread, which owns the string cache, and
+         * hands it to a worker. A request that cannot be decoded or handed over is
+         * answered straight away.
+         */
+        private void dispatch(Connection connection, ByteBuffer input) throws IOException {
+            if (connection.request == null) {
+                connection.request = new Request(this, connection);
+            }
+            Request request = connection.request;
+            ByteBuffer response = acquire();
+            response.position(4);
+            try {
+                decode(input, request);
+                request.response = response;
+                connection.executing = true;
+                workerExecutor.execute(request);
+            } catch (RuntimeException e) {
+                connection.executing = false;
+                request.clear();
+                response.clear();
+                response.position(4);
+                fail(response, e);
+                finish(response);
+                send(connection, response);
+            }
+        }
+
+        /**
+         * Writes out the responses workers have encoded, then carries on with the
+         * requests that arrived meanwhile.
+         */
+        private void sendCompletedResponses() {
+            Request request;
+            while ((request = completedRequests.poll()) != null) {
+                Connection connection = request.connection;
+                ByteBuffer response = request.response;
+                request.clear();
+                connection.executing = false;
+                if (!connection.channel.isOpen()) {
+                    release(response);
+                    continue;
+                }
+                try {
+                    send(connection, response);
+                    if (connection.pendingOutput == null) {
+                        processPendingInput(connection);
+                    } else {
+                        connection.key.interestOps(SelectionKey.OP_WRITE);
+                    }
+                } catch (IOException e) {
+                    close(connection);
+                } catch (RuntimeException e) {
+                    close(connection);
+                }
+            }
+        }
+
+        /**
+         * Writes a response, which is in read mode, keeping what the channel did not
+         * take as the connection's pending output.
+         */
+        private void send(Connection connection, ByteBuffer response) throws IOException {
+            connection.channel.write(response);
+            if (response.hasRemaining()) {
+                response.compact();
+                connection.pendingOutput = response;
+            } else {
+                release(response);
+            }
+        }
+
+        private void decode(ByteBuffer request, Request into) {
+            into.operation = request.get();
+            switch (into.operation) {
+                case BinaryProtocol.LOGIN:
+                    //Passwords are not worth keeping around in the cache.
+                    into.username = BinaryProtocol.getString(request);
+                    into.password = BinaryProtocol.getString(request);
+                    break;
+                case BinaryProtocol.LOGOUT:
+                    //The token is done with, no point caching it.
+                    into.authToken = BinaryProtocol.getString(request);
+                    break;
+                case BinaryProtocol.CREATE_LISTING:
+                case BinaryProtocol.TRY_CREATE_LISTING:
+                    into.authToken = strings.get(request);
+                    into.startingPriceCents = request.getLong();
+                    into.buyItNowPriceCents = request.getLong();
+                    into.auctionLength = request.getInt();
+                    break;
+                case BinaryProtocol.BID:
+                case BinaryProtocol.PROXY_BID:
+                case BinaryProtocol.TRY_BID:
+                    into.authToken = strings.get(request);
+                    into.listingId = strings.get(request);
+                    into.amountCents = request.getLong();
+                    break;
+                case BinaryProtocol.BID_BATCH: {
+                    int bidCount = request.getInt();
+                    //The count comes from the client, it must not size more bids than the frame holds.
+                    if (bidCount < 0 || bidCount > request.remaining() / MIN_BATCH_BID_BYTES) {
+                        throw new IllegalArgumentException("Bid count " + bidCount + " does not fit the frame");
+                    }
+                    List<BatchBid> bids = new ArrayList<BatchBid>(bidCount);
+                    for (int i = 0; i < bidCount; i++) {
+                        String authToken = strings.get(request);
+                        String listingId = strings.get(request);
+                        bids.add(new BatchBid(authToken, listingId, request.getLong()));
+                    }
+                    into.bids = bids;
+                    break;
+                }
+                case BinaryProtocol.BUY_IT_NOW:
+                case BinaryProtocol.FETCH_INVOICES:
+                case BinaryProtocol.TRY_BUY_IT_NOW:
+                    into.authToken = strings.get(request);
+                    into.listingId = strings.get(request);
+                    break;
+                case BinaryProtocol.FETCH_USER_INVOICES:
+                    into.authToken = strings.get(request);
+                    into.fromMillis = request.getLong();
+                    into.toMillis = request.getLong();
+                    into.position = request.getLong();
+                    break;
+                case BinaryProtocol.FETCH_BID_HISTORY:
+                    into.authToken = strings.get(request);
+                    into.listingId = strings.get(request);
+                    into.offset = request.getInt();
+                    into.limit = request.getInt();
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown operation " + into.operation);
+            }
+        }
+
+        private ByteBuffer acquire() {
+            ByteBuffer buffer = bufferPool.poll();
+            return buffer != null ? buffer : ByteBuffer.allocateDirect(BinaryProtocol.BUFFER_SIZE);
+        }
+
+        private void release(ByteBuffer buffer) {
+            if (bufferPool.size() < MAX_POOLED_BUFFERS) {
+                buffer.clear();
+                bufferPool.push(buffer);
+            }
+        }
+
+        private void close(Connection connection) {
+            if (connection.pendingInput != null) {
+                release(connection.pendingInput);
+                connection.pendingInput = null;
+            }
+            if (connection.pendingOutput != null) {
+                release(connection.pendingOutput);
+                connection.pendingOutput = null;
+            }
+            if (connection.channel.isOpen()) {
+                connectionCount--;
+            }
+            connection.key.cancel();
+            closeQuietly(connection.channel);
+        }
+
+        private void closeAll() {
+            SocketChannel channel;
+            while ((channel = adoptedChannels.poll()) != null) {
+                closeQuietly(channel);
+            }
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key.channel());
+            }
+            connectionCount = 0;
+            closeQuietly(selector);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.acme.auction;
+
+import com.acme.auctionclient.AuctionService;
+import com.google.inject.AbstractModule;
+import com.google.inject.Provides;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Guice module providing a {@link BinaryAuctionServer} for the bound AuctionService,
+ * running the service calls on the executor of the async auction service. To be
+ * installed next to {@link AuctionModule}:
+ * <pre>
+ * Guice.createInjector(new AuctionModule(false), new BinaryAuctionServerModule(port))
+ *         .getInstance(BinaryAuctionServer.class).start();
+ * </pre>
+ */
+public class BinaryAuctionServerModule extends AbstractModule {
+    private final InetSocketAddress bindAddress;
+    private final int selectorThreadCount;
+
+    public BinaryAuctionServerModule(int port) {
+        this(new InetSocketAddress(port), BinaryAuctionServer.DEFAULT_SELECTOR_THREAD_COUNT);
+    }
+
+    public BinaryAuctionServerModule(InetSocketAddress bindAddress, int selectorThreadCount) {
+        super();
+        this.bindAddress = bindAddress;
+        this.selectorThreadCount = selectorThreadCount;
+    }
+
+    @Override
+    protected void configure() {
+    }
+
+    @Provides
+    @Singleton
+    BinaryAuctionServer provideBinaryAuctionServer(AuctionService auctionService,
+                                                   @Named(DefaultAsyncAuctionService.EXECUTOR_NAME)
+                                                   ExecutorService workerExecutor) {
+        return new BinaryAuctionServer(auctionService, bindAddress, selectorThreadCount, workerExecutor);
+    }
+}
@@ -0,0 +1,118 @@
+package com.acme.auction;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coarse clock whose time is refreshed by a ticker thread.
+ * <p/>
+ * Reading the time is a single volatile read, so hot paths can ask for it on
+ * every operation. The price is that the time lags the system clock by up to
+ * the resolution.
+ * <p/>
+ * Instances with the same resolution share one clock, and all clocks are ticked by
+ * a single daemon thread started with the first of them. Creating an instance per
+ * injector therefore adds no thread. A clock stops ticking once every instance
+ * using it has been shut down.
+ */
+public class CachedTimeService implements TimeService {
+    public static final String RESOLUTION_MILLIS_NAME = "cachedClockResolutionMillis";
+    public static final long DEFAULT_RESOLUTION_MILLIS = 1;
+
+    //Guarded by the class lock.
+    private static final Map<Long, SharedClock> CLOCKS = new HashMap<Long, SharedClock>();
+
+    private final SharedClock clock;
+    private boolean shutdown;
+
+    /**
+     * @param resolutionMillis period at which the cached time is refreshed
+     */
+    @Inject
+    public CachedTimeService(@Named(RESOLUTION_MILLIS_NAME) long resolutionMillis) {
+        super();
+        if (resolutionMillis < 1) {
+            throw new IllegalArgumentException("resolutionMillis must be positive");
+        }
+        this.clock = acquireClock(resolutionMillis);
+    }
+
+    public Date getTime() {
+        return new Date(clock.cachedTimeMillis);
+    }
+
+    public long currentTimeMillis() {
+        return clock.cachedTimeMillis;
+    }
+
+    /**
+     * Stops using the shared clock, which stops ticking if no other instance uses it.
+     */
+    public void shutdown() {
+        synchronized (CachedTimeService.class) {
+            if (shutdown) return;
+            shutdown = true;
+            if (--clock.userCount == 0) {
+                clock.tick.cancel(false);
+                CLOCKS.remove(clock.resolutionMillis);
+            }
+        }
+    }
+
+    /**
+     * @return number of clocks ticking, one per resolution in use
+     */
+    static int getClockCount() {
+        synchronized (CachedTimeService.class) {
+            return CLOCKS.size();
+        }
+    }
+
+    private static synchronized SharedClock acquireClock(long resolutionMillis) {
+        SharedClock clock = CLOCKS.get(resolutionMillis);
+        if (clock == null) {
+            clock = new SharedClock(resolutionMillis);
+            clock.tick = Ticker.EXECUTOR.scheduleAtFixedRate(clock, resolutionMillis, resolutionMillis,
+                    TimeUnit.MILLISECONDS);
+            CLOCKS.put(resolutionMillis, clock);
+        }
+        clock.userCount++;
+        return clock;
+    }
+
+    /**
+     * Holds the ticker thread, so it is only started when a first clock is created.
+     */
+    private static final class Ticker {
+        private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder()
+                        .setNameFormat("cached-clock-ticker")
+                        .setDaemon(true)
+                        .build());
+    }
+
+    private static final class SharedClock implements Runnable {
+        private final long resolutionMillis;
+        private volatile long cachedTimeMillis = System.currentTimeMillis();
+        //Guarded by the class lock of CachedTimeService.
+        private int userCount;
+        private ScheduledFuture<?> tick;
+
+        private SharedClock(long resolutionMillis) {
+            this.resolutionMillis = resolutionMillis;
+        }
+
+        public void run() {
+            cachedTimeMillis = System.currentTimeMillis();
+        }
+    }
+}
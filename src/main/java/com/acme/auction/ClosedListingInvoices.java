@@ -0,0 +1,59 @@
+package com.acme.auction;
+
+import com.acme.auctionclient.FeeType;
+import com.acme.auctionclient.InvoiceLine;
+import com.acme.auctionclient.Money;
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * Invoices of a closed listing, built once since they can no longer change.
+ * Answering a request only compares the requesting user against the owner and
+ * winner, without touching the listing.
+ */
+final class ClosedListingInvoices {
+    private final String listingOwner;
+    private final String winningUser;
+    private final List<InvoiceLine> ownerInvoices;
+    private final List<InvoiceLine> winnerInvoices;
+
+    private ClosedListingInvoices(String listingOwner, String winningUser, List<InvoiceLine> ownerInvoices,
+                                  List<InvoiceLine> winnerInvoices) {
+        this.listingOwner = listingOwner;
+        this.winningUser = winningUser;
+        this.ownerInvoices = ownerInvoices;
+        this.winnerInvoices = winnerInvoices;
+    }
+
+    /**
+     * @param auctionListing a closed listing
+     */
+    static ClosedListingInvoices of(String listingId, AuctionListing auctionListing) {
+        String winningUser = auctionListing.getWinningUser();
+        return new ClosedListingInvoices(auctionListing.getListingOwner(), winningUser,
+                ownerInvoices(listingId, auctionListing),
+                winningUser == null ? ImmutableList.<InvoiceLine>of()
+                        : winnerInvoices(listingId, auctionListing.getWinningPriceCents()));
+    }
+
+    List<InvoiceLine> invoicesFor(String requestingUser) {
+        if (requestingUser.equals(listingOwner)) return ownerInvoices;
+        if (requestingUser.equals(winningUser)) return winnerInvoices;
+        return ImmutableList.of();
+    }
+
+    static List<InvoiceLine> ownerInvoices(String listingId, AuctionListing auctionListing) {
+        if (auctionListing.getBuyItNowPriceCents() == Money.NO_AMOUNT_CENTS) {
+            return ImmutableList.of(
+                    new InvoiceLine(listingId, FeeType.LISTING_FEE, DefaultAuctionService.AUCTION_LISTING_FEE_CENTS));
+        }
+        return ImmutableList.of(
+                new InvoiceLine(listingId, FeeType.LISTING_FEE, DefaultAuctionService.AUCTION_LISTING_FEE_CENTS),
+                new InvoiceLine(listingId, FeeType.BUY_IT_NOW_FEE, DefaultAuctionService.BUY_IT_NOW_LISTING_FEE_CENTS));
+    }
+
+    static List<InvoiceLine> winnerInvoices(String listingId, long winningPriceCents) {
+        return ImmutableList.of(new InvoiceLine(listingId, FeeType.PURCHASE_FEE, winningPriceCents));
+    }
+}
@@ -0,0 +1,267 @@
+package com.acme.auction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Concurrent hash map from primitive long keys to objects, using open addressing.
+ * <p/>
+ * The map is split into segments, each holding a linear probing table made of a key
+ * array and a value array, so an entry costs two array slots instead of a node and
+ * a boxed key. Key 0 marks an empty slot and cannot be stored.
+ * <p/>
+ * Reads take no lock: they follow the volatile table reference of the segment and
+ * read the slots with volatile semantics. Writers lock only their segment. A writer
+ * publishes the value before the key, so a reader that finds the key also finds
+ * the value. Removal leaves a tombstone value in place. Tombstones are dropped when
+ * the segment copies its live entries to a new table. That resize locks one segment
+ * only, and readers keep using the old table until the new one is published.
+ *
+ * @param <V> type of the values
+ */
+public class ConcurrentLongObjectMap<V> {
+    public static final long EMPTY_KEY = 0L;
+
+    private static final Object TOMBSTONE = new Object();
+    private static final int MIN_SEGMENT_CAPACITY = 16;
+
+    private final Segment<V>[] segments;
+    private final int segmentShift;
+
+    public ConcurrentLongObjectMap() {
+        this(64, 1024);
+    }
+
+    /**
+     * @param segmentCount    number of independently locked segments, rounded up to a power of two
+     * @param initialCapacity expected number of entries
+     */
+    @SuppressWarnings("unchecked")
+    public ConcurrentLongObjectMap(int segmentCount, int initialCapacity) {
+        super();
+        if (segmentCount < 1 || segmentCount > (1 << 16)) {
+            throw new IllegalArgumentException("segmentCount must be between 1 and 65536");
+        }
+        int segmentBits = 32 - Integer.numberOfLeadingZeros(segmentCount - 1);
+        this.segments = (Segment<V>[]) new Segment<?>[1 << segmentBits];
+        this.segmentShift = 64 - segmentBits;
+        int segmentCapacity = tableSizeFor(Math.max(initialCapacity, 1) / segments.length);
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment<V>(segmentCapacity);
+        }
+    }
+
+    public V get(long key) {
+        //An empty slot being filled holds its value before its key, it must not be read as the empty key's.
+        if (key == EMPTY_KEY) return null;
+        long hash = hash(key);
+        return segmentFor(hash).get(key, hash);
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @return the previous value, or null if there was none
+     */
+    public V put(long key, V value) {
+        checkArguments(key, value);
+        long hash = hash(key);
+        return segmentFor(hash).put(key, hash, value, false);
+    }
+
+    /**
+     * @return the value already present, or null if value was added
+     */
+    public V putIfAbsent(long key, V value) {
+        checkArguments(key, value);
+        long hash = hash(key);
+        return segmentFor(hash).put(key, hash, value, true);
+    }
+
+    /**
+     * @return the removed value, or null if there was none
+     */
+    public V remove(long key) {
+        if (key == EMPTY_KEY) return null;
+        long hash = hash(key);
+        return segmentFor(hash).remove(key, hash);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment<V> segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    /**
+     * @return a weakly consistent snapshot of the values
+     */
+    public List<V> values() {
+        List<V> values = new ArrayList<V>(size());
+        for (Segment<V> segment : segments) {
+            segment.collectValues(values);
+        }
+        return values;
+    }
+
+    private Segment<V> segmentFor(long hash) {
+        return segments[(int) (hash >>> segmentShift) & (segments.length - 1)];
+    }
+
+    private static void checkArguments(long key, Object value) {
+        if (key == EMPTY_KEY) {
+            throw new IllegalArgumentException("key 0 is reserved for empty slots");
+        }
+        if (value == null) {
+            throw new NullPointerException("null value");
+        }
+    }
+
+    private static long hash(long key) {
+        //Finalizer of MurmurHash3, listing keys have most of their entropy in a few bits.
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    private static int tableSizeFor(int entries) {
+        int capacity = MIN_SEGMENT_CAPACITY;
+        while (capacity < entries * 2 && capacity < (1 << 30)) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static final class Table {
+        private final AtomicLongArray keys;
+        private final AtomicReferenceArray<Object> values;
+        private final int mask;
+
+        private Table(int capacity) {
+            this.keys = new AtomicLongArray(capacity);
+            this.values = new AtomicReferenceArray<Object>(capacity);
+            this.mask = capacity - 1;
+        }
+    }
+
+    private static final class Segment<V> {
+        private volatile Table table;
+        private volatile int size;
+        /**
+         * Slots holding a key, live or removed. Guarded by the segment lock.
+         */
+        private int usedSlots;
+
+        private Segment(int capacity) {
+            this.table = new Table(capacity);
+        }
+
+        @SuppressWarnings("unchecked")
+        private V get(long key, long hash) {
+            Table current = table;
+            int index = (int) hash & current.mask;
+            while (true) {
+                long slotKey = current.keys.get(index);
+                if (slotKey == key) {
+                    Object value = current.values.get(index);
+                    return value == TOMBSTONE ? null : (V) value;
+                }
+                if (slotKey == EMPTY_KEY) return null;
+                index = (index + 1) & current.mask;
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private synchronized V put(long key, long hash, V value, boolean onlyIfAbsent) {
+            Table current = table;
+            int index = (int) hash & current.mask;
+            while (true) {
+                long slotKey = current.keys.get(index);
+                if (slotKey == key) {
+                    Object previous = current.values.get(index);
+                    if (previous == TOMBSTONE) {
+                        current.values.set(index, value);
+                        size++;
+                        return null;
+                    }
+                    if (!onlyIfAbsent) {
+                        current.values.set(index, value);
+                    }
+                    return (V) previous;
+                }
+                if (slotKey == EMPTY_KEY) break;
+                index = (index + 1) & current.mask;
+            }
+
+            current.values.set(index, value);
+            current.keys.set(index, key);
+            size++;
+            usedSlots++;
+            if (usedSlots > (current.mask + 1) - ((current.mask + 1) >>> 2)) {
+                resize();
+            }
+            return null;
+        }
+
+        @SuppressWarnings("unchecked")
+        private synchronized V remove(long key, long hash) {
+            Table current = table;
+            int index = (int) hash & current.mask;
+            while (true) {
+                long slotKey = current.keys.get(index);
+                if (slotKey == key) {
+                    Object previous = current.values.get(index);
+                    if (previous == TOMBSTONE) return null;
+                    current.values.set(index, TOMBSTONE);
+                    size--;
+                    return (V) previous;
+                }
+                if (slotKey == EMPTY_KEY) return null;
+                index = (index + 1) & current.mask;
+            }
+        }
+
+        /**
+         * Copies the live entries to a table sized for them, dropping tombstones.
+         */
+        private void resize() {
+            Table current = table;
+            Table resized = new Table(tableSizeFor(size + 1));
+            for (int i = 0; i <= current.mask; i++) {
+                long key = current.keys.get(i);
+                Object value = current.values.get(i);
+                if (key == EMPTY_KEY || value == TOMBSTONE) continue;
+
+                int index = (int) hash(key) & resized.mask;
+                while (resized.keys.get(index) != EMPTY_KEY) {
+                    index = (index + 1) & resized.mask;
+                }
+                resized.values.lazySet(index, value);
+                resized.keys.lazySet(index, key);
+            }
+            usedSlots = size;
+            //The volatile write publishes every slot written above.
+            table = resized;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void collectValues(List<V> values) {
+            Table current = table;
+            for (int i = 0; i <= current.mask; i++) {
+                Object value = current.values.get(i);
+                if (value != null && value != TOMBSTONE) {
+                    values.add((V) value);
+                }
+            }
+        }
+    }
+}
@@ -25,6 +25,10 @@ public class DefaultAdjustableTimeService implements AdjustableTimeService {
     }
 
     public Date getTime() {
-        return new Date(timeService.getTime().getTime() + atomicMillisOffset.get());
+        return new Date(currentTimeMillis());
+    }
+
+    public long currentTimeMillis() {
+        return timeService.currentTimeMillis() + atomicMillisOffset.get();
     }
 }
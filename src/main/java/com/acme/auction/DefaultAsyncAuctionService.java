@@ -0,0 +1,178 @@
+package com.acme.auction;
+
+import com.acme.auctionclient.AsyncAuctionService;
+import com.acme.auctionclient.AuctionService;
+import com.acme.auctionclient.BatchBid;
+import com.acme.auctionclient.BidRecord;
+import com.acme.auctionclient.InvoiceLine;
+import com.acme.auctionclient.OperationOutcome;
+import com.acme.auctionclient.OperationStatus;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Asynchronous auction service that runs the operations of an underlying
+ * {@link AuctionService} on a configurable executor.
+ * <p/>
+ * Callers are handed a future straight away and are never parked themselves.
+ * The executor threads can still block: a bid that changes a listing holds the
+ * history lock of that listing, and the service orders its log writes under a
+ * lock striped by listing. Size the executor for the contention expected on the
+ * hottest listings.
+ */
+public class DefaultAsyncAuctionService implements AsyncAuctionService {
+    public static final String EXECUTOR_NAME = "asyncAuctionExecutor";
+
+    private final AuctionService auctionService;
+    private final ListeningExecutorService executorService;
+
+    @Inject
+    public DefaultAsyncAuctionService(AuctionService auctionService,
+                                      @Named(EXECUTOR_NAME) ExecutorService executorService) {
+        super();
+        this.auctionService = auctionService;
+        this.executorService = MoreExecutors.listeningDecorator(executorService);
+    }
+
+    public ListenableFuture<String> login(final String username, final String password) {
+        return executorService.submit(new Callable<String>() {
+            public String call() throws Exception {
+                return auctionService.login(username, password);
+            }
+        });
+    }
+
+    public ListenableFuture<Boolean> logout(final String authToken) {
+        return executorService.submit(new Callable<Boolean>() {
+            public Boolean call() {
+                return auctionService.logout(authToken);
+            }
+        });
+    }
+
+    public ListenableFuture<String> createListing(final String authToken, final BigDecimal startingPrice,
+                                                  final BigDecimal buyItNowPrice, final int auctionLength) {
+        return executorService.submit(new Callable<String>() {
+            public String call() throws Exception {
+                return auctionService.createListing(authToken, startingPrice, buyItNowPrice, auctionLength);
+            }
+        });
+    }
+
+    public ListenableFuture<String> createListing(final String authToken, final long startingPriceCents,
+                                                  final long buyItNowPriceCents, final int auctionLength) {
+        return executorService.submit(new Callable<String>() {
+            public String call() throws Exception {
+                return auctionService.createListing(authToken, startingPriceCents, buyItNowPriceCents, auctionLength);
+            }
+        });
+    }
+
+    public ListenableFuture<Void> bid(final String authToken, final String listingId, final BigDecimal bidAmount) {
+        return executorService.submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                auctionService.bid(authToken, listingId, bidAmount);
+                return null;
+            }
+        });
+    }
+
+    public ListenableFuture<Void> bid(final String authToken, final String listingId, final long bidAmountCents) {
+        return executorService.submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                auctionService.bid(authToken, listingId, bidAmountCents);
+                return null;
+            }
+        });
+    }
+
+    public ListenableFuture<Void> proxyBid(final String authToken, final String listingId,
+                                          final BigDecimal maximumBidAmount) {
+        return executorService.submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                auctionService.proxyBid(authToken, listingId, maximumBidAmount);
+                return null;
+            }
+        });
+    }
+
+    public ListenableFuture<Void> proxyBid(final String authToken, final String listingId,
+                                          final long maximumBidAmountCents) {
+        return executorService.submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                auctionService.proxyBid(authToken, listingId, maximumBidAmountCents);
+                return null;
+            }
+        });
+    }
+
+    public ListenableFuture<OperationStatus[]> bidBatch(final List<BatchBid> bids) {
+        return executorService.submit(new Callable<OperationStatus[]>() {
+            public OperationStatus[] call() throws Exception {
+                return auctionService.bidBatch(bids);
+            }
+        });
+    }
+
+    public ListenableFuture<Void> buyItNow(final String authToken, final String listingId) {
+        return executorService.submit(new Callable<Void>() {
+            public Void call() throws Exception {
+                auctionService.buyItNow(authToken, listingId);
+                return null;
+            }
+        });
+    }
+
+    public ListenableFuture<OperationOutcome> tryCreateListing(final String authToken, final long startingPriceCents,
+                                                               final long buyItNowPriceCents,
+                                                               final int auctionLength) {
+        return executorService.submit(new Callable<OperationOutcome>() {
+            public OperationOutcome call() {
+                return auctionService.tryCreateListing(authToken, startingPriceCents, buyItNowPriceCents,
+                        auctionLength);
+            }
+        });
+    }
+
+    public ListenableFuture<OperationOutcome> tryBid(final String authToken, final String listingId,
+                                                     final long bidAmountCents) {
+        return executorService.submit(new Callable<OperationOutcome>() {
+            public OperationOutcome call() {
+                return auctionService.tryBid(authToken, listingId, bidAmountCents);
+            }
+        });
+    }
+
+    public ListenableFuture<OperationOutcome> tryBuyItNow(final String authToken, final String listingId) {
+        return executorService.submit(new Callable<OperationOutcome>() {
+            public OperationOutcome call() {
+                return auctionService.tryBuyItNow(authToken, listingId);
+            }
+        });
+    }
+
+    public ListenableFuture<List<InvoiceLine>> fetchInvoices(final String authToken, final String listingId) {
+        return executorService.submit(new Callable<List<InvoiceLine>>() {
+            public List<InvoiceLine> call() throws Exception {
+                return auctionService.fetchInvoices(authToken, listingId);
+            }
+        });
+    }
+
+    public ListenableFuture<List<BidRecord>> fetchBidHistory(final String authToken, final String listingId,
+                                                            final int offset, final int limit) {
+        return executorService.submit(new Callable<List<BidRecord>>() {
+            public List<BidRecord> call() throws Exception {
+                return auctionService.fetchBidHistory(authToken, listingId, offset, limit);
+            }
+        });
+    }
+}
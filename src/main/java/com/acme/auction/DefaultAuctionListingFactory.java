@@ -1,105 +1,365 @@
 package com.acme.auction;
 
+import com.acme.auctionclient.BidRecord;
+import com.acme.auctionclient.Money;
+import com.acme.auctionclient.OperationStatus;
 import com.google.common.base.Objects;
 import com.google.inject.Inject;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
-import java.util.UUID;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Factory for creating auction listing instances.
  */
 public class DefaultAuctionListingFactory implements AuctionListingFactory {
+    /**
+     * Amount by which a proxy bid raises the price over the competing maximum.
+     */
+    public static final long BID_INCREMENT_CENTS = 100;
+
     private final TimeService timeService;
+    private final ListingIdGenerator listingIdGenerator;
+    private final AuctionListingListener auctionListingListener;
 
-    @Inject
     public DefaultAuctionListingFactory(TimeService timeService) {
+        this(timeService, new DefaultListingIdGenerator());
+    }
+
+    public DefaultAuctionListingFactory(TimeService timeService, ListingIdGenerator listingIdGenerator) {
+        this(timeService, listingIdGenerator, new NullAuctionListingListener());
+    }
+
+    /**
+     * @param auctionListingListener told when listings made by this factory are created and closed
+     */
+    @Inject
+    public DefaultAuctionListingFactory(TimeService timeService, ListingIdGenerator listingIdGenerator,
+                                        AuctionListingListener auctionListingListener) {
         super();
         this.timeService = timeService;
+        this.listingIdGenerator = listingIdGenerator;
+        this.auctionListingListener = auctionListingListener;
     }
 
     public AuctionListing createAuctionListing(String listingOwner, BigDecimal startingPrice,
                                                BigDecimal buyItNowPrice, int auctionLength) {
-        return new DefaultAuctionListing(this.timeService, listingOwner, startingPrice,
-                buyItNowPrice, auctionLength);
+        return createAuctionListing(listingOwner, Money.toCents(startingPrice),
+                Money.toCentsOrNone(buyItNowPrice), auctionLength);
+    }
+
+    public AuctionListing createAuctionListing(String listingOwner, long startingPriceCents,
+                                               long buyItNowPriceCents, int auctionLength) {
+        AuctionListing auctionListing = new DefaultAuctionListing(this.timeService, auctionListingListener,
+                listingIdGenerator.nextListingKey(), listingOwner, startingPriceCents, buyItNowPriceCents,
+                auctionLength);
+        auctionListingListener.listingCreated(auctionListing);
+        return auctionListing;
+    }
+
+    /**
+     * Recreates a listing as it was created before a restart, see {@link AuctionSnapshots}.
+     */
+    AuctionListing restoreAuctionListing(long listingKey, String listingOwner, long startingPriceCents,
+                                         long buyItNowPriceCents, int auctionLength, long startingTimeMillis) {
+        return new DefaultAuctionListing(this.timeService, auctionListingListener, listingKey, listingOwner,
+                startingPriceCents, buyItNowPriceCents, auctionLength, startingTimeMillis);
+    }
+
+    /**
+     * @return a factory telling the same listener about its listings, whose listings
+     *         read the time from another time service
+     */
+    DefaultAuctionListingFactory withTimeService(TimeService timeService) {
+        return new DefaultAuctionListingFactory(timeService, listingIdGenerator, auctionListingListener);
+    }
+
+    /**
+     * Announces a listing read back from storage to the listener, see
+     * {@link AuctionListingListener}. A restored listing past its ending time but not
+     * yet closed is only announced as created, it tells the listener itself once it closes.
+     */
+    void announceRestoredListing(AuctionListing auctionListing) {
+        boolean closed = auctionListing instanceof DefaultAuctionListing
+                ? ((DefaultAuctionListing) auctionListing).state.get().closed : auctionListing.isAuctionClosed();
+        auctionListingListener.listingCreated(auctionListing);
+        if (closed) {
+            auctionListingListener.listingClosed(auctionListing);
+        }
+    }
+
+    /**
+     * Copies the complete state of a listing, consistent with its bid history.
+     *
+     * @param bidOffset number of older bids left out of the copy
+     */
+    static ListingRecord recordOf(AuctionListing auctionListing, int bidOffset) {
+        if (!(auctionListing instanceof DefaultAuctionListing)) {
+            throw new IllegalArgumentException("Only default listings can be recorded, not " + auctionListing);
+        }
+        DefaultAuctionListing listing = (DefaultAuctionListing) auctionListing;
+        synchronized (listing.bidHistory) {
+            DefaultAuctionListing.ListingState state = listing.state.get();
+            int bidCount = listing.bidHistory.size();
+            return new ListingRecord(listing.listingKey, listing.listingOwner, listing.startingPriceCents,
+                    listing.buyItNowPriceCents, listing.auctionLength, listing.startingTime.getTime(),
+                    listing.endingTimeMillis,
+                    state.currentBid == null ? null : state.currentBid.bidder,
+                    state.currentBid == null ? Money.NO_AMOUNT_CENTS : state.currentBid.bidValueCents,
+                    state.leaderMaximumCents, state.closed, state.boughtUsingBuyItNow, state.winningUser,
+                    state.winningPriceCents, bidCount,
+                    listing.bidHistory.getBids(bidOffset, Math.max(0, bidCount - bidOffset)), bidOffset);
+        }
+    }
+
+    /**
+     * Recreates a listing from a record holding all of its bids.
+     */
+    AuctionListing restoreAuctionListing(ListingRecord record) {
+        DefaultAuctionListing listing = new DefaultAuctionListing(this.timeService, auctionListingListener,
+                record.listingKey, record.listingOwner, record.startingPriceCents, record.buyItNowPriceCents,
+                record.auctionLength, record.startingTimeMillis);
+        DefaultAuctionListing.DefaultBid currentBid = record.currentBidder == null ? null
+                : new DefaultAuctionListing.DefaultBid(record.currentBidder, record.currentBidCents);
+        listing.state.set(new DefaultAuctionListing.ListingState(currentBid, record.leaderMaximumCents, record.closed,
+                record.boughtUsingBuyItNow, record.winningUser, record.winningPriceCents));
+        for (BidRecord bid : record.bids) {
+            listing.bidHistory.append(bid.getBidder(), bid.getBidAmountCents(), bid.getBidTimeMillis());
+        }
+        return listing;
+    }
+
+    /**
+     * Writes everything about a listing, including what only the listing itself
+     * knows such as the leading bidder's maximum, so it can be read back by
+     * {@link #readListing(DataInput)}. Callers must keep other changes to the
+     * listing out while it is written.
+     */
+    static void writeListing(AuctionListing auctionListing, DataOutput output) throws IOException {
+        if (!(auctionListing instanceof DefaultAuctionListing)) {
+            throw new IllegalArgumentException("Only default listings can be written, not " + auctionListing);
+        }
+        DefaultAuctionListing listing = (DefaultAuctionListing) auctionListing;
+        output.writeLong(listing.listingKey);
+        output.writeUTF(listing.listingOwner);
+        output.writeLong(listing.startingPriceCents);
+        output.writeLong(listing.buyItNowPriceCents);
+        output.writeInt(listing.auctionLength);
+        output.writeLong(listing.startingTime.getTime());
+
+        synchronized (listing.bidHistory) {
+            DefaultAuctionListing.ListingState state = listing.state.get();
+            writeNullableString(output, state.currentBid == null ? null : state.currentBid.bidder);
+            output.writeLong(state.currentBid == null ? Money.NO_AMOUNT_CENTS : state.currentBid.bidValueCents);
+            output.writeLong(state.leaderMaximumCents);
+            output.writeBoolean(state.closed);
+            output.writeBoolean(state.boughtUsingBuyItNow);
+            writeNullableString(output, state.winningUser);
+            output.writeLong(state.winningPriceCents);
+
+            List<BidRecord> bids = listing.bidHistory.getBids(0, listing.bidHistory.size());
+            output.writeInt(bids.size());
+            for (BidRecord bid : bids) {
+                output.writeUTF(bid.getBidder());
+                output.writeLong(bid.getBidAmountCents());
+                output.writeLong(bid.getBidTimeMillis());
+            }
+        }
+    }
+
+    /**
+     * Reads a listing written by {@link #writeListing(AuctionListing, DataOutput)}.
+     */
+    AuctionListing readListing(DataInput input) throws IOException {
+        DefaultAuctionListing listing = new DefaultAuctionListing(this.timeService, auctionListingListener,
+                input.readLong(), input.readUTF(), input.readLong(), input.readLong(), input.readInt(),
+                input.readLong());
+
+        String currentBidder = readNullableString(input);
+        long currentBidCents = input.readLong();
+        DefaultAuctionListing.DefaultBid currentBid = currentBidder == null ? null
+                : new DefaultAuctionListing.DefaultBid(currentBidder, currentBidCents);
+        listing.state.set(new DefaultAuctionListing.ListingState(currentBid, input.readLong(), input.readBoolean(),
+                input.readBoolean(), readNullableString(input), input.readLong()));
+
+        int bidCount = input.readInt();
+        for (int i = 0; i < bidCount; i++) {
+            listing.bidHistory.append(input.readUTF(), input.readLong(), input.readLong());
+        }
+        return listing;
+    }
+
+    private static void writeNullableString(DataOutput output, String value) throws IOException {
+        output.writeBoolean(value != null);
+        if (value != null) {
+            output.writeUTF(value);
+        }
+    }
+
+    private static String readNullableString(DataInput input) throws IOException {
+        return input.readBoolean() ? input.readUTF() : null;
+    }
+
+    /**
+     * @return the time an auction started at startingTimeMillis and lasting auctionLength days ends
+     */
+    static long endingTimeMillis(long startingTimeMillis, int auctionLength) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(startingTimeMillis);
+        calendar.add(Calendar.DAY_OF_WEEK, auctionLength);
+        return calendar.getTimeInMillis();
     }
 
     /**
      * Concrete implementation of a single auction instance.
+     * <p/>
+     * All mutable listing data lives in a single immutable {@link ListingState}
+     * published through an {@link AtomicReference}. Writers build a new state and
+     * install it with compare-and-set, readers simply take the current snapshot
+     * without blocking.
+     * <p/>
+     * Prices are held as long cents, BigDecimal values are only created by the
+     * BigDecimal flavoured accessors.
+     * <p/>
+     * Bids that move the listing are also appended to a {@link BidHistory}. They are
+     * installed while holding the history lock so the history stays in bid order; bids
+     * that cannot move the listing are still rejected without taking any lock.
      */
     public static class DefaultAuctionListing implements AuctionListing {
         private final TimeService timeService;
+        private final AuctionListingListener auctionListingListener;
         private final String listingOwner;
-        private final BigDecimal startingPrice;
-        private final BigDecimal buyItNowPrice;
+        private final long startingPriceCents;
+        private final long buyItNowPriceCents;
         private final int auctionLength;
-        private final String listingId = "listing" + UUID.randomUUID().toString();
+        private final long listingKey;
         private final Date startingTime;
         private final Date endingTime;
-        private Bid currentBid = null;
-        private boolean boughtUsingBuyItNow = false;
-        private boolean listingClosed = false;
-        private String winningUser;
-        private BigDecimal winningPrice;
-
-        private DefaultAuctionListing(TimeService timeService, String listingOwner,
-                                      BigDecimal startingPrice, BigDecimal buyItNowPrice, int auctionLength) {
+        private final long endingTimeMillis;
+        private final AtomicReference<ListingState> state = new AtomicReference<ListingState>(ListingState.OPEN);
+        private final BidHistory bidHistory = new BidHistory();
+
+        private DefaultAuctionListing(TimeService timeService, AuctionListingListener auctionListingListener,
+                                      long listingKey, String listingOwner, long startingPriceCents,
+                                      long buyItNowPriceCents, int auctionLength) {
+            this(timeService, auctionListingListener, listingKey, listingOwner, startingPriceCents,
+                    buyItNowPriceCents, auctionLength, timeService.currentTimeMillis());
+        }
+
+        private DefaultAuctionListing(TimeService timeService, AuctionListingListener auctionListingListener,
+                                      long listingKey, String listingOwner, long startingPriceCents,
+                                      long buyItNowPriceCents, int auctionLength, long startingTimeMillis) {
             super();
             this.timeService = timeService;
+            this.auctionListingListener = auctionListingListener;
+            this.listingKey = listingKey;
             this.listingOwner = listingOwner;
-            this.startingPrice = startingPrice;
-            this.buyItNowPrice = buyItNowPrice;
+            this.startingPriceCents = startingPriceCents;
+            this.buyItNowPriceCents = buyItNowPriceCents;
             this.auctionLength = auctionLength;
-            this.startingTime = timeService.getTime();
+            this.startingTime = new Date(startingTimeMillis);
+            this.endingTimeMillis = endingTimeMillis(this.startingTime.getTime(), auctionLength);
+            this.endingTime = new Date(this.endingTimeMillis);
+        }
 
-            Calendar calendar = Calendar.getInstance();
-            calendar.setTime(this.startingTime);
-            calendar.add(Calendar.DAY_OF_WEEK, this.auctionLength);
-            this.endingTime = calendar.getTime();
+        public long bid(String user, BigDecimal bidAmount) {
+            return bid(user, Money.toCents(bidAmount));
         }
 
-        public synchronized void bid(String user, BigDecimal bidAmount) {
-            if (isAuctionClosed()) return;
+        public long bid(String user, long bidAmountCents) {
+            return applyBid(user, bidAmountCents, false);
+        }
 
-            if (currentBid == null) {
-                if (startingPrice.compareTo(bidAmount) <= 0) {
-                    this.currentBid = new DefaultBid(user, bidAmount);
-                }
-            } else {
-                if (currentBid.getBidValue().compareTo(bidAmount) < 0) {
-                    this.currentBid = new DefaultBid(user, bidAmount);
+        public long proxyBid(String user, BigDecimal maximumBidAmount) {
+            return proxyBid(user, Money.toCents(maximumBidAmount));
+        }
+
+        public long proxyBid(String user, long maximumBidAmountCents) {
+            return applyBid(user, maximumBidAmountCents, true);
+        }
+
+        public long bid(String[] bidders, long[] bidAmountsCents, int bidCount, OperationStatus[] outcomes) {
+            boolean[] changesListing = new boolean[bidCount];
+            synchronized (bidHistory) {
+                long nowMillis = timeService.currentTimeMillis();
+                while (true) {
+                    ListingState current = state.get();
+                    if (current.closed) {
+                        Arrays.fill(outcomes, 0, bidCount, OperationStatus.CLOSED);
+                        return UNCHANGED;
+                    }
+
+                    //Replay the batch against the snapshot, then install the outcome in one step.
+                    ListingState next = current;
+                    for (int i = 0; i < bidCount; i++) {
+                        ListingState afterBid = next.withBid(bidders[i], bidAmountsCents[i], startingPriceCents);
+                        changesListing[i] = afterBid != next;
+                        outcomes[i] = changesListing[i] && afterBid.currentBid.bidder.equals(bidders[i])
+                                ? OperationStatus.ACCEPTED : OperationStatus.OUTBID;
+                        next = afterBid;
+                    }
+                    //A listing past its ending time turns every bid down as closed, even
+                    //bids that would not have moved it.
+                    if (closeIfEnded(nowMillis)) {
+                        Arrays.fill(outcomes, 0, bidCount, OperationStatus.CLOSED);
+                        return UNCHANGED;
+                    }
+                    if (next == current) return UNCHANGED;
+
+                    if (state.compareAndSet(current, next)) {
+                        for (int i = 0; i < bidCount; i++) {
+                            if (changesListing[i]) {
+                                bidHistory.append(bidders[i], bidAmountsCents[i], nowMillis);
+                            }
+                        }
+                        return nowMillis;
+                    }
                 }
             }
         }
 
-        public synchronized void buyItNow(String user) {
-            if (isAuctionClosed()) return;
-
-            this.listingClosed = true;
-            this.boughtUsingBuyItNow = true;
-            this.winningPrice = this.buyItNowPrice;
-            this.winningUser = user;
+        public long buyItNow(String user) {
+            //Listings without a buy it now price can only be won by bidding.
+            if (buyItNowPriceCents == Money.NO_AMOUNT_CENTS) return UNCHANGED;
+            long nowMillis = timeService.currentTimeMillis();
+            while (true) {
+                ListingState current = state.get();
+                if (current.closed) return UNCHANGED;
+                if (closeIfEnded(nowMillis)) return UNCHANGED;
+
+                if (state.compareAndSet(current, current.boughtUsingBuyItNow(user, this.buyItNowPriceCents))) {
+                    auctionListingListener.listingClosed(this);
+                    return nowMillis;
+                }
+            }
         }
 
-        public synchronized boolean isAuctionClosed() {
-            if (listingClosed) return true;
+        public boolean isAuctionClosed() {
+            return closeIfNeeded().closed;
+        }
 
-            if (isPastNaturalClosingTime()) {
-                this.listingClosed = true;
+        public boolean closeIfEnded(long nowMillis) {
+            while (true) {
+                ListingState current = state.get();
+                if (current.closed) return true;
+                if (nowMillis <= endingTimeMillis) return false;
 
-                if (getCurrentBid() != null) {
-                    this.winningPrice = this.getCurrentBid().getBidValue();
-                    this.winningUser = this.getCurrentBid().getBidder();
+                if (state.compareAndSet(current, current.closedNaturally())) {
+                    auctionListingListener.listingClosed(this);
+                    return true;
                 }
-                return true;
             }
-            return false;
         }
 
-        public synchronized boolean isBoughtUsingBuyItNow() {
-            return this.boughtUsingBuyItNow;
+        public boolean isBoughtUsingBuyItNow() {
+            return state.get().boughtUsingBuyItNow;
         }
 
         public Date getStartingTime() {
@@ -112,14 +372,16 @@ public class DefaultAuctionListingFactory implements AuctionListingFactory {
 
         public String getWinningUser() {
             //Close auction if needed.
-            isAuctionClosed();
-            return this.winningUser;
+            return closeIfNeeded().winningUser;
         }
 
         public BigDecimal getWinningPrice() {
+            return Money.toBigDecimalOrNull(getWinningPriceCents());
+        }
+
+        public long getWinningPriceCents() {
             //Close auction if needed.
-            isAuctionClosed();
-            return this.winningPrice;
+            return closeIfNeeded().winningPriceCents;
         }
 
         public String getListingOwner() {
@@ -127,19 +389,39 @@ public class DefaultAuctionListingFactory implements AuctionListingFactory {
         }
 
         public String getListingId() {
-            return this.listingId;
+            return ListingIds.toString(this.listingKey);
+        }
+
+        public long getListingKey() {
+            return this.listingKey;
         }
 
         public Bid getCurrentBid() {
-            return currentBid;
+            return state.get().currentBid;
+        }
+
+        public List<BidRecord> getBidHistory(int offset, int limit) {
+            return bidHistory.getBids(offset, limit);
+        }
+
+        public int getBidCount() {
+            return bidHistory.size();
         }
 
         public BigDecimal getStartingPrice() {
-            return startingPrice;
+            return Money.toBigDecimal(startingPriceCents);
+        }
+
+        public long getStartingPriceCents() {
+            return startingPriceCents;
         }
 
         public BigDecimal getBuyItNowPrice() {
-            return buyItNowPrice;
+            return Money.toBigDecimalOrNull(buyItNowPriceCents);
+        }
+
+        public long getBuyItNowPriceCents() {
+            return buyItNowPriceCents;
         }
 
         public int getAuctionLength() {
@@ -151,19 +433,164 @@ public class DefaultAuctionListingFactory implements AuctionListingFactory {
             return Objects.toStringHelper(this).toString();
         }
 
+        private long applyBid(String user, long amountCents, boolean proxy) {
+            //Bids that cannot change the listing are rejected against the snapshot
+            //without touching the clock or the history.
+            ListingState current = state.get();
+            if (current.closed || current.withBid(user, amountCents, proxy, startingPriceCents) == current) {
+                return UNCHANGED;
+            }
+
+            synchronized (bidHistory) {
+                //One clock read decides the bid and dates it in the history.
+                long nowMillis = timeService.currentTimeMillis();
+                while (true) {
+                    current = state.get();
+                    if (current.closed) return UNCHANGED;
+                    ListingState next = current.withBid(user, amountCents, proxy, startingPriceCents);
+                    if (next == current) return UNCHANGED;
+                    if (closeIfEnded(nowMillis)) return UNCHANGED;
+
+                    if (state.compareAndSet(current, next)) {
+                        //The history is visible to every bidder, so a leading proxy bid is
+                        //recorded at the price it set rather than at its maximum.
+                        long recordedCents = proxy && next.currentBid.bidder.equals(user)
+                                ? next.currentBid.bidValueCents : amountCents;
+                        bidHistory.append(user, recordedCents, nowMillis);
+                        return nowMillis;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns a state snapshot, closing the listing first if its natural
+         * closing time has passed. Closed listings are answered without a clock lookup.
+         */
+        private ListingState closeIfNeeded() {
+            while (true) {
+                ListingState current = state.get();
+                if (current.closed || !isPastNaturalClosingTime()) return current;
+
+                ListingState closedState = current.closedNaturally();
+                if (state.compareAndSet(current, closedState)) {
+                    auctionListingListener.listingClosed(this);
+                    return closedState;
+                }
+            }
+        }
+
         private boolean isPastNaturalClosingTime() {
-            Date currentTime = this.timeService.getTime();
-            return currentTime.after(this.endingTime);
+            return this.timeService.currentTimeMillis() > this.endingTimeMillis;
+        }
+
+        /**
+         * Immutable snapshot of everything about a listing that can change.
+         * <p/>
+         * Besides the visible current bid the state tracks the maximum the leading
+         * bidder is willing to pay. For plain bids the maximum is the bid itself,
+         * for proxy bids it is the registered maximum, and the visible price is the
+         * second highest maximum plus {@link #BID_INCREMENT_CENTS}, capped at the
+         * leader's maximum.
+         */
+        private static final class ListingState {
+            private static final ListingState OPEN = new ListingState(null, Money.NO_AMOUNT_CENTS, false, false,
+                    null, Money.NO_AMOUNT_CENTS);
+
+            private final DefaultBid currentBid;
+            private final long leaderMaximumCents;
+            private final boolean closed;
+            private final boolean boughtUsingBuyItNow;
+            private final String winningUser;
+            private final long winningPriceCents;
+
+            private ListingState(DefaultBid currentBid, long leaderMaximumCents, boolean closed,
+                                 boolean boughtUsingBuyItNow, String winningUser, long winningPriceCents) {
+                this.currentBid = currentBid;
+                this.leaderMaximumCents = leaderMaximumCents;
+                this.closed = closed;
+                this.boughtUsingBuyItNow = boughtUsingBuyItNow;
+                this.winningUser = winningUser;
+                this.winningPriceCents = winningPriceCents;
+            }
+
+            private static ListingState open(DefaultBid currentBid, long leaderMaximumCents) {
+                return new ListingState(currentBid, leaderMaximumCents, false, false, null, Money.NO_AMOUNT_CENTS);
+            }
+
+            private ListingState withBid(String user, long amountCents, boolean proxy, long startingPriceCents) {
+                return proxy ? withProxyBid(user, amountCents, startingPriceCents)
+                        : withBid(user, amountCents, startingPriceCents);
+            }
+
+            /**
+             * Applies a plain bid, which pays exactly its amount when it takes the lead.
+             *
+             * @return the new state, or this state if the bid does not change the listing
+             */
+            private ListingState withBid(String user, long bidAmountCents, long startingPriceCents) {
+                if (currentBid == null) {
+                    if (bidAmountCents < startingPriceCents) return this;
+                    return open(new DefaultBid(user, bidAmountCents), bidAmountCents);
+                }
+                if (bidAmountCents <= currentBid.bidValueCents) return this;
+
+                if (currentBid.bidder.equals(user)) {
+                    return open(new DefaultBid(user, bidAmountCents), Math.max(bidAmountCents, leaderMaximumCents));
+                }
+                if (bidAmountCents <= leaderMaximumCents) {
+                    //The leader's maximum covers the bid, the leader stays ahead at a higher price.
+                    long price = Math.min(leaderMaximumCents, bidAmountCents + BID_INCREMENT_CENTS);
+                    return open(new DefaultBid(currentBid.bidder, price), leaderMaximumCents);
+                }
+                return open(new DefaultBid(user, bidAmountCents), bidAmountCents);
+            }
+
+            /**
+             * Applies a proxy bid, registering the most the user is willing to pay.
+             *
+             * @return the new state, or this state if the bid does not change the listing
+             */
+            private ListingState withProxyBid(String user, long maximumCents, long startingPriceCents) {
+                if (currentBid == null) {
+                    if (maximumCents < startingPriceCents) return this;
+                    return open(new DefaultBid(user, startingPriceCents), maximumCents);
+                }
+                if (currentBid.bidder.equals(user)) {
+                    if (maximumCents <= leaderMaximumCents) return this;
+                    return open(currentBid, maximumCents);
+                }
+                if (maximumCents <= currentBid.bidValueCents) return this;
+
+                if (maximumCents <= leaderMaximumCents) {
+                    long price = Math.min(leaderMaximumCents, maximumCents + BID_INCREMENT_CENTS);
+                    return open(new DefaultBid(currentBid.bidder, price), leaderMaximumCents);
+                }
+                long price = Math.min(maximumCents, leaderMaximumCents + BID_INCREMENT_CENTS);
+                return open(new DefaultBid(user, price), maximumCents);
+            }
+
+            private ListingState boughtUsingBuyItNow(String user, long buyItNowPriceCents) {
+                return new ListingState(currentBid, leaderMaximumCents, true, true, user, buyItNowPriceCents);
+            }
+
+            private ListingState closedNaturally() {
+                if (currentBid == null) {
+                    return new ListingState(null, Money.NO_AMOUNT_CENTS, true, false, null, Money.NO_AMOUNT_CENTS);
+                }
+                return new ListingState(currentBid, leaderMaximumCents, true, false,
+                        currentBid.bidder, currentBid.bidValueCents);
+            }
         }
 
         private static class DefaultBid implements Bid {
             private final String bidder;
-            private final BigDecimal bidValue;
+            private final long bidValueCents;
 
-            private DefaultBid(String bidder, BigDecimal bidValue) {
+            private DefaultBid(String bidder, long bidValueCents) {
                 super();
                 this.bidder = bidder;
-                this.bidValue = bidValue;
+                this.bidValueCents = bidValueCents;
             }
 
             public String getBidder() {
@@ -171,7 +598,11 @@ public class DefaultAuctionListingFactory implements AuctionListingFactory {
             }
 
             public BigDecimal getBidValue() {
-                return this.bidValue;
+                return Money.toBigDecimal(this.bidValueCents);
+            }
+
+            public long getBidValueCents() {
+                return this.bidValueCents;
             }
         }
     }
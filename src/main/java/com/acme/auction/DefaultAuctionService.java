@@ -2,19 +2,25 @@ package com.acme.auction;
 
 import com.acme.auctionclient.AuctionService;
 import com.acme.auctionclient.AuctionServiceException;
-import com.acme.auctionclient.FeeType;
+import com.acme.auctionclient.BatchBid;
+import com.acme.auctionclient.BidRecord;
+import com.acme.auctionclient.InvoiceCursor;
 import com.acme.auctionclient.InvoiceLine;
-import com.google.common.collect.BiMap;
-import com.google.common.collect.ImmutableBiMap;
+import com.acme.auctionclient.Money;
+import com.acme.auctionclient.OperationOutcome;
+import com.acme.auctionclient.OperationStatus;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMap;
 import com.google.inject.Inject;
 
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Toy example implementation of an auction service.
@@ -22,57 +28,194 @@ import java.util.concurrent.ConcurrentHashMap;
 public class DefaultAuctionService implements AuctionService {
     public static final String AUCTION_LISTING_FEE_AMOUNT = "5.00";
     public static final String BUY_IT_NOW_LISTING_FEE_AMOUNT = "2.25";
+    public static final long AUCTION_LISTING_FEE_CENTS = Money.parseCents(AUCTION_LISTING_FEE_AMOUNT);
+    public static final long BUY_IT_NOW_LISTING_FEE_CENTS = Money.parseCents(BUY_IT_NOW_LISTING_FEE_AMOUNT);
+    /**
+     * Number of closed listings whose invoices are kept built.
+     */
+    public static final int DEFAULT_MAX_MEMOIZED_INVOICES = 1 << 20;
+    private static final int LOG_ORDER_LOCK_STRIPES = 1024;
     private final AuctionListingFactory auctionListingFactory;
-    private final Map<String, String> userPassMap;
-    private final BiMap<String, String> userToAuthTokenBiMap;
-    private final Map<String, AuctionListing> listingIdToListingMap = new ConcurrentHashMap<String, AuctionListing>();
+    private final AuthenticationService authenticationService;
+    private final AuctionCloseScheduler auctionCloseScheduler;
+    private final ListingRegistry listingRegistry;
+    private final MutationLog mutationLog;
+    private final ListingRepository listingRepository;
+    private final boolean singleWriter;
+    private final boolean keepsLogOrder;
+    private final Object[] logOrderLocks = new Object[LOG_ORDER_LOCK_STRIPES];
+    private final ReadWriteLock listingCreationLock = new ReentrantReadWriteLock();
+    private final ConcurrentLongObjectMap<ClosedListingInvoices> closedInvoices =
+            new ConcurrentLongObjectMap<ClosedListingInvoices>();
+    private final UserListingIndex ownerIndex = new UserListingIndex();
+    private final UserListingIndex bidderIndex = new UserListingIndex();
 
-    @Inject
     public DefaultAuctionService(AuctionListingFactory auctionListingFactory) {
-        super();
-        this.auctionListingFactory = auctionListingFactory;
+        this(auctionListingFactory, new DefaultAuthenticationService());
+    }
 
+    public DefaultAuctionService(AuctionListingFactory auctionListingFactory,
+                                 AuthenticationService authenticationService) {
+        this(auctionListingFactory, authenticationService, new LazyAuctionCloseScheduler());
+    }
+
+    public DefaultAuctionService(AuctionListingFactory auctionListingFactory,
+                                 AuthenticationService authenticationService,
+                                 AuctionCloseScheduler auctionCloseScheduler) {
+        this(auctionListingFactory, authenticationService, auctionCloseScheduler, new ListingRegistry());
+    }
 
-        userPassMap = ImmutableMap.of(
-                "default.seller@acme.com", "letsSell",
-                "fred.seller@acme.com", "sellingIsFun",
-                "sally.buyer@acme.com", "gotToBuy",
-                "george.buyer@acme.com", "sallyIsAnnoying");
+    /**
+     * @param listingRegistry registry holding the listings, possibly archiving closed ones
+     */
+    public DefaultAuctionService(AuctionListingFactory auctionListingFactory,
+                                 AuthenticationService authenticationService,
+                                 AuctionCloseScheduler auctionCloseScheduler,
+                                 ListingRegistry listingRegistry) {
+        this(auctionListingFactory, authenticationService, auctionCloseScheduler, listingRegistry,
+                new NullMutationLog());
+    }
+
+    /**
+     * @param mutationLog log recording every change before it is acknowledged to the caller
+     */
+    public DefaultAuctionService(AuctionListingFactory auctionListingFactory,
+                                 AuthenticationService authenticationService,
+                                 AuctionCloseScheduler auctionCloseScheduler,
+                                 ListingRegistry listingRegistry,
+                                 MutationLog mutationLog) {
+        this(auctionListingFactory, authenticationService, auctionCloseScheduler, listingRegistry, mutationLog,
+                new NullListingRepository());
+    }
+
+    /**
+     * @param listingRepository store of the listings, with the registry caching the live ones in front of it
+     */
+    @Inject
+    public DefaultAuctionService(AuctionListingFactory auctionListingFactory,
+                                 AuthenticationService authenticationService,
+                                 AuctionCloseScheduler auctionCloseScheduler,
+                                 ListingRegistry listingRegistry,
+                                 MutationLog mutationLog,
+                                 ListingRepository listingRepository) {
+        this(auctionListingFactory, authenticationService, auctionCloseScheduler, listingRegistry, mutationLog,
+                listingRepository, false);
+    }
 
-        ImmutableBiMap.Builder<String, String> userToAuthTokenMapBuilder = ImmutableBiMap.builder();
-        for (String key : userPassMap.keySet()) {
-            userToAuthTokenMapBuilder.put(key, UUID.randomUUID().toString());
+    /**
+     * @param singleWriter true if all changes are made from a single thread, which
+     *                     needs neither the log order nor the listing creation lock;
+     *                     snapshots cannot be taken of such a service
+     */
+    DefaultAuctionService(AuctionListingFactory auctionListingFactory,
+                          AuthenticationService authenticationService,
+                          AuctionCloseScheduler auctionCloseScheduler,
+                          ListingRegistry listingRegistry,
+                          MutationLog mutationLog,
+                          ListingRepository listingRepository,
+                          boolean singleWriter) {
+        super();
+        this.auctionListingFactory = auctionListingFactory;
+        this.authenticationService = authenticationService;
+        this.auctionCloseScheduler = auctionCloseScheduler;
+        this.listingRegistry = listingRegistry;
+        this.mutationLog = mutationLog;
+        this.listingRepository = listingRepository;
+        this.singleWriter = singleWriter;
+        this.keepsLogOrder = mutationLog.isRecording() && !singleWriter;
+        for (int i = 0; i < LOG_ORDER_LOCK_STRIPES; i++) {
+            logOrderLocks[i] = new Object();
         }
-        userToAuthTokenBiMap = userToAuthTokenMapBuilder.build();
     }
 
     public String login(String username, String password) throws AuctionServiceException {
-        if (username == null) {
-            throw new AuctionServiceException("null username");
-        }
-        if (password == null) {
-            throw new AuctionServiceException("null password");
-        }
-        String expectedPassword = this.userPassMap.get(username);
-        if (expectedPassword == null || !password.equals(expectedPassword)) {
-            throw new AuctionServiceException("Invalid user/pass combination");
-        }
+        return authenticationService.login(username, password);
+    }
 
-        return userToAuthTokenBiMap.get(username);
+    public boolean logout(String authToken) {
+        return authenticationService.logout(authToken);
     }
 
     public String createListing(String authToken, BigDecimal startingPrice, BigDecimal buyItNowPrice, int auctionLength) throws AuctionServiceException {
         String listingOwner = validateTokenAndAcquireUser(authToken);
+        ensureWholeCents(startingPrice);
+        if (buyItNowPrice != null) {
+            ensureWholeCents(buyItNowPrice);
+        }
         AuctionListing auctionListing = auctionListingFactory.createAuctionListing(listingOwner, startingPrice, buyItNowPrice, auctionLength);
-        listingIdToListingMap.put(auctionListing.getListingId(), auctionListing);
-        return auctionListing.getListingId();
+        return addListing(auctionListing);
+    }
+
+    public String createListing(String authToken, long startingPriceCents, long buyItNowPriceCents, int auctionLength) throws AuctionServiceException {
+        String listingOwner = validateTokenAndAcquireUser(authToken);
+        AuctionListing auctionListing = auctionListingFactory.createAuctionListing(listingOwner, startingPriceCents, buyItNowPriceCents, auctionLength);
+        return addListing(auctionListing);
     }
 
     public void bid(String authToken, String listingId, BigDecimal bidAmount) throws AuctionServiceException {
         String biddingUser = validateTokenAndAcquireUser(authToken);
+        long bidAmountCents = ensureWholeCents(bidAmount);
         AuctionListing auctionListing = findAuctionListing(listingId);
         ensureOwnerNotBidding(biddingUser, auctionListing);
-        auctionListing.bid(biddingUser, bidAmount);
+        placeBid(biddingUser, auctionListing, bidAmount, bidAmountCents, false);
+    }
+
+    public void bid(String authToken, String listingId, long bidAmountCents) throws AuctionServiceException {
+        String biddingUser = validateTokenAndAcquireUser(authToken);
+        AuctionListing auctionListing = findAuctionListing(listingId);
+        ensureOwnerNotBidding(biddingUser, auctionListing);
+        placeBid(biddingUser, auctionListing, null, bidAmountCents, false);
+    }
+
+    public void proxyBid(String authToken, String listingId, BigDecimal maximumBidAmount) throws AuctionServiceException {
+        String biddingUser = validateTokenAndAcquireUser(authToken);
+        long maximumBidAmountCents = ensureWholeCents(maximumBidAmount);
+        AuctionListing auctionListing = findAuctionListing(listingId);
+        ensureOwnerNotBidding(biddingUser, auctionListing);
+        placeBid(biddingUser, auctionListing, maximumBidAmount, maximumBidAmountCents, true);
+    }
+
+    public void proxyBid(String authToken, String listingId, long maximumBidAmountCents) throws AuctionServiceException {
+        String biddingUser = validateTokenAndAcquireUser(authToken);
+        AuctionListing auctionListing = findAuctionListing(listingId);
+        ensureOwnerNotBidding(biddingUser, auctionListing);
+        placeBid(biddingUser, auctionListing, null, maximumBidAmountCents, true);
+    }
+
+    public OperationStatus[] bidBatch(List<BatchBid> bids) {
+        OperationStatus[] outcomes = new OperationStatus[bids.size()];
+        Map<String, String> tokenToUserMap = new HashMap<String, String>();
+        Map<String, ListingBatch> listingIdToBatchMap = new LinkedHashMap<String, ListingBatch>();
+
+        for (int i = 0; i < outcomes.length; i++) {
+            BatchBid bid = bids.get(i);
+            String biddingUser = validateBatchToken(tokenToUserMap, bid.getAuthToken());
+            if (biddingUser == null) {
+                outcomes[i] = OperationStatus.BAD_TOKEN;
+                continue;
+            }
+
+            ListingBatch listingBatch = listingIdToBatchMap.get(bid.getListingId());
+            if (listingBatch == null) {
+                AuctionListing auctionListing = findAuctionListingOrNull(bid.getListingId());
+                listingBatch = new ListingBatch(auctionListing);
+                listingIdToBatchMap.put(bid.getListingId(), listingBatch);
+            }
+            if (listingBatch.auctionListing == null) {
+                outcomes[i] = OperationStatus.UNKNOWN_LISTING;
+            } else if (biddingUser.equals(listingBatch.auctionListing.getListingOwner())) {
+                outcomes[i] = OperationStatus.SELF_BID;
+            } else {
+                listingBatch.add(i, biddingUser, bid.getBidAmountCents());
+            }
+        }
+
+        long logPosition = 0;
+        for (ListingBatch listingBatch : listingIdToBatchMap.values()) {
+            logPosition = Math.max(logPosition, listingBatch.apply(outcomes));
+        }
+        mutationLog.awaitDurable(logPosition);
+        return outcomes;
     }
 
     public void buyItNow(String authToken, String listingId) throws AuctionServiceException {
@@ -80,7 +223,171 @@ public class DefaultAuctionService implements AuctionService {
         String biddingUser = validateTokenAndAcquireUser(authToken);
         AuctionListing auctionListing = findAuctionListing(listingId);
         ensureOwnerNotBidding(biddingUser, auctionListing);
-        auctionListing.buyItNow(biddingUser);
+        if (auctionListing.getBuyItNowPriceCents() == Money.NO_AMOUNT_CENTS) {
+            throw Rejections.NO_BUY_IT_NOW_PRICE;
+        }
+        applyBuyItNow(biddingUser, auctionListing);
+    }
+
+    public OperationOutcome tryCreateListing(String authToken, long startingPriceCents, long buyItNowPriceCents,
+                                             int auctionLength) {
+        String listingOwner = validateTokenOrNull(authToken);
+        if (listingOwner == null) {
+            return OperationOutcome.of(OperationStatus.BAD_TOKEN, Money.NO_AMOUNT_CENTS);
+        }
+        AuctionListing auctionListing = auctionListingFactory.createAuctionListing(listingOwner, startingPriceCents, buyItNowPriceCents, auctionLength);
+        return OperationOutcome.created(addListing(auctionListing));
+    }
+
+    public OperationOutcome tryBid(String authToken, String listingId, long bidAmountCents) {
+        String biddingUser = validateTokenOrNull(authToken);
+        if (biddingUser == null) {
+            return OperationOutcome.of(OperationStatus.BAD_TOKEN, Money.NO_AMOUNT_CENTS);
+        }
+        AuctionListing auctionListing = findAuctionListingOrNull(listingId);
+        if (auctionListing == null) {
+            return OperationOutcome.of(OperationStatus.UNKNOWN_LISTING, Money.NO_AMOUNT_CENTS);
+        }
+        if (biddingUser.equals(auctionListing.getListingOwner())) {
+            return OperationOutcome.of(OperationStatus.SELF_BID, currentPriceCents(auctionListing));
+        }
+
+        //A single bid batch is the listing operation that reports whether the bid took the lead.
+        ListingBatch listingBatch = new ListingBatch(auctionListing);
+        listingBatch.add(0, biddingUser, bidAmountCents);
+        OperationStatus[] outcomes = new OperationStatus[1];
+        mutationLog.awaitDurable(listingBatch.apply(outcomes));
+        return OperationOutcome.of(outcomes[0], listingBatch.priceCents);
+    }
+
+    public OperationOutcome tryBuyItNow(String authToken, String listingId) {
+        String biddingUser = validateTokenOrNull(authToken);
+        if (biddingUser == null) {
+            return OperationOutcome.of(OperationStatus.BAD_TOKEN, Money.NO_AMOUNT_CENTS);
+        }
+        AuctionListing auctionListing = findAuctionListingOrNull(listingId);
+        if (auctionListing == null) {
+            return OperationOutcome.of(OperationStatus.UNKNOWN_LISTING, Money.NO_AMOUNT_CENTS);
+        }
+        if (biddingUser.equals(auctionListing.getListingOwner())) {
+            return OperationOutcome.of(OperationStatus.SELF_BID, currentPriceCents(auctionListing));
+        }
+        if (auctionListing.getBuyItNowPriceCents() == Money.NO_AMOUNT_CENTS) {
+            return OperationOutcome.of(OperationStatus.NO_BUY_IT_NOW, currentPriceCents(auctionListing));
+        }
+
+        boolean bought = applyBuyItNow(biddingUser, auctionListing);
+        return OperationOutcome.of(bought ? OperationStatus.ACCEPTED : OperationStatus.CLOSED,
+                currentPriceCents(auctionListing));
+    }
+
+    /**
+     * Applies a plain or proxy bid and logs it if it changed the listing. A bid that
+     * cannot change the listing is turned down against its current bid, without
+     * taking the log order lock. An amount given as a decimal is passed on as such.
+     */
+    private void placeBid(String biddingUser, AuctionListing auctionListing, BigDecimal amount, long amountCents,
+                          boolean proxy) {
+        if (cannotChange(auctionListing, amountCents)) return;
+
+        long logPosition = 0;
+        long decidedAtMillis;
+        if (keepsLogOrder) {
+            synchronized (logOrderLockFor(auctionListing)) {
+                decidedAtMillis = applyBid(biddingUser, auctionListing, amount, amountCents, proxy);
+                logPosition = logBid(biddingUser, auctionListing, amountCents, proxy, decidedAtMillis);
+            }
+        } else {
+            decidedAtMillis = applyBid(biddingUser, auctionListing, amount, amountCents, proxy);
+            logPosition = logBid(biddingUser, auctionListing, amountCents, proxy, decidedAtMillis);
+        }
+        listingRepository.listingChanged(auctionListing);
+        if (decidedAtMillis != AuctionListing.UNCHANGED) {
+            bidderIndex.add(biddingUser, auctionListing.getListingKey());
+        }
+        mutationLog.awaitDurable(logPosition);
+    }
+
+    private static long applyBid(String biddingUser, AuctionListing auctionListing, BigDecimal amount, long amountCents,
+                                 boolean proxy) {
+        if (amount != null) {
+            return proxy ? auctionListing.proxyBid(biddingUser, amount) : auctionListing.bid(biddingUser, amount);
+        }
+        return proxy ? auctionListing.proxyBid(biddingUser, amountCents) : auctionListing.bid(biddingUser, amountCents);
+    }
+
+    /**
+     * @return log position of the bid, 0 if the listing did not change
+     */
+    private long logBid(String biddingUser, AuctionListing auctionListing, long amountCents, boolean proxy,
+                        long decidedAtMillis) {
+        if (decidedAtMillis == AuctionListing.UNCHANGED) return 0;
+        return proxy
+                ? mutationLog.logProxyBid(auctionListing.getListingKey(), biddingUser, amountCents, decidedAtMillis)
+                : mutationLog.logBid(auctionListing.getListingKey(), biddingUser, amountCents, decidedAtMillis);
+    }
+
+    /**
+     * Buys a listing using buy it now and logs the purchase.
+     *
+     * @return false if the listing was already closed
+     */
+    private boolean applyBuyItNow(String biddingUser, AuctionListing auctionListing) {
+        long logPosition = 0;
+        long decidedAtMillis;
+        if (keepsLogOrder) {
+            synchronized (logOrderLockFor(auctionListing)) {
+                decidedAtMillis = auctionListing.buyItNow(biddingUser);
+                logPosition = logBuyItNow(biddingUser, auctionListing, decidedAtMillis);
+            }
+        } else {
+            decidedAtMillis = auctionListing.buyItNow(biddingUser);
+            logPosition = logBuyItNow(biddingUser, auctionListing, decidedAtMillis);
+        }
+        listingRepository.listingChanged(auctionListing);
+        if (decidedAtMillis != AuctionListing.UNCHANGED) {
+            bidderIndex.add(biddingUser, auctionListing.getListingKey());
+            listingRegistry.listingClosed(auctionListing);
+        }
+        mutationLog.awaitDurable(logPosition);
+        return decidedAtMillis != AuctionListing.UNCHANGED;
+    }
+
+    private long logBuyItNow(String biddingUser, AuctionListing auctionListing, long decidedAtMillis) {
+        if (decidedAtMillis == AuctionListing.UNCHANGED) return 0;
+        return mutationLog.logBuyItNow(auctionListing.getListingKey(), biddingUser, decidedAtMillis);
+    }
+
+    /**
+     * A bid at or below the current price, or below the starting price of a listing
+     * without bids, cannot change the listing whatever else happens to it, as prices
+     * only go up.
+     */
+    private static boolean cannotChange(AuctionListing auctionListing, long amountCents) {
+        AuctionListing.Bid currentBid = auctionListing.getCurrentBid();
+        return currentBid == null ? amountCents < auctionListing.getStartingPriceCents()
+                : amountCents <= currentBid.getBidValueCents();
+    }
+
+    /**
+     * Checks an amount passed to the service has no fractions of a cent.
+     *
+     * @return the amount in cents
+     */
+    static long ensureWholeCents(BigDecimal amount) throws AuctionServiceException {
+        try {
+            return Money.toCents(amount);
+        } catch (ArithmeticException e) {
+            throw new AuctionServiceException("Amount must be in whole cents: " + amount.toPlainString());
+        }
+    }
+
+    private static long currentPriceCents(AuctionListing auctionListing) {
+        if (auctionListing.isBoughtUsingBuyItNow()) {
+            return auctionListing.getWinningPriceCents();
+        }
+        AuctionListing.Bid currentBid = auctionListing.getCurrentBid();
+        return currentBid == null ? Money.NO_AMOUNT_CENTS : currentBid.getBidValueCents();
     }
 
     private AuctionListing findAuctionListing(String authToken, String listingId) throws AuctionServiceException {
@@ -94,24 +401,94 @@ public class DefaultAuctionService implements AuctionService {
     //TODO: Not well tested. See comments in related test for more detail.
     public List<InvoiceLine> fetchInvoices(String authToken, String listingId) throws AuctionServiceException {
         String requestingUser = validateTokenAndAcquireUser(authToken);
+        long listingKey = ListingIds.parse(listingId);
+        if (listingKey == ListingIds.NO_KEY) {
+            throw Rejections.INVALID_LISTING_ID;
+        }
+        ClosedListingInvoices closedListingInvoices = closedInvoices.get(listingKey);
+        if (closedListingInvoices != null) {
+            return closedListingInvoices.invoicesFor(requestingUser);
+        }
+
         AuctionListing auctionListing = findAuctionListing(listingId);
+        return invoicesFor(requestingUser, auctionListing);
+    }
+
+    public InvoiceCursor fetchUserInvoices(String authToken) throws AuctionServiceException {
+        return fetchUserInvoices(authToken, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    public InvoiceCursor fetchUserInvoices(String authToken, long fromMillis, long toMillis)
+            throws AuctionServiceException {
+        return userInvoices(validateTokenAndAcquireUser(authToken), fromMillis, toMillis);
+    }
+
+    /**
+     * Opens a cursor over the invoices of the listings the user owns or has bid on.
+     * The bidder index holds every listing the user could have won, only those
+     * the user actually won yield invoice lines.
+     */
+    ResumableInvoiceCursor userInvoices(String user, long fromMillis, long toMillis) {
+        return new UserInvoiceCursor(this, user, fromMillis, toMillis,
+                ownerIndex.listingKeysOf(user), bidderIndex.listingKeysOf(user));
+    }
+
+    List<InvoiceLine> invoicesFor(String requestingUser, AuctionListing auctionListing) {
+        ClosedListingInvoices closedListingInvoices = closedInvoices.get(auctionListing.getListingKey());
+        if (closedListingInvoices != null) {
+            return closedListingInvoices.invoicesFor(requestingUser);
+        }
+        String listingId = auctionListing.getListingId();
+        if (auctionListing.isAuctionClosed()) {
+            return memoizeClosedInvoices(listingId, auctionListing).invoicesFor(requestingUser);
+        }
 
-        ImmutableList.Builder<InvoiceLine> invoiceListBuilder = ImmutableList.builder();
         if (requestingUser.equals(auctionListing.getListingOwner())) {
-            invoiceListBuilder.add(new InvoiceLine(listingId, FeeType.LISTING_FEE, AUCTION_LISTING_FEE_AMOUNT));
-            if (auctionListing.getBuyItNowPrice() != null) {
-                invoiceListBuilder.add(new InvoiceLine(listingId, FeeType.BUY_IT_NOW_FEE, BUY_IT_NOW_LISTING_FEE_AMOUNT));
-            }
+            return ClosedListingInvoices.ownerInvoices(listingId, auctionListing);
         } else if (requestingUser.equals(auctionListing.getWinningUser())) {
-            invoiceListBuilder.add(new InvoiceLine(listingId, FeeType.PURCHASE_FEE, auctionListing.getWinningPrice()));
+            return ClosedListingInvoices.winnerInvoices(listingId, auctionListing.getWinningPriceCents());
+        }
+        return ImmutableList.of();
+    }
+
+    /**
+     * Builds the invoices of a closed listing once. When the memo is full the
+     * invoices are still answered, just built again on the next request.
+     */
+    private ClosedListingInvoices memoizeClosedInvoices(String listingId, AuctionListing auctionListing) {
+        ClosedListingInvoices closedListingInvoices = ClosedListingInvoices.of(listingId, auctionListing);
+        if (closedInvoices.size() < DEFAULT_MAX_MEMOIZED_INVOICES) {
+            ClosedListingInvoices existing = closedInvoices.putIfAbsent(auctionListing.getListingKey(),
+                    closedListingInvoices);
+            if (existing != null) return existing;
         }
+        return closedListingInvoices;
+    }
 
-        return invoiceListBuilder.build();
+    public List<BidRecord> fetchBidHistory(String authToken, String listingId, int offset, int limit) throws AuctionServiceException {
+        String requestingUser = validateTokenAndAcquireUser(authToken);
+        if (offset < 0 || limit < 0) {
+            throw new AuctionServiceException("offset and limit must not be negative");
+        }
+        AuctionListing auctionListing = findAuctionListing(listingId);
+        ensureOwnerOrBidder(requestingUser, auctionListing);
+        return auctionListing.getBidHistory(offset, limit);
     }
 
     private void ensureOwnerNotBidding(String biddingUser, AuctionListing auctionListing) throws AuctionServiceException {
         if (biddingUser.equals(auctionListing.getListingOwner())) {
-            throw new AuctionServiceException("Purchasing on your own listings is not allowed");
+            throw Rejections.SELF_PURCHASE;
+        }
+    }
+
+    /**
+     * Bidders are only shown to the listing owner and to the users who took part.
+     */
+    private void ensureOwnerOrBidder(String requestingUser, AuctionListing auctionListing)
+            throws AuctionServiceException {
+        if (!requestingUser.equals(auctionListing.getListingOwner())
+                && !bidderIndex.contains(requestingUser, auctionListing.getListingKey())) {
+            throw new AuctionServiceException("Only the listing owner and its bidders can see its bids");
         }
     }
 
@@ -121,20 +498,318 @@ public class DefaultAuctionService implements AuctionService {
         }
     }
 
+    /**
+     * Logs, stores and registers a newly created listing, then schedules its close.
+     */
+    String addListing(AuctionListing auctionListing) {
+        long logPosition;
+        if (singleWriter) {
+            logPosition = mutationLog.logListingCreated(auctionListing);
+            registerListing(auctionListing);
+            listingRepository.listingCreated(auctionListing);
+        } else {
+            listingCreationLock.readLock().lock();
+            try {
+                logPosition = mutationLog.logListingCreated(auctionListing);
+                registerListing(auctionListing);
+                listingRepository.listingCreated(auctionListing);
+            } finally {
+                listingCreationLock.readLock().unlock();
+            }
+        }
+        auctionCloseScheduler.scheduleClose(auctionListing);
+        mutationLog.awaitDurable(logPosition);
+        return auctionListing.getListingId();
+    }
+
+    /**
+     * Reads the log position a snapshot starts at. Every listing whose creation was
+     * logged before that position is already registered, so the snapshot sees it.
+     */
+    long snapshotStartPosition(WriteAheadLog writeAheadLog) {
+        listingCreationLock.writeLock().lock();
+        try {
+            return writeAheadLog.getAppendedPosition();
+        } finally {
+            listingCreationLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Hands every live listing to the visitor while no change to it can be logged or applied.
+     * Listings archived before the live listings were read are flushed to the archive's
+     * files first, as the visitor does not see them.
+     */
+    void visitListings(ListingVisitor listingVisitor) throws IOException {
+        List<AuctionListing> liveListings = listingRegistry.liveListings();
+        listingRegistry.flushArchive();
+        for (AuctionListing auctionListing : liveListings) {
+            synchronized (logOrderLockFor(auctionListing)) {
+                listingVisitor.visit(auctionListing);
+            }
+        }
+    }
+
+    /**
+     * Makes a listing recovered after a restart known to this service, without
+     * logging it. Closing is scheduled by {@link #scheduleCloseOfLiveListings()}
+     * once recovery is over, so no listing closes on the live clock while the
+     * log is still being replayed.
+     */
+    void restoreListing(AuctionListing auctionListing) {
+        registerListing(auctionListing);
+    }
+
+    /**
+     * Ends a recovery: indexes the bidders of the replayed listings and schedules
+     * their closing.
+     */
+    void scheduleCloseOfLiveListings() {
+        for (AuctionListing auctionListing : listingRegistry.liveListings()) {
+            indexBidders(auctionListing);
+            auctionCloseScheduler.scheduleClose(auctionListing);
+        }
+    }
+
+    /**
+     * Hands every archived listing that is no longer live to the visitor.
+     */
+    void visitArchivedListings(ListingVisitor listingVisitor) throws IOException {
+        listingRegistry.visitArchivedListings(listingVisitor);
+    }
+
+    AuctionListing findListing(long listingKey) {
+        return listingRegistry.find(listingKey);
+    }
+
+    AuctionListingFactory getAuctionListingFactory() {
+        return auctionListingFactory;
+    }
+
+    AuthenticationService getAuthenticationService() {
+        return authenticationService;
+    }
+
+    /**
+     * Changes to a listing are applied in the order they are logged, so a replay of
+     * the log rebuilds the same state. A change is logged after the listing made it,
+     * with the time it was decided at, and changes the listing refused are not logged.
+     * Waiting for the log to be durable is left outside the lock, letting concurrent
+     * callers share a sync. The lock is only taken while the log is recording and
+     * changes come from several threads, and not for bids that cannot change the
+     * listing.
+     */
+    private Object logOrderLockFor(AuctionListing auctionListing) {
+        long listingKey = auctionListing.getListingKey();
+        return logOrderLocks[(int) ((listingKey ^ (listingKey >>> 32)) & (LOG_ORDER_LOCK_STRIPES - 1))];
+    }
+
+    /**
+     * Makes an already created listing known to this service.
+     */
+    void registerListing(AuctionListing auctionListing) {
+        listingRegistry.register(auctionListing);
+        ownerIndex.add(auctionListing.getListingOwner(), auctionListing.getListingKey());
+    }
+
+    /**
+     * Adds a listing kept in a store across a restart to the owner and bidder
+     * indexes, without registering it, so queries by user find it and it is
+     * loaded from the repository when used.
+     */
+    void indexStoredListing(AuctionListing auctionListing) {
+        ownerIndex.add(auctionListing.getListingOwner(), auctionListing.getListingKey());
+        indexBidders(auctionListing);
+    }
+
+    /**
+     * Registers a listing kept in a store across a restart and schedules its close.
+     */
+    void registerStoredListing(AuctionListing auctionListing) {
+        if (listingRegistry.registerIfAbsent(auctionListing) == auctionListing) {
+            auctionCloseScheduler.scheduleClose(auctionListing);
+        }
+    }
+
+    /**
+     * Adds a listing whose bids were not made through this service, such as one
+     * loaded or recovered after a restart, to the bidder index.
+     */
+    void indexBidders(AuctionListing auctionListing) {
+        long listingKey = auctionListing.getListingKey();
+        for (BidRecord bid : auctionListing.getBidHistory(0, auctionListing.getBidCount())) {
+            bidderIndex.add(bid.getBidder(), listingKey);
+        }
+        String winningUser = auctionListing.getWinningUser();
+        if (winningUser != null) {
+            bidderIndex.add(winningUser, listingKey);
+        }
+        //Stores such as the memory-mapped one keep the leading bid but no bid history.
+        AuctionListing.Bid currentBid = auctionListing.getCurrentBid();
+        if (currentBid != null) {
+            bidderIndex.add(currentBid.getBidder(), listingKey);
+        }
+    }
+
     private AuctionListing findAuctionListing(String listingId) throws AuctionServiceException {
-        AuctionListing auctionListing = listingIdToListingMap.get(listingId);
+        AuctionListing auctionListing = findAuctionListingOrNull(listingId);
+        if (auctionListing == null) {
+            throw Rejections.INVALID_LISTING_ID;
+        }
+        return auctionListing;
+    }
+
+    private AuctionListing findAuctionListingOrNull(String listingId) {
+        long listingKey = ListingIds.parse(listingId);
+        if (listingKey == ListingIds.NO_KEY) return null;
+
+        return loadListing(listingKey);
+    }
+
+    /**
+     * Finds a listing in the registry, or else loads it from the repository and
+     * registers it, such as a stored listing only indexed after a restart.
+     */
+    AuctionListing loadListing(long listingKey) {
+        AuctionListing auctionListing = listingRegistry.find(listingKey);
         if (auctionListing == null) {
-            throw new AuctionServiceException("invalid listing id");
+            //Not cached, load it from the repository and cache it for the next request.
+            auctionListing = listingRepository.find(listingKey);
+            if (auctionListing != null) {
+                AuctionListing registered = listingRegistry.registerIfAbsent(auctionListing);
+                if (registered == auctionListing) {
+                    ownerIndex.add(auctionListing.getListingOwner(), listingKey);
+                    indexBidders(auctionListing);
+                    auctionCloseScheduler.scheduleClose(auctionListing);
+                }
+                auctionListing = registered;
+            }
         }
         return auctionListing;
     }
 
     private String validateTokenAndAcquireUser(String authToken) throws AuctionServiceException {
-        String user = userToAuthTokenBiMap.inverse().get(authToken);
-        if (user == null) {
-            throw new AuctionServiceException("Unrecognized auth token");
+        return authenticationService.validateTokenAndAcquireUser(authToken);
+    }
+
+    /**
+     * Validates each distinct token of a batch only once.
+     *
+     * @return the user or null if the token is not valid
+     */
+    private String validateBatchToken(Map<String, String> tokenToUserMap, String authToken) {
+        if (tokenToUserMap.containsKey(authToken)) {
+            return tokenToUserMap.get(authToken);
         }
+        String user = validateTokenOrNull(authToken);
+        tokenToUserMap.put(authToken, user);
         return user;
     }
 
+    /**
+     * Rejected tokens are signalled with preallocated exceptions, see {@link Rejections},
+     * so catching them here is cheap.
+     *
+     * @return the user or null if the token is not valid
+     */
+    private String validateTokenOrNull(String authToken) {
+        try {
+            return validateTokenAndAcquireUser(authToken);
+        } catch (AuctionServiceException e) {
+            return null;
+        }
+    }
+
+    interface ListingVisitor {
+        void visit(AuctionListing auctionListing) throws IOException;
+    }
+
+    /**
+     * Bids of a batch that target the same listing, applied to it in one update.
+     */
+    private class ListingBatch {
+        private final AuctionListing auctionListing;
+        private int[] bidIndexes = new int[4];
+        private String[] bidders = new String[4];
+        private long[] bidAmountsCents = new long[4];
+        private int bidCount;
+        private long priceCents;
+
+        private ListingBatch(AuctionListing auctionListing) {
+            this.auctionListing = auctionListing;
+        }
+
+        private void add(int bidIndex, String bidder, long bidAmountCents) {
+            if (bidCount == bidIndexes.length) {
+                int newLength = bidCount * 2;
+                bidIndexes = Arrays.copyOf(bidIndexes, newLength);
+                bidders = Arrays.copyOf(bidders, newLength);
+                bidAmountsCents = Arrays.copyOf(bidAmountsCents, newLength);
+            }
+            bidIndexes[bidCount] = bidIndex;
+            bidders[bidCount] = bidder;
+            bidAmountsCents[bidCount] = bidAmountCents;
+            bidCount++;
+        }
+
+        /**
+         * Applies the batch, filling in the outcome of each bid and the price it
+         * left the listing at. A batch whose largest bid cannot change the listing
+         * is turned down without taking the log order lock.
+         *
+         * @return log position of the last bid, 0 if none was logged
+         */
+        private long apply(OperationStatus[] outcomes) {
+            if (bidCount == 0) return 0;
+
+            long maximumAmountCents = Long.MIN_VALUE;
+            for (int i = 0; i < bidCount; i++) {
+                maximumAmountCents = Math.max(maximumAmountCents, bidAmountsCents[i]);
+            }
+            if (cannotChange(auctionListing, maximumAmountCents)) {
+                OperationStatus rejected = auctionListing.isAuctionClosed() ? OperationStatus.CLOSED : OperationStatus.OUTBID;
+                for (int i = 0; i < bidCount; i++) {
+                    outcomes[bidIndexes[i]] = rejected;
+                }
+                priceCents = currentPriceCents(auctionListing);
+                return 0;
+            }
+
+            OperationStatus[] listingOutcomes = new OperationStatus[bidCount];
+            long logPosition = 0;
+            if (keepsLogOrder) {
+                synchronized (logOrderLockFor(auctionListing)) {
+                    logPosition = log(auctionListing.bid(bidders, bidAmountsCents, bidCount, listingOutcomes));
+                    priceCents = currentPriceCents(auctionListing);
+                }
+            } else {
+                logPosition = log(auctionListing.bid(bidders, bidAmountsCents, bidCount, listingOutcomes));
+                priceCents = currentPriceCents(auctionListing);
+            }
+            listingRepository.listingChanged(auctionListing);
+            for (int i = 0; i < bidCount; i++) {
+                outcomes[bidIndexes[i]] = listingOutcomes[i];
+                //A batch bid that did not take the lead can never win the listing.
+                if (listingOutcomes[i] == OperationStatus.ACCEPTED) {
+                    bidderIndex.add(bidders[i], auctionListing.getListingKey());
+                }
+            }
+            return logPosition;
+        }
+
+        /**
+         * @return log position of the last bid, 0 if the listing did not change
+         */
+        private long log(long decidedAtMillis) {
+            if (decidedAtMillis == AuctionListing.UNCHANGED) return 0;
+            long logPosition = 0;
+            //Bids the batch turned down replay as no-ops, as they were applied.
+            for (int i = 0; i < bidCount; i++) {
+                logPosition = mutationLog.logBid(auctionListing.getListingKey(), bidders[i],
+                        bidAmountsCents[i], decidedAtMillis);
+            }
+            return logPosition;
+        }
+    }
+
 }
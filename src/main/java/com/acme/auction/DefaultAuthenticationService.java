@@ -0,0 +1,89 @@
+package com.acme.auction;
+
+import com.acme.auctionclient.AuctionServiceException;
+import com.google.common.collect.BiMap;
+import com.google.common.collect.ImmutableBiMap;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Toy authentication service with a fixed set of users and one
+ * auth token per user.
+ */
+public class DefaultAuthenticationService implements AuthenticationService {
+    /**
+     * Password of every known user.
+     */
+    static final Map<String, String> USER_PASSWORDS = ImmutableMap.of(
+            "default.seller@acme.com", "letsSell",
+            "fred.seller@acme.com", "sellingIsFun",
+            "sally.buyer@acme.com", "gotToBuy",
+            "george.buyer@acme.com", "sallyIsAnnoying");
+
+    private final Map<String, String> userPassMap;
+    private volatile BiMap<String, String> userToAuthTokenBiMap;
+
+    public DefaultAuthenticationService() {
+        super();
+
+        userPassMap = USER_PASSWORDS;
+
+        ImmutableBiMap.Builder<String, String> userToAuthTokenMapBuilder = ImmutableBiMap.builder();
+        for (String key : userPassMap.keySet()) {
+            userToAuthTokenMapBuilder.put(key, UUID.randomUUID().toString());
+        }
+        userToAuthTokenBiMap = userToAuthTokenMapBuilder.build();
+    }
+
+    public String login(String username, String password) throws AuctionServiceException {
+        if (username == null) {
+            throw new AuctionServiceException("null username");
+        }
+        if (password == null) {
+            throw new AuctionServiceException("null password");
+        }
+        String expectedPassword = this.userPassMap.get(username);
+        if (expectedPassword == null || !password.equals(expectedPassword)) {
+            throw new AuctionServiceException("Invalid user/pass combination");
+        }
+
+        return userToAuthTokenBiMap.get(username);
+    }
+
+    /**
+     * @return the auth token of each user, to be kept over a restart
+     */
+    public Map<String, String> getAuthTokens() {
+        return userToAuthTokenBiMap;
+    }
+
+    /**
+     * Hands out the given tokens again, so clients stay logged in over a restart.
+     * Tokens of unknown users are ignored.
+     */
+    public void restoreAuthTokens(Map<String, String> userToAuthTokenMap) {
+        ImmutableBiMap.Builder<String, String> userToAuthTokenMapBuilder = ImmutableBiMap.builder();
+        for (Map.Entry<String, String> entry : userToAuthTokenBiMap.entrySet()) {
+            String restoredToken = userToAuthTokenMap.get(entry.getKey());
+            userToAuthTokenMapBuilder.put(entry.getKey(), restoredToken != null ? restoredToken : entry.getValue());
+        }
+        userToAuthTokenBiMap = userToAuthTokenMapBuilder.build();
+    }
+
+    /**
+     * Every user keeps a single token for good, so there is nothing to end.
+     */
+    public boolean logout(String authToken) {
+        return false;
+    }
+
+    public String validateTokenAndAcquireUser(String authToken) throws AuctionServiceException {
+        String user = userToAuthTokenBiMap.inverse().get(authToken);
+        if (user == null) {
+            throw Rejections.UNRECOGNIZED_AUTH_TOKEN;
+        }
+        return user;
+    }
+}
@@ -0,0 +1,58 @@
+package com.acme.auction;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates 64 bit listing keys from time, node and sequence, without locks or SecureRandom.
+ * <p/>
+ * From the top bit down a key holds a zero sign bit, 41 bits of milliseconds since
+ * {@link #EPOCH_MILLIS}, a 10 bit node id and a 12 bit sequence within the millisecond.
+ * Keys from one generator strictly increase. When more than 4096 keys are asked for in
+ * one millisecond, or the system clock steps back, the generator borrows from the
+ * following milliseconds rather than waiting.
+ */
+public class DefaultListingIdGenerator implements ListingIdGenerator {
+    /**
+     * 2012-01-01T00:00:00Z, the start of the timestamp field.
+     */
+    public static final long EPOCH_MILLIS = 1325376000000L;
+    public static final int NODE_BITS = 10;
+    public static final int SEQUENCE_BITS = 12;
+    public static final int MAX_NODE_ID = (1 << NODE_BITS) - 1;
+
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private final long nodeBits;
+    /**
+     * Timestamp and sequence of the last key, packed the same way as in the key.
+     */
+    private final AtomicLong lastTimestampAndSequence = new AtomicLong();
+
+    public DefaultListingIdGenerator() {
+        this(0);
+    }
+
+    /**
+     * @param nodeId id of this node, from 0 to {@link #MAX_NODE_ID}, unique among
+     *               the nodes creating listings for the same store
+     */
+    public DefaultListingIdGenerator(int nodeId) {
+        super();
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("nodeId must be between 0 and " + MAX_NODE_ID);
+        }
+        this.nodeBits = (long) nodeId << SEQUENCE_BITS;
+    }
+
+    public long nextListingKey() {
+        while (true) {
+            long last = lastTimestampAndSequence.get();
+            long timestamp = System.currentTimeMillis() - EPOCH_MILLIS;
+            //A sequence overflow carries into the timestamp, borrowing the next millisecond.
+            long next = timestamp > (last >>> SEQUENCE_BITS) ? timestamp << SEQUENCE_BITS : last + 1;
+            if (lastTimestampAndSequence.compareAndSet(last, next)) {
+                return ((next & ~SEQUENCE_MASK) << NODE_BITS) | nodeBits | (next & SEQUENCE_MASK);
+            }
+        }
+    }
+}
@@ -13,6 +13,10 @@ public class DefaultTimeService implements TimeService {
     }
 
     public Date getTime() {
-        return new Date();
+        return new Date(currentTimeMillis());
+    }
+
+    public long currentTimeMillis() {
+        return System.currentTimeMillis();
     }
 }
@@ -0,0 +1,22 @@
+package com.acme.auction;
+
+/**
+ * How long callers of a {@link WriteAheadLog} wait for their commands to reach the disk.
+ */
+public enum DurabilityPolicy {
+    /**
+     * Every caller waits for a sync covering its command. Callers arriving while a
+     * sync is running share the next one, so there is at most one sync in flight.
+     */
+    PER_OP,
+    /**
+     * Every caller waits for the sync ending the current time window. A background
+     * thread syncs once per window, however many commands it holds.
+     */
+    BATCHED,
+    /**
+     * Callers do not wait. A background thread syncs once per time window, so a
+     * crash loses at most the commands of the last window.
+     */
+    ASYNC
+}
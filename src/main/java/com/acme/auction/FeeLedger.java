@@ -0,0 +1,107 @@
+package com.acme.auction;
+
+import com.acme.auctionclient.FeeType;
+import com.acme.auctionclient.Money;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Running totals of the fees every user owes, posted as listings are created and
+ * closed rather than computed from the invoices of each listing.
+ * <p/>
+ * Owners are charged the listing fee, and the buy it now fee if the listing has a
+ * buy it now price, when the listing is created. Winners are charged the winning
+ * price when the listing closes. These are exactly the lines
+ * {@link DefaultAuctionService#fetchInvoices(String, String)} reports, so the totals
+ * reconcile with the invoices of the listings made by the factory the ledger listens to.
+ * <p/>
+ * Each user account spreads its counters over a few cells picked by thread, so
+ * threads posting to the same user rarely contend. Reading a balance sums a fixed
+ * number of cells, whatever the number of listings.
+ */
+public class FeeLedger implements AuctionListingListener {
+    private static final FeeType[] FEE_TYPES = FeeType.values();
+    private static final int CELL_COUNT = 4;
+    //Longs per cell, so the cells of an account sit on different cache lines.
+    private static final int CELL_STRIDE = 8;
+
+    private final ConcurrentMap<String, Account> userToAccountMap = new ConcurrentHashMap<String, Account>();
+    private final AtomicLong entryCount = new AtomicLong();
+
+    public void listingCreated(AuctionListing auctionListing) {
+        String listingOwner = auctionListing.getListingOwner();
+        post(listingOwner, FeeType.LISTING_FEE, DefaultAuctionService.AUCTION_LISTING_FEE_CENTS);
+        if (auctionListing.getBuyItNowPriceCents() != Money.NO_AMOUNT_CENTS) {
+            post(listingOwner, FeeType.BUY_IT_NOW_FEE, DefaultAuctionService.BUY_IT_NOW_LISTING_FEE_CENTS);
+        }
+    }
+
+    public void listingClosed(AuctionListing auctionListing) {
+        String winningUser = auctionListing.getWinningUser();
+        if (winningUser != null) {
+            post(winningUser, FeeType.PURCHASE_FEE, auctionListing.getWinningPriceCents());
+        }
+    }
+
+    /**
+     * @return everything the user has been charged, in cents
+     */
+    public long getBalanceCents(String user) {
+        Account account = userToAccountMap.get(user);
+        if (account == null) return 0;
+
+        long balanceCents = 0;
+        for (FeeType feeType : FEE_TYPES) {
+            balanceCents += account.sum(feeType);
+        }
+        return balanceCents;
+    }
+
+    /**
+     * @return what the user has been charged for one type of fee, in cents
+     */
+    public long getTotalCents(String user, FeeType feeType) {
+        Account account = userToAccountMap.get(user);
+        return account == null ? 0 : account.sum(feeType);
+    }
+
+    /**
+     * @return number of entries posted, one per invoice line
+     */
+    public long getEntryCount() {
+        return entryCount.get();
+    }
+
+    private void post(String user, FeeType feeType, long amountCents) {
+        Account account = userToAccountMap.get(user);
+        if (account == null) {
+            account = new Account();
+            Account existing = userToAccountMap.putIfAbsent(user, account);
+            if (existing != null) {
+                account = existing;
+            }
+        }
+        account.add(feeType, amountCents);
+        entryCount.incrementAndGet();
+    }
+
+    private static final class Account {
+        private final AtomicLongArray cells = new AtomicLongArray(CELL_COUNT * CELL_STRIDE);
+
+        private void add(FeeType feeType, long amountCents) {
+            int cell = (int) Thread.currentThread().getId() & (CELL_COUNT - 1);
+            cells.addAndGet(cell * CELL_STRIDE + feeType.ordinal(), amountCents);
+        }
+
+        private long sum(FeeType feeType) {
+            long sum = 0;
+            for (int cell = 0; cell < CELL_COUNT; cell++) {
+                sum += cells.get(cell * CELL_STRIDE + feeType.ordinal());
+            }
+            return sum;
+        }
+    }
+}
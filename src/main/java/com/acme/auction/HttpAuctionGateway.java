@@ -0,0 +1,372 @@
+package com.acme.auction;
+
+import com.acme.auctionclient.AuctionService;
+import com.acme.auctionclient.AuctionServiceException;
+import com.acme.auctionclient.InvoiceLine;
+import com.acme.auctionclient.Money;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP/JSON gateway to an {@link AuctionService}, built on the JDK HTTP server.
+ * <p/>
+ * Routes, all taking and returning JSON; the auth token travels in an
+ * {@code Authorization: Bearer <token>} header:
+ * <pre>
+ * POST /login                            {"username":..., "password":...} -> {"authToken":...}
+ * POST /logout                           -> 204, or 401 if the token named no session that could end
+ * POST /listings                         {"startingPrice":100.00, "buyItNowPrice":250.00, "auctionLength":5}
+ *                                        -> 201 {"listingId":...}
+ * POST /listings/{listingId}/bids        {"amount":101.00} -> 204
+ * POST /listings/{listingId}/buy-it-now  -> 204
+ * GET  /listings/{listingId}/invoices    -> [{"auctionId":..., "feeType":..., "amount":...}]
+ * </pre>
+ * Amounts are JSON numbers with at most two decimals. Rejections answer 401 for a bad
+ * or expired token, 404 for an unknown listing and 400 otherwise, with an
+ * {@code {"error":...}} body.
+ * <p/>
+ * Each request is handled on its own virtual thread when the JVM has them, so a
+ * request waiting on the service ties up no platform thread and there is no pool
+ * to size. Older JVMs fall back to an unbounded pool of daemon threads.
+ * <p/>
+ * The JDK server reads its connection settings from system properties once, when
+ * its first instance is created. The gateway sets them, unless already set, from
+ * its keep-alive and connection limits, so those only take effect for the first
+ * server started in the JVM.
+ */
+public class HttpAuctionGateway {
+    public static final int DEFAULT_MAX_CONNECTIONS = 50000;
+    public static final int DEFAULT_KEEP_ALIVE_SECONDS = 300;
+    public static final int MAX_REQUEST_BODY_SIZE = 16 * 1024;
+    /**
+     * Length of the queue of connections waiting to be accepted.
+     */
+    public static final int ACCEPT_BACKLOG = 4096;
+
+    private static final String JSON_CONTENT_TYPE = "application/json; charset=utf-8";
+    private static final String BEARER_PREFIX = "Bearer ";
+    private static final String LISTINGS_PREFIX = "/listings/";
+
+    private final AuctionService auctionService;
+    private final InetSocketAddress bindAddress;
+    private final int maxConnections;
+    private final int keepAliveSeconds;
+    private HttpServer server;
+    private ExecutorService executor;
+    private boolean virtualThreads;
+
+    public HttpAuctionGateway(AuctionService auctionService, InetSocketAddress bindAddress) {
+        this(auctionService, bindAddress, DEFAULT_MAX_CONNECTIONS, DEFAULT_KEEP_ALIVE_SECONDS);
+    }
+
+    /**
+     * @param bindAddress      address to listen on, port 0 picks a free port
+     * @param maxConnections   most connections open at once, further ones are refused
+     * @param keepAliveSeconds time an idle connection is kept open for its next request
+     */
+    public HttpAuctionGateway(AuctionService auctionService, InetSocketAddress bindAddress,
+                              int maxConnections, int keepAliveSeconds) {
+        super();
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("maxConnections must be positive");
+        }
+        if (keepAliveSeconds < 1) {
+            throw new IllegalArgumentException("keepAliveSeconds must be positive");
+        }
+        this.auctionService = auctionService;
+        this.bindAddress = bindAddress;
+        this.maxConnections = maxConnections;
+        this.keepAliveSeconds = keepAliveSeconds;
+    }
+
+    public synchronized void start() throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("Gateway already started");
+        }
+        setDefaultProperty("sun.net.httpserver.maxConnections", maxConnections);
+        //Idle keep-alive connections beyond this count are closed, so allow all of them.
+        setDefaultProperty("sun.net.httpserver.maxIdleConnections", maxConnections);
+        setDefaultProperty("sun.net.httpserver.idleInterval", keepAliveSeconds);
+
+        executor = newVirtualThreadExecutor();
+        virtualThreads = executor != null;
+        if (executor == null) {
+            executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                    .setDaemon(true).setNameFormat("auction-http-%d").build());
+        }
+        server = HttpServer.create(bindAddress, ACCEPT_BACKLOG);
+        server.setExecutor(executor);
+        server.createContext("/", new GatewayHandler());
+        server.start();
+    }
+
+    /**
+     * @return the port the gateway listens on, useful when started on port 0
+     */
+    public synchronized int getLocalPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return true if requests are handled on virtual threads
+     */
+    public synchronized boolean isUsingVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Stops the gateway, giving requests in progress up to a second to complete.
+     */
+    public synchronized void shutdown() {
+        if (server == null) return;
+        server.stop(1);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        server = null;
+    }
+
+    /**
+     * Looks up Executors.newVirtualThreadPerTaskExecutor reflectively, since the
+     * code is compiled for JVMs predating virtual threads.
+     *
+     * @return the executor or null if the JVM has no virtual threads
+     */
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static void setDefaultProperty(String key, int value) {
+        if (System.getProperty(key) == null) {
+            System.setProperty(key, Integer.toString(value));
+        }
+    }
+
+    private final class GatewayHandler implements HttpHandler {
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                route(exchange);
+            } catch (AuctionServiceException e) {
+                sendError(exchange, statusOf(e), e.getMessage());
+            } catch (IllegalArgumentException e) {
+                sendError(exchange, 400, e.getMessage());
+            } catch (ArithmeticException e) {
+                sendError(exchange, 400, e.getMessage());
+            } catch (RuntimeException e) {
+                sendError(exchange, 500, String.valueOf(e));
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private void route(HttpExchange exchange) throws IOException, AuctionServiceException {
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+
+            if (path.equals("/login")) {
+                if (requireMethod(exchange, method, "POST")) {
+                    login(exchange);
+                }
+            } else if (path.equals("/logout")) {
+                if (requireMethod(exchange, method, "POST")) {
+                    if (auctionService.logout(authToken(exchange))) {
+                        sendEmpty(exchange);
+                    } else {
+                        sendError(exchange, 401, "Unrecognized auth token");
+                    }
+                }
+            } else if (path.equals("/listings")) {
+                if (requireMethod(exchange, method, "POST")) {
+                    createListing(exchange);
+                }
+            } else if (path.startsWith(LISTINGS_PREFIX)) {
+                int slash = path.indexOf('/', LISTINGS_PREFIX.length());
+                if (slash < 0) {
+                    sendError(exchange, 404, "Not found");
+                    return;
+                }
+                String listingId = path.substring(LISTINGS_PREFIX.length(), slash);
+                String action = path.substring(slash + 1);
+                if (action.equals("bids")) {
+                    if (requireMethod(exchange, method, "POST")) {
+                        bid(exchange, listingId);
+                    }
+                } else if (action.equals("buy-it-now")) {
+                    if (requireMethod(exchange, method, "POST")) {
+                        auctionService.buyItNow(authToken(exchange), listingId);
+                        sendEmpty(exchange);
+                    }
+                } else if (action.equals("invoices")) {
+                    if (requireMethod(exchange, method, "GET")) {
+                        fetchInvoices(exchange, listingId);
+                    }
+                } else {
+                    sendError(exchange, 404, "Not found");
+                }
+            } else {
+                sendError(exchange, 404, "Not found");
+            }
+        }
+
+        private void login(HttpExchange exchange) throws IOException, AuctionServiceException {
+            JsonReader reader = readBody(exchange);
+            String username = null;
+            String password = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("username")) {
+                    username = reader.nextIfNull() ? null : reader.nextString();
+                } else if (name.equals("password")) {
+                    password = reader.nextIfNull() ? null : reader.nextString();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            reader.endDocument();
+
+            String authToken = auctionService.login(username, password);
+            send(exchange, 200, new JsonWriter().beginObject().name("authToken").value(authToken).endObject());
+        }
+
+        private void createListing(HttpExchange exchange) throws IOException, AuctionServiceException {
+            String authToken = authToken(exchange);
+            JsonReader reader = readBody(exchange);
+            Long startingPriceCents = null;
+            long buyItNowPriceCents = Money.NO_AMOUNT_CENTS;
+            Integer auctionLength = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("startingPrice")) {
+                    startingPriceCents = reader.nextCents();
+                } else if (name.equals("buyItNowPrice")) {
+                    buyItNowPriceCents = reader.nextCents();
+                } else if (name.equals("auctionLength")) {
+                    auctionLength = reader.nextInt();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            reader.endDocument();
+            if (startingPriceCents == null || startingPriceCents < 0) {
+                throw new IllegalArgumentException("startingPrice is required");
+            }
+            if (auctionLength == null) {
+                throw new IllegalArgumentException("auctionLength is required");
+            }
+
+            String listingId = auctionService.createListing(authToken, startingPriceCents, buyItNowPriceCents,
+                    auctionLength);
+            send(exchange, 201, new JsonWriter().beginObject().name("listingId").value(listingId).endObject());
+        }
+
+        private void bid(HttpExchange exchange, String listingId) throws IOException, AuctionServiceException {
+            String authToken = authToken(exchange);
+            JsonReader reader = readBody(exchange);
+            long amountCents = Money.NO_AMOUNT_CENTS;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("amount")) {
+                    amountCents = reader.nextCents();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            reader.endDocument();
+            if (amountCents < 0) {
+                throw new IllegalArgumentException("amount is required");
+            }
+
+            auctionService.bid(authToken, listingId, amountCents);
+            sendEmpty(exchange);
+        }
+
+        private void fetchInvoices(HttpExchange exchange, String listingId) throws IOException, AuctionServiceException {
+            List<InvoiceLine> invoiceLines = auctionService.fetchInvoices(authToken(exchange), listingId);
+            JsonWriter writer = new JsonWriter().beginArray();
+            for (InvoiceLine invoiceLine : invoiceLines) {
+                writer.invoiceLine(invoiceLine);
+            }
+            send(exchange, 200, writer.endArray());
+        }
+
+        private String authToken(HttpExchange exchange) throws AuctionServiceException {
+            String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+            if (authorization == null || !authorization.startsWith(BEARER_PREFIX)) {
+                throw Rejections.UNRECOGNIZED_AUTH_TOKEN;
+            }
+            return authorization.substring(BEARER_PREFIX.length()).trim();
+        }
+
+        private boolean requireMethod(HttpExchange exchange, String method, String expected) throws IOException {
+            if (method.equals(expected)) return true;
+            exchange.getResponseHeaders().set("Allow", expected);
+            sendError(exchange, 405, "Method not allowed");
+            return false;
+        }
+
+        private JsonReader readBody(HttpExchange exchange) throws IOException {
+            InputStream body = exchange.getRequestBody();
+            byte[] bytes = new byte[512];
+            int length = 0;
+            int read;
+            while ((read = body.read(bytes, length, bytes.length - length)) >= 0) {
+                length += read;
+                if (length == bytes.length) {
+                    //The buffer grows one byte past the limit, so only a body that
+                    //actually runs over it fills the buffer at its largest.
+                    if (length > MAX_REQUEST_BODY_SIZE) {
+                        throw new IllegalArgumentException("Request body too large");
+                    }
+                    bytes = Arrays.copyOf(bytes, Math.min(length * 2, MAX_REQUEST_BODY_SIZE + 1));
+                }
+            }
+            return new JsonReader(bytes, length);
+        }
+
+        private int statusOf(AuctionServiceException e) {
+            if (e == Rejections.UNRECOGNIZED_AUTH_TOKEN || e == Rejections.EXPIRED_AUTH_TOKEN) return 401;
+            if (e == Rejections.INVALID_LISTING_ID) return 404;
+            return 400;
+        }
+
+        private void sendError(HttpExchange exchange, int status, String message) throws IOException {
+            send(exchange, status, new JsonWriter().beginObject().name("error").value(message).endObject());
+        }
+
+        private void sendEmpty(HttpExchange exchange) throws IOException {
+            exchange.sendResponseHeaders(204, -1);
+        }
+
+        private void send(HttpExchange exchange, int status, JsonWriter writer) throws IOException {
+            exchange.getResponseHeaders().set("Content-Type", JSON_CONTENT_TYPE);
+            exchange.sendResponseHeaders(status, writer.length());
+            OutputStream responseBody = exchange.getResponseBody();
+            responseBody.write(writer.bytes(), 0, writer.length());
+            responseBody.close();
+        }
+    }
+}
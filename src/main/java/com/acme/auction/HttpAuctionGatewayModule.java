@@ -0,0 +1,44 @@
+package com.acme.auction;
+
+import com.acme.auctionclient.AuctionService;
+import com.google.inject.AbstractModule;
+import com.google.inject.Provides;
+import com.google.inject.Singleton;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Guice module providing an {@link HttpAuctionGateway} for the bound AuctionService,
+ * to be installed next to {@link AuctionModule}:
+ * <pre>
+ * Guice.createInjector(new AuctionModule(false), new HttpAuctionGatewayModule(port))
+ *         .getInstance(HttpAuctionGateway.class).start();
+ * </pre>
+ */
+public class HttpAuctionGatewayModule extends AbstractModule {
+    private final InetSocketAddress bindAddress;
+    private final int maxConnections;
+    private final int keepAliveSeconds;
+
+    public HttpAuctionGatewayModule(int port) {
+        this(new InetSocketAddress(port), HttpAuctionGateway.DEFAULT_MAX_CONNECTIONS,
+                HttpAuctionGateway.DEFAULT_KEEP_ALIVE_SECONDS);
+    }
+
+    public HttpAuctionGatewayModule(InetSocketAddress bindAddress, int maxConnections, int keepAliveSeconds) {
+        super();
+        this.bindAddress = bindAddress;
+        this.maxConnections = maxConnections;
+        this.keepAliveSeconds = keepAliveSeconds;
+    }
+
+    @Override
+    protected void configure() {
+    }
+
+    @Provides
+    @Singleton
+    HttpAuctionGateway provideHttpAuctionGateway(AuctionService auctionService) {
+        return new HttpAuctionGateway(auctionService, bindAddress, maxConnections, keepAliveSeconds);
+    }
+}
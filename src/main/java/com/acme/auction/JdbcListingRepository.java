@@ -0,0 +1,467 @@
+package com.acme.auction;
+
+import com.acme.auctionclient.BidRecord;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link ListingRepository} storing listings and their bids in a relational database.
+ * <p/>
+ * Callers never wait for the database. Created and changed listings are queued,
+ * once per listing however often it changes before the next write, and a
+ * background writer stores the queue periodically as batched statements in one
+ * transaction: new listings are inserted, known ones updated, and only the bids
+ * made since the last write are inserted. Only plain JDBC is used, so any database
+ * with a driver will do; the tables are created if missing.
+ * <p/>
+ * Listings are read back on a cache miss of the registry, such as after a restart,
+ * and rebuilt with {@link DefaultAuctionListingFactory}, so only default listings
+ * can be stored. Changes to other listings, such as archived or memory-mapped
+ * ones, are ignored. The stored listings are announced to the listener when the
+ * repository is opened, see {@link AuctionListingListener}, and made known to the
+ * service by {@link #registerStoredListings}. Keys found missing are remembered in a
+ * small fixed-size cache, so asking for unknown listings again does not query the
+ * database every time.
+ */
+public class JdbcListingRepository implements ListingRepository {
+    public static final long DEFAULT_WRITE_INTERVAL_MILLIS = 50;
+    public static final int MAX_BATCH_SIZE = 1000;
+    public static final int MISSING_KEY_CACHE_SIZE = 1024;
+
+    private static final String[] CREATE_TABLES = {
+            "CREATE TABLE IF NOT EXISTS auction_listing ("
+                    + "listing_key BIGINT NOT NULL PRIMARY KEY, "
+                    + "listing_owner VARCHAR(255) NOT NULL, "
+                    + "starting_price_cents BIGINT NOT NULL, "
+                    + "buy_it_now_price_cents BIGINT NOT NULL, "
+                    + "auction_length INT NOT NULL, "
+                    + "starting_time_millis BIGINT NOT NULL, "
+                    + "ending_time_millis BIGINT NOT NULL, "
+                    + "current_bidder VARCHAR(255), "
+                    + "current_bid_cents BIGINT NOT NULL, "
+                    + "leader_maximum_cents BIGINT NOT NULL, "
+                    + "closed BOOLEAN NOT NULL, "
+                    + "bought_using_buy_it_now BOOLEAN NOT NULL, "
+                    + "winning_user VARCHAR(255), "
+                    + "winning_price_cents BIGINT NOT NULL, "
+                    + "bid_count INT NOT NULL)",
+            "CREATE TABLE IF NOT EXISTS auction_bid ("
+                    + "listing_key BIGINT NOT NULL, "
+                    + "bid_index INT NOT NULL, "
+                    + "bidder VARCHAR(255) NOT NULL, "
+                    + "bid_amount_cents BIGINT NOT NULL, "
+                    + "bid_time_millis BIGINT NOT NULL, "
+                    + "PRIMARY KEY (listing_key, bid_index))"
+    };
+    private static final String INSERT_LISTING = "INSERT INTO auction_listing (listing_owner, "
+            + "starting_price_cents, buy_it_now_price_cents, auction_length, starting_time_millis, "
+            + "ending_time_millis, current_bidder, current_bid_cents, leader_maximum_cents, closed, "
+            + "bought_using_buy_it_now, winning_user, winning_price_cents, bid_count, listing_key) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE_LISTING = "UPDATE auction_listing SET listing_owner = ?, "
+            + "starting_price_cents = ?, buy_it_now_price_cents = ?, auction_length = ?, starting_time_millis = ?, "
+            + "ending_time_millis = ?, current_bidder = ?, current_bid_cents = ?, leader_maximum_cents = ?, "
+            + "closed = ?, bought_using_buy_it_now = ?, winning_user = ?, winning_price_cents = ?, bid_count = ? "
+            + "WHERE listing_key = ?";
+    private static final String INSERT_BID = "INSERT INTO auction_bid (listing_key, bid_index, bidder, "
+            + "bid_amount_cents, bid_time_millis) VALUES (?, ?, ?, ?, ?)";
+    private static final String SELECT_LISTING = "SELECT listing_owner, starting_price_cents, "
+            + "buy_it_now_price_cents, auction_length, starting_time_millis, ending_time_millis, current_bidder, "
+            + "current_bid_cents, leader_maximum_cents, closed, bought_using_buy_it_now, winning_user, "
+            + "winning_price_cents, bid_count FROM auction_listing WHERE listing_key = ?";
+    private static final String SELECT_ALL_LISTINGS = "SELECT listing_owner, starting_price_cents, "
+            + "buy_it_now_price_cents, auction_length, starting_time_millis, ending_time_millis, current_bidder, "
+            + "current_bid_cents, leader_maximum_cents, closed, bought_using_buy_it_now, winning_user, "
+            + "winning_price_cents, bid_count, listing_key FROM auction_listing";
+    private static final String SELECT_BIDS = "SELECT bidder, bid_amount_cents, bid_time_millis FROM auction_bid "
+            + "WHERE listing_key = ? ORDER BY bid_index";
+
+    private final DataSource dataSource;
+    private final DefaultAuctionListingFactory restoringListingFactory;
+    private final Queue<AuctionListing> pendingListings = new ConcurrentLinkedQueue<AuctionListing>();
+    private final ConcurrentLongObjectMap<AuctionListing> pendingKeys = new ConcurrentLongObjectMap<AuctionListing>();
+    //Number of bids stored per listing, only touched by the writer.
+    private final ConcurrentLongObjectMap<Integer> storedBidCounts = new ConcurrentLongObjectMap<Integer>();
+    //Keys recently found missing, one per slot, ListingIds.NO_KEY in empty slots.
+    private final AtomicLongArray missingKeys = new AtomicLongArray(MISSING_KEY_CACHE_SIZE);
+    private final ScheduledExecutorService writer;
+    private final AtomicLong writeCount = new AtomicLong();
+    private final AtomicLong listingRowCount = new AtomicLong();
+    private final AtomicLong bidRowCount = new AtomicLong();
+    private volatile Exception lastWriteFailure;
+
+    public JdbcListingRepository(DataSource dataSource, TimeService timeService) throws SQLException {
+        this(dataSource, timeService, new NullAuctionListingListener(), DEFAULT_WRITE_INTERVAL_MILLIS, true);
+    }
+
+    public JdbcListingRepository(DataSource dataSource, TimeService timeService, long writeIntervalMillis,
+                                 boolean startWriter) throws SQLException {
+        this(dataSource, timeService, new NullAuctionListingListener(), writeIntervalMillis, startWriter);
+    }
+
+    /**
+     * @param timeService            time service of listings read back from the database
+     * @param auctionListingListener listener of the listing factory, told about listings read back
+     * @param writeIntervalMillis    period of the background writer
+     * @param startWriter            false to leave writing to explicit {@link #flush()} calls
+     */
+    public JdbcListingRepository(DataSource dataSource, TimeService timeService,
+                                 AuctionListingListener auctionListingListener, long writeIntervalMillis,
+                                 boolean startWriter) throws SQLException {
+        super();
+        this.dataSource = dataSource;
+        this.restoringListingFactory = new DefaultAuctionListingFactory(timeService, new DefaultListingIdGenerator(),
+                auctionListingListener);
+        createTables();
+        announceStoredListings();
+        if (startWriter) {
+            this.writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("jdbc-listing-writer")
+                    .setDaemon(true)
+                    .build());
+            this.writer.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        flush();
+                        lastWriteFailure = null;
+                    } catch (SQLException e) {
+                        //The failed listings were queued again, the next period retries them.
+                        lastWriteFailure = e;
+                    } catch (RuntimeException e) {
+                        //Escaping the task would cancel all further writes.
+                        lastWriteFailure = e;
+                    }
+                }
+            }, writeIntervalMillis, writeIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.writer = null;
+        }
+    }
+
+    public void listingCreated(AuctionListing auctionListing) {
+        forgetMissing(auctionListing.getListingKey());
+        listingChanged(auctionListing);
+    }
+
+    public void listingChanged(AuctionListing auctionListing) {
+        if (!(auctionListing instanceof DefaultAuctionListingFactory.DefaultAuctionListing)) return;
+        if (pendingKeys.putIfAbsent(auctionListing.getListingKey(), auctionListing) == null) {
+            pendingListings.add(auctionListing);
+        }
+    }
+
+    public AuctionListing find(long listingKey) {
+        if (missingKeys.get(missingKeySlot(listingKey)) == listingKey) return null;
+
+        try {
+            Connection connection = dataSource.getConnection();
+            try {
+                ListingRecord record = selectListing(connection, listingKey);
+                if (record == null) {
+                    rememberMissing(listingKey);
+                    return null;
+                }
+
+                storedBidCounts.putIfAbsent(listingKey, record.bidCount);
+                return restoringListingFactory.restoreAuctionListing(record);
+            } finally {
+                connection.close();
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Unable to read listing " + ListingIds.toString(listingKey), e);
+        }
+    }
+
+    /**
+     * Makes the listings already in the database known to a service after a restart.
+     * Every listing is indexed by owner and winner, and the open ones, which the
+     * service has to close, are read with their bids and registered. The others are
+     * read through {@link #find} when asked for.
+     */
+    public void registerStoredListings(DefaultAuctionService auctionService) {
+        List<BidRecord> noBids = new ArrayList<BidRecord>();
+        List<Long> openListingKeys = new ArrayList<Long>();
+        try {
+            Connection connection = dataSource.getConnection();
+            try {
+                Statement statement = connection.createStatement();
+                try {
+                    ResultSet listingRows = statement.executeQuery(SELECT_ALL_LISTINGS);
+                    while (listingRows.next()) {
+                        ListingRecord record = readListing(listingRows, listingRows.getLong(15), noBids);
+                        auctionService.indexStoredListing(restoringListingFactory.restoreAuctionListing(record));
+                        if (!record.closed) {
+                            openListingKeys.add(record.listingKey);
+                        }
+                    }
+                } finally {
+                    statement.close();
+                }
+                for (long listingKey : openListingKeys) {
+                    ListingRecord record = selectListing(connection, listingKey);
+                    if (record == null) continue;
+
+                    storedBidCounts.putIfAbsent(listingKey, record.bidCount);
+                    auctionService.registerStoredListing(restoringListingFactory.restoreAuctionListing(record));
+                }
+            } finally {
+                connection.close();
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Unable to read the stored listings", e);
+        }
+    }
+
+    /**
+     * Writes every queued listing, in batches of at most {@link #MAX_BATCH_SIZE} listings.
+     */
+    public synchronized void flush() throws SQLException {
+        List<AuctionListing> batch = new ArrayList<AuctionListing>();
+        while (true) {
+            batch.clear();
+            AuctionListing auctionListing;
+            while (batch.size() < MAX_BATCH_SIZE && (auctionListing = pendingListings.poll()) != null) {
+                //Dequeue before reading the state, so a change made meanwhile queues the listing again.
+                pendingKeys.remove(auctionListing.getListingKey());
+                batch.add(auctionListing);
+            }
+            if (batch.isEmpty()) return;
+
+            boolean written = false;
+            try {
+                write(batch);
+                written = true;
+            } finally {
+                if (!written) {
+                    for (AuctionListing failed : batch) {
+                        listingChanged(failed);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of transactions written
+     */
+    public long getWriteCount() {
+        return writeCount.get();
+    }
+
+    /**
+     * @return number of listing rows inserted or updated, lower than the number of changes when they coalesce
+     */
+    public long getListingRowCount() {
+        return listingRowCount.get();
+    }
+
+    public long getBidRowCount() {
+        return bidRowCount.get();
+    }
+
+    /**
+     * @return why the last background write failed, null if it succeeded
+     */
+    public Exception getLastWriteFailure() {
+        return lastWriteFailure;
+    }
+
+    /**
+     * Stops the background writer and writes what is still queued.
+     */
+    public void close() throws SQLException {
+        if (writer != null) {
+            writer.shutdown();
+            try {
+                writer.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+
+    private void write(List<AuctionListing> batch) throws SQLException {
+        List<ListingRecord> records = new ArrayList<ListingRecord>(batch.size());
+        for (AuctionListing auctionListing : batch) {
+            Integer storedBidCount = storedBidCounts.get(auctionListing.getListingKey());
+            records.add(DefaultAuctionListingFactory.recordOf(auctionListing,
+                    storedBidCount == null ? 0 : storedBidCount));
+        }
+
+        Connection connection = dataSource.getConnection();
+        try {
+            connection.setAutoCommit(false);
+            PreparedStatement insertListing = connection.prepareStatement(INSERT_LISTING);
+            PreparedStatement updateListing = connection.prepareStatement(UPDATE_LISTING);
+            PreparedStatement insertBid = connection.prepareStatement(INSERT_BID);
+            int bidRows = 0;
+            try {
+                for (ListingRecord record : records) {
+                    boolean stored = storedBidCounts.containsKey(record.listingKey);
+                    PreparedStatement listingStatement = stored ? updateListing : insertListing;
+                    setListing(listingStatement, record);
+                    listingStatement.addBatch();
+                    for (int i = 0; i < record.bids.size(); i++) {
+                        BidRecord bid = record.bids.get(i);
+                        insertBid.setLong(1, record.listingKey);
+                        insertBid.setInt(2, record.bidOffset + i);
+                        insertBid.setString(3, bid.getBidder());
+                        insertBid.setLong(4, bid.getBidAmountCents());
+                        insertBid.setLong(5, bid.getBidTimeMillis());
+                        insertBid.addBatch();
+                        bidRows++;
+                    }
+                }
+                //Listings first, bids refer to them.
+                insertListing.executeBatch();
+                updateListing.executeBatch();
+                insertBid.executeBatch();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                insertListing.close();
+                updateListing.close();
+                insertBid.close();
+            }
+            for (ListingRecord record : records) {
+                storedBidCounts.put(record.listingKey, record.bidCount);
+            }
+            writeCount.incrementAndGet();
+            listingRowCount.addAndGet(records.size());
+            bidRowCount.addAndGet(bidRows);
+        } finally {
+            connection.close();
+        }
+    }
+
+    private void rememberMissing(long listingKey) {
+        int slot = missingKeySlot(listingKey);
+        missingKeys.set(slot, listingKey);
+        //Created meanwhile but not written yet, it must not be hidden once it is.
+        if (pendingKeys.containsKey(listingKey)) {
+            missingKeys.compareAndSet(slot, listingKey, ListingIds.NO_KEY);
+        }
+    }
+
+    private void forgetMissing(long listingKey) {
+        missingKeys.compareAndSet(missingKeySlot(listingKey), listingKey, ListingIds.NO_KEY);
+    }
+
+    private static int missingKeySlot(long listingKey) {
+        int hash = (int) (listingKey ^ (listingKey >>> 32)) * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & (MISSING_KEY_CACHE_SIZE - 1);
+    }
+
+    private static void setListing(PreparedStatement statement, ListingRecord record) throws SQLException {
+        statement.setString(1, record.listingOwner);
+        statement.setLong(2, record.startingPriceCents);
+        statement.setLong(3, record.buyItNowPriceCents);
+        statement.setInt(4, record.auctionLength);
+        statement.setLong(5, record.startingTimeMillis);
+        statement.setLong(6, record.endingTimeMillis);
+        setNullableString(statement, 7, record.currentBidder);
+        statement.setLong(8, record.currentBidCents);
+        statement.setLong(9, record.leaderMaximumCents);
+        statement.setBoolean(10, record.closed);
+        statement.setBoolean(11, record.boughtUsingBuyItNow);
+        setNullableString(statement, 12, record.winningUser);
+        statement.setLong(13, record.winningPriceCents);
+        statement.setInt(14, record.bidCount);
+        statement.setLong(15, record.listingKey);
+    }
+
+    private static void setNullableString(PreparedStatement statement, int index, String value) throws SQLException {
+        if (value == null) {
+            statement.setNull(index, Types.VARCHAR);
+        } else {
+            statement.setString(index, value);
+        }
+    }
+
+    private static ListingRecord selectListing(Connection connection, long listingKey) throws SQLException {
+        PreparedStatement selectListing = connection.prepareStatement(SELECT_LISTING);
+        PreparedStatement selectBids = connection.prepareStatement(SELECT_BIDS);
+        try {
+            selectListing.setLong(1, listingKey);
+            ResultSet listingRow = selectListing.executeQuery();
+            if (!listingRow.next()) return null;
+
+            List<BidRecord> bids = new ArrayList<BidRecord>();
+            selectBids.setLong(1, listingKey);
+            ResultSet bidRows = selectBids.executeQuery();
+            while (bidRows.next()) {
+                bids.add(new BidRecord(bidRows.getString(1), bidRows.getLong(2), bidRows.getLong(3)));
+            }
+            return readListing(listingRow, listingKey, bids);
+        } finally {
+            selectListing.close();
+            selectBids.close();
+        }
+    }
+
+    private static ListingRecord readListing(ResultSet listingRow, long listingKey, List<BidRecord> bids)
+            throws SQLException {
+        return new ListingRecord(listingKey, listingRow.getString(1), listingRow.getLong(2),
+                listingRow.getLong(3), listingRow.getInt(4), listingRow.getLong(5), listingRow.getLong(6),
+                listingRow.getString(7), listingRow.getLong(8), listingRow.getLong(9), listingRow.getBoolean(10),
+                listingRow.getBoolean(11), listingRow.getString(12), listingRow.getLong(13),
+                listingRow.getInt(14), bids, 0);
+    }
+
+    /**
+     * Announces every stored listing, without its bids, to the listener.
+     */
+    private void announceStoredListings() throws SQLException {
+        List<BidRecord> noBids = new ArrayList<BidRecord>();
+        Connection connection = dataSource.getConnection();
+        try {
+            Statement statement = connection.createStatement();
+            try {
+                ResultSet listingRows = statement.executeQuery(SELECT_ALL_LISTINGS);
+                while (listingRows.next()) {
+                    restoringListingFactory.announceRestoredListing(restoringListingFactory.restoreAuctionListing(
+                            readListing(listingRows, listingRows.getLong(15), noBids)));
+                }
+            } finally {
+                statement.close();
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    private void createTables() throws SQLException {
+        Connection connection = dataSource.getConnection();
+        try {
+            Statement statement = connection.createStatement();
+            try {
+                for (String createTable : CREATE_TABLES) {
+                    statement.execute(createTable);
+                }
+            } finally {
+                statement.close();
+            }
+        } finally {
+            connection.close();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.acme.auction;
+
+import com.acme.auctionclient.AuctionService;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Provides;
+import com.google.inject.Singleton;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+
+/**
+ * Guice module storing the listings of the auction service in a database
+ * through a {@link JdbcListingRepository}. Meant to override the repository bound by
+ * {@link AuctionModule}:
+ * <pre>
+ * Modules.override(new AuctionModule(false)).with(new JdbcListingRepositoryModule(dataSource))
+ * </pre>
+ * The stored listings are registered with a {@link DefaultAuctionService} once it
+ * has been created, so the open ones are closed and all are found by user.
+ */
+public class JdbcListingRepositoryModule extends AbstractModule {
+    private final DataSource dataSource;
+
+    public JdbcListingRepositoryModule(DataSource dataSource) {
+        super();
+        this.dataSource = dataSource;
+    }
+
+    @Override
+    protected void configure() {
+        bind(ListingRepository.class).to(JdbcListingRepository.class);
+        requestInjection(new StoredListingRegistration());
+    }
+
+    @Provides
+    @Singleton
+    JdbcListingRepository provideJdbcListingRepository(TimeService timeService,
+                                                        AuctionListingListener auctionListingListener)
+            throws SQLException {
+        return new JdbcListingRepository(dataSource, timeService, auctionListingListener,
+                JdbcListingRepository.DEFAULT_WRITE_INTERVAL_MILLIS, true);
+    }
+
+    /**
+     * Registers the stored listings once the service has been created.
+     */
+    static class StoredListingRegistration {
+        @Inject
+        void registerStoredListings(AuctionService auctionService, JdbcListingRepository repository) {
+            if (auctionService instanceof DefaultAuctionService) {
+                repository.registerStoredListings((DefaultAuctionService) auctionService);
+            }
+        }
+    }
+}
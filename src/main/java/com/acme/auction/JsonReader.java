@@ -0,0 +1,335 @@
+package com.acme.auction;
+
+import com.acme.auctionclient.Money;
+
+/**
+ * Streaming pull parser reading JSON from UTF-8 bytes.
+ * <p/>
+ * Amounts are parsed straight into cents, rejecting fractions of a cent, without
+ * going through BigDecimal. Malformed input raises IllegalArgumentException. Not
+ * thread safe.
+ */
+class JsonReader {
+    private final byte[] bytes;
+    private final int end;
+    private int position;
+
+    JsonReader(byte[] bytes, int length) {
+        this.bytes = bytes;
+        this.end = length;
+    }
+
+    void beginObject() {
+        expect('{');
+    }
+
+    void endObject() {
+        expect('}');
+    }
+
+    void beginArray() {
+        expect('[');
+    }
+
+    void endArray() {
+        expect(']');
+    }
+
+    /**
+     * @return true if the current object or array has another member, consuming the
+     *         comma in front of it
+     */
+    boolean hasNext() {
+        byte b = peek();
+        if (b == '}' || b == ']') return false;
+        if (b == ',') {
+            position++;
+        }
+        return true;
+    }
+
+    String nextName() {
+        String name = nextString();
+        expect(':');
+        return name;
+    }
+
+    /**
+     * @return true, after consuming it, if the next value is null
+     */
+    boolean nextIfNull() {
+        if (peek() != 'n') return false;
+        expectLiteral("null");
+        return true;
+    }
+
+    String nextString() {
+        expect('"');
+        StringBuilder builder = null;
+        int start = position;
+        while (true) {
+            if (position >= end) {
+                throw syntaxError("Unterminated string");
+            }
+            int b = bytes[position] & 0xFF;
+            if (b == '"') {
+                String value = builder == null
+                        ? asciiString(start, position) : builder.append(asciiString(start, position)).toString();
+                position++;
+                return value;
+            }
+            if (b >= 0x80 || b == '\\') {
+                if (builder == null) {
+                    builder = new StringBuilder();
+                }
+                builder.append(asciiString(start, position));
+                if (b == '\\') {
+                    readEscape(builder);
+                } else {
+                    readMultiByte(builder, b);
+                }
+                start = position;
+            } else if (b < 0x20) {
+                throw syntaxError("Control character in string");
+            } else {
+                position++;
+            }
+        }
+    }
+
+    long nextLong() {
+        skipWhitespace();
+        boolean negative = position < end && bytes[position] == '-';
+        if (negative) {
+            position++;
+        }
+        long value = readDigits();
+        return negative ? -value : value;
+    }
+
+    int nextInt() {
+        long value = nextLong();
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Number out of range: " + value);
+        }
+        return (int) value;
+    }
+
+    /**
+     * Reads an amount such as 12, 12.5 or 12.50 as cents; null reads as
+     * {@link Money#NO_AMOUNT_CENTS}.
+     */
+    long nextCents() {
+        if (nextIfNull()) {
+            return Money.NO_AMOUNT_CENTS;
+        }
+        skipWhitespace();
+        boolean negative = position < end && bytes[position] == '-';
+        if (negative) {
+            position++;
+        }
+        long units = readDigits();
+        long fraction = 0;
+        if (position < end && bytes[position] == '.') {
+            position++;
+            int digits = 0;
+            while (position < end && isDigit(bytes[position])) {
+                if (++digits > Money.SCALE) {
+                    throw new IllegalArgumentException("Amount has fractional cents");
+                }
+                fraction = fraction * 10 + (bytes[position++] - '0');
+            }
+            if (digits == 0) {
+                throw syntaxError("Expected digit");
+            }
+            if (digits == 1) {
+                fraction *= 10;
+            }
+        }
+        if (units > (Long.MAX_VALUE - fraction) / 100) {
+            throw new IllegalArgumentException("Amount out of range");
+        }
+        long cents = units * 100 + fraction;
+        return negative ? -cents : cents;
+    }
+
+    void skipValue() {
+        byte b = peek();
+        if (b == '{' || b == '[') {
+            position++;
+            while (hasNext()) {
+                if (b == '{') {
+                    nextName();
+                }
+                skipValue();
+            }
+            position++;
+        } else if (b == '"') {
+            nextString();
+        } else if (b == 'n') {
+            expectLiteral("null");
+        } else if (b == 't') {
+            expectLiteral("true");
+        } else if (b == 'f') {
+            expectLiteral("false");
+        } else {
+            //Numbers: sign, digits, fraction and exponent characters.
+            int start = position;
+            while (position < end && (isDigit(bytes[position]) || bytes[position] == '-' || bytes[position] == '+'
+                    || bytes[position] == '.' || bytes[position] == 'e' || bytes[position] == 'E')) {
+                position++;
+            }
+            if (position == start) {
+                throw syntaxError("Unexpected character");
+            }
+        }
+    }
+
+    /**
+     * Checks only whitespace remains.
+     */
+    void endDocument() {
+        skipWhitespace();
+        if (position != end) {
+            throw syntaxError("Unexpected trailing content");
+        }
+    }
+
+    private long readDigits() {
+        int start = position;
+        long value = 0;
+        while (position < end && isDigit(bytes[position])) {
+            if (value > (Long.MAX_VALUE - 9) / 10) {
+                throw new IllegalArgumentException("Number out of range");
+            }
+            value = value * 10 + (bytes[position++] - '0');
+        }
+        if (position == start) {
+            throw syntaxError("Expected digit");
+        }
+        return value;
+    }
+
+    private void readEscape(StringBuilder builder) {
+        position++;
+        if (position >= end) {
+            throw syntaxError("Unterminated escape");
+        }
+        byte b = bytes[position++];
+        switch (b) {
+            case '"':
+            case '\\':
+            case '/':
+                builder.append((char) b);
+                break;
+            case 'b':
+                builder.append('\b');
+                break;
+            case 'f':
+                builder.append('\f');
+                break;
+            case 'n':
+                builder.append('\n');
+                break;
+            case 'r':
+                builder.append('\r');
+                break;
+            case 't':
+                builder.append('\t');
+                break;
+            case 'u':
+                if (position + 4 > end) {
+                    throw syntaxError("Unterminated escape");
+                }
+                int c = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(bytes[position++], 16);
+                    if (digit < 0) {
+                        throw syntaxError("Invalid unicode escape");
+                    }
+                    c = (c << 4) | digit;
+                }
+                builder.append((char) c);
+                break;
+            default:
+                throw syntaxError("Invalid escape");
+        }
+    }
+
+    private void readMultiByte(StringBuilder builder, int first) {
+        int extraBytes;
+        int codePoint;
+        if ((first & 0xE0) == 0xC0) {
+            extraBytes = 1;
+            codePoint = first & 0x1F;
+        } else if ((first & 0xF0) == 0xE0) {
+            extraBytes = 2;
+            codePoint = first & 0x0F;
+        } else if ((first & 0xF8) == 0xF0) {
+            extraBytes = 3;
+            codePoint = first & 0x07;
+        } else {
+            throw syntaxError("Invalid UTF-8");
+        }
+        position++;
+        if (position + extraBytes > end) {
+            throw syntaxError("Invalid UTF-8");
+        }
+        for (int i = 0; i < extraBytes; i++) {
+            int b = bytes[position++] & 0xFF;
+            if ((b & 0xC0) != 0x80) {
+                throw syntaxError("Invalid UTF-8");
+            }
+            codePoint = (codePoint << 6) | (b & 0x3F);
+        }
+        if (!Character.isValidCodePoint(codePoint)) {
+            throw syntaxError("Invalid UTF-8");
+        }
+        builder.appendCodePoint(codePoint);
+    }
+
+    @SuppressWarnings("deprecation")
+    private String asciiString(int from, int to) {
+        //Only ever called on ASCII runs, for which this constructor is the cheapest.
+        return new String(bytes, 0, from, to - from);
+    }
+
+    private void expectLiteral(String literal) {
+        for (int i = 0; i < literal.length(); i++) {
+            if (position >= end || bytes[position++] != literal.charAt(i)) {
+                throw syntaxError("Expected " + literal);
+            }
+        }
+    }
+
+    private void expect(char c) {
+        if (peek() != c) {
+            throw syntaxError("Expected '" + c + "'");
+        }
+        position++;
+    }
+
+    private byte peek() {
+        skipWhitespace();
+        if (position >= end) {
+            throw syntaxError("Unexpected end of input");
+        }
+        return bytes[position];
+    }
+
+    private void skipWhitespace() {
+        while (position < end) {
+            byte b = bytes[position];
+            if (b != ' ' && b != '\t' && b != '\n' && b != '\r') return;
+            position++;
+        }
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private IllegalArgumentException syntaxError(String message) {
+        return new IllegalArgumentException(message + " at offset " + position);
+    }
+}
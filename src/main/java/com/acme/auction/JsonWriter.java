@@ -0,0 +1,214 @@
+package com.acme.auction;
+
+import com.acme.auctionclient.InvoiceLine;
+import com.acme.auctionclient.Money;
+
+import java.util.Arrays;
+
+/**
+ * Streaming JSON writer encoding straight to UTF-8 bytes.
+ * <p/>
+ * Amounts are written as JSON numbers with two decimals, computed from the cents
+ * without going through BigDecimal. Separators are tracked per nesting level, so
+ * values are simply written in order. Not thread safe.
+ */
+class JsonWriter {
+    private static final int MAX_DEPTH = 32;
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    private byte[] bytes;
+    private int length;
+    private final boolean[] hasValue = new boolean[MAX_DEPTH];
+    private int depth;
+    private boolean afterName;
+
+    JsonWriter() {
+        this(256);
+    }
+
+    JsonWriter(int initialCapacity) {
+        this.bytes = new byte[initialCapacity];
+    }
+
+    JsonWriter beginObject() {
+        return open('{');
+    }
+
+    JsonWriter endObject() {
+        return close('}');
+    }
+
+    JsonWriter beginArray() {
+        return open('[');
+    }
+
+    JsonWriter endArray() {
+        return close(']');
+    }
+
+    JsonWriter name(String name) {
+        separate();
+        writeString(name);
+        write(':');
+        afterName = true;
+        return this;
+    }
+
+    JsonWriter value(String value) {
+        if (value == null) {
+            return nullValue();
+        }
+        separate();
+        writeString(value);
+        return this;
+    }
+
+    JsonWriter value(long value) {
+        separate();
+        writeDigits(value);
+        return this;
+    }
+
+    /**
+     * Writes an amount, or null for {@link Money#NO_AMOUNT_CENTS}.
+     */
+    JsonWriter centsValue(long cents) {
+        if (cents == Money.NO_AMOUNT_CENTS) {
+            return nullValue();
+        }
+        separate();
+        if (cents < 0) {
+            write('-');
+            //Long.MIN_VALUE has no positive counterpart, it is written through its quotient.
+            long units = -(cents / 100);
+            int fraction = (int) -(cents % 100);
+            writeDigits(units);
+            write('.');
+            write('0' + fraction / 10);
+            write('0' + fraction % 10);
+            return this;
+        }
+        writeDigits(cents / 100);
+        int fraction = (int) (cents % 100);
+        write('.');
+        write('0' + fraction / 10);
+        write('0' + fraction % 10);
+        return this;
+    }
+
+    JsonWriter nullValue() {
+        separate();
+        write('n');
+        write('u');
+        write('l');
+        write('l');
+        return this;
+    }
+
+    JsonWriter invoiceLine(InvoiceLine invoiceLine) {
+        return beginObject()
+                .name("auctionId").value(invoiceLine.getAuctionId())
+                .name("feeType").value(invoiceLine.getFeeType().name())
+                .name("amount").centsValue(invoiceLine.getAmountCents())
+                .endObject();
+    }
+
+    byte[] bytes() {
+        return bytes;
+    }
+
+    int length() {
+        return length;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(bytes, length);
+    }
+
+    private JsonWriter open(char bracket) {
+        separate();
+        if (depth == MAX_DEPTH) {
+            throw new IllegalStateException("JSON nested too deeply");
+        }
+        write(bracket);
+        hasValue[depth++] = false;
+        return this;
+    }
+
+    private JsonWriter close(char bracket) {
+        depth--;
+        write(bracket);
+        return this;
+    }
+
+    private void separate() {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth > 0) {
+            if (hasValue[depth - 1]) {
+                write(',');
+            }
+            hasValue[depth - 1] = true;
+        }
+    }
+
+    private void writeDigits(long value) {
+        if (value < 0) {
+            write('-');
+            if (value == Long.MIN_VALUE) {
+                writeDigits(-(value / 10));
+                write('0' + (int) -(value % 10));
+                return;
+            }
+            value = -value;
+        }
+        if (value >= 10) {
+            writeDigits(value / 10);
+        }
+        write('0' + (int) (value % 10));
+    }
+
+    private void writeString(String value) {
+        write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                write('\\');
+                write(c);
+            } else if (c < 0x20) {
+                write('\\');
+                write('u');
+                write('0');
+                write('0');
+                write(HEX[c >> 4]);
+                write(HEX[c & 0xF]);
+            } else if (c < 0x80) {
+                write(c);
+            } else if (c < 0x800) {
+                write(0xC0 | (c >> 6));
+                write(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                write(0xF0 | (codePoint >> 18));
+                write(0x80 | ((codePoint >> 12) & 0x3F));
+                write(0x80 | ((codePoint >> 6) & 0x3F));
+                write(0x80 | (codePoint & 0x3F));
+            } else {
+                write(0xE0 | (c >> 12));
+                write(0x80 | ((c >> 6) & 0x3F));
+                write(0x80 | (c & 0x3F));
+            }
+        }
+        write('"');
+    }
+
+    private void write(int b) {
+        if (length == bytes.length) {
+            bytes = Arrays.copyOf(bytes, bytes.length * 2);
+        }
+        bytes[length++] = (byte) b;
+    }
+}
@@ -0,0 +1,10 @@
+package com.acme.auction;
+
+/**
+ * Scheduler that does nothing, leaving listings to close themselves
+ * the next time they are read after their ending time.
+ */
+public class LazyAuctionCloseScheduler implements AuctionCloseScheduler {
+    public void scheduleClose(AuctionListing auctionListing) {
+    }
+}
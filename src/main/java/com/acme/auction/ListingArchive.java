@@ -0,0 +1,349 @@
+package com.acme.auction;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Two tier store of closed listings moved out of the live registry.
+ * <p/>
+ * Archived listings are encoded by {@link ArchivedListing} and compressed. They
+ * first go to a memory tier of compressed byte arrays. Once the memory tier is
+ * over its byte budget the oldest entries are appended to segment files on disk,
+ * where they stay, so disk usage grows with the number of archived listings while
+ * the heap does not. The disk index is rebuilt by scanning the segments when the
+ * archive is opened again, and {@link #close()} spills the memory tier so nothing
+ * is lost over a restart. {@link #flush()} does the same for a running archive,
+ * for snapshots which leave archived listings out.
+ * <p/>
+ * Archived listings are decoded only when read. Recently read ones are kept
+ * decoded in a small LRU cache, as the same closed listing is usually asked for
+ * several times in a row, by its owner and by its winner.
+ */
+public class ListingArchive implements Closeable {
+    public static final long DEFAULT_MEMORY_BUDGET_BYTES = 64L << 20;
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+    public static final long DEFAULT_SEGMENT_SIZE_BYTES = 256L << 20;
+
+    private static final String SEGMENT_PREFIX = "archive-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    //Each record on disk is the listing key, the compressed length and the compressed bytes.
+    private static final int RECORD_HEADER_SIZE = 12;
+    //Disk locations pack the segment number above the offset within the segment.
+    private static final int OFFSET_BITS = 40;
+
+    private final File directory;
+    private final long memoryBudgetBytes;
+    private final long segmentSizeBytes;
+    private final ConcurrentLongObjectMap<byte[]> memoryTier = new ConcurrentLongObjectMap<byte[]>();
+    private final Queue<Long> memoryTierOrder = new ConcurrentLinkedQueue<Long>();
+    private final AtomicLong memoryTierBytes = new AtomicLong();
+    private final ConcurrentLongObjectMap<Long> diskIndex = new ConcurrentLongObjectMap<Long>();
+    private final Cache<Long, ArchivedListing> recentlyRead;
+    private final Object spillLock = new Object();
+    private volatile FileChannel[] segments = new FileChannel[0];
+    private RandomAccessFile writeSegment;
+    private long writeOffset;
+
+    public ListingArchive(File directory) throws IOException {
+        this(directory, DEFAULT_MEMORY_BUDGET_BYTES, DEFAULT_CACHE_SIZE, DEFAULT_SEGMENT_SIZE_BYTES);
+    }
+
+    /**
+     * @param directory         directory holding the segment files, created if missing
+     * @param memoryBudgetBytes compressed bytes kept in memory before spilling to disk
+     * @param cacheSize         number of decoded listings kept after being read
+     * @param segmentSizeBytes  size after which a new segment file is started
+     */
+    public ListingArchive(File directory, long memoryBudgetBytes, int cacheSize, long segmentSizeBytes)
+            throws IOException {
+        super();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create archive directory " + directory);
+        }
+        this.directory = directory;
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        this.segmentSizeBytes = segmentSizeBytes;
+        this.recentlyRead = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+        openSegments();
+    }
+
+    /**
+     * Adds a closed listing. Closed listings do not change, so a listing already
+     * in the archive is left as it is.
+     */
+    public void archive(AuctionListing auctionListing) {
+        long listingKey = auctionListing.getListingKey();
+        if (contains(listingKey)) return;
+
+        byte[] compressed = compress(ArchivedListing.of(auctionListing).encode());
+        if (memoryTier.putIfAbsent(listingKey, compressed) != null) return;
+        memoryTierOrder.add(listingKey);
+        if (memoryTierBytes.addAndGet(compressed.length) > memoryBudgetBytes) {
+            spill(memoryBudgetBytes);
+        }
+    }
+
+    /**
+     * @return the archived listing or null if the key was never archived
+     */
+    public AuctionListing find(long listingKey) {
+        ArchivedListing archivedListing = recentlyRead.getIfPresent(listingKey);
+        if (archivedListing != null) {
+            return archivedListing;
+        }
+        byte[] compressed = memoryTier.get(listingKey);
+        if (compressed == null) {
+            Long location = diskIndex.get(listingKey);
+            if (location == null) {
+                return null;
+            }
+            compressed = read(location);
+        }
+        archivedListing = ArchivedListing.decode(decompress(compressed));
+        recentlyRead.put(listingKey, archivedListing);
+        return archivedListing;
+    }
+
+    public boolean contains(long listingKey) {
+        return memoryTier.containsKey(listingKey) || diskIndex.containsKey(listingKey);
+    }
+
+    public int getMemoryTierCount() {
+        return memoryTier.size();
+    }
+
+    public long getMemoryTierBytes() {
+        return memoryTierBytes.get();
+    }
+
+    public int getDiskTierCount() {
+        return diskIndex.size();
+    }
+
+    /**
+     * Writes everything still in memory to disk and forces the segment files, so
+     * every listing archived so far survives a crash.
+     */
+    public void flush() throws IOException {
+        synchronized (spillLock) {
+            spillLocked(0);
+            for (FileChannel segment : segments) {
+                segment.force(false);
+            }
+        }
+    }
+
+    /**
+     * Decodes every archived listing in turn and hands it to the visitor, for
+     * rebuilding what is derived from the archived listings after a restart.
+     */
+    void visitArchivedListings(DefaultAuctionService.ListingVisitor listingVisitor) throws IOException {
+        synchronized (spillLock) {
+            //No spill runs meanwhile, so every listing is in exactly one tier.
+            for (byte[] compressed : memoryTier.values()) {
+                listingVisitor.visit(ArchivedListing.decode(decompress(compressed)));
+            }
+            for (Long location : diskIndex.values()) {
+                listingVisitor.visit(ArchivedListing.decode(decompress(read(location))));
+            }
+        }
+    }
+
+    /**
+     * Writes everything still in memory to disk and closes the segment files.
+     */
+    public void close() throws IOException {
+        synchronized (spillLock) {
+            flush();
+            for (FileChannel segment : segments) {
+                segment.close();
+            }
+            segments = new FileChannel[0];
+            writeSegment = null;
+        }
+    }
+
+    /**
+     * Moves the oldest entries of the memory tier to disk until its size is within
+     * the target, and forces them to the device. An entry is indexed on disk before
+     * it leaves memory, so readers always find it in one tier or the other.
+     */
+    private void spill(long targetBytes) {
+        synchronized (spillLock) {
+            try {
+                spillLocked(targetBytes);
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to write listing archive in " + directory, e);
+            }
+        }
+    }
+
+    private void spillLocked(long targetBytes) throws IOException {
+        boolean spilled = false;
+        while (memoryTierBytes.get() > targetBytes) {
+            Long listingKey = memoryTierOrder.poll();
+            if (listingKey == null) break;
+            byte[] compressed = memoryTier.get(listingKey);
+            if (compressed == null) continue;
+
+            long location;
+            try {
+                location = append(listingKey, compressed);
+            } catch (IOException e) {
+                //The entry stays in memory and is spilled again later.
+                memoryTierOrder.add(listingKey);
+                throw e;
+            }
+            diskIndex.put(listingKey, location);
+            memoryTier.remove(listingKey);
+            memoryTierBytes.addAndGet(-compressed.length);
+            spilled = true;
+        }
+        if (spilled) {
+            writeSegment.getChannel().force(false);
+        }
+    }
+
+    private long append(long listingKey, byte[] compressed) throws IOException {
+        if (writeSegment == null || writeOffset >= segmentSizeBytes) {
+            startSegment();
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + compressed.length);
+        record.putLong(listingKey).putInt(compressed.length).put(compressed);
+        record.flip();
+        FileChannel channel = writeSegment.getChannel();
+        long offset = writeOffset;
+        while (record.hasRemaining()) {
+            channel.write(record, writeOffset + record.position());
+        }
+        writeOffset += record.limit();
+        return ((long) (segments.length - 1) << OFFSET_BITS) | offset;
+    }
+
+    private byte[] read(long location) {
+        FileChannel segment = segments[(int) (location >>> OFFSET_BITS)];
+        long offset = location & ((1L << OFFSET_BITS) - 1);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+            readFully(segment, header, offset);
+            ByteBuffer compressed = ByteBuffer.allocate(header.getInt(8));
+            readFully(segment, compressed, offset + RECORD_HEADER_SIZE);
+            return compressed.array();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read listing archive in " + directory, e);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of archive segment");
+            }
+        }
+    }
+
+    /**
+     * Opens the existing segments in order and indexes their records. A record cut
+     * short by a crash is dropped, and later segments are written after it.
+     */
+    private void openSegments() throws IOException {
+        String[] names = directory.list(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        Arrays.sort(names);
+        List<FileChannel> openedSegments = new ArrayList<FileChannel>();
+        for (String name : names) {
+            RandomAccessFile file = new RandomAccessFile(new File(directory, name), "rw");
+            FileChannel channel = file.getChannel();
+            long segmentNumber = openedSegments.size();
+            openedSegments.add(channel);
+
+            long size = channel.size();
+            long offset = 0;
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+            while (offset + RECORD_HEADER_SIZE <= size) {
+                header.clear();
+                readFully(channel, header, offset);
+                long recordEnd = offset + RECORD_HEADER_SIZE + header.getInt(8);
+                if (recordEnd > size) break;
+                diskIndex.put(header.getLong(0), (segmentNumber << OFFSET_BITS) | offset);
+                offset = recordEnd;
+            }
+            if (offset < size) {
+                channel.truncate(offset);
+            }
+            writeSegment = file;
+            writeOffset = offset;
+        }
+        segments = openedSegments.toArray(new FileChannel[openedSegments.size()]);
+    }
+
+    private void startSegment() throws IOException {
+        if (writeSegment != null) {
+            writeSegment.getChannel().force(false);
+        }
+        File file = new File(directory, String.format("%s%06d%s", SEGMENT_PREFIX, segments.length, SEGMENT_SUFFIX));
+        writeSegment = new RandomAccessFile(file, "rw");
+        writeOffset = 0;
+        FileChannel[] grown = Arrays.copyOf(segments, segments.length + 1);
+        grown[segments.length] = writeSegment.getChannel();
+        segments = grown;
+    }
+
+    private static byte[] compress(byte[] encoded) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(encoded);
+            deflater.finish();
+            ByteArrayOutputStream output = new ByteArrayOutputStream(encoded.length / 2 + 16);
+            byte[] buffer = new byte[512];
+            while (!deflater.finished()) {
+                output.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] decompress(byte[] compressed) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            ByteArrayOutputStream output = new ByteArrayOutputStream(compressed.length * 3);
+            byte[] buffer = new byte[512];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && inflater.needsInput()) {
+                    throw new IllegalStateException("Truncated archived listing");
+                }
+                output.write(buffer, 0, length);
+            }
+            return output.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt archived listing", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.acme.auction;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Provides;
+import com.google.inject.Singleton;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Guice module moving closed listings of the auction service to a
+ * {@link ListingArchive} once their grace period is over. Meant to be used
+ * alongside {@link AuctionModule}, or as an override of it:
+ * <pre>
+ * Modules.override(new AuctionModule(false)).with(new ListingArchiveModule(directory))
+ * </pre>
+ */
+public class ListingArchiveModule extends AbstractModule {
+    private final File directory;
+    private final long graceMillis;
+
+    public ListingArchiveModule(File directory) {
+        this(directory, ListingRegistry.DEFAULT_GRACE_MILLIS);
+    }
+
+    /**
+     * @param directory   directory holding the archive segments, reopened if it already exists
+     * @param graceMillis time after its close a listing stays in the live map
+     */
+    public ListingArchiveModule(File directory, long graceMillis) {
+        super();
+        this.directory = directory;
+        this.graceMillis = graceMillis;
+    }
+
+    @Override
+    protected void configure() {
+    }
+
+    @Provides
+    @Singleton
+    ListingArchive provideListingArchive() throws IOException {
+        return new ListingArchive(directory);
+    }
+
+    @Provides
+    @Singleton
+    ListingRegistry provideListingRegistry(TimeService timeService, ListingArchive listingArchive) {
+        return new ListingRegistry(timeService, listingArchive, graceMillis, ListingRegistry.DEFAULT_TICK_MILLIS, true);
+    }
+}
@@ -0,0 +1,11 @@
+package com.acme.auction;
+
+/**
+ * Implementation of this interface hands out the keys identifying auction listings.
+ * <p/>
+ * Keys are positive longs and never {@link ListingIds#NO_KEY}. Clients see them
+ * in the fixed-length string form produced by {@link ListingIds#toString(long)}.
+ */
+public interface ListingIdGenerator {
+    long nextListingKey();
+}
@@ -0,0 +1,54 @@
+package com.acme.auction;
+
+/**
+ * Conversions between listing keys and the listing id strings used at the API boundary.
+ * <p/>
+ * A listing id is the key written as {@link #ID_LENGTH} lower case hex digits.
+ */
+public final class ListingIds {
+    /**
+     * Key value which never identifies a listing.
+     */
+    public static final long NO_KEY = 0L;
+    public static final int ID_LENGTH = 16;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private ListingIds() {
+    }
+
+    public static String toString(long listingKey) {
+        char[] chars = new char[ID_LENGTH];
+        for (int i = ID_LENGTH - 1; i >= 0; i--) {
+            chars[i] = HEX_DIGITS[(int) (listingKey & 0xF)];
+            listingKey >>>= 4;
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Parses a listing id without throwing, so callers can report unknown ids their own way.
+     *
+     * @param listingId listing id or null
+     * @return the listing key, or {@link #NO_KEY} if listingId is not a well formed id
+     */
+    public static long parse(String listingId) {
+        if (listingId == null || listingId.length() != ID_LENGTH) {
+            return NO_KEY;
+        }
+        long listingKey = 0;
+        for (int i = 0; i < ID_LENGTH; i++) {
+            char c = listingId.charAt(i);
+            int digit;
+            if (c >= '0' && c <= '9') {
+                digit = c - '0';
+            } else if (c >= 'a' && c <= 'f') {
+                digit = c - 'a' + 10;
+            } else {
+                return NO_KEY;
+            }
+            listingKey = (listingKey << 4) | digit;
+        }
+        return listingKey;
+    }
+}
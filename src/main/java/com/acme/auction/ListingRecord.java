@@ -0,0 +1,57 @@
+package com.acme.auction;
+
+import com.acme.auctionclient.BidRecord;
+
+import java.util.List;
+
+/**
+ * Plain copy of the complete state of a default listing, taken by
+ * {@link DefaultAuctionListingFactory#recordOf(AuctionListing, int)} for storing it
+ * elsewhere and turned back into a listing by
+ * {@link DefaultAuctionListingFactory#restoreAuctionListing(ListingRecord)}.
+ */
+final class ListingRecord {
+    final long listingKey;
+    final String listingOwner;
+    final long startingPriceCents;
+    final long buyItNowPriceCents;
+    final int auctionLength;
+    final long startingTimeMillis;
+    final long endingTimeMillis;
+    final String currentBidder;
+    final long currentBidCents;
+    final long leaderMaximumCents;
+    final boolean closed;
+    final boolean boughtUsingBuyItNow;
+    final String winningUser;
+    final long winningPriceCents;
+    final int bidCount;
+    /**
+     * Bids from {@link #bidOffset} up to {@link #bidCount}, oldest first.
+     */
+    final List<BidRecord> bids;
+    final int bidOffset;
+
+    ListingRecord(long listingKey, String listingOwner, long startingPriceCents, long buyItNowPriceCents,
+                  int auctionLength, long startingTimeMillis, long endingTimeMillis, String currentBidder,
+                  long currentBidCents, long leaderMaximumCents, boolean closed, boolean boughtUsingBuyItNow,
+                  String winningUser, long winningPriceCents, int bidCount, List<BidRecord> bids, int bidOffset) {
+        this.listingKey = listingKey;
+        this.listingOwner = listingOwner;
+        this.startingPriceCents = startingPriceCents;
+        this.buyItNowPriceCents = buyItNowPriceCents;
+        this.auctionLength = auctionLength;
+        this.startingTimeMillis = startingTimeMillis;
+        this.endingTimeMillis = endingTimeMillis;
+        this.currentBidder = currentBidder;
+        this.currentBidCents = currentBidCents;
+        this.leaderMaximumCents = leaderMaximumCents;
+        this.closed = closed;
+        this.boughtUsingBuyItNow = boughtUsingBuyItNow;
+        this.winningUser = winningUser;
+        this.winningPriceCents = winningPriceCents;
+        this.bidCount = bidCount;
+        this.bids = bids;
+        this.bidOffset = bidOffset;
+    }
+}
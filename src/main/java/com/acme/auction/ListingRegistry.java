@@ -0,0 +1,218 @@
+package com.acme.auction;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Listings known to an auction service, looked up by listing key.
+ * <p/>
+ * Without an archive every listing stays in the live map for good. With a
+ * {@link ListingArchive}, listings are moved out of the live map once they have
+ * been closed for a grace period, so the live map only holds open and recently
+ * closed listings. The grace period runs from the ending time, or from the close
+ * of listings the service reports as closed early, see {@link #listingClosed}.
+ * Lookups fall back to the archive, so archived listings can still be read,
+ * though no longer changed.
+ */
+public class ListingRegistry {
+    public static final long DEFAULT_GRACE_MILLIS = 60L * 60 * 1000;
+    public static final long DEFAULT_TICK_MILLIS = 1000;
+
+    private final ConcurrentLongObjectMap<AuctionListing> liveListings =
+            new ConcurrentLongObjectMap<AuctionListing>();
+    private final TimeService timeService;
+    private final ListingArchive listingArchive;
+    private final long graceMillis;
+    private final TimingWheel<AuctionListing> demotionWheel;
+    private final ScheduledExecutorService ticker;
+    private volatile IllegalStateException lastDemotionFailure;
+
+    /**
+     * Creates a registry keeping every listing live.
+     */
+    public ListingRegistry() {
+        super();
+        this.timeService = null;
+        this.listingArchive = null;
+        this.graceMillis = 0;
+        this.demotionWheel = null;
+        this.ticker = null;
+    }
+
+    /**
+     * @param graceMillis time after its close a listing stays live
+     * @param tickMillis  granularity of the demotion schedule, and period of the ticker
+     * @param startTicker false to leave demotion to explicit {@link #demoteExpiredListings()} calls
+     */
+    public ListingRegistry(TimeService timeService, ListingArchive listingArchive, long graceMillis,
+                           long tickMillis, boolean startTicker) {
+        super();
+        this.timeService = timeService;
+        this.listingArchive = listingArchive;
+        this.graceMillis = graceMillis;
+        this.demotionWheel = new TimingWheel<AuctionListing>(tickMillis, TimingWheelAuctionCloseScheduler.WHEEL_SIZE,
+                timeService.currentTimeMillis());
+        if (startTicker) {
+            this.ticker = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("listing-archive-ticker")
+                    .setDaemon(true)
+                    .build());
+            this.ticker.scheduleAtFixedRate(new Runnable() {
+                public void run() {
+                    demoteExpiredListings();
+                }
+            }, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.ticker = null;
+        }
+    }
+
+    public void register(AuctionListing auctionListing) {
+        liveListings.put(auctionListing.getListingKey(), auctionListing);
+        if (demotionWheel != null) {
+            scheduleDemotion(auctionListing);
+        }
+    }
+
+    /**
+     * Registers a listing unless one with the same key is already live.
+     *
+     * @return the live listing, which is not the given one if it lost the race
+     */
+    public AuctionListing registerIfAbsent(AuctionListing auctionListing) {
+        AuctionListing existing = liveListings.putIfAbsent(auctionListing.getListingKey(), auctionListing);
+        if (existing != null) {
+            return existing;
+        }
+        if (demotionWheel != null) {
+            scheduleDemotion(auctionListing);
+        }
+        return auctionListing;
+    }
+
+    /**
+     * Counts the grace period of a listing closed before its ending time, such as
+     * one bought using buy it now, from now. Its demotion at the ending time is
+     * then skipped, the listing having left the live map by then.
+     */
+    public void listingClosed(AuctionListing auctionListing) {
+        if (demotionWheel == null) return;
+
+        long nowMillis = timeService.currentTimeMillis();
+        if (nowMillis < auctionListing.getEndingTime().getTime()) {
+            demotionWheel.schedule(auctionListing, nowMillis + 1 + graceMillis);
+        }
+    }
+
+    /**
+     * @return the live or archived listing, or null if the key is unknown
+     */
+    public AuctionListing find(long listingKey) {
+        AuctionListing auctionListing = liveListings.get(listingKey);
+        if (auctionListing == null && listingArchive != null) {
+            auctionListing = listingArchive.find(listingKey);
+        }
+        return auctionListing;
+    }
+
+    /**
+     * Archives the listings whose grace period is over. The archived copy is
+     * readable before the listing leaves the live map. A listing the archive fails
+     * to take stays live and is tried again a tick later.
+     *
+     * @return number of listings archived by this call
+     */
+    public int demoteExpiredListings() {
+        if (demotionWheel == null) return 0;
+
+        long nowMillis = timeService.currentTimeMillis();
+        List<AuctionListing> dueListings = demotionWheel.advanceTo(nowMillis);
+        int demotedCount = 0;
+        for (AuctionListing auctionListing : dueListings) {
+            //Skip listings demoted early or replaced meanwhile.
+            if (liveListings.get(auctionListing.getListingKey()) != auctionListing) continue;
+
+            if (auctionListing.closeIfEnded(nowMillis)) {
+                try {
+                    listingArchive.archive(auctionListing);
+                    lastDemotionFailure = null;
+                } catch (IllegalStateException e) {
+                    lastDemotionFailure = e;
+                    demotionWheel.schedule(auctionListing, nowMillis + 1);
+                    continue;
+                }
+                liveListings.remove(auctionListing.getListingKey());
+                demotedCount++;
+            } else {
+                //The clock was moved back after the listing was scheduled.
+                scheduleDemotion(auctionListing);
+            }
+        }
+        return demotedCount;
+    }
+
+    /**
+     * @return why the archive last failed to take a listing, null if it took the last one
+     */
+    public IllegalStateException getLastDemotionFailure() {
+        return lastDemotionFailure;
+    }
+
+    /**
+     * @return a copy of the listings in the live map
+     */
+    public List<AuctionListing> liveListings() {
+        return liveListings.values();
+    }
+
+    /**
+     * @return number of listings in the live map
+     */
+    public int getLiveCount() {
+        return liveListings.size();
+    }
+
+    /**
+     * Makes every listing archived so far durable, see {@link ListingArchive#flush()}.
+     */
+    public void flushArchive() throws IOException {
+        if (listingArchive != null) {
+            listingArchive.flush();
+        }
+    }
+
+    /**
+     * Hands every archived listing that is not also live to the visitor, see
+     * {@link ListingArchive#visitArchivedListings(DefaultAuctionService.ListingVisitor)}.
+     */
+    void visitArchivedListings(final DefaultAuctionService.ListingVisitor listingVisitor) throws IOException {
+        if (listingArchive == null) return;
+
+        listingArchive.visitArchivedListings(new DefaultAuctionService.ListingVisitor() {
+            public void visit(AuctionListing auctionListing) throws IOException {
+                if (!liveListings.containsKey(auctionListing.getListingKey())) {
+                    listingVisitor.visit(auctionListing);
+                }
+            }
+        });
+    }
+
+    public ListingArchive getListingArchive() {
+        return listingArchive;
+    }
+
+    public void shutdown() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+        }
+    }
+
+    private void scheduleDemotion(AuctionListing auctionListing) {
+        demotionWheel.schedule(auctionListing, auctionListing.getEndingTime().getTime() + 1 + graceMillis);
+    }
+}
@@ -0,0 +1,21 @@
+package com.acme.auction;
+
+/**
+ * Implementation of this interface stores auction listings outside the
+ * {@link ListingRegistry}, which then acts as a write-through cache in front of it.
+ * <p/>
+ * The service hands every created and every changed listing to the repository.
+ * Implementations are free to store the changes later and to coalesce several
+ * changes of a listing into one write, as long as the latest state is stored in
+ * the end. Listings the registry does not hold are looked up with {@link #find(long)}.
+ */
+public interface ListingRepository {
+    void listingCreated(AuctionListing auctionListing);
+
+    void listingChanged(AuctionListing auctionListing);
+
+    /**
+     * @return the stored listing or null if the key is unknown
+     */
+    AuctionListing find(long listingKey);
+}
@@ -0,0 +1,353 @@
+package com.acme.auction;
+
+import com.acme.auctionclient.BidRecord;
+import com.acme.auctionclient.Money;
+import com.acme.auctionclient.OperationStatus;
+import com.google.common.collect.ImmutableList;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+
+import static com.acme.auction.DefaultAuctionListingFactory.BID_INCREMENT_CENTS;
+import static com.acme.auction.MappedListingStore.AUCTION_LENGTH;
+import static com.acme.auction.MappedListingStore.BUY_IT_NOW_PRICE;
+import static com.acme.auction.MappedListingStore.CURRENT_BID;
+import static com.acme.auction.MappedListingStore.CURRENT_BIDDER;
+import static com.acme.auction.MappedListingStore.ENDING_TIME;
+import static com.acme.auction.MappedListingStore.FLAGS;
+import static com.acme.auction.MappedListingStore.FLAG_BOUGHT_USING_BUY_IT_NOW;
+import static com.acme.auction.MappedListingStore.FLAG_CLOSED;
+import static com.acme.auction.MappedListingStore.LEADER_MAXIMUM;
+import static com.acme.auction.MappedListingStore.LISTING_KEY;
+import static com.acme.auction.MappedListingStore.OWNER;
+import static com.acme.auction.MappedListingStore.STARTING_PRICE;
+import static com.acme.auction.MappedListingStore.STARTING_TIME;
+import static com.acme.auction.MappedListingStore.WINNER;
+import static com.acme.auction.MappedListingStore.WINNING_PRICE;
+
+/**
+ * Flyweight {@link AuctionListing} view over a record of a {@link MappedListingStore}.
+ * <p/>
+ * The view holds nothing but the store, the record index and the time service,
+ * and can be pointed at another record with {@link #moveTo(int)}. Changes and
+ * multi-field reads take the store's lock stripe for the record. The bidding rules
+ * are those of {@link DefaultAuctionListingFactory.DefaultAuctionListing}, applied
+ * to the primitive record fields.
+ * <p/>
+ * The bid history is kept on the heap by the {@link MappedAuctionListingFactory}
+ * and is not persisted with the record. The factory's listener is told when a view
+ * closes its listing, while the view holds the record's lock.
+ */
+public class MappedAuctionListing implements AuctionListing {
+    private final MappedListingStore store;
+    private final MappedAuctionListingFactory factory;
+    private final TimeService timeService;
+    private int index;
+
+    MappedAuctionListing(MappedListingStore store, MappedAuctionListingFactory factory,
+                         TimeService timeService, int index) {
+        super();
+        this.store = store;
+        this.factory = factory;
+        this.timeService = timeService;
+        this.index = index;
+    }
+
+    /**
+     * Points this view at another record, so one instance can walk many listings.
+     */
+    public MappedAuctionListing moveTo(int recordIndex) {
+        this.index = recordIndex;
+        return this;
+    }
+
+    public int getRecordIndex() {
+        return index;
+    }
+
+    public long bid(String user, BigDecimal bidAmount) {
+        return bid(user, Money.toCents(bidAmount));
+    }
+
+    public long bid(String user, long bidAmountCents) {
+        return applyBid(user, bidAmountCents, false);
+    }
+
+    public long proxyBid(String user, BigDecimal maximumBidAmount) {
+        return proxyBid(user, Money.toCents(maximumBidAmount));
+    }
+
+    public long proxyBid(String user, long maximumBidAmountCents) {
+        return applyBid(user, maximumBidAmountCents, true);
+    }
+
+    public long bid(String[] bidders, long[] bidAmountsCents, int bidCount, OperationStatus[] outcomes) {
+        UserDictionary users = store.getUserDictionary();
+        synchronized (store.lockFor(index)) {
+            long nowMillis = timeService.currentTimeMillis();
+            boolean closed = closeIfNeeded(nowMillis);
+            boolean anyChanged = false;
+            for (int i = 0; i < bidCount; i++) {
+                if (closed) {
+                    outcomes[i] = OperationStatus.CLOSED;
+                    continue;
+                }
+                int bidderId = users.idFor(bidders[i]);
+                boolean changed = applyBidLocked(bidderId, bidAmountsCents[i], false);
+                if (changed) {
+                    factory.bidHistoryFor(index).append(bidders[i], bidAmountsCents[i], nowMillis);
+                    anyChanged = true;
+                }
+                outcomes[i] = changed && store.getInt(index, CURRENT_BIDDER) == bidderId
+                        ? OperationStatus.ACCEPTED : OperationStatus.OUTBID;
+            }
+            return anyChanged ? nowMillis : UNCHANGED;
+        }
+    }
+
+    public long buyItNow(String user) {
+        int userId = store.getUserDictionary().idFor(user);
+        synchronized (store.lockFor(index)) {
+            long nowMillis = timeService.currentTimeMillis();
+            if (closeIfNeeded(nowMillis)) return UNCHANGED;
+            if (store.getLong(index, BUY_IT_NOW_PRICE) == Money.NO_AMOUNT_CENTS) return UNCHANGED;
+            store.putInt(index, WINNER, userId);
+            store.putLong(index, WINNING_PRICE, store.getLong(index, BUY_IT_NOW_PRICE));
+            store.putInt(index, FLAGS, FLAG_CLOSED | FLAG_BOUGHT_USING_BUY_IT_NOW);
+            factory.listingClosed(this);
+            return nowMillis;
+        }
+    }
+
+    public boolean isAuctionClosed() {
+        //Closed is final, so a closed record is answered without the clock or a lock.
+        if ((store.getInt(index, FLAGS) & FLAG_CLOSED) != 0) return true;
+        synchronized (store.lockFor(index)) {
+            return closeIfNeeded(timeService.currentTimeMillis());
+        }
+    }
+
+    public boolean closeIfEnded(long nowMillis) {
+        synchronized (store.lockFor(index)) {
+            return closeIfNeeded(nowMillis);
+        }
+    }
+
+    public Date getStartingTime() {
+        return new Date(store.getLong(index, STARTING_TIME));
+    }
+
+    public Date getEndingTime() {
+        return new Date(store.getLong(index, ENDING_TIME));
+    }
+
+    public String getListingOwner() {
+        return store.getUserDictionary().userFor(store.getInt(index, OWNER));
+    }
+
+    public String getListingId() {
+        return ListingIds.toString(getListingKey());
+    }
+
+    public long getListingKey() {
+        return store.getLong(index, LISTING_KEY);
+    }
+
+    public Bid getCurrentBid() {
+        synchronized (store.lockFor(index)) {
+            int bidderId = store.getInt(index, CURRENT_BIDDER);
+            if (bidderId == UserDictionary.NO_USER) return null;
+            return new RecordBid(store.getUserDictionary().userFor(bidderId), store.getLong(index, CURRENT_BID));
+        }
+    }
+
+    public List<BidRecord> getBidHistory(int offset, int limit) {
+        BidHistory bidHistory = factory.existingBidHistory(index);
+        if (bidHistory == null) {
+            if (offset < 0 || limit < 0) {
+                throw new IllegalArgumentException("offset and limit must not be negative");
+            }
+            return ImmutableList.of();
+        }
+        return bidHistory.getBids(offset, limit);
+    }
+
+    public int getBidCount() {
+        BidHistory bidHistory = factory.existingBidHistory(index);
+        return bidHistory == null ? 0 : bidHistory.size();
+    }
+
+    public String getWinningUser() {
+        synchronized (store.lockFor(index)) {
+            closeIfNeeded(timeService.currentTimeMillis());
+            return store.getUserDictionary().userFor(store.getInt(index, WINNER));
+        }
+    }
+
+    public BigDecimal getWinningPrice() {
+        return Money.toBigDecimalOrNull(getWinningPriceCents());
+    }
+
+    public long getWinningPriceCents() {
+        synchronized (store.lockFor(index)) {
+            closeIfNeeded(timeService.currentTimeMillis());
+            return store.getLong(index, WINNING_PRICE);
+        }
+    }
+
+    public BigDecimal getStartingPrice() {
+        return Money.toBigDecimal(getStartingPriceCents());
+    }
+
+    public long getStartingPriceCents() {
+        return store.getLong(index, STARTING_PRICE);
+    }
+
+    public BigDecimal getBuyItNowPrice() {
+        return Money.toBigDecimalOrNull(getBuyItNowPriceCents());
+    }
+
+    public long getBuyItNowPriceCents() {
+        return store.getLong(index, BUY_IT_NOW_PRICE);
+    }
+
+    public int getAuctionLength() {
+        return store.getInt(index, AUCTION_LENGTH);
+    }
+
+    public boolean isBoughtUsingBuyItNow() {
+        synchronized (store.lockFor(index)) {
+            return (store.getInt(index, FLAGS) & FLAG_BOUGHT_USING_BUY_IT_NOW) != 0;
+        }
+    }
+
+    /**
+     * Fills in a freshly allocated record. The record becomes visible to other
+     * threads when the listing is registered.
+     */
+    void initialize(long listingKey, String listingOwner, long startingPriceCents, long buyItNowPriceCents,
+                    int auctionLength, long startingTimeMillis, long endingTimeMillis) {
+        store.putLong(index, LISTING_KEY, listingKey);
+        store.putInt(index, OWNER, store.getUserDictionary().idFor(listingOwner));
+        store.putInt(index, FLAGS, 0);
+        store.putInt(index, AUCTION_LENGTH, auctionLength);
+        store.putInt(index, CURRENT_BIDDER, UserDictionary.NO_USER);
+        store.putLong(index, STARTING_PRICE, startingPriceCents);
+        store.putLong(index, BUY_IT_NOW_PRICE, buyItNowPriceCents);
+        store.putLong(index, STARTING_TIME, startingTimeMillis);
+        store.putLong(index, ENDING_TIME, endingTimeMillis);
+        store.putLong(index, CURRENT_BID, Money.NO_AMOUNT_CENTS);
+        store.putLong(index, LEADER_MAXIMUM, Money.NO_AMOUNT_CENTS);
+        store.putLong(index, WINNING_PRICE, Money.NO_AMOUNT_CENTS);
+        store.putInt(index, WINNER, UserDictionary.NO_USER);
+    }
+
+    private long applyBid(String user, long amountCents, boolean proxy) {
+        int userId = store.getUserDictionary().idFor(user);
+        synchronized (store.lockFor(index)) {
+            long nowMillis = timeService.currentTimeMillis();
+            if (closeIfNeeded(nowMillis)) return UNCHANGED;
+            if (!applyBidLocked(userId, amountCents, proxy)) return UNCHANGED;
+            //A leading proxy bid is recorded at the price it set, its maximum stays private.
+            long recordedCents = proxy && store.getInt(index, CURRENT_BIDDER) == userId
+                    ? store.getLong(index, CURRENT_BID) : amountCents;
+            factory.bidHistoryFor(index).append(user, recordedCents, nowMillis);
+            return nowMillis;
+        }
+    }
+
+    /**
+     * Applies a bid to the record, the caller holds the record's lock.
+     *
+     * @return true if the bid changed the listing
+     */
+    private boolean applyBidLocked(int userId, long amountCents, boolean proxy) {
+        int leaderId = store.getInt(index, CURRENT_BIDDER);
+        long currentBidCents = store.getLong(index, CURRENT_BID);
+        long leaderMaximumCents = store.getLong(index, LEADER_MAXIMUM);
+        long startingPriceCents = store.getLong(index, STARTING_PRICE);
+
+        if (leaderId == UserDictionary.NO_USER) {
+            if (amountCents < startingPriceCents) return false;
+            return setLeader(userId, proxy ? startingPriceCents : amountCents, amountCents);
+        }
+        if (proxy) {
+            if (leaderId == userId) {
+                if (amountCents <= leaderMaximumCents) return false;
+                return setLeader(leaderId, currentBidCents, amountCents);
+            }
+            if (amountCents <= currentBidCents) return false;
+            if (amountCents <= leaderMaximumCents) {
+                return setLeader(leaderId, Math.min(leaderMaximumCents, amountCents + BID_INCREMENT_CENTS),
+                        leaderMaximumCents);
+            }
+            return setLeader(userId, Math.min(amountCents, leaderMaximumCents + BID_INCREMENT_CENTS), amountCents);
+        }
+
+        if (amountCents <= currentBidCents) return false;
+        if (leaderId == userId) {
+            return setLeader(userId, amountCents, Math.max(amountCents, leaderMaximumCents));
+        }
+        if (amountCents <= leaderMaximumCents) {
+            //The leader's maximum covers the bid, the leader stays ahead at a higher price.
+            return setLeader(leaderId, Math.min(leaderMaximumCents, amountCents + BID_INCREMENT_CENTS),
+                    leaderMaximumCents);
+        }
+        return setLeader(userId, amountCents, amountCents);
+    }
+
+    private boolean setLeader(int leaderId, long priceCents, long leaderMaximumCents) {
+        store.putInt(index, CURRENT_BIDDER, leaderId);
+        store.putLong(index, CURRENT_BID, priceCents);
+        store.putLong(index, LEADER_MAXIMUM, leaderMaximumCents);
+        return true;
+    }
+
+    /**
+     * Closes the record if nowMillis is past its ending time, the caller holds the record's lock.
+     *
+     * @return true if the listing is closed
+     */
+    private boolean closeIfNeeded(long nowMillis) {
+        int flags = store.getInt(index, FLAGS);
+        if ((flags & FLAG_CLOSED) != 0) return true;
+        if (nowMillis <= store.getLong(index, ENDING_TIME)) return false;
+
+        int leaderId = store.getInt(index, CURRENT_BIDDER);
+        if (leaderId != UserDictionary.NO_USER) {
+            store.putInt(index, WINNER, leaderId);
+            store.putLong(index, WINNING_PRICE, store.getLong(index, CURRENT_BID));
+        }
+        store.putInt(index, FLAGS, flags | FLAG_CLOSED);
+        factory.listingClosed(this);
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "MappedAuctionListing[" + index + "]";
+    }
+
+    private static class RecordBid implements Bid {
+        private final String bidder;
+        private final long bidValueCents;
+
+        private RecordBid(String bidder, long bidValueCents) {
+            this.bidder = bidder;
+            this.bidValueCents = bidValueCents;
+        }
+
+        public String getBidder() {
+            return bidder;
+        }
+
+        public BigDecimal getBidValue() {
+            return Money.toBigDecimal(bidValueCents);
+        }
+
+        public long getBidValueCents() {
+            return bidValueCents;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.acme.auction;
+
+import com.acme.auctionclient.Money;
+import com.google.inject.Inject;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+
+/**
+ * Creates listings as records of a {@link MappedListingStore}, returning
+ * {@link MappedAuctionListing} flyweights over them.
+ * <p/>
+ * The records already in the store are indexed by listing key when the factory
+ * is created, so {@link #findListing(long)} finds them after a restart, and are
+ * announced to the listener. Views over them are only created when a listing is
+ * asked for.
+ * <p/>
+ * Bid histories are kept on the heap, created with the first accepted bid
+ * of a listing.
+ */
+public class MappedAuctionListingFactory implements AuctionListingFactory {
+    private final MappedListingStore store;
+    private final TimeService timeService;
+    private final ListingIdGenerator listingIdGenerator;
+    private final AuctionListingListener auctionListingListener;
+    private final ConcurrentLongObjectMap<BidHistory> recordIndexToBidHistoryMap =
+            new ConcurrentLongObjectMap<BidHistory>();
+    private final ConcurrentLongObjectMap<Integer> listingKeyToRecordIndexMap =
+            new ConcurrentLongObjectMap<Integer>();
+
+    public MappedAuctionListingFactory(MappedListingStore store, TimeService timeService,
+                                       ListingIdGenerator listingIdGenerator) {
+        this(store, timeService, listingIdGenerator, new NullAuctionListingListener());
+    }
+
+    /**
+     * @param auctionListingListener told when listings made by this factory are created and closed
+     */
+    @Inject
+    public MappedAuctionListingFactory(MappedListingStore store, TimeService timeService,
+                                       ListingIdGenerator listingIdGenerator,
+                                       AuctionListingListener auctionListingListener) {
+        super();
+        this.store = store;
+        this.timeService = timeService;
+        this.listingIdGenerator = listingIdGenerator;
+        this.auctionListingListener = auctionListingListener;
+        MappedAuctionListing view = new MappedAuctionListing(store, this, timeService, 0);
+        int recordCount = store.getRecordCount();
+        for (int recordIndex = 1; recordIndex < recordCount; recordIndex++) {
+            long listingKey = store.getLong(recordIndex, MappedListingStore.LISTING_KEY);
+            //Records allocated but never filled in, because of a crash, have no key.
+            if (listingKey != ListingIds.NO_KEY) {
+                listingKeyToRecordIndexMap.put(listingKey, recordIndex);
+                announceStoredListing(view.moveTo(recordIndex));
+            }
+        }
+    }
+
+    public AuctionListing createAuctionListing(String listingOwner, BigDecimal startingPrice,
+                                               BigDecimal buyItNowPrice, int auctionLength) {
+        return createAuctionListing(listingOwner, Money.toCents(startingPrice),
+                Money.toCentsOrNone(buyItNowPrice), auctionLength);
+    }
+
+    public AuctionListing createAuctionListing(String listingOwner, long startingPriceCents,
+                                               long buyItNowPriceCents, int auctionLength) {
+        int recordIndex;
+        try {
+            recordIndex = store.allocate();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to grow the listing store", e);
+        }
+        long startingTimeMillis = timeService.currentTimeMillis();
+        long listingKey = listingIdGenerator.nextListingKey();
+        MappedAuctionListing auctionListing = new MappedAuctionListing(store, this, timeService, recordIndex);
+        auctionListing.initialize(listingKey, listingOwner, startingPriceCents,
+                buyItNowPriceCents, auctionLength, startingTimeMillis,
+                DefaultAuctionListingFactory.endingTimeMillis(startingTimeMillis, auctionLength));
+        listingKeyToRecordIndexMap.put(listingKey, recordIndex);
+        auctionListingListener.listingCreated(auctionListing);
+        return auctionListing;
+    }
+
+    /**
+     * @return a view over an existing record
+     */
+    public MappedAuctionListing listingAt(int recordIndex) {
+        if (recordIndex < 1 || recordIndex >= store.getRecordCount()) {
+            throw new IllegalArgumentException("No record " + recordIndex);
+        }
+        return new MappedAuctionListing(store, this, timeService, recordIndex);
+    }
+
+    /**
+     * @return a view over the stored listing, or null if the key is not in the store
+     */
+    public MappedAuctionListing findListing(long listingKey) {
+        Integer recordIndex = listingKeyToRecordIndexMap.get(listingKey);
+        return recordIndex == null ? null : new MappedAuctionListing(store, this, timeService, recordIndex);
+    }
+
+    /**
+     * Makes the listings already in the store known to a service after a restart.
+     * A single view walks the records to index them by owner and winner, and only
+     * the open listings, which the service has to close, get a view of their own.
+     * The others are found through {@link MappedListingRepository} when asked for.
+     */
+    public void registerStoredListings(DefaultAuctionService auctionService) {
+        MappedAuctionListing view = new MappedAuctionListing(store, this, timeService, 0);
+        int recordCount = store.getRecordCount();
+        for (int recordIndex = 1; recordIndex < recordCount; recordIndex++) {
+            view.moveTo(recordIndex);
+            if (view.getListingKey() == ListingIds.NO_KEY) continue;
+
+            auctionService.indexStoredListing(view);
+            if (!view.isAuctionClosed()) {
+                auctionService.registerStoredListing(new MappedAuctionListing(store, this, timeService, recordIndex));
+            }
+        }
+    }
+
+    /**
+     * Called by a view, holding the record's lock, when it closed the listing.
+     */
+    void listingClosed(MappedAuctionListing auctionListing) {
+        auctionListingListener.listingClosed(auctionListing);
+    }
+
+    BidHistory bidHistoryFor(int recordIndex) {
+        BidHistory bidHistory = recordIndexToBidHistoryMap.get(recordIndex);
+        if (bidHistory == null) {
+            BidHistory created = new BidHistory();
+            bidHistory = recordIndexToBidHistoryMap.putIfAbsent(recordIndex, created);
+            if (bidHistory == null) bidHistory = created;
+        }
+        return bidHistory;
+    }
+
+    BidHistory existingBidHistory(int recordIndex) {
+        return recordIndexToBidHistoryMap.get(recordIndex);
+    }
+
+    /**
+     * Announces a record found in the store to the listener, see {@link AuctionListingListener}.
+     * Only the flag stored in the record is read, so a listing past its ending time is
+     * not closed here, it tells the listener itself once it closes.
+     */
+    private void announceStoredListing(MappedAuctionListing view) {
+        boolean closed = (store.getInt(view.getRecordIndex(), MappedListingStore.FLAGS)
+                & MappedListingStore.FLAG_CLOSED) != 0;
+        auctionListingListener.listingCreated(view);
+        if (closed) {
+            auctionListingListener.listingClosed(view);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.acme.auction;
+
+import com.google.inject.Inject;
+
+/**
+ * {@link ListingRepository} over a {@link MappedListingStore}. Listings change in
+ * place in their store records, so there is nothing to write, and listings the
+ * registry does not hold are read back from the store.
+ */
+public class MappedListingRepository implements ListingRepository {
+    private final MappedAuctionListingFactory mappedAuctionListingFactory;
+
+    @Inject
+    public MappedListingRepository(MappedAuctionListingFactory mappedAuctionListingFactory) {
+        super();
+        this.mappedAuctionListingFactory = mappedAuctionListingFactory;
+    }
+
+    public void listingCreated(AuctionListing auctionListing) {
+    }
+
+    public void listingChanged(AuctionListing auctionListing) {
+    }
+
+    public AuctionListing find(long listingKey) {
+        return mappedAuctionListingFactory.findListing(listingKey);
+    }
+}
@@ -0,0 +1,215 @@
+package com.acme.auction;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps listing records of fixed width in memory-mapped segment files.
+ * <p/>
+ * Record {@code i} lives in segment file {@code i / recordsPerSegment}. Record 0 of
+ * the first segment is a header holding the format and the number of records in
+ * use, so valid record indexes start at 1. Users are stored as ids from a
+ * {@link UserDictionary} kept next to the segments. Because the data is in the
+ * mapped files rather than on the heap, it survives restarts and a large number
+ * of listings does not grow the heap.
+ * <p/>
+ * Fields are read and written with absolute buffer operations through the
+ * accessors below. Callers guard changes to a record, and reads that need a
+ * consistent view of several fields, with {@link #lockFor(int)}.
+ */
+public class MappedListingStore implements Closeable {
+    public static final int RECORD_SIZE = 96;
+    public static final int DEFAULT_RECORDS_PER_SEGMENT = 1 << 16;
+
+    //Record layout.
+    static final int LISTING_KEY = 0;
+    static final int OWNER = 8;
+    static final int FLAGS = 12;
+    static final int AUCTION_LENGTH = 16;
+    static final int CURRENT_BIDDER = 20;
+    static final int STARTING_PRICE = 24;
+    static final int BUY_IT_NOW_PRICE = 32;
+    static final int STARTING_TIME = 40;
+    static final int ENDING_TIME = 48;
+    static final int CURRENT_BID = 56;
+    static final int LEADER_MAXIMUM = 64;
+    static final int WINNING_PRICE = 72;
+    static final int WINNER = 80;
+
+    static final int FLAG_CLOSED = 1;
+    static final int FLAG_BOUGHT_USING_BUY_IT_NOW = 2;
+
+    //Header layout, in record 0.
+    private static final long MAGIC = 0x41554354494f4e31L;
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_RECORD_SIZE = 8;
+    private static final int HEADER_RECORDS_PER_SEGMENT = 12;
+    private static final int HEADER_RECORD_COUNT = 16;
+
+    private static final int LOCK_STRIPES = 1024;
+
+    private final File directory;
+    private final int recordsPerSegment;
+    private final int segmentShift;
+    private final UserDictionary userDictionary;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final List<RandomAccessFile> segmentFiles = new ArrayList<RandomAccessFile>();
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private volatile int recordCount;
+
+    public MappedListingStore(File directory) throws IOException {
+        this(directory, DEFAULT_RECORDS_PER_SEGMENT);
+    }
+
+    /**
+     * @param directory         directory holding the store, created if missing
+     * @param recordsPerSegment records per segment file, a power of two; ignored
+     *                          when opening an existing store
+     */
+    public MappedListingStore(File directory, int recordsPerSegment) throws IOException {
+        super();
+        if (recordsPerSegment < 2 || Integer.bitCount(recordsPerSegment) != 1) {
+            throw new IllegalArgumentException("recordsPerSegment must be a power of two");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        this.directory = directory;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+
+        boolean existing = segmentFile(0).exists();
+        if (existing) {
+            //The first segment says how the store was created.
+            RandomAccessFile file = new RandomAccessFile(segmentFile(0), "r");
+            try {
+                if (file.readLong() != MAGIC || file.readInt() != RECORD_SIZE) {
+                    throw new IOException("Not a listing store: " + directory);
+                }
+                recordsPerSegment = file.readInt();
+            } finally {
+                file.close();
+            }
+        }
+        this.recordsPerSegment = recordsPerSegment;
+        this.segmentShift = Integer.numberOfTrailingZeros(recordsPerSegment);
+        this.userDictionary = new UserDictionary(new File(directory, "users.dat"));
+
+        MappedByteBuffer header = mapSegment(0);
+        if (existing) {
+            recordCount = header.getInt(HEADER_RECORD_COUNT);
+            while (segments.length <= (recordCount - 1) >>> segmentShift) {
+                mapSegment(segments.length);
+            }
+        } else {
+            header.putLong(HEADER_MAGIC, MAGIC);
+            header.putInt(HEADER_RECORD_SIZE, RECORD_SIZE);
+            header.putInt(HEADER_RECORDS_PER_SEGMENT, recordsPerSegment);
+            header.putInt(HEADER_RECORD_COUNT, 1);
+            recordCount = 1;
+        }
+    }
+
+    public UserDictionary getUserDictionary() {
+        return userDictionary;
+    }
+
+    /**
+     * @return one more than the highest record index in use
+     */
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Reserves a zeroed record, mapping a new segment when needed.
+     *
+     * @return index of the record
+     */
+    public synchronized int allocate() throws IOException {
+        int index = recordCount;
+        if ((index >>> segmentShift) == segments.length) {
+            mapSegment(segments.length);
+        }
+        recordCount = index + 1;
+        segments[0].putInt(HEADER_RECORD_COUNT, recordCount);
+        return index;
+    }
+
+    public Object lockFor(int index) {
+        return locks[index & (LOCK_STRIPES - 1)];
+    }
+
+    long getLong(int index, int field) {
+        return segmentFor(index).getLong(offsetOf(index, field));
+    }
+
+    void putLong(int index, int field, long value) {
+        segmentFor(index).putLong(offsetOf(index, field), value);
+    }
+
+    int getInt(int index, int field) {
+        return segmentFor(index).getInt(offsetOf(index, field));
+    }
+
+    void putInt(int index, int field, int value) {
+        segmentFor(index).putInt(offsetOf(index, field), value);
+    }
+
+    /**
+     * Writes the mapped segments to disk.
+     */
+    public void force() {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    /**
+     * Forces and closes the store. The segments stay mapped until garbage collected,
+     * so no flyweight may be used after closing.
+     */
+    public synchronized void close() throws IOException {
+        force();
+        userDictionary.close();
+        for (RandomAccessFile file : segmentFiles) {
+            file.close();
+        }
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    private MappedByteBuffer segmentFor(int index) {
+        return segments[index >>> segmentShift];
+    }
+
+    private int offsetOf(int index, int field) {
+        return (index & (recordsPerSegment - 1)) * RECORD_SIZE + field;
+    }
+
+    private File segmentFile(int segment) {
+        return new File(directory, String.format("listings-%05d.dat", segment));
+    }
+
+    private synchronized MappedByteBuffer mapSegment(int segment) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(segmentFile(segment), "rw");
+        long size = (long) recordsPerSegment * RECORD_SIZE;
+        MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        segmentFiles.add(file);
+
+        MappedByteBuffer[] grown = new MappedByteBuffer[segment + 1];
+        System.arraycopy(segments, 0, grown, 0, segment);
+        grown[segment] = buffer;
+        segments = grown;
+        return buffer;
+    }
+}
@@ -0,0 +1,59 @@
+package com.acme.auction;
+
+import com.acme.auctionclient.AuctionService;
+import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Provides;
+import com.google.inject.Singleton;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Guice module switching listing creation to the memory-mapped listing store.
+ * Meant to override the listing factory and repository bound by {@link AuctionModule}:
+ * <pre>
+ * Modules.override(new AuctionModule(false)).with(new MappedListingStoreModule(directory))
+ * </pre>
+ * Listings already in the store are registered with the {@link DefaultAuctionService}
+ * when the injector is created. The sharded engine does not take stored listings.
+ */
+public class MappedListingStoreModule extends AbstractModule {
+    private final File directory;
+
+    /**
+     * @param directory directory holding the store, reopened if it already exists
+     */
+    public MappedListingStoreModule(File directory) {
+        super();
+        this.directory = directory;
+    }
+
+    @Override
+    protected void configure() {
+        bind(MappedAuctionListingFactory.class).in(Singleton.class);
+        bind(AuctionListingFactory.class).to(MappedAuctionListingFactory.class);
+        bind(ListingRepository.class)
+                .to(MappedListingRepository.class)
+                .in(Singleton.class);
+        requestInjection(new StoredListingRegistration());
+    }
+
+    @Provides
+    @Singleton
+    MappedListingStore provideMappedListingStore() throws IOException {
+        return new MappedListingStore(directory);
+    }
+
+    /**
+     * Registers the stored listings once the service has been created.
+     */
+    static class StoredListingRegistration {
+        @Inject
+        void registerStoredListings(AuctionService auctionService, MappedAuctionListingFactory factory) {
+            if (auctionService instanceof DefaultAuctionService) {
+                factory.registerStoredListings((DefaultAuctionService) auctionService);
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.acme.auction;
+
+/**
+ * Implementation of this interface records the commands changing auction state,
+ * so they can be replayed after a restart.
+ * <p/>
+ * Each log method returns the position just after the recorded command. A caller
+ * must not report success before {@link #awaitDurable(long)} has returned for that
+ * position, how long that takes depends on the durability the log offers.
+ * <p/>
+ * Commands on a listing are logged after the listing has accepted them, with the
+ * time the listing decided at, so a replay at that time reaches the same decision.
+ */
+public interface MutationLog {
+    /**
+     * @return false if the log drops every command, so callers need not keep the
+     * order in which changes are logged
+     */
+    boolean isRecording();
+
+    long logListingCreated(AuctionListing auctionListing);
+
+    long logBid(long listingKey, String user, long bidAmountCents, long timeMillis);
+
+    long logProxyBid(long listingKey, String user, long maximumBidAmountCents, long timeMillis);
+
+    long logBuyItNow(long listingKey, String user, long timeMillis);
+
+    /**
+     * Waits until every command up to the position is as durable as the log promises.
+     */
+    void awaitDurable(long position);
+}
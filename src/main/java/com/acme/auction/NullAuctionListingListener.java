@@ -0,0 +1,12 @@
+package com.acme.auction;
+
+/**
+ * Listener ignoring every listing event.
+ */
+public class NullAuctionListingListener implements AuctionListingListener {
+    public void listingCreated(AuctionListing auctionListing) {
+    }
+
+    public void listingClosed(AuctionListing auctionListing) {
+    }
+}
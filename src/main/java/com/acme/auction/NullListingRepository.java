@@ -0,0 +1,16 @@
+package com.acme.auction;
+
+/**
+ * Repository that stores nothing, leaving listings in the registry's memory only.
+ */
+public class NullListingRepository implements ListingRepository {
+    public void listingCreated(AuctionListing auctionListing) {
+    }
+
+    public void listingChanged(AuctionListing auctionListing) {
+    }
+
+    public AuctionListing find(long listingKey) {
+        return null;
+    }
+}
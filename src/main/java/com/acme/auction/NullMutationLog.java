@@ -0,0 +1,29 @@
+package com.acme.auction;
+
+/**
+ * Log that records nothing, leaving auction state in memory only.
+ */
+public class NullMutationLog implements MutationLog {
+    public boolean isRecording() {
+        return false;
+    }
+
+    public long logListingCreated(AuctionListing auctionListing) {
+        return 0;
+    }
+
+    public long logBid(long listingKey, String user, long bidAmountCents, long timeMillis) {
+        return 0;
+    }
+
+    public long logProxyBid(long listingKey, String user, long maximumBidAmountCents, long timeMillis) {
+        return 0;
+    }
+
+    public long logBuyItNow(long listingKey, String user, long timeMillis) {
+        return 0;
+    }
+
+    public void awaitDurable(long position) {
+    }
+}
@@ -0,0 +1,79 @@
+package com.acme.auction;
+
+import com.google.common.base.Objects;
+
+/**
+ * What a recovery by {@link AuctionSnapshots} restored and how long it took.
+ */
+public class RecoveryStatistics {
+    private final String snapshotName;
+    private final int snapshotListingCount;
+    private final long replayedRecordCount;
+    private final long skippedRecordCount;
+    private final long snapshotLoadMillis;
+    private final long replayMillis;
+
+    public RecoveryStatistics(String snapshotName, int snapshotListingCount, long replayedRecordCount,
+                              long skippedRecordCount, long snapshotLoadMillis, long replayMillis) {
+        super();
+        this.snapshotName = snapshotName;
+        this.snapshotListingCount = snapshotListingCount;
+        this.replayedRecordCount = replayedRecordCount;
+        this.skippedRecordCount = skippedRecordCount;
+        this.snapshotLoadMillis = snapshotLoadMillis;
+        this.replayMillis = replayMillis;
+    }
+
+    /**
+     * @return file name of the snapshot loaded, null if there was none
+     */
+    public String getSnapshotName() {
+        return snapshotName;
+    }
+
+    public int getSnapshotListingCount() {
+        return snapshotListingCount;
+    }
+
+    /**
+     * @return log records after the snapshot applied to the recovered listings
+     */
+    public long getReplayedRecordCount() {
+        return replayedRecordCount;
+    }
+
+    /**
+     * @return log records after the snapshot start that the snapshot already held,
+     *         or that concern listings no longer live
+     */
+    public long getSkippedRecordCount() {
+        return skippedRecordCount;
+    }
+
+    public long getSnapshotLoadMillis() {
+        return snapshotLoadMillis;
+    }
+
+    public long getReplayMillis() {
+        return replayMillis;
+    }
+
+    /**
+     * @return startup time spent recovering
+     */
+    public long getTotalMillis() {
+        return snapshotLoadMillis + replayMillis;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("snapshotName", snapshotName)
+                .add("snapshotListingCount", snapshotListingCount)
+                .add("replayedRecordCount", replayedRecordCount)
+                .add("skippedRecordCount", skippedRecordCount)
+                .add("snapshotLoadMillis", snapshotLoadMillis)
+                .add("replayMillis", replayMillis)
+                .toString();
+    }
+}
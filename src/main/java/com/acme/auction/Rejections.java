@@ -0,0 +1,34 @@
+package com.acme.auction;
+
+import com.acme.auctionclient.AuctionServiceException;
+
+/**
+ * Preallocated exceptions for the rejections clients routinely trigger, such as a
+ * stale auth token or a bid on an unknown listing.
+ * <p/>
+ * They carry no stack trace, which would only ever point at the same few lines,
+ * so throwing one costs no more than a return. The instances are shared, so their
+ * cause must never be set.
+ */
+final class Rejections {
+    static final AuctionServiceException UNRECOGNIZED_AUTH_TOKEN = new Rejection("Unrecognized auth token");
+    static final AuctionServiceException EXPIRED_AUTH_TOKEN = new Rejection("Expired auth token");
+    static final AuctionServiceException INVALID_LISTING_ID = new Rejection("invalid listing id");
+    static final AuctionServiceException SELF_PURCHASE =
+            new Rejection("Purchasing on your own listings is not allowed");
+    static final AuctionServiceException NO_BUY_IT_NOW_PRICE = new Rejection("Listing has no buy it now price");
+
+    private Rejections() {
+    }
+
+    private static final class Rejection extends AuctionServiceException {
+        private Rejection(String message) {
+            super(message);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+}
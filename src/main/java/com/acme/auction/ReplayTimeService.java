@@ -0,0 +1,37 @@
+package com.acme.auction;
+
+import java.util.Date;
+
+/**
+ * Time service of recovered listings. While the log is replayed it answers the time
+ * each command was originally made at, so replayed bids are accepted or refused
+ * exactly as they were the first time. Afterwards it passes through to the live clock.
+ */
+class ReplayTimeService implements TimeService {
+    private static final long NOT_REPLAYING = Long.MIN_VALUE;
+
+    private final TimeService timeService;
+    private volatile long replayTimeMillis = NOT_REPLAYING;
+
+    ReplayTimeService(TimeService timeService) {
+        super();
+        this.timeService = timeService;
+    }
+
+    public Date getTime() {
+        return new Date(currentTimeMillis());
+    }
+
+    public long currentTimeMillis() {
+        long timeMillis = replayTimeMillis;
+        return timeMillis == NOT_REPLAYING ? timeService.currentTimeMillis() : timeMillis;
+    }
+
+    void replayAt(long timeMillis) {
+        replayTimeMillis = timeMillis;
+    }
+
+    void endReplay() {
+        replayTimeMillis = NOT_REPLAYING;
+    }
+}
@@ -0,0 +1,29 @@
+package com.acme.auction;
+
+import com.acme.auctionclient.InvoiceCursor;
+
+/**
+ * Invoice cursor that can tell where it is and be moved back there, so a long
+ * result can be read a page at a time from cursors opened one after the other.
+ * <p/>
+ * Positions are opaque. They refer to places in the user's append only listing
+ * indexes rather than to a count of lines, so they stay valid while listings are
+ * added between pages.
+ */
+interface ResumableInvoiceCursor extends InvoiceCursor {
+    /**
+     * Position before the first line.
+     */
+    long START = 0;
+
+    /**
+     * @return position of the next line, or of the end if there is none
+     */
+    long getPosition();
+
+    /**
+     * Moves a cursor which has not been read yet to a position returned by a cursor
+     * over the same user and range.
+     */
+    void seek(long position);
+}
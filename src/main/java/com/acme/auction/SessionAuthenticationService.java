@@ -0,0 +1,57 @@
+package com.acme.auction;
+
+import com.acme.auctionclient.AuctionServiceException;
+import com.google.inject.Inject;
+
+import java.util.Map;
+
+/**
+ * Authentication service starting a new expiring session, see {@link SessionStore},
+ * on every login. Unlike {@link DefaultAuthenticationService} a user can hold many
+ * tokens at once, and tokens stop working once their session ends.
+ * <p/>
+ * Sessions live in memory only, so users log in again after a restart.
+ */
+public class SessionAuthenticationService implements AuthenticationService {
+    private final Map<String, String> userPassMap;
+    private final SessionStore sessionStore;
+
+    @Inject
+    public SessionAuthenticationService(SessionStore sessionStore) {
+        super();
+        this.userPassMap = DefaultAuthenticationService.USER_PASSWORDS;
+        this.sessionStore = sessionStore;
+    }
+
+    public String login(String username, String password) throws AuctionServiceException {
+        if (username == null) {
+            throw new AuctionServiceException("null username");
+        }
+        if (password == null) {
+            throw new AuctionServiceException("null password");
+        }
+        String expectedPassword = this.userPassMap.get(username);
+        if (expectedPassword == null || !password.equals(expectedPassword)) {
+            throw new AuctionServiceException("Invalid user/pass combination");
+        }
+
+        return sessionStore.openSession(username);
+    }
+
+    /**
+     * Ends the session of a token.
+     *
+     * @return true if the token named a live session
+     */
+    public boolean logout(String authToken) {
+        return sessionStore.closeSession(authToken);
+    }
+
+    public String validateTokenAndAcquireUser(String authToken) throws AuctionServiceException {
+        String user = sessionStore.findUser(authToken);
+        if (user == null) {
+            throw Rejections.UNRECOGNIZED_AUTH_TOKEN;
+        }
+        return user;
+    }
+}
@@ -0,0 +1,46 @@
+package com.acme.auction;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Provides;
+import com.google.inject.Singleton;
+
+/**
+ * Guice module authenticating users through expiring sessions, see
+ * {@link SessionAuthenticationService}. Meant to override the authentication
+ * service bound by {@link AuctionModule}:
+ * <pre>
+ * Modules.override(new AuctionModule(false)).with(new SessionModule())
+ * </pre>
+ */
+public class SessionModule extends AbstractModule {
+    private final long idleTimeoutMillis;
+    private final long absoluteTimeoutMillis;
+
+    public SessionModule() {
+        this(SessionStore.DEFAULT_IDLE_TIMEOUT_MILLIS, SessionStore.DEFAULT_ABSOLUTE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param idleTimeoutMillis     time without requests after which a session ends
+     * @param absoluteTimeoutMillis time after login at which a session ends
+     */
+    public SessionModule(long idleTimeoutMillis, long absoluteTimeoutMillis) {
+        super();
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.absoluteTimeoutMillis = absoluteTimeoutMillis;
+    }
+
+    @Override
+    protected void configure() {
+        bind(AuthenticationService.class)
+                .to(SessionAuthenticationService.class)
+                .in(Singleton.class);
+    }
+
+    @Provides
+    @Singleton
+    SessionStore provideSessionStore(TimeService timeService) {
+        return new SessionStore(timeService, idleTimeoutMillis, absoluteTimeoutMillis,
+                SessionStore.DEFAULT_TICK_MILLIS, true);
+    }
+}
@@ -0,0 +1,332 @@
+package com.acme.auction;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.security.SecureRandom;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Login sessions, each identified by a random token and ending after a period of
+ * inactivity or after a maximum lifetime, whichever comes first.
+ * <p/>
+ * A token is 128 random bits written as 32 hex digits. Sessions are stored in a
+ * {@link ConcurrentLongObjectMap} keyed by the first 64 bits, and the other 64 bits
+ * are checked against the session, so looking a token up takes no lock and
+ * allocates nothing. Expired sessions are rejected on lookup at once.
+ * <p/>
+ * Expired sessions are removed through a {@link TimingWheel}, without scanning the
+ * live ones. Each session sits in the wheel once, at the deadline computed when it
+ * was last scheduled. Lookups only record the access time. When the deadline comes,
+ * a session that was used meanwhile is scheduled again at its new deadline, and the
+ * others are removed. The wheel is split in {@link #STRIPE_COUNT} stripes picked by
+ * the token, so concurrent logins rarely wait for each other.
+ * <p/>
+ * Closed sessions are removed from the map at once and skipped when their deadline
+ * comes. Once there are more of them waiting in the wheels than live sessions, the
+ * ticker rebuilds the wheels from the live sessions. Memory is therefore held by
+ * live sessions, plus at most as many closed ones and those expired within the
+ * last tick.
+ */
+public class SessionStore {
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 30 * 60 * 1000L;
+    public static final long DEFAULT_ABSOLUTE_TIMEOUT_MILLIS = 12 * 60 * 60 * 1000L;
+    public static final long DEFAULT_TICK_MILLIS = 1000;
+    public static final int TOKEN_LENGTH = 32;
+    public static final int STRIPE_COUNT = 16;
+    /**
+     * Closed sessions tolerated in the wheels however few sessions are live.
+     */
+    public static final int MIN_CLOSED_SESSIONS_SWEPT = 1024;
+
+    private static final ThreadLocal<SecureRandom> RANDOM = new ThreadLocal<SecureRandom>() {
+        @Override
+        protected SecureRandom initialValue() {
+            return new SecureRandom();
+        }
+    };
+
+    private final TimeService timeService;
+    private final long idleTimeoutMillis;
+    private final long absoluteTimeoutMillis;
+    private final long tickMillis;
+    private final ConcurrentLongObjectMap<Session> sessions = new ConcurrentLongObjectMap<Session>();
+    private final ExpiryStripe[] stripes = new ExpiryStripe[STRIPE_COUNT];
+    //Sessions closed since the last sweep, an estimate of the closed ones still in the wheels.
+    private final AtomicInteger closedCount = new AtomicInteger();
+    private final ScheduledExecutorService ticker;
+    private volatile RuntimeException lastExpiryFailure;
+
+    public SessionStore(TimeService timeService) {
+        this(timeService, DEFAULT_IDLE_TIMEOUT_MILLIS, DEFAULT_ABSOLUTE_TIMEOUT_MILLIS, DEFAULT_TICK_MILLIS, true);
+    }
+
+    /**
+     * @param idleTimeoutMillis     time without lookups after which a session ends
+     * @param absoluteTimeoutMillis time after login at which a session ends however much it is used
+     * @param tickMillis            granularity of the expiry schedule, and period of the ticker
+     * @param startTicker           false to leave removal to explicit {@link #expireSessions()} calls
+     */
+    public SessionStore(TimeService timeService, long idleTimeoutMillis, long absoluteTimeoutMillis,
+                        long tickMillis, boolean startTicker) {
+        super();
+        if (idleTimeoutMillis < 1 || absoluteTimeoutMillis < 1) {
+            throw new IllegalArgumentException("timeouts must be positive");
+        }
+        this.timeService = timeService;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.absoluteTimeoutMillis = absoluteTimeoutMillis;
+        this.tickMillis = tickMillis;
+        long startTimeMillis = timeService.currentTimeMillis();
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ExpiryStripe(newExpiryWheel(startTimeMillis));
+        }
+        if (startTicker) {
+            this.ticker = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("session-expiry-ticker")
+                    .setDaemon(true)
+                    .build());
+            this.ticker.scheduleAtFixedRate(new Runnable() {
+                public void run() {
+                    try {
+                        expireSessions();
+                    } catch (RuntimeException e) {
+                        //Escaping the task would cancel all further ticks.
+                        lastExpiryFailure = e;
+                    }
+                }
+            }, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.ticker = null;
+        }
+    }
+
+    /**
+     * Starts a session for an already authenticated user.
+     *
+     * @return the token of the new session
+     */
+    public String openSession(String user) {
+        long nowMillis = timeService.currentTimeMillis();
+        SecureRandom random = RANDOM.get();
+        while (true) {
+            long key = random.nextLong();
+            long secret = random.nextLong();
+            //Zero halves are what malformed tokens parse to.
+            if (key == ConcurrentLongObjectMap.EMPTY_KEY || secret == 0) continue;
+
+            Session session = new Session(key, secret, user, nowMillis);
+            ExpiryStripe stripe = stripeFor(key);
+            //Added and scheduled as one, so a sweep never sees the session unscheduled.
+            stripe.lock.lock();
+            try {
+                if (sessions.putIfAbsent(key, session) != null) continue;
+                stripe.wheel.schedule(session, session.deadlineMillis());
+            } finally {
+                stripe.lock.unlock();
+            }
+            return session.token();
+        }
+    }
+
+    /**
+     * Resolves a token, counting as activity of its session.
+     *
+     * @return the user of the session, or null if the token is unknown, malformed or expired
+     */
+    public String findUser(String token) {
+        Session session = find(token);
+        if (session == null) return null;
+
+        long nowMillis = timeService.currentTimeMillis();
+        if (nowMillis >= session.deadlineMillis()) return null;
+
+        //Only one write per tick, so busy sessions do not keep bouncing their cache line.
+        if (nowMillis - session.lastAccessMillis >= tickMillis) {
+            session.lastAccessMillis = nowMillis;
+        }
+        return session.user;
+    }
+
+    /**
+     * Ends a session before it expires.
+     *
+     * @return true if the token named a live session
+     */
+    public boolean closeSession(String token) {
+        Session session = find(token);
+        if (session == null || sessions.remove(session.key) == null) return false;
+
+        closedCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Removes the sessions whose deadline has passed, and the closed sessions from
+     * the wheels once they outnumber the live ones.
+     *
+     * @return number of sessions removed by this call
+     */
+    public int expireSessions() {
+        long nowMillis = timeService.currentTimeMillis();
+        int expiredCount = 0;
+        for (ExpiryStripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                for (Session session : stripe.wheel.advanceTo(nowMillis)) {
+                    //Skip sessions closed meanwhile.
+                    if (sessions.get(session.key) != session) continue;
+
+                    long deadlineMillis = session.deadlineMillis();
+                    if (nowMillis >= deadlineMillis) {
+                        sessions.remove(session.key);
+                        expiredCount++;
+                    } else {
+                        stripe.wheel.schedule(session, deadlineMillis);
+                    }
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        int closed = closedCount.get();
+        if (closed >= MIN_CLOSED_SESSIONS_SWEPT && closed > sessions.size()) {
+            sweepClosedSessions(nowMillis);
+        }
+        return expiredCount;
+    }
+
+    /**
+     * @return number of sessions held, including expired ones not removed yet
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * @return number of sessions waiting in the wheels, including closed ones not swept yet
+     */
+    public int getScheduledCount() {
+        int scheduledCount = 0;
+        for (ExpiryStripe stripe : stripes) {
+            scheduledCount += stripe.wheel.size();
+        }
+        return scheduledCount;
+    }
+
+    /**
+     * @return why a tick of the ticker last failed, null if none has failed
+     */
+    public RuntimeException getLastExpiryFailure() {
+        return lastExpiryFailure;
+    }
+
+    public void shutdown() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+        }
+    }
+
+    /**
+     * Replaces the wheels by ones holding only the live sessions. Every stripe is
+     * locked meanwhile, so no session is opened between the scan and the swap.
+     */
+    private void sweepClosedSessions(long nowMillis) {
+        for (ExpiryStripe stripe : stripes) {
+            stripe.lock.lock();
+        }
+        try {
+            closedCount.set(0);
+            for (ExpiryStripe stripe : stripes) {
+                stripe.wheel = newExpiryWheel(nowMillis);
+            }
+            for (Session session : sessions.values()) {
+                stripeFor(session.key).wheel.schedule(session, session.deadlineMillis());
+            }
+        } finally {
+            for (ExpiryStripe stripe : stripes) {
+                stripe.lock.unlock();
+            }
+        }
+    }
+
+    private TimingWheel<Session> newExpiryWheel(long startTimeMillis) {
+        return new TimingWheel<Session>(tickMillis, TimingWheelAuctionCloseScheduler.WHEEL_SIZE, startTimeMillis);
+    }
+
+    private ExpiryStripe stripeFor(long key) {
+        return stripes[(int) key & (STRIPE_COUNT - 1)];
+    }
+
+    private Session find(String token) {
+        if (token == null || token.length() != TOKEN_LENGTH) return null;
+
+        long key = parseHex(token, 0);
+        long secret = parseHex(token, TOKEN_LENGTH / 2);
+        if (key == ConcurrentLongObjectMap.EMPTY_KEY || secret == 0) return null;
+
+        Session session = sessions.get(key);
+        return session != null && session.secret == secret ? session : null;
+    }
+
+    /**
+     * @return the 16 hex digits at offset as a long, or 0 if they are not all hex digits
+     */
+    private static long parseHex(String token, int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + TOKEN_LENGTH / 2; i++) {
+            int digit = Character.digit(token.charAt(i), 16);
+            if (digit < 0) return 0;
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    /**
+     * One stripe of the expiry schedule: a wheel, and the lock guarding it and its replacement.
+     */
+    private static final class ExpiryStripe {
+        private final ReentrantLock lock = new ReentrantLock();
+        private volatile TimingWheel<Session> wheel;
+
+        private ExpiryStripe(TimingWheel<Session> wheel) {
+            this.wheel = wheel;
+        }
+    }
+
+    private final class Session {
+        private final long key;
+        private final long secret;
+        private final String user;
+        private final long createdMillis;
+        private volatile long lastAccessMillis;
+
+        private Session(long key, long secret, String user, long createdMillis) {
+            this.key = key;
+            this.secret = secret;
+            this.user = user;
+            this.createdMillis = createdMillis;
+            this.lastAccessMillis = createdMillis;
+        }
+
+        private long deadlineMillis() {
+            return Math.min(lastAccessMillis + idleTimeoutMillis, createdMillis + absoluteTimeoutMillis);
+        }
+
+        private String token() {
+            return hex(key) + hex(secret);
+        }
+
+        private String hex(long value) {
+            String digits = Long.toHexString(value);
+            StringBuilder builder = new StringBuilder(TOKEN_LENGTH / 2);
+            for (int i = digits.length(); i < TOKEN_LENGTH / 2; i++) {
+                builder.append('0');
+            }
+            return builder.append(digits).toString();
+        }
+    }
+}
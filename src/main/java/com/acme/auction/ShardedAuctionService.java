@@ -0,0 +1,783 @@
+package com.acme.auction;
+
+import com.acme.auctionclient.AuctionService;
+import com.acme.auctionclient.AuctionServiceException;
+import com.acme.auctionclient.BatchBid;
+import com.acme.auctionclient.BidRecord;
+import com.acme.auctionclient.InvoiceCursor;
+import com.acme.auctionclient.InvoiceLine;
+import com.acme.auctionclient.Money;
+import com.acme.auctionclient.OperationOutcome;
+import com.acme.auctionclient.OperationStatus;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Auction service engine that partitions listings by listing id across a fixed
+ * number of single threaded shards.
+ * <p/>
+ * Every shard owns a private {@link DefaultAuctionService} holding its listings and
+ * a preallocated ring buffer of command slots. Callers publish a command into the
+ * ring buffer of the shard owning the listing and wait for the shard thread to
+ * execute it. Listings are changed and read only by their shard thread: the shard
+ * thread also closes its listings at their ending time, from a timing wheel of its
+ * own, and fills the pages of user invoice cursors. As it is the single writer of
+ * its listings, the shard's DefaultAuctionService takes none of its own locks.
+ * Shards never share listings with each other, which lets bid throughput grow with
+ * the number of shards.
+ * <p/>
+ * The shards share the injected listing registry, mutation log and listing
+ * repository, so changes are archived, logged and stored as with
+ * DefaultAuctionService. Recovering from a snapshot or the log, and registering
+ * the listings of a memory-mapped store, need a DefaultAuctionService.
+ * <p/>
+ * Commands on an existing listing carry the raw token, which the shard's
+ * DefaultAuctionService validates on the shard thread. Only listing creation and
+ * the user invoice cursor validate the token on the caller's thread, since they
+ * are not tied to a single shard's listing.
+ * <p/>
+ * The semantics, including the exceptions raised, are those of DefaultAuctionService.
+ * Once {@link #shutdown()} has been called, commands fail with an
+ * IllegalStateException.
+ */
+public class ShardedAuctionService implements AuctionService {
+    public static final int DEFAULT_RING_BUFFER_SIZE = 1024;
+
+    private final AuctionListingFactory auctionListingFactory;
+    private final AuthenticationService authenticationService;
+    private final Shard[] shards;
+
+    public ShardedAuctionService(AuctionListingFactory auctionListingFactory,
+                                 AuthenticationService authenticationService,
+                                 TimeService timeService) {
+        this(auctionListingFactory, authenticationService, timeService,
+                Runtime.getRuntime().availableProcessors(), DEFAULT_RING_BUFFER_SIZE);
+    }
+
+    /**
+     * @param closeTickMillis   bucket granularity of the timing wheels closing listings
+     * @param listingRegistry   registry holding the listings of every shard, possibly archiving closed ones
+     * @param mutationLog       log recording every change before it is acknowledged to the caller
+     * @param listingRepository store of the listings, with the registry caching the live ones in front of it
+     */
+    @Inject
+    public ShardedAuctionService(AuctionListingFactory auctionListingFactory,
+                                 AuthenticationService authenticationService,
+                                 TimeService timeService,
+                                 @Named(TimingWheelAuctionCloseScheduler.TICK_MILLIS_NAME) long closeTickMillis,
+                                 ListingRegistry listingRegistry,
+                                 MutationLog mutationLog,
+                                 ListingRepository listingRepository) {
+        this(auctionListingFactory, authenticationService, timeService, closeTickMillis, listingRegistry, mutationLog,
+                listingRepository, Runtime.getRuntime().availableProcessors(), DEFAULT_RING_BUFFER_SIZE);
+    }
+
+    /**
+     * @param shardCount     number of shards, and so of shard threads
+     * @param ringBufferSize number of command slots per shard, must be a power of two
+     */
+    public ShardedAuctionService(AuctionListingFactory auctionListingFactory,
+                                 AuthenticationService authenticationService,
+                                 TimeService timeService,
+                                 int shardCount, int ringBufferSize) {
+        this(auctionListingFactory, authenticationService, timeService, TimingWheelAuctionCloseScheduler.DEFAULT_TICK_MILLIS,
+                new ListingRegistry(), new NullMutationLog(), new NullListingRepository(), shardCount, ringBufferSize);
+    }
+
+    /**
+     * @param shardCount     number of shards, and so of shard threads
+     * @param ringBufferSize number of command slots per shard, must be a power of two
+     */
+    public ShardedAuctionService(AuctionListingFactory auctionListingFactory,
+                                 AuthenticationService authenticationService,
+                                 TimeService timeService,
+                                 long closeTickMillis,
+                                 ListingRegistry listingRegistry,
+                                 MutationLog mutationLog,
+                                 ListingRepository listingRepository,
+                                 int shardCount, int ringBufferSize) {
+        super();
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shardCount must be positive");
+        }
+        if (ringBufferSize < 1 || Integer.bitCount(ringBufferSize) != 1) {
+            throw new IllegalArgumentException("ringBufferSize must be a power of two");
+        }
+        this.auctionListingFactory = auctionListingFactory;
+        this.authenticationService = authenticationService;
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(i, timeService, closeTickMillis, ringBufferSize);
+            shards[i].auctionService = new DefaultAuctionService(auctionListingFactory, authenticationService,
+                    shards[i], listingRegistry, mutationLog, listingRepository, true);
+        }
+        for (Shard shard : shards) {
+            shard.start();
+        }
+    }
+
+    public String login(String username, String password) throws AuctionServiceException {
+        return authenticationService.login(username, password);
+    }
+
+    public boolean logout(String authToken) {
+        return authenticationService.logout(authToken);
+    }
+
+    public String createListing(String authToken, BigDecimal startingPrice, BigDecimal buyItNowPrice, int auctionLength) throws AuctionServiceException {
+        String listingOwner = authenticationService.validateTokenAndAcquireUser(authToken);
+        DefaultAuctionService.ensureWholeCents(startingPrice);
+        if (buyItNowPrice != null) {
+            DefaultAuctionService.ensureWholeCents(buyItNowPrice);
+        }
+        return registerListing(auctionListingFactory.createAuctionListing(listingOwner, startingPrice, buyItNowPrice, auctionLength));
+    }
+
+    public String createListing(String authToken, long startingPriceCents, long buyItNowPriceCents, int auctionLength) throws AuctionServiceException {
+        String listingOwner = authenticationService.validateTokenAndAcquireUser(authToken);
+        return registerListing(auctionListingFactory.createAuctionListing(listingOwner, startingPriceCents, buyItNowPriceCents, auctionLength));
+    }
+
+    public void bid(String authToken, String listingId, BigDecimal bidAmount) throws AuctionServiceException {
+        Shard shard = shardFor(listingId);
+        Command command = shard.claim();
+        command.operation = Command.BID;
+        command.authToken = authToken;
+        command.listingId = listingId;
+        command.amount = bidAmount;
+        shard.executeAndRelease(command);
+    }
+
+    public void bid(String authToken, String listingId, long bidAmountCents) throws AuctionServiceException {
+        Shard shard = shardFor(listingId);
+        Command command = shard.claim();
+        command.operation = Command.BID_CENTS;
+        command.authToken = authToken;
+        command.listingId = listingId;
+        command.amountCents = bidAmountCents;
+        shard.executeAndRelease(command);
+    }
+
+    public void proxyBid(String authToken, String listingId, BigDecimal maximumBidAmount) throws AuctionServiceException {
+        Shard shard = shardFor(listingId);
+        Command command = shard.claim();
+        command.operation = Command.PROXY_BID;
+        command.authToken = authToken;
+        command.listingId = listingId;
+        command.amount = maximumBidAmount;
+        shard.executeAndRelease(command);
+    }
+
+    public void proxyBid(String authToken, String listingId, long maximumBidAmountCents) throws AuctionServiceException {
+        Shard shard = shardFor(listingId);
+        Command command = shard.claim();
+        command.operation = Command.PROXY_BID_CENTS;
+        command.authToken = authToken;
+        command.listingId = listingId;
+        command.amountCents = maximumBidAmountCents;
+        shard.executeAndRelease(command);
+    }
+
+    public OperationStatus[] bidBatch(List<BatchBid> bids) {
+        OperationStatus[] outcomes = new OperationStatus[bids.size()];
+
+        //Split the batch by owning shard, remembering where each bid came from.
+        List<List<BatchBid>> shardBids = new ArrayList<List<BatchBid>>(shards.length);
+        List<List<Integer>> shardBidIndexes = new ArrayList<List<Integer>>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            shardBids.add(new ArrayList<BatchBid>());
+            shardBidIndexes.add(new ArrayList<Integer>());
+        }
+        for (int i = 0; i < outcomes.length; i++) {
+            BatchBid bid = bids.get(i);
+            int shardIndex = shardIndexFor(bid.getListingId());
+            shardBids.get(shardIndex).add(bid);
+            shardBidIndexes.get(shardIndex).add(i);
+        }
+
+        //Publish to every shard before waiting so the shards work on the batch in parallel.
+        Command[] commands = new Command[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            if (shardBids.get(i).isEmpty()) continue;
+            commands[i] = shards[i].claim();
+            commands[i].operation = Command.BID_BATCH;
+            commands[i].batch = shardBids.get(i);
+            shards[i].publish(commands[i]);
+        }
+        for (int i = 0; i < shards.length; i++) {
+            if (commands[i] == null) continue;
+            OperationStatus[] shardOutcomes;
+            try {
+                shardOutcomes = (OperationStatus[]) shards[i].awaitAndRelease(commands[i]);
+            } catch (AuctionServiceException e) {
+                throw new IllegalStateException("Batch bidding does not raise AuctionServiceException", e);
+            }
+            List<Integer> bidIndexes = shardBidIndexes.get(i);
+            for (int j = 0; j < shardOutcomes.length; j++) {
+                outcomes[bidIndexes.get(j)] = shardOutcomes[j];
+            }
+        }
+        return outcomes;
+    }
+
+    public void buyItNow(String authToken, String listingId) throws AuctionServiceException {
+        Shard shard = shardFor(listingId);
+        Command command = shard.claim();
+        command.operation = Command.BUY_IT_NOW;
+        command.authToken = authToken;
+        command.listingId = listingId;
+        shard.executeAndRelease(command);
+    }
+
+    public OperationOutcome tryCreateListing(String authToken, long startingPriceCents, long buyItNowPriceCents,
+                                             int auctionLength) {
+        String listingOwner;
+        try {
+            listingOwner = authenticationService.validateTokenAndAcquireUser(authToken);
+        } catch (AuctionServiceException e) {
+            return OperationOutcome.of(OperationStatus.BAD_TOKEN, Money.NO_AMOUNT_CENTS);
+        }
+        AuctionListing auctionListing = auctionListingFactory.createAuctionListing(listingOwner, startingPriceCents, buyItNowPriceCents, auctionLength);
+        try {
+            return OperationOutcome.created(registerListing(auctionListing));
+        } catch (AuctionServiceException e) {
+            throw new IllegalStateException("Registering a listing does not raise AuctionServiceException", e);
+        }
+    }
+
+    public OperationOutcome tryBid(String authToken, String listingId, long bidAmountCents) {
+        Shard shard = shardFor(listingId);
+        Command command = shard.claim();
+        command.operation = Command.TRY_BID;
+        command.authToken = authToken;
+        command.listingId = listingId;
+        command.amountCents = bidAmountCents;
+        return executeOutcome(shard, command);
+    }
+
+    public OperationOutcome tryBuyItNow(String authToken, String listingId) {
+        Shard shard = shardFor(listingId);
+        Command command = shard.claim();
+        command.operation = Command.TRY_BUY_IT_NOW;
+        command.authToken = authToken;
+        command.listingId = listingId;
+        return executeOutcome(shard, command);
+    }
+
+    private static OperationOutcome executeOutcome(Shard shard, Command command) {
+        try {
+            return (OperationOutcome) shard.executeAndRelease(command);
+        } catch (AuctionServiceException e) {
+            throw new IllegalStateException("Outcome returning operations do not raise AuctionServiceException", e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<InvoiceLine> fetchInvoices(String authToken, String listingId) throws AuctionServiceException {
+        Shard shard = shardFor(listingId);
+        Command command = shard.claim();
+        command.operation = Command.FETCH_INVOICES;
+        command.authToken = authToken;
+        command.listingId = listingId;
+        return (List<InvoiceLine>) shard.executeAndRelease(command);
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<BidRecord> fetchBidHistory(String authToken, String listingId, int offset, int limit) throws AuctionServiceException {
+        Shard shard = shardFor(listingId);
+        Command command = shard.claim();
+        command.operation = Command.FETCH_BID_HISTORY;
+        command.authToken = authToken;
+        command.listingId = listingId;
+        command.offset = offset;
+        command.limit = limit;
+        return (List<BidRecord>) shard.executeAndRelease(command);
+    }
+
+    public InvoiceCursor fetchUserInvoices(String authToken) throws AuctionServiceException {
+        return fetchUserInvoices(authToken, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * A user's listings are spread over every shard, so the cursor walks the shards
+     * one after the other. Each shard's lines are read by the shard thread, a page
+     * per command, rather than tying up shard threads for the life of the cursor.
+     */
+    public InvoiceCursor fetchUserInvoices(String authToken, long fromMillis, long toMillis)
+            throws AuctionServiceException {
+        String user = authenticationService.validateTokenAndAcquireUser(authToken);
+        ResumableInvoiceCursor[] shardCursors = new ResumableInvoiceCursor[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            shardCursors[i] = new ShardInvoiceCursor(shards[i], user, fromMillis, toMillis);
+        }
+        return new ConcatenatedInvoiceCursor(shardCursors);
+    }
+
+    /**
+     * Stops the shard threads. Commands waiting to be executed, and commands
+     * submitted afterwards, fail with an IllegalStateException.
+     */
+    public void shutdown() {
+        for (Shard shard : shards) {
+            shard.shutdown();
+        }
+    }
+
+    private String registerListing(AuctionListing auctionListing) throws AuctionServiceException {
+        Shard shard = shardFor(auctionListing.getListingId());
+        Command command = shard.claim();
+        command.operation = Command.REGISTER_LISTING;
+        command.listing = auctionListing;
+        return (String) shard.executeAndRelease(command);
+    }
+
+    private Shard shardFor(String listingId) {
+        return shards[shardIndexFor(listingId)];
+    }
+
+    private int shardIndexFor(String listingId) {
+        long listingKey = ListingIds.parse(listingId);
+        if (listingKey == ListingIds.NO_KEY) {
+            //Let shard zero report the bad argument the same way DefaultAuctionService does.
+            return 0;
+        }
+        //Keys from one millisecond differ only in their low bits, so spread them first.
+        return (int) (((listingKey * 0x9E3779B97F4A7C15L) >>> 32) % shards.length);
+    }
+
+    /**
+     * Positions hold the shard in their top bits and the shard cursor's position below.
+     */
+    private static final class ConcatenatedInvoiceCursor implements ResumableInvoiceCursor {
+        private static final int CURSOR_SHIFT = 56;
+        private static final long INNER_POSITION_MASK = (1L << CURSOR_SHIFT) - 1;
+
+        private final ResumableInvoiceCursor[] cursors;
+        private int cursorIndex;
+
+        private ConcatenatedInvoiceCursor(ResumableInvoiceCursor[] cursors) {
+            this.cursors = cursors;
+        }
+
+        public boolean hasNext() {
+            while (cursorIndex < cursors.length) {
+                if (cursors[cursorIndex].hasNext()) return true;
+                cursorIndex++;
+            }
+            return false;
+        }
+
+        public InvoiceLine next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return cursors[cursorIndex].next();
+        }
+
+        public long getPosition() {
+            if (!hasNext()) {
+                return (long) cursors.length << CURSOR_SHIFT;
+            }
+            return ((long) cursorIndex << CURSOR_SHIFT) | cursors[cursorIndex].getPosition();
+        }
+
+        public void seek(long position) {
+            cursorIndex = (int) (position >>> CURSOR_SHIFT);
+            if (cursorIndex < cursors.length) {
+                cursors[cursorIndex].seek(position & INNER_POSITION_MASK);
+            }
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Cursor over the invoice lines a user has on one shard. The shard thread opens
+     * the shard's own cursor and copies a page of lines at a time, with the position
+     * of each, so the caller never reads the shard's listings or indexes.
+     */
+    private static final class ShardInvoiceCursor implements ResumableInvoiceCursor {
+        private static final int PAGE_SIZE = 64;
+
+        private final Shard shard;
+        private final String user;
+        private final long fromMillis;
+        private final long toMillis;
+        private final InvoiceLine[] page = new InvoiceLine[PAGE_SIZE];
+        //Position of each line of the page, then of whatever follows the page.
+        private final long[] positions = new long[PAGE_SIZE + 1];
+        private ResumableInvoiceCursor shardCursor;
+        private int pageSize;
+        private int pageIndex;
+        private boolean exhausted;
+        private boolean seekPending;
+        private long seekPosition;
+
+        private ShardInvoiceCursor(Shard shard, String user, long fromMillis, long toMillis) {
+            this.shard = shard;
+            this.user = user;
+            this.fromMillis = fromMillis;
+            this.toMillis = toMillis;
+        }
+
+        public boolean hasNext() {
+            if (pageIndex < pageSize) return true;
+            if (exhausted) return false;
+            fetchPage();
+            return pageIndex < pageSize;
+        }
+
+        public InvoiceLine next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return page[pageIndex++];
+        }
+
+        public long getPosition() {
+            hasNext();
+            return positions[pageIndex];
+        }
+
+        public void seek(long position) {
+            seekPending = true;
+            seekPosition = position;
+            pageSize = 0;
+            pageIndex = 0;
+            exhausted = false;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private void fetchPage() {
+            Command command = shard.claim();
+            command.operation = Command.FILL_INVOICE_PAGE;
+            command.cursor = this;
+            try {
+                shard.executeAndRelease(command);
+            } catch (AuctionServiceException e) {
+                throw new IllegalStateException("Filling an invoice page does not raise AuctionServiceException", e);
+            }
+        }
+
+        /**
+         * Runs on the shard thread.
+         */
+        private void fillPage(DefaultAuctionService auctionService) {
+            if (shardCursor == null) {
+                shardCursor = auctionService.userInvoices(user, fromMillis, toMillis);
+            }
+            if (seekPending) {
+                shardCursor.seek(seekPosition);
+                seekPending = false;
+            }
+            int count = 0;
+            while (count < PAGE_SIZE && shardCursor.hasNext()) {
+                positions[count] = shardCursor.getPosition();
+                page[count++] = shardCursor.next();
+            }
+            positions[count] = shardCursor.getPosition();
+            pageSize = count;
+            pageIndex = 0;
+            exhausted = count < PAGE_SIZE;
+        }
+    }
+
+    /**
+     * Reusable ring buffer slot. Command arguments and results are plain fields;
+     * visibility between the caller and the shard thread is provided by the
+     * volatile {@link #sequence} and {@link #completed} fields.
+     */
+    private static final class Command {
+        private static final int REGISTER_LISTING = 1;
+        private static final int BID = 2;
+        private static final int BID_CENTS = 3;
+        private static final int BUY_IT_NOW = 4;
+        private static final int FETCH_INVOICES = 5;
+        private static final int BID_BATCH = 6;
+        private static final int FETCH_BID_HISTORY = 7;
+        private static final int PROXY_BID = 8;
+        private static final int PROXY_BID_CENTS = 9;
+        private static final int TRY_BID = 10;
+        private static final int TRY_BUY_IT_NOW = 11;
+        private static final int FILL_INVOICE_PAGE = 12;
+
+        private volatile long sequence;
+        private volatile boolean completed;
+        private Thread waiter;
+        private int operation;
+        private String authToken;
+        private String listingId;
+        private BigDecimal amount;
+        private long amountCents;
+        private int offset;
+        private int limit;
+        private AuctionListing listing;
+        private List<BatchBid> batch;
+        private ShardInvoiceCursor cursor;
+        private Object result;
+        private AuctionServiceException failure;
+        private RuntimeException unexpectedFailure;
+
+        private Command(long sequence) {
+            this.sequence = sequence;
+        }
+
+        private void clear() {
+            waiter = null;
+            authToken = null;
+            listingId = null;
+            amount = null;
+            listing = null;
+            batch = null;
+            cursor = null;
+            result = null;
+            failure = null;
+            unexpectedFailure = null;
+        }
+    }
+
+    /**
+     * Single threaded partition of the listing space.
+     * <p/>
+     * The ring buffer follows the bounded multi producer queue design where every
+     * slot carries a sequence number: a slot is free for the producer claiming
+     * position p when its sequence is p, published when it is p + 1 and, once the
+     * caller has collected the result, free again for position p + capacity.
+     * <p/>
+     * The shard is also the close scheduler of its DefaultAuctionService. Between
+     * commands, and at least once per tick while idle, the shard thread advances its
+     * timing wheel and closes the listings that became due.
+     */
+    private static final class Shard implements Runnable, AuctionCloseScheduler {
+        private static final int SPIN_TRIES = 100;
+
+        private final TimeService timeService;
+        private final long closeTickMillis;
+        private final TimingWheel<AuctionListing> closeWheel;
+        private final Command[] ring;
+        private final int mask;
+        private final AtomicLong claimSequence = new AtomicLong();
+        private final Thread thread;
+        private DefaultAuctionService auctionService;
+        private long nextCloseMillis;
+        private volatile boolean sleeping;
+        private volatile boolean running = true;
+        private volatile boolean terminated;
+
+        private Shard(int shardNumber, TimeService timeService, long closeTickMillis, int ringBufferSize) {
+            this.timeService = timeService;
+            this.closeTickMillis = closeTickMillis;
+            this.closeWheel = new TimingWheel<AuctionListing>(closeTickMillis, TimingWheelAuctionCloseScheduler.WHEEL_SIZE,
+                    timeService.currentTimeMillis());
+            this.ring = new Command[ringBufferSize];
+            for (int i = 0; i < ringBufferSize; i++) {
+                ring[i] = new Command(i);
+            }
+            this.mask = ringBufferSize - 1;
+            this.thread = new Thread(this, "auction-shard-" + shardNumber);
+            this.thread.setDaemon(true);
+        }
+
+        private void start() {
+            thread.start();
+        }
+
+        private void shutdown() {
+            running = false;
+            LockSupport.unpark(thread);
+        }
+
+        /**
+         * Called by the shard's DefaultAuctionService, so on the shard thread.
+         */
+        public void scheduleClose(AuctionListing auctionListing) {
+            //Listings close once the time is strictly after their ending time.
+            closeWheel.schedule(auctionListing, auctionListing.getEndingTime().getTime() + 1);
+        }
+
+        private Command claim() {
+            while (true) {
+                if (!running) {
+                    throw new IllegalStateException("Auction shard has been shut down");
+                }
+                long position = claimSequence.get();
+                Command command = ring[(int) (position & mask)];
+                long difference = command.sequence - position;
+                if (difference == 0) {
+                    if (claimSequence.compareAndSet(position, position + 1)) {
+                        return command;
+                    }
+                } else if (difference < 0) {
+                    //Ring buffer is full, wait for the shard to catch up.
+                    Thread.yield();
+                }
+            }
+        }
+
+        private Object executeAndRelease(Command command) throws AuctionServiceException {
+            publish(command);
+            return awaitAndRelease(command);
+        }
+
+        private void publish(Command command) {
+            command.waiter = Thread.currentThread();
+            command.sequence = command.sequence + 1;
+            if (sleeping) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        private Object awaitAndRelease(Command command) throws AuctionServiceException {
+            //The slot stays published, at claimed position + 1, until it is released below.
+            long position = command.sequence - 1;
+            int spins = 0;
+            boolean abandoned = false;
+            while (!command.completed) {
+                //The shard thread completes nothing once terminated, and then wakes every waiter.
+                if (terminated) {
+                    abandoned = !command.completed;
+                    break;
+                }
+                if (spins < SPIN_TRIES) {
+                    spins++;
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+
+            Object result = command.result;
+            AuctionServiceException failure = command.failure;
+            RuntimeException unexpectedFailure = command.unexpectedFailure;
+            command.clear();
+            command.completed = false;
+            command.sequence = position + ring.length;
+
+            if (abandoned) {
+                throw new IllegalStateException("Auction shard has been shut down");
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            if (unexpectedFailure != null) {
+                throw unexpectedFailure;
+            }
+            return result;
+        }
+
+        public void run() {
+            long position = 0;
+            nextCloseMillis = timeService.currentTimeMillis() + closeTickMillis;
+            while (running) {
+                closeDueListings();
+                Command command = ring[(int) (position & mask)];
+                if (command.sequence != position + 1) {
+                    idle(command, position + 1);
+                    continue;
+                }
+
+                Thread waiter = command.waiter;
+                execute(command);
+                command.completed = true;
+                LockSupport.unpark(waiter);
+                position++;
+            }
+
+            terminated = true;
+            for (Command command : ring) {
+                //Reading the sequence first makes the waiter of a published command visible.
+                if (command.sequence > 0) {
+                    Thread waiter = command.waiter;
+                    if (waiter != null) {
+                        LockSupport.unpark(waiter);
+                    }
+                }
+            }
+        }
+
+        private void idle(Command command, long publishedSequence) {
+            sleeping = true;
+            if (command.sequence != publishedSequence && running) {
+                LockSupport.parkNanos(this, closeTickMillis * 1000000L);
+            }
+            sleeping = false;
+        }
+
+        /**
+         * Closes the listings whose ending time passed, at most once per tick.
+         */
+        private void closeDueListings() {
+            long nowMillis = timeService.currentTimeMillis();
+            if (nowMillis < nextCloseMillis) return;
+
+            nextCloseMillis = nowMillis + closeTickMillis;
+            for (AuctionListing auctionListing : closeWheel.advanceTo(nowMillis)) {
+                if (!auctionListing.closeIfEnded(nowMillis)) {
+                    //The clock was moved back after the listing was scheduled.
+                    scheduleClose(auctionListing);
+                }
+            }
+        }
+
+        private void execute(Command command) {
+            try {
+                switch (command.operation) {
+                    case Command.REGISTER_LISTING:
+                        command.result = auctionService.addListing(command.listing);
+                        break;
+                    case Command.BID:
+                        auctionService.bid(command.authToken, command.listingId, command.amount);
+                        break;
+                    case Command.BID_CENTS:
+                        auctionService.bid(command.authToken, command.listingId, command.amountCents);
+                        break;
+                    case Command.PROXY_BID:
+                        auctionService.proxyBid(command.authToken, command.listingId, command.amount);
+                        break;
+                    case Command.PROXY_BID_CENTS:
+                        auctionService.proxyBid(command.authToken, command.listingId, command.amountCents);
+                        break;
+                    case Command.BUY_IT_NOW:
+                        auctionService.buyItNow(command.authToken, command.listingId);
+                        break;
+                    case Command.TRY_BID:
+                        command.result = auctionService.tryBid(command.authToken, command.listingId, command.amountCents);
+                        break;
+                    case Command.TRY_BUY_IT_NOW:
+                        command.result = auctionService.tryBuyItNow(command.authToken, command.listingId);
+                        break;
+                    case Command.FETCH_INVOICES:
+                        command.result = auctionService.fetchInvoices(command.authToken, command.listingId);
+                        break;
+                    case Command.BID_BATCH:
+                        command.result = auctionService.bidBatch(command.batch);
+                        break;
+                    case Command.FILL_INVOICE_PAGE:
+                        command.cursor.fillPage(auctionService);
+                        break;
+                    case Command.FETCH_BID_HISTORY:
+                        command.result = auctionService.fetchBidHistory(command.authToken, command.listingId,
+                                command.offset, command.limit);
+                        break;
+                    default:
+                        throw new IllegalStateException("Unknown shard operation " + command.operation);
+                }
+            } catch (AuctionServiceException e) {
+                command.failure = e;
+            } catch (RuntimeException e) {
+                command.unexpectedFailure = e;
+            }
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package com.acme.auction;
+
+import com.acme.auctionclient.AuctionServiceException;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Authentication service handing out self-contained tokens, so validating a token
+ * needs no shared table and any node holding the same keys can validate it.
+ * <p/>
+ * A token is {@link #TOKEN_BYTES} bytes written in unpadded base64url: the id of the
+ * signing key, the user id, the expiry time in seconds and the first
+ * {@link #MAC_BYTES} bytes of an HMAC-SHA256 of the preceding fields. User ids index
+ * the sorted table of known users, so they agree across nodes with the same users.
+ * <p/>
+ * Validation decodes into per-thread buffers and verifies with per-thread HMAC
+ * state kept for each key, so a valid token is checked without allocating.
+ * See {@link TokenSigningKeys} for key rotation.
+ */
+public class SignedTokenAuthenticationService implements AuthenticationService {
+    public static final long DEFAULT_TOKEN_LIFETIME_MILLIS = 12 * 60 * 60 * 1000L;
+    static final int MAC_BYTES = 16;
+    static final int SIGNED_BYTES = 1 + 4 + 4;
+    static final int TOKEN_BYTES = SIGNED_BYTES + MAC_BYTES;
+    /**
+     * Length of a token in characters, 4 per 3 bytes without padding.
+     */
+    public static final int TOKEN_LENGTH = (TOKEN_BYTES * 4 + 2) / 3;
+
+    private static final char[] BASE64URL_ALPHABET =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+    private static final byte[] BASE64URL_VALUES = new byte[128];
+
+    static {
+        Arrays.fill(BASE64URL_VALUES, (byte) -1);
+        for (int i = 0; i < BASE64URL_ALPHABET.length; i++) {
+            BASE64URL_VALUES[BASE64URL_ALPHABET[i]] = (byte) i;
+        }
+    }
+
+    private final TimeService timeService;
+    private final TokenSigningKeys signingKeys;
+    private final long tokenLifetimeMillis;
+    private final Map<String, String> userPassMap;
+    private final String[] idToUser;
+    private final Map<String, Integer> userToId = new HashMap<String, Integer>();
+    private final ThreadLocal<Verifier> verifiers = new ThreadLocal<Verifier>() {
+        @Override
+        protected Verifier initialValue() {
+            return new Verifier();
+        }
+    };
+
+    public SignedTokenAuthenticationService(TimeService timeService, TokenSigningKeys signingKeys) {
+        this(timeService, signingKeys, DEFAULT_TOKEN_LIFETIME_MILLIS);
+    }
+
+    /**
+     * @param tokenLifetimeMillis time after login at which a token stops being accepted
+     */
+    public SignedTokenAuthenticationService(TimeService timeService, TokenSigningKeys signingKeys,
+                                            long tokenLifetimeMillis) {
+        super();
+        this.timeService = timeService;
+        this.signingKeys = signingKeys;
+        this.tokenLifetimeMillis = tokenLifetimeMillis;
+        this.userPassMap = DefaultAuthenticationService.USER_PASSWORDS;
+        this.idToUser = userPassMap.keySet().toArray(new String[userPassMap.size()]);
+        Arrays.sort(idToUser);
+        for (int i = 0; i < idToUser.length; i++) {
+            userToId.put(idToUser[i], i);
+        }
+    }
+
+    public String login(String username, String password) throws AuctionServiceException {
+        if (username == null) {
+            throw new AuctionServiceException("null username");
+        }
+        if (password == null) {
+            throw new AuctionServiceException("null password");
+        }
+        String expectedPassword = this.userPassMap.get(username);
+        if (expectedPassword == null || !password.equals(expectedPassword)) {
+            throw new AuctionServiceException("Invalid user/pass combination");
+        }
+
+        //Read once, so the id and the key come from the same activation.
+        TokenSigningKeys.ActiveKey activeKey = signingKeys.getActiveKey();
+        if (activeKey == null) {
+            throw new IllegalStateException("no active signing key");
+        }
+        long expirySeconds = (timeService.currentTimeMillis() + tokenLifetimeMillis) / 1000;
+        byte[] token = new byte[TOKEN_BYTES];
+        token[0] = (byte) activeKey.keyId;
+        writeInt(token, 1, userToId.get(username));
+        writeInt(token, 5, (int) expirySeconds);
+        Verifier verifier = verifiers.get();
+        System.arraycopy(verifier.sign(activeKey.keyId, activeKey.key, token), 0, token, SIGNED_BYTES, MAC_BYTES);
+        return encode(token);
+    }
+
+    /**
+     * Signed tokens are checked without any server side state, so they stay valid
+     * until they expire.
+     */
+    public boolean logout(String authToken) {
+        return false;
+    }
+
+    public String validateTokenAndAcquireUser(String authToken) throws AuctionServiceException {
+        Verifier verifier = verifiers.get();
+        byte[] token = verifier.tokenBytes;
+        if (authToken == null || !decode(authToken, token)) {
+            throw Rejections.UNRECOGNIZED_AUTH_TOKEN;
+        }
+
+        int keyId = token[0] & 0xFF;
+        SecretKeySpec key = signingKeys.find(keyId);
+        if (key == null || !verifier.verify(keyId, key, token)) {
+            throw Rejections.UNRECOGNIZED_AUTH_TOKEN;
+        }
+        int userId = readInt(token, 1);
+        if (userId < 0 || userId >= idToUser.length) {
+            throw Rejections.UNRECOGNIZED_AUTH_TOKEN;
+        }
+        long expirySeconds = readInt(token, 5) & 0xFFFFFFFFL;
+        if (timeService.currentTimeMillis() / 1000 >= expirySeconds) {
+            throw Rejections.EXPIRED_AUTH_TOKEN;
+        }
+        return idToUser[userId];
+    }
+
+    private static String encode(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(TOKEN_LENGTH);
+        int bits = 0;
+        int bitCount = 0;
+        for (byte b : bytes) {
+            bits = (bits << 8) | (b & 0xFF);
+            bitCount += 8;
+            while (bitCount >= 6) {
+                bitCount -= 6;
+                builder.append(BASE64URL_ALPHABET[(bits >>> bitCount) & 0x3F]);
+            }
+        }
+        if (bitCount > 0) {
+            builder.append(BASE64URL_ALPHABET[(bits << (6 - bitCount)) & 0x3F]);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return false if the token is not {@link #TOKEN_LENGTH} canonical base64url characters
+     */
+    private static boolean decode(String token, byte[] bytes) {
+        if (token.length() != TOKEN_LENGTH) return false;
+
+        int bits = 0;
+        int bitCount = 0;
+        int byteCount = 0;
+        for (int i = 0; i < TOKEN_LENGTH; i++) {
+            char c = token.charAt(i);
+            int value = c < BASE64URL_VALUES.length ? BASE64URL_VALUES[c] : -1;
+            if (value < 0) return false;
+
+            bits = (bits << 6) | value;
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                if (byteCount < bytes.length) {
+                    bytes[byteCount++] = (byte) (bits >>> bitCount);
+                }
+            }
+        }
+        //Unused trailing bits must be zero, so every token has a single spelling.
+        return byteCount == bytes.length && (bits & ((1 << bitCount) - 1)) == 0;
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xFF) << 24) | ((bytes[offset + 1] & 0xFF) << 16)
+                | ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+    }
+
+    /**
+     * Buffers and HMAC state of one thread. The HMAC is computed over a SHA-256
+     * {@link MessageDigest}, which, unlike {@link javax.crypto.Mac}, can write its
+     * result into a buffer without allocating. The padded keys are kept per key id
+     * and derived again when the key with that id changes.
+     */
+    private static final class Verifier {
+        private static final int BLOCK_BYTES = 64;
+
+        private final byte[] tokenBytes = new byte[TOKEN_BYTES];
+        private final byte[] macBytes = new byte[32];
+        private final MessageDigest digest;
+        private final SecretKeySpec[] paddedKeyOwners = new SecretKeySpec[TokenSigningKeys.MAX_KEY_ID + 1];
+        private final byte[][] innerPaddedKeys = new byte[TokenSigningKeys.MAX_KEY_ID + 1][];
+        private final byte[][] outerPaddedKeys = new byte[TokenSigningKeys.MAX_KEY_ID + 1][];
+
+        private Verifier() {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * @return HMAC-SHA256 of the signed fields of the token, in a buffer reused by the next call
+         */
+        private byte[] sign(int keyId, SecretKeySpec key, byte[] token) {
+            if (paddedKeyOwners[keyId] != key) {
+                padKey(keyId, key);
+            }
+            try {
+                digest.update(innerPaddedKeys[keyId]);
+                digest.update(token, 0, SIGNED_BYTES);
+                digest.digest(macBytes, 0, macBytes.length);
+                digest.update(outerPaddedKeys[keyId]);
+                digest.update(macBytes, 0, macBytes.length);
+                digest.digest(macBytes, 0, macBytes.length);
+            } catch (DigestException e) {
+                throw new IllegalStateException(e);
+            }
+            return macBytes;
+        }
+
+        private boolean verify(int keyId, SecretKeySpec key, byte[] token) {
+            sign(keyId, key, token);
+            //Compare every byte whatever the outcome, so timing does not reveal the prefix that matched.
+            int difference = 0;
+            for (int i = 0; i < MAC_BYTES; i++) {
+                difference |= macBytes[i] ^ token[SIGNED_BYTES + i];
+            }
+            return difference == 0;
+        }
+
+        private void padKey(int keyId, SecretKeySpec key) {
+            byte[] secret = key.getEncoded();
+            if (secret.length > BLOCK_BYTES) {
+                secret = digest.digest(secret);
+            }
+            byte[] innerPaddedKey = new byte[BLOCK_BYTES];
+            byte[] outerPaddedKey = new byte[BLOCK_BYTES];
+            for (int i = 0; i < BLOCK_BYTES; i++) {
+                byte secretByte = i < secret.length ? secret[i] : 0;
+                innerPaddedKey[i] = (byte) (secretByte ^ 0x36);
+                outerPaddedKey[i] = (byte) (secretByte ^ 0x5c);
+            }
+            innerPaddedKeys[keyId] = innerPaddedKey;
+            outerPaddedKeys[keyId] = outerPaddedKey;
+            paddedKeyOwners[keyId] = key;
+        }
+    }
+}
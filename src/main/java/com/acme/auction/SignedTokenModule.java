@@ -0,0 +1,54 @@
+package com.acme.auction;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Provides;
+import com.google.inject.Singleton;
+
+/**
+ * Guice module authenticating users with signed tokens, see
+ * {@link SignedTokenAuthenticationService}. Meant to override the authentication
+ * service bound by {@link AuctionModule}:
+ * <pre>
+ * Modules.override(new AuctionModule(false)).with(new SignedTokenModule(keyId, secret))
+ * </pre>
+ * Every node validating the tokens must be given the same keys.
+ */
+public class SignedTokenModule extends AbstractModule {
+    private final int keyId;
+    private final byte[] secret;
+    private final long tokenLifetimeMillis;
+
+    public SignedTokenModule(int keyId, byte[] secret) {
+        this(keyId, secret, SignedTokenAuthenticationService.DEFAULT_TOKEN_LIFETIME_MILLIS);
+    }
+
+    /**
+     * @param keyId               id of the initial signing key
+     * @param secret              initial signing key, at least 16 bytes
+     * @param tokenLifetimeMillis time after login at which a token stops being accepted
+     */
+    public SignedTokenModule(int keyId, byte[] secret, long tokenLifetimeMillis) {
+        super();
+        this.keyId = keyId;
+        this.secret = secret.clone();
+        this.tokenLifetimeMillis = tokenLifetimeMillis;
+    }
+
+    @Override
+    protected void configure() {
+        bind(AuthenticationService.class).to(SignedTokenAuthenticationService.class);
+    }
+
+    @Provides
+    @Singleton
+    TokenSigningKeys provideTokenSigningKeys() {
+        return new TokenSigningKeys(keyId, secret);
+    }
+
+    @Provides
+    @Singleton
+    SignedTokenAuthenticationService provideSignedTokenAuthenticationService(TimeService timeService,
+                                                                             TokenSigningKeys signingKeys) {
+        return new SignedTokenAuthenticationService(timeService, signingKeys, tokenLifetimeMillis);
+    }
+}
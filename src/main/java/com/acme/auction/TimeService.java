@@ -6,5 +6,14 @@ import java.util.Date;
  * Time service to be used in place of System.getTime()
  */
 public interface TimeService {
+    /**
+     * Kept for API compatibility, allocates a Date on every call.
+     * Prefer {@link #currentTimeMillis()} on hot paths.
+     */
     Date getTime();
+
+    /**
+     * @return current time in milliseconds since the epoch, without allocating
+     */
+    long currentTimeMillis();
 }
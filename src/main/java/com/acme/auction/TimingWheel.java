@@ -0,0 +1,199 @@
+package com.acme.auction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Hierarchical timing wheel holding items until their deadline has passed.
+ * <p/>
+ * The first wheel has {@code wheelSize} buckets of {@code tickMillis} each. Items
+ * further out go to coarser overflow wheels, created on demand, whose buckets span
+ * a whole turn of the wheel below. Only non-empty buckets are queued for wake up,
+ * so advancing the wheel costs time proportional to the buckets that actually
+ * expire rather than to the time elapsed. Large jumps of the clock, as made by
+ * {@link AdjustableTimeService}, are therefore cheap.
+ * <p/>
+ * Items are never handed out before their deadline and at most one tick after it.
+ * All methods are synchronized.
+ *
+ * @param <T> type of the scheduled items
+ */
+public class TimingWheel<T> {
+    private final long tickMillis;
+    private final Wheel<T> firstWheel;
+    private final PriorityQueue<WakeUp<T>> wakeUps = new PriorityQueue<WakeUp<T>>(64, new Comparator<WakeUp<T>>() {
+        public int compare(WakeUp<T> first, WakeUp<T> second) {
+            return first.expirationMillis < second.expirationMillis ? -1
+                    : (first.expirationMillis == second.expirationMillis ? 0 : 1);
+        }
+    });
+    private final List<T> dueItems = new ArrayList<T>();
+    private int size;
+
+    /**
+     * @param tickMillis     granularity of the finest wheel
+     * @param wheelSize      number of buckets per wheel
+     * @param startTimeMillis time the wheel starts at
+     */
+    public TimingWheel(long tickMillis, int wheelSize, long startTimeMillis) {
+        if (tickMillis < 1) {
+            throw new IllegalArgumentException("tickMillis must be positive");
+        }
+        if (wheelSize < 2) {
+            throw new IllegalArgumentException("wheelSize must be at least 2");
+        }
+        this.tickMillis = tickMillis;
+        this.firstWheel = new Wheel<T>(tickMillis, wheelSize, startTimeMillis, true);
+    }
+
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Adds an item that becomes due once the clock passes deadlineMillis.
+     * Items whose deadline has already passed are handed out by the next advance.
+     */
+    public synchronized void schedule(T item, long deadlineMillis) {
+        size++;
+        add(new Entry<T>(item, deadlineMillis));
+    }
+
+    /**
+     * Moves the wheel forward and collects every item that is now due.
+     *
+     * @param nowMillis current time, earlier times are ignored
+     * @return the due items, in deadline order bucket by bucket
+     */
+    public synchronized List<T> advanceTo(long nowMillis) {
+        while (!wakeUps.isEmpty() && wakeUps.peek().expirationMillis <= nowMillis) {
+            WakeUp<T> wakeUp = wakeUps.poll();
+            Bucket<T> bucket = wakeUp.bucket;
+            //Skip wake ups superseded by an earlier one or already served.
+            if (bucket.expirationMillis != wakeUp.expirationMillis) continue;
+
+            firstWheel.advanceClock(wakeUp.expirationMillis);
+            List<Entry<T>> entries = bucket.entries;
+            bucket.entries = new ArrayList<Entry<T>>();
+            bucket.expirationMillis = Bucket.UNSCHEDULED;
+            for (Entry<T> entry : entries) {
+                add(entry);
+            }
+        }
+        firstWheel.advanceClock(nowMillis);
+
+        if (dueItems.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<T> expired = new ArrayList<T>(dueItems);
+        dueItems.clear();
+        size -= expired.size();
+        return expired;
+    }
+
+    private void add(Entry<T> entry) {
+        Bucket<T> bucket = firstWheel.bucketFor(entry.deadlineMillis);
+        if (bucket == null) {
+            dueItems.add(entry.item);
+            return;
+        }
+
+        //Never wake up in the past, otherwise coarse buckets could be re-queued forever.
+        long expirationMillis = Math.max(bucket.candidateExpirationMillis, firstWheel.currentTimeMillis + tickMillis);
+        bucket.entries.add(entry);
+        if (bucket.expirationMillis == Bucket.UNSCHEDULED || expirationMillis < bucket.expirationMillis) {
+            bucket.expirationMillis = expirationMillis;
+            wakeUps.add(new WakeUp<T>(expirationMillis, bucket));
+        }
+    }
+
+    private static final class Wheel<T> {
+        private final long tickMillis;
+        private final long intervalMillis;
+        private final boolean finest;
+        private final Bucket<T>[] buckets;
+        private long currentTimeMillis;
+        private Wheel<T> overflowWheel;
+
+        @SuppressWarnings("unchecked")
+        private Wheel(long tickMillis, int wheelSize, long startTimeMillis, boolean finest) {
+            this.tickMillis = tickMillis;
+            this.intervalMillis = tickMillis * wheelSize;
+            this.finest = finest;
+            this.buckets = (Bucket<T>[]) new Bucket<?>[wheelSize];
+            for (int i = 0; i < wheelSize; i++) {
+                buckets[i] = new Bucket<T>();
+            }
+            this.currentTimeMillis = startTimeMillis - (startTimeMillis % tickMillis);
+        }
+
+        /**
+         * Finds the bucket for a deadline and records the time it should wake up,
+         * or returns null when the deadline has passed.
+         */
+        private Bucket<T> bucketFor(long deadlineMillis) {
+            if (deadlineMillis <= currentTimeMillis) {
+                return null;
+            }
+
+            //The finest wheel wakes up at or after the deadline, coarser wheels at the
+            //start of their bucket so entries can cascade down to finer wheels.
+            long virtualId = finest ? (deadlineMillis + tickMillis - 1) / tickMillis : deadlineMillis / tickMillis;
+            long expirationMillis = virtualId * tickMillis;
+            if (expirationMillis <= currentTimeMillis + intervalMillis - (finest ? 0 : tickMillis)) {
+                Bucket<T> bucket = buckets[(int) (virtualId % buckets.length)];
+                bucket.candidateExpirationMillis = expirationMillis;
+                return bucket;
+            }
+
+            if (overflowWheel == null) {
+                overflowWheel = new Wheel<T>(intervalMillis, buckets.length, currentTimeMillis, false);
+            }
+            return overflowWheel.bucketFor(deadlineMillis);
+        }
+
+        private void advanceClock(long timeMillis) {
+            if (timeMillis >= currentTimeMillis + tickMillis) {
+                currentTimeMillis = timeMillis - (timeMillis % tickMillis);
+                if (overflowWheel != null) {
+                    overflowWheel.advanceClock(currentTimeMillis);
+                }
+            }
+        }
+    }
+
+    private static final class Bucket<T> {
+        private static final long UNSCHEDULED = Long.MIN_VALUE;
+
+        private List<Entry<T>> entries = new ArrayList<Entry<T>>();
+        private long expirationMillis = UNSCHEDULED;
+        private long candidateExpirationMillis;
+    }
+
+    private static final class Entry<T> {
+        private final T item;
+        private final long deadlineMillis;
+
+        private Entry(T item, long deadlineMillis) {
+            this.item = item;
+            this.deadlineMillis = deadlineMillis;
+        }
+    }
+
+    private static final class WakeUp<T> {
+        private final long expirationMillis;
+        private final Bucket<T> bucket;
+
+        private WakeUp(long expirationMillis, Bucket<T> bucket) {
+            this.expirationMillis = expirationMillis;
+            this.bucket = bucket;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.acme.auction;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.name.Named;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Closes listings at their ending time using a {@link TimingWheel}.
+ * <p/>
+ * A ticker thread reads the {@link TimeService} once per tick and closes every
+ * listing that has become due as one batch. Because the wheel is driven by the
+ * time service, jumps made through {@link AdjustableTimeService} are picked up on
+ * the next tick. Once closed, listings answer reads from their state without
+ * consulting the clock. Listings are still able to close themselves on read, so
+ * the tick only bounds how long a listing nobody looks at stays open. A listing
+ * failing to close, such as when its listener throws, does not stop the others or
+ * the ticker, see {@link #getLastCloseFailure()}.
+ */
+public class TimingWheelAuctionCloseScheduler implements AuctionCloseScheduler {
+    public static final String TICK_MILLIS_NAME = "auctionCloseTickMillis";
+    public static final long DEFAULT_TICK_MILLIS = 100;
+    public static final int WHEEL_SIZE = 512;
+
+    private final TimeService timeService;
+    private final TimingWheel<AuctionListing> timingWheel;
+    private final ScheduledExecutorService ticker;
+    private final AtomicLong closedCount = new AtomicLong();
+    private final AtomicLong totalCloseLagMillis = new AtomicLong();
+    private final AtomicLong maxCloseLagMillis = new AtomicLong();
+    private volatile RuntimeException lastCloseFailure;
+
+    @Inject
+    public TimingWheelAuctionCloseScheduler(TimeService timeService, @Named(TICK_MILLIS_NAME) long tickMillis) {
+        this(timeService, tickMillis, true);
+    }
+
+    /**
+     * @param tickMillis  bucket granularity of the wheel, and period of the ticker
+     * @param startTicker false to leave advancing to explicit {@link #closeExpiredListings()} calls
+     */
+    public TimingWheelAuctionCloseScheduler(TimeService timeService, long tickMillis, boolean startTicker) {
+        super();
+        this.timeService = timeService;
+        this.timingWheel = new TimingWheel<AuctionListing>(tickMillis, WHEEL_SIZE, timeService.currentTimeMillis());
+        if (startTicker) {
+            this.ticker = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("auction-close-ticker")
+                    .setDaemon(true)
+                    .build());
+            this.ticker.scheduleAtFixedRate(new Runnable() {
+                public void run() {
+                    try {
+                        closeExpiredListings();
+                    } catch (RuntimeException e) {
+                        //Escaping the task would cancel all further ticks.
+                        lastCloseFailure = e;
+                    }
+                }
+            }, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.ticker = null;
+        }
+    }
+
+    public void scheduleClose(AuctionListing auctionListing) {
+        //Listings close once the time is strictly after their ending time.
+        timingWheel.schedule(auctionListing, auctionListing.getEndingTime().getTime() + 1);
+    }
+
+    /**
+     * Advances the wheel to the current time and closes the listings that became due.
+     *
+     * @return number of listings closed by this call
+     */
+    public int closeExpiredListings() {
+        long nowMillis = timeService.currentTimeMillis();
+        List<AuctionListing> dueListings = timingWheel.advanceTo(nowMillis);
+        int batchClosedCount = 0;
+        long batchLagMillis = 0;
+        long batchMaxLagMillis = 0;
+        for (AuctionListing auctionListing : dueListings) {
+            boolean closed;
+            try {
+                closed = auctionListing.closeIfEnded(nowMillis);
+            } catch (RuntimeException e) {
+                //The listing is closed on its next read, the rest of the batch still is now.
+                lastCloseFailure = e;
+                continue;
+            }
+            if (closed) {
+                long lagMillis = nowMillis - auctionListing.getEndingTime().getTime();
+                batchClosedCount++;
+                batchLagMillis += lagMillis;
+                batchMaxLagMillis = Math.max(batchMaxLagMillis, lagMillis);
+            } else {
+                //The clock was moved back after the listing was scheduled.
+                scheduleClose(auctionListing);
+            }
+        }
+        if (batchClosedCount > 0) {
+            closedCount.addAndGet(batchClosedCount);
+            totalCloseLagMillis.addAndGet(batchLagMillis);
+            while (true) {
+                long currentMax = maxCloseLagMillis.get();
+                if (batchMaxLagMillis <= currentMax || maxCloseLagMillis.compareAndSet(currentMax, batchMaxLagMillis)) break;
+            }
+        }
+        return batchClosedCount;
+    }
+
+    /**
+     * @return number of listings closed by the scheduler so far
+     */
+    public long getClosedCount() {
+        return closedCount.get();
+    }
+
+    /**
+     * @return sum over the listings closed by the scheduler of the time between
+     *         their ending time and the tick that closed them
+     */
+    public long getTotalCloseLagMillis() {
+        return totalCloseLagMillis.get();
+    }
+
+    public long getMaxCloseLagMillis() {
+        return maxCloseLagMillis.get();
+    }
+
+    /**
+     * @return why a listing or a tick last failed to close, null if none has failed
+     */
+    public RuntimeException getLastCloseFailure() {
+        return lastCloseFailure;
+    }
+
+    /**
+     * @return number of listings waiting for their ending time
+     */
+    public int getScheduledCount() {
+        return timingWheel.size();
+    }
+
+    public void shutdown() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+        }
+    }
+}
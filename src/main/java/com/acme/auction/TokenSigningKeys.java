@@ -0,0 +1,111 @@
+package com.acme.auction;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.util.Arrays;
+
+/**
+ * Keys signing the tokens of {@link SignedTokenAuthenticationService}, identified by
+ * a key id from 0 to {@link #MAX_KEY_ID} that every token carries.
+ * <p/>
+ * New tokens are signed with the active key, while tokens signed with any key still
+ * present keep verifying. To rotate, add the new key on every node, activate it, and
+ * retire the old key once the tokens signed with it have expired. Changes are
+ * published by replacing a volatile array, so verification reads keys without locking.
+ * The active key is published with its id as one {@link ActiveKey}, so signing never
+ * pairs an id with the key of another.
+ */
+public class TokenSigningKeys {
+    public static final int MAX_KEY_ID = 255;
+    static final String ALGORITHM = "HmacSHA256";
+
+    private volatile SecretKeySpec[] keys = new SecretKeySpec[MAX_KEY_ID + 1];
+    private volatile ActiveKey activeKey;
+
+    public TokenSigningKeys() {
+        super();
+    }
+
+    /**
+     * Creates the keys with a single, active, key.
+     */
+    public TokenSigningKeys(int keyId, byte[] secret) {
+        this();
+        addKey(keyId, secret);
+        activate(keyId);
+    }
+
+    public synchronized void addKey(int keyId, byte[] secret) {
+        checkKeyId(keyId);
+        if (secret.length < 16) {
+            throw new IllegalArgumentException("secret must be at least 16 bytes");
+        }
+        SecretKeySpec[] updated = Arrays.copyOf(keys, keys.length);
+        updated[keyId] = new SecretKeySpec(secret, ALGORITHM);
+        keys = updated;
+        if (keyId == getActiveKeyId()) {
+            activeKey = new ActiveKey(keyId, updated[keyId]);
+        }
+    }
+
+    /**
+     * Makes a key sign the tokens handed out from now on.
+     */
+    public synchronized void activate(int keyId) {
+        checkKeyId(keyId);
+        if (keys[keyId] == null) {
+            throw new IllegalArgumentException("unknown key id " + keyId);
+        }
+        activeKey = new ActiveKey(keyId, keys[keyId]);
+    }
+
+    /**
+     * Removes a key, so the tokens it signed stop verifying. The active key cannot be retired.
+     */
+    public synchronized void retire(int keyId) {
+        checkKeyId(keyId);
+        if (keyId == getActiveKeyId()) {
+            throw new IllegalArgumentException("cannot retire the active key " + keyId);
+        }
+        SecretKeySpec[] updated = Arrays.copyOf(keys, keys.length);
+        updated[keyId] = null;
+        keys = updated;
+    }
+
+    /**
+     * @return the id of the active key, or -1 if no key was activated
+     */
+    public int getActiveKeyId() {
+        ActiveKey active = activeKey;
+        return active != null ? active.keyId : -1;
+    }
+
+    /**
+     * @return the active key with its id, or null if no key was activated
+     */
+    ActiveKey getActiveKey() {
+        return activeKey;
+    }
+
+    /**
+     * @return the key, or null if there is no key with that id
+     */
+    SecretKeySpec find(int keyId) {
+        return keys[keyId];
+    }
+
+    static final class ActiveKey {
+        final int keyId;
+        final SecretKeySpec key;
+
+        private ActiveKey(int keyId, SecretKeySpec key) {
+            this.keyId = keyId;
+            this.key = key;
+        }
+    }
+
+    private static void checkKeyId(int keyId) {
+        if (keyId < 0 || keyId > MAX_KEY_ID) {
+            throw new IllegalArgumentException("keyId must be between 0 and " + MAX_KEY_ID);
+        }
+    }
+}
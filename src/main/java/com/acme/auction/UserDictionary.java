@@ -0,0 +1,105 @@
+package com.acme.auction;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent dictionary giving each user name a small int id, so records can
+ * store users as fixed-width ids.
+ * <p/>
+ * Names are appended to a file in id order as they are first seen, and read
+ * back when the dictionary is opened. Lookups take no lock, adding a name
+ * locks the dictionary.
+ */
+public class UserDictionary implements Closeable {
+    /**
+     * Id standing for no user.
+     */
+    public static final int NO_USER = -1;
+
+    private final ConcurrentHashMap<String, Integer> userToId = new ConcurrentHashMap<String, Integer>();
+    private final FileOutputStream fileOutputStream;
+    private final DataOutputStream output;
+    private volatile String[] idToUser = new String[16];
+    private int userCount;
+
+    public UserDictionary(File file) throws IOException {
+        super();
+        if (file.exists()) {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                while (true) {
+                    register(input.readUTF());
+                }
+            } catch (EOFException endOfUsers) {
+                //All users read.
+            } finally {
+                input.close();
+            }
+        }
+        this.fileOutputStream = new FileOutputStream(file, true);
+        this.output = new DataOutputStream(fileOutputStream);
+    }
+
+    /**
+     * Returns the id of a user, adding the user if it is new.
+     */
+    public int idFor(String user) {
+        if (user == null) return NO_USER;
+        Integer id = userToId.get(user);
+        return id != null ? id : add(user);
+    }
+
+    /**
+     * @return the user name, or null for {@link #NO_USER}
+     */
+    public String userFor(int id) {
+        return id == NO_USER ? null : idToUser[id];
+    }
+
+    public synchronized int size() {
+        return userCount;
+    }
+
+    public synchronized void close() throws IOException {
+        output.flush();
+        fileOutputStream.getFD().sync();
+        output.close();
+    }
+
+    private synchronized int add(String user) {
+        Integer id = userToId.get(user);
+        if (id != null) return id;
+        try {
+            output.writeUTF(user);
+            output.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to persist user " + user, e);
+        }
+        return register(user);
+    }
+
+    private synchronized int register(String user) {
+        int id = userCount;
+        if (id == idToUser.length) {
+            String[] grown = new String[id * 2];
+            System.arraycopy(idToUser, 0, grown, 0, id);
+            idToUser = grown;
+        }
+        //Fill the slot before publishing the id through the map.
+        String[] users = idToUser;
+        users[id] = user;
+        idToUser = users;
+        userToId.put(user, id);
+        userCount++;
+        return id;
+    }
+}
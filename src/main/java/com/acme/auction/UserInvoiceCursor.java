@@ -0,0 +1,124 @@
+package com.acme.auction;
+
+import com.acme.auctionclient.InvoiceLine;
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Walks the invoice lines of one user across the listings found in the user's
+ * index entries, one listing at a time. Listings added to the indexes after the
+ * cursor was opened are not visited.
+ * <p/>
+ * A position packs the index entry, the place of the listing in it and the line
+ * within the listing's invoice lines.
+ */
+final class UserInvoiceCursor implements ResumableInvoiceCursor {
+    private static final int KEY_PAGE_SIZE = 256;
+    private static final int KEY_LIST_SHIFT = 48;
+    private static final int KEY_POSITION_SHIFT = 16;
+    private static final long LINE_INDEX_MASK = (1L << KEY_POSITION_SHIFT) - 1;
+
+    private final DefaultAuctionService auctionService;
+    private final String user;
+    private final long fromMillis;
+    private final long toMillis;
+    private final UserListingIndex.ListingKeys[] keyLists;
+    private final int[] keyListSizes;
+    private final long[] keyPage = new long[KEY_PAGE_SIZE];
+    private int keyListIndex;
+    private int keyListPosition;
+    private int keyPageSize;
+    private int keyPagePosition;
+    private int currentKeyListIndex;
+    private int currentKeyPosition;
+    private int seekLineIndex;
+    private List<InvoiceLine> lines = ImmutableList.of();
+    private int lineIndex;
+
+    /**
+     * @param fromMillis start, inclusive, of the ending times of the listings visited
+     * @param toMillis   end, exclusive, of the ending times of the listings visited
+     * @param keyLists   index entries of the user, null entries are skipped
+     */
+    UserInvoiceCursor(DefaultAuctionService auctionService, String user, long fromMillis, long toMillis,
+                      UserListingIndex.ListingKeys... keyLists) {
+        this.auctionService = auctionService;
+        this.user = user;
+        this.fromMillis = fromMillis;
+        this.toMillis = toMillis;
+        this.keyLists = keyLists;
+        this.keyListSizes = new int[keyLists.length];
+        for (int i = 0; i < keyLists.length; i++) {
+            keyListSizes[i] = keyLists[i] == null ? 0 : keyLists[i].size();
+        }
+    }
+
+    public boolean hasNext() {
+        while (lineIndex == lines.size()) {
+            long listingKey = nextListingKey();
+            int firstLineIndex = seekLineIndex;
+            seekLineIndex = 0;
+            if (listingKey == ListingIds.NO_KEY) return false;
+
+            AuctionListing auctionListing = auctionService.loadListing(listingKey);
+            if (auctionListing == null) continue;
+            long endingTimeMillis = auctionListing.getEndingTime().getTime();
+            if (endingTimeMillis < fromMillis || endingTimeMillis >= toMillis) continue;
+
+            lines = auctionService.invoicesFor(user, auctionListing);
+            lineIndex = Math.min(firstLineIndex, lines.size());
+        }
+        return true;
+    }
+
+    public long getPosition() {
+        if (!hasNext()) {
+            return (long) keyLists.length << KEY_LIST_SHIFT;
+        }
+        return ((long) currentKeyListIndex << KEY_LIST_SHIFT)
+                | ((long) currentKeyPosition << KEY_POSITION_SHIFT) | lineIndex;
+    }
+
+    public void seek(long position) {
+        keyListIndex = (int) (position >>> KEY_LIST_SHIFT);
+        keyListPosition = (int) (position >>> KEY_POSITION_SHIFT);
+        seekLineIndex = (int) (position & LINE_INDEX_MASK);
+        keyPageSize = 0;
+        keyPagePosition = 0;
+        lines = ImmutableList.of();
+        lineIndex = 0;
+    }
+
+    public InvoiceLine next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return lines.get(lineIndex++);
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    private long nextListingKey() {
+        while (keyPagePosition == keyPageSize) {
+            if (keyListIndex >= keyLists.length) return ListingIds.NO_KEY;
+
+            int remaining = keyListSizes[keyListIndex] - keyListPosition;
+            if (remaining <= 0) {
+                keyListIndex++;
+                keyListPosition = 0;
+                continue;
+            }
+            keyPageSize = keyLists[keyListIndex].copy(keyListPosition, keyPage);
+            keyPageSize = Math.min(keyPageSize, remaining);
+            keyListPosition += keyPageSize;
+            keyPagePosition = 0;
+        }
+        currentKeyListIndex = keyListIndex;
+        currentKeyPosition = keyListPosition - keyPageSize + keyPagePosition;
+        return keyPage[keyPagePosition++];
+    }
+}
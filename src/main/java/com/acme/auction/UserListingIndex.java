@@ -0,0 +1,116 @@
+package com.acme.auction;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Secondary index from a user to the keys of the listings they are related to,
+ * such as the listings they own. Maintained as listings are created and changed,
+ * so queries by user never scan the registry.
+ * <p/>
+ * The keys of a user are kept in the order they were first added, without duplicates.
+ */
+final class UserListingIndex {
+    private final ConcurrentMap<String, ListingKeys> userToListingKeysMap = new ConcurrentHashMap<String, ListingKeys>();
+
+    /**
+     * @param user the user, nothing is indexed if null
+     */
+    void add(String user, long listingKey) {
+        if (user == null) return;
+
+        ListingKeys listingKeys = userToListingKeysMap.get(user);
+        if (listingKeys == null) {
+            listingKeys = new ListingKeys();
+            ListingKeys existing = userToListingKeysMap.putIfAbsent(user, listingKeys);
+            if (existing != null) {
+                listingKeys = existing;
+            }
+        }
+        listingKeys.add(listingKey);
+    }
+
+    boolean contains(String user, long listingKey) {
+        ListingKeys listingKeys = userToListingKeysMap.get(user);
+        return listingKeys != null && listingKeys.contains(listingKey);
+    }
+
+    /**
+     * @return the keys of the user's listings, or null if the user has none
+     */
+    ListingKeys listingKeysOf(String user) {
+        return userToListingKeysMap.get(user);
+    }
+
+    /**
+     * Append only list of distinct listing keys. Readers copy ranges out of it, so
+     * they can walk a long list without holding its lock for the whole walk.
+     */
+    static final class ListingKeys {
+        private long[] keys = new long[4];
+        //Open addressing set of the keys for duplicate checks, 0 marks a free slot.
+        private long[] keySet = new long[8];
+        private int size;
+
+        synchronized boolean add(long listingKey) {
+            int mask = keySet.length - 1;
+            int slot = slotFor(listingKey, mask);
+            while (keySet[slot] != ListingIds.NO_KEY) {
+                if (keySet[slot] == listingKey) return false;
+                slot = (slot + 1) & mask;
+            }
+            keySet[slot] = listingKey;
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+            keys[size++] = listingKey;
+            if (size * 2 > keySet.length) {
+                rehash(keySet.length * 2);
+            }
+            return true;
+        }
+
+        synchronized boolean contains(long listingKey) {
+            int mask = keySet.length - 1;
+            int slot = slotFor(listingKey, mask);
+            while (keySet[slot] != ListingIds.NO_KEY) {
+                if (keySet[slot] == listingKey) return true;
+                slot = (slot + 1) & mask;
+            }
+            return false;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        /**
+         * Copies keys starting at index from into target.
+         *
+         * @return number of keys copied
+         */
+        synchronized int copy(int from, long[] target) {
+            int count = Math.max(0, Math.min(target.length, size - from));
+            System.arraycopy(keys, from, target, 0, count);
+            return count;
+        }
+
+        private void rehash(int capacity) {
+            keySet = new long[capacity];
+            int mask = capacity - 1;
+            for (int i = 0; i < size; i++) {
+                int slot = slotFor(keys[i], mask);
+                while (keySet[slot] != ListingIds.NO_KEY) {
+                    slot = (slot + 1) & mask;
+                }
+                keySet[slot] = keys[i];
+            }
+        }
+
+        private static int slotFor(long listingKey, int mask) {
+            long hash = listingKey * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32)) & mask;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.acme.auction;
+
+import com.acme.auctionclient.BinaryProtocol;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes protocol strings, see {@link BinaryProtocol}, reusing the String decoded
+ * last time the same bytes were seen.
+ * <p/>
+ * Auth tokens and listing ids repeat from request to request, so once warmed up the
+ * server decodes them without allocating. The cache is direct mapped on a hash of
+ * the bytes, a colliding string simply replaces the previous one. Not thread safe,
+ * every selector thread owns one.
+ */
+class WireStringCache {
+    static final int MAX_CACHED_BYTES = 64;
+
+    private final byte[][] keys;
+    private final String[] values;
+    private final int mask;
+
+    /**
+     * @param size number of entries, must be a power of two
+     */
+    WireStringCache(int size) {
+        if (size < 1 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("size must be a power of two");
+        }
+        this.keys = new byte[size][];
+        this.values = new String[size];
+        this.mask = size - 1;
+    }
+
+    String get(ByteBuffer buffer) {
+        int byteCount = buffer.getShort() & 0xFFFF;
+        if (byteCount == BinaryProtocol.NULL_STRING_LENGTH) {
+            return null;
+        }
+        if (byteCount > MAX_CACHED_BYTES) {
+            return BinaryProtocol.decodeString(buffer, byteCount);
+        }
+
+        int start = buffer.position();
+        int hash = 0;
+        for (int i = 0; i < byteCount; i++) {
+            hash = 31 * hash + buffer.get(start + i);
+        }
+        int index = (hash ^ (hash >>> 16)) & mask;
+        byte[] key = keys[index];
+        if (key != null && matches(key, buffer, start, byteCount)) {
+            buffer.position(start + byteCount);
+            return values[index];
+        }
+
+        key = new byte[byteCount];
+        buffer.get(key);
+        buffer.position(start);
+        String value = BinaryProtocol.decodeString(buffer, byteCount);
+        keys[index] = key;
+        values[index] = value;
+        return value;
+    }
+
+    private static boolean matches(byte[] key, ByteBuffer buffer, int start, int byteCount) {
+        if (key.length != byteCount) return false;
+        for (int i = 0; i < byteCount; i++) {
+            if (key[i] != buffer.get(start + i)) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,381 @@
+package com.acme.auction;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * {@link MutationLog} appending commands to preallocated memory-mapped segment files.
+ * <p/>
+ * A command is encoded on the caller's thread, then copied into the mapped segment
+ * under a short lock. Nothing reaches the disk until the segment is synced, and
+ * syncs are shared: a sync covers every command appended before it started, so
+ * however many callers wait, there is only ever one sync in flight. The
+ * {@link DurabilityPolicy} decides whether callers start the sync themselves,
+ * wait for a periodic one or do not wait at all.
+ * <p/>
+ * A record is the length of its body, the CRC32 of the body and the body. The
+ * length is written last, and the segments are zero filled when created, so a
+ * zero length marks the end of the written part of a segment. Positions returned
+ * to callers count bytes across all segments.
+ */
+public class WriteAheadLog implements MutationLog, Closeable {
+    public static final long DEFAULT_SEGMENT_SIZE_BYTES = 64L << 20;
+    public static final long DEFAULT_SYNC_WINDOW_MILLIS = 2;
+
+    //Record types.
+    public static final byte LISTING_CREATED = 1;
+    public static final byte BID = 2;
+    public static final byte PROXY_BID = 3;
+    public static final byte BUY_IT_NOW = 4;
+
+    static final int RECORD_HEADER_SIZE = 8;
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final ThreadLocal<RecordEncoder> ENCODERS = new ThreadLocal<RecordEncoder>() {
+        @Override
+        protected RecordEncoder initialValue() {
+            return new RecordEncoder();
+        }
+    };
+
+    private final File directory;
+    private final long segmentSizeBytes;
+    private final DurabilityPolicy durabilityPolicy;
+    private final ScheduledExecutorService syncer;
+    private final List<RandomAccessFile> segmentFiles = new ArrayList<RandomAccessFile>();
+    private final Object appendLock = new Object();
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final Condition synced = syncLock.newCondition();
+    private final AtomicLong syncCount = new AtomicLong();
+    private volatile MappedByteBuffer currentSegment;
+    private ByteBuffer currentSegmentWriter;
+    private long currentSegmentStart;
+    private volatile long appendedPosition;
+    private volatile long durablePosition;
+    private boolean syncing;
+
+    public WriteAheadLog(File directory, DurabilityPolicy durabilityPolicy)
+            throws IOException {
+        this(directory, durabilityPolicy, DEFAULT_SYNC_WINDOW_MILLIS, DEFAULT_SEGMENT_SIZE_BYTES);
+    }
+
+    /**
+     * @param directory         directory holding the segments, appended to if it already has some
+     * @param durabilityPolicy  how long callers wait for their commands to be synced
+     * @param syncWindowMillis  period of the background sync, unused by {@link DurabilityPolicy#PER_OP}
+     * @param segmentSizeBytes  size of each preallocated segment, ignored for segments already on disk
+     */
+    public WriteAheadLog(File directory, DurabilityPolicy durabilityPolicy,
+                         long syncWindowMillis, long segmentSizeBytes) throws IOException {
+        super();
+        if (segmentSizeBytes < 1 << 20 || segmentSizeBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("segmentSizeBytes must be between 1MB and 2GB");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create log directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentSizeBytes = segmentSizeBytes;
+        this.durabilityPolicy = durabilityPolicy;
+        openSegments();
+        if (durabilityPolicy == DurabilityPolicy.PER_OP) {
+            this.syncer = null;
+        } else {
+            this.syncer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("write-ahead-log-sync")
+                    .setDaemon(true)
+                    .build());
+            this.syncer.scheduleAtFixedRate(new Runnable() {
+                public void run() {
+                    sync();
+                }
+            }, syncWindowMillis, syncWindowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public long logListingCreated(AuctionListing auctionListing) {
+        RecordEncoder encoder = ENCODERS.get();
+        encoder.start(LISTING_CREATED, auctionListing.getStartingTime().getTime(), auctionListing.getListingKey());
+        encoder.putString(auctionListing.getListingOwner());
+        encoder.putLong(auctionListing.getStartingPriceCents());
+        encoder.putLong(auctionListing.getBuyItNowPriceCents());
+        encoder.putInt(auctionListing.getAuctionLength());
+        return append(encoder);
+    }
+
+    public boolean isRecording() {
+        return true;
+    }
+
+    public long logBid(long listingKey, String user, long bidAmountCents, long timeMillis) {
+        return logUserAmount(BID, listingKey, user, bidAmountCents, timeMillis);
+    }
+
+    public long logProxyBid(long listingKey, String user, long maximumBidAmountCents, long timeMillis) {
+        return logUserAmount(PROXY_BID, listingKey, user, maximumBidAmountCents, timeMillis);
+    }
+
+    public long logBuyItNow(long listingKey, String user, long timeMillis) {
+        RecordEncoder encoder = ENCODERS.get();
+        encoder.start(BUY_IT_NOW, timeMillis, listingKey);
+        encoder.putString(user);
+        return append(encoder);
+    }
+
+    public void awaitDurable(long position) {
+        if (durabilityPolicy == DurabilityPolicy.ASYNC || durablePosition >= position) return;
+        syncUpTo(position, durabilityPolicy == DurabilityPolicy.PER_OP);
+    }
+
+    /**
+     * Syncs every command appended so far.
+     */
+    public void sync() {
+        syncUpTo(appendedPosition, true);
+    }
+
+    /**
+     * Waits until the position is synced. A leading caller starts a sync when none
+     * is running, taking in every command appended until then. The lock is released
+     * during the sync, so callers arriving meanwhile queue up and the next leader
+     * syncs for all of them at once.
+     *
+     * @param lead false to only wait for syncs started by others
+     */
+    private void syncUpTo(long position, boolean lead) {
+        syncLock.lock();
+        try {
+            while (durablePosition < position) {
+                if (lead && !syncing) {
+                    syncing = true;
+                    long syncedPosition = appendedPosition;
+                    //Earlier segments were synced when they filled up.
+                    MappedByteBuffer segment = currentSegment;
+                    syncLock.unlock();
+                    try {
+                        segment.force();
+                    } finally {
+                        syncLock.lock();
+                        syncing = false;
+                        synced.signalAll();
+                    }
+                    durablePosition = syncedPosition;
+                    syncCount.incrementAndGet();
+                } else {
+                    synced.awaitUninterruptibly();
+                }
+            }
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    public DurabilityPolicy getDurabilityPolicy() {
+        return durabilityPolicy;
+    }
+
+    public long getAppendedPosition() {
+        return appendedPosition;
+    }
+
+    public long getDurablePosition() {
+        return durablePosition;
+    }
+
+    /**
+     * @return number of syncs made, compare with the number of commands to see how well syncs are shared
+     */
+    public long getSyncCount() {
+        return syncCount.get();
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Syncs the remaining commands and closes the segment files.
+     */
+    public void close() throws IOException {
+        if (syncer != null) {
+            syncer.shutdownNow();
+        }
+        synchronized (appendLock) {
+            sync();
+            for (RandomAccessFile segmentFile : segmentFiles) {
+                segmentFile.close();
+            }
+            segmentFiles.clear();
+        }
+    }
+
+    static String segmentName(int segmentNumber) {
+        return String.format("%s%06d%s", SEGMENT_PREFIX, segmentNumber, SEGMENT_SUFFIX);
+    }
+
+    private long logUserAmount(byte type, long listingKey, String user, long amountCents, long timeMillis) {
+        RecordEncoder encoder = ENCODERS.get();
+        encoder.start(type, timeMillis, listingKey);
+        encoder.putString(user);
+        encoder.putLong(amountCents);
+        return append(encoder);
+    }
+
+    private long append(RecordEncoder encoder) {
+        int bodyLength = encoder.finish();
+        int recordLength = RECORD_HEADER_SIZE + bodyLength;
+        synchronized (appendLock) {
+            long offset = appendedPosition - currentSegmentStart;
+            //Keep room for the zero length ending the segment.
+            if (offset + recordLength + 4 > currentSegment.capacity()) {
+                startSegment();
+                offset = 0;
+            }
+            currentSegmentWriter.position((int) offset + 4);
+            currentSegmentWriter.putInt(encoder.checksum);
+            currentSegmentWriter.put(encoder.body, 0, bodyLength);
+            currentSegmentWriter.putInt((int) offset, bodyLength);
+            appendedPosition = currentSegmentStart + offset + recordLength;
+            return appendedPosition;
+        }
+    }
+
+    /**
+     * Opens the existing segments and continues after the last complete record, or
+     * creates the first segment.
+     */
+    private void openSegments() throws IOException {
+        WriteAheadLogReader reader = new WriteAheadLogReader(directory);
+        try {
+            while (reader.next()) {
+                //Skip to the end of the log.
+            }
+        } finally {
+            reader.close();
+        }
+        int segmentCount = reader.getSegmentCount();
+        if (segmentCount == 0) {
+            startSegment();
+            return;
+        }
+        for (int i = 0; i < segmentCount; i++) {
+            RandomAccessFile segmentFile = new RandomAccessFile(new File(directory, segmentName(i)), "rw");
+            segmentFiles.add(segmentFile);
+            if (i < reader.getEndSegment()) {
+                currentSegmentStart += segmentFile.length();
+            }
+        }
+        for (int i = segmentFiles.size() - 1; i > reader.getEndSegment(); i--) {
+            //Segments after the end of the log hold nothing and are reused.
+            segmentFiles.remove(i).close();
+        }
+        RandomAccessFile lastFile = segmentFiles.get(segmentFiles.size() - 1);
+        mapCurrentSegment(lastFile);
+        //Clear whatever a torn write left behind the last complete record.
+        int endOffset = (int) reader.getEndOffset();
+        for (int i = endOffset; i < Math.min(currentSegment.capacity(), endOffset + RECORD_HEADER_SIZE); i++) {
+            currentSegment.put(i, (byte) 0);
+        }
+        appendedPosition = currentSegmentStart + endOffset;
+        durablePosition = appendedPosition;
+    }
+
+    /**
+     * Syncs the segment in use, then starts a new zero filled one.
+     */
+    private void startSegment() {
+        try {
+            if (currentSegment != null) {
+                currentSegment.force();
+                currentSegmentStart += currentSegment.capacity();
+            }
+            File file = new File(directory, segmentName(segmentFiles.size()));
+            RandomAccessFile segmentFile = new RandomAccessFile(file, "rw");
+            segmentFile.setLength(segmentSizeBytes);
+            segmentFiles.add(segmentFile);
+            mapCurrentSegment(segmentFile);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to create log segment in " + directory, e);
+        }
+    }
+
+    private void mapCurrentSegment(RandomAccessFile segmentFile) throws IOException {
+        MappedByteBuffer segment = segmentFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentFile.length());
+        currentSegmentWriter = segment.duplicate();
+        currentSegment = segment;
+    }
+
+    /**
+     * Reusable per thread buffer holding the body of the record being logged.
+     */
+    private static final class RecordEncoder {
+        private final CRC32 crc = new CRC32();
+        private byte[] body = new byte[256];
+        private ByteBuffer buffer = ByteBuffer.wrap(body);
+        private int checksum;
+
+        private void start(byte type, long timeMillis, long listingKey) {
+            buffer.clear();
+            buffer.put(type);
+            buffer.putLong(timeMillis);
+            buffer.putLong(listingKey);
+        }
+
+        private void putString(String value) {
+            byte[] bytes = value.getBytes(UTF_8);
+            if (bytes.length > 0xFFFF) {
+                throw new IllegalArgumentException("String too long to log");
+            }
+            ensureRemaining(2 + bytes.length);
+            buffer.putShort((short) bytes.length);
+            buffer.put(bytes);
+        }
+
+        private void putLong(long value) {
+            ensureRemaining(8);
+            buffer.putLong(value);
+        }
+
+        private void putInt(int value) {
+            ensureRemaining(4);
+            buffer.putInt(value);
+        }
+
+        private int finish() {
+            crc.reset();
+            crc.update(body, 0, buffer.position());
+            checksum = (int) crc.getValue();
+            return buffer.position();
+        }
+
+        private void ensureRemaining(int length) {
+            if (buffer.remaining() < length) {
+                byte[] grown = new byte[Math.max(body.length * 2, buffer.position() + length)];
+                System.arraycopy(body, 0, grown, 0, buffer.position());
+                int position = buffer.position();
+                body = grown;
+                buffer = ByteBuffer.wrap(body);
+                buffer.position(position);
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.acme.auction;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Provides;
+import com.google.inject.Singleton;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Guice module recording the changes made through the auction service in a
+ * {@link WriteAheadLog}. Meant to override the log bound by {@link AuctionModule}:
+ * <pre>
+ * Modules.override(new AuctionModule(false)).with(new WriteAheadLogModule(directory, DurabilityPolicy.BATCHED))
+ * </pre>
+ */
+public class WriteAheadLogModule extends AbstractModule {
+    private final File directory;
+    private final DurabilityPolicy durabilityPolicy;
+
+    /**
+     * @param directory        directory holding the log segments, appended to if it already exists
+     * @param durabilityPolicy how long callers wait for their changes to be synced
+     */
+    public WriteAheadLogModule(File directory, DurabilityPolicy durabilityPolicy) {
+        super();
+        this.directory = directory;
+        this.durabilityPolicy = durabilityPolicy;
+    }
+
+    @Override
+    protected void configure() {
+        bind(MutationLog.class).to(WriteAheadLog.class);
+    }
+
+    @Provides
+    @Singleton
+    WriteAheadLog provideWriteAheadLog() throws IOException {
+        return new WriteAheadLog(directory, durabilityPolicy);
+    }
+}
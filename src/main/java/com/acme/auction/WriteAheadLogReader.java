@@ -0,0 +1,215 @@
+package com.acme.auction;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Reads the records of a {@link WriteAheadLog} directory in order.
+ * <p/>
+ * Reading stops at the first record that is missing or fails its checksum, which
+ * is where the log ends after a crash. Call {@link #next()} to move to each record
+ * and the getters to read its fields. Reading can start at any position returned
+ * by the log, so a recovery only reads the records after its snapshot.
+ */
+public class WriteAheadLogReader implements Closeable {
+    private final File directory;
+    private final CRC32 crc = new CRC32();
+    private int segmentCount;
+    private int segmentNumber = -1;
+    private RandomAccessFile segmentFile;
+    private MappedByteBuffer segment;
+    private long segmentStart;
+    private int offset;
+    private boolean ended;
+
+    private byte type;
+    private long timeMillis;
+    private long listingKey;
+    private String user;
+    private long amountCents;
+    private long buyItNowPriceCents;
+    private int auctionLength;
+
+    public WriteAheadLogReader(File directory) throws IOException {
+        this(directory, 0);
+    }
+
+    /**
+     * @param fromPosition position the reading starts at, 0 or a position returned by the log
+     */
+    public WriteAheadLogReader(File directory, long fromPosition) throws IOException {
+        super();
+        this.directory = directory;
+        while (new File(directory, WriteAheadLog.segmentName(segmentCount)).isFile()) {
+            segmentCount++;
+        }
+        if (segmentCount == 0) {
+            ended = true;
+            segmentNumber = 0;
+            return;
+        }
+        openSegment(0);
+        while (fromPosition >= segmentStart + segment.capacity() && segmentNumber + 1 < segmentCount) {
+            openSegment(segmentNumber + 1);
+        }
+        offset = (int) Math.min(fromPosition - segmentStart, segment.capacity());
+    }
+
+    /**
+     * Moves to the next record.
+     *
+     * @return false once the end of the log is reached
+     */
+    public boolean next() throws IOException {
+        while (!ended) {
+            int length = offset + 4 <= segment.capacity() ? segment.getInt(offset) : 0;
+            if (length == 0) {
+                if (segmentNumber + 1 < segmentCount) {
+                    openSegment(segmentNumber + 1);
+                    continue;
+                }
+                ended = true;
+                break;
+            }
+            if (length < 0 || offset + WriteAheadLog.RECORD_HEADER_SIZE + length > segment.capacity()
+                    || !readRecord(length)) {
+                ended = true;
+                break;
+            }
+            offset += WriteAheadLog.RECORD_HEADER_SIZE + length;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return one of the record type constants of {@link WriteAheadLog}
+     */
+    public byte getType() {
+        return type;
+    }
+
+    /**
+     * @return time the command was logged, the starting time for created listings
+     */
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    public long getListingKey() {
+        return listingKey;
+    }
+
+    /**
+     * @return the bidder or buyer, or the owner for created listings
+     */
+    public String getUser() {
+        return user;
+    }
+
+    /**
+     * @return the bid amount, or the starting price for created listings
+     */
+    public long getAmountCents() {
+        return amountCents;
+    }
+
+    public long getBuyItNowPriceCents() {
+        return buyItNowPriceCents;
+    }
+
+    public int getAuctionLength() {
+        return auctionLength;
+    }
+
+    /**
+     * @return position just after the current record, as returned by the log when it was appended
+     */
+    public long getPosition() {
+        return segmentStart + offset;
+    }
+
+    int getSegmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * @return segment holding the end of the log, valid once {@link #next()} returned false
+     */
+    int getEndSegment() {
+        return segmentNumber;
+    }
+
+    /**
+     * @return offset of the end of the log in its segment, valid once {@link #next()} returned false
+     */
+    long getEndOffset() {
+        return offset;
+    }
+
+    public void close() throws IOException {
+        if (segmentFile != null) {
+            segmentFile.close();
+            segmentFile = null;
+        }
+        segment = null;
+    }
+
+    private boolean readRecord(int length) {
+        int bodyOffset = offset + WriteAheadLog.RECORD_HEADER_SIZE;
+        ByteBuffer body = segment.duplicate();
+        body.position(bodyOffset);
+        body.limit(bodyOffset + length);
+        byte[] bytes = new byte[length];
+        body.get(bytes);
+        crc.reset();
+        crc.update(bytes, 0, length);
+        if ((int) crc.getValue() != segment.getInt(offset + 4)) {
+            return false;
+        }
+
+        ByteBuffer input = ByteBuffer.wrap(bytes);
+        type = input.get();
+        timeMillis = input.getLong();
+        listingKey = input.getLong();
+        byte[] userBytes = new byte[input.getShort() & 0xFFFF];
+        input.get(userBytes);
+        user = new String(userBytes, WriteAheadLog.UTF_8);
+        amountCents = 0;
+        buyItNowPriceCents = 0;
+        auctionLength = 0;
+        switch (type) {
+            case WriteAheadLog.LISTING_CREATED:
+                amountCents = input.getLong();
+                buyItNowPriceCents = input.getLong();
+                auctionLength = input.getInt();
+                break;
+            case WriteAheadLog.BID:
+            case WriteAheadLog.PROXY_BID:
+                amountCents = input.getLong();
+                break;
+            case WriteAheadLog.BUY_IT_NOW:
+                break;
+            default:
+                return false;
+        }
+        return true;
+    }
+
+    private void openSegment(int number) throws IOException {
+        if (segment != null) {
+            segmentStart += segment.capacity();
+        }
+        close();
+        segmentNumber = number;
+        segmentFile = new RandomAccessFile(new File(directory, WriteAheadLog.segmentName(number)), "r");
+        segment = segmentFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, segmentFile.length());
+        offset = 0;
+    }
+}
@@ -0,0 +1,16 @@
+package com.acme.auction.simulation;
+
+import java.util.Random;
+
+/**
+ * Implementation of this interface decides when the next event of
+ * a stream of arrivals happens in virtual time.
+ */
+public interface ArrivalDistribution {
+    /**
+     * @param nowMillis virtual time of the previous arrival
+     * @param random    source of randomness owned by the simulation
+     * @return virtual milliseconds until the next arrival, fractions included
+     */
+    double nextInterArrivalMillis(long nowMillis, Random random);
+}
@@ -0,0 +1,205 @@
+package com.acme.auction.simulation;
+
+import com.acme.auction.AdjustableTimeService;
+import com.acme.auction.DefaultAdjustableTimeService;
+import com.acme.auction.DefaultAuctionListingFactory;
+import com.acme.auction.DefaultAuctionService;
+import com.acme.auction.DefaultAuthenticationService;
+import com.acme.auction.TimeService;
+import com.acme.auction.TimingWheelAuctionCloseScheduler;
+import com.acme.auctionclient.AuctionService;
+import com.acme.auctionclient.AuctionServiceException;
+import com.acme.auctionclient.Money;
+
+import java.util.Comparator;
+import java.util.Date;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Discrete-event simulation of the auction service over virtual time.
+ * <p/>
+ * Listing arrivals, bid arrivals and close scheduler ticks are event streams
+ * ordered by a priority queue. Instead of sleeping, the driver moves an
+ * {@link AdjustableTimeService} forward to the time of each event, so days of
+ * auctions play out as fast as the service can process them. Listings are
+ * created and bid on through the regular {@link AuctionService} and closed by
+ * a {@link TimingWheelAuctionCloseScheduler} ticking in virtual time.
+ * <p/>
+ * Bids go to a random listing created within the shortest auction length, so
+ * they land on listings which are still open, and raise its price by one to
+ * five units.
+ */
+public class AuctionSimulation {
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    private final SimulationConfig config;
+
+    public AuctionSimulation(SimulationConfig config) {
+        super();
+        this.config = config;
+    }
+
+    public SimulationReport run() throws AuctionServiceException {
+        Random random = new Random(config.getSeed());
+        int listingCount = config.getListingCount();
+        String[] listingIds = new String[listingCount];
+        long[] createdAtMillis = new long[listingCount];
+        long[] priceCents = new long[listingCount];
+
+        AdjustableTimeService timeService = new DefaultAdjustableTimeService(new EpochTimeService());
+        TimingWheelAuctionCloseScheduler closeScheduler =
+                new TimingWheelAuctionCloseScheduler(timeService, config.getCloseTickMillis(), false);
+        AuctionService auctionService = new DefaultAuctionService(
+                new DefaultAuctionListingFactory(timeService), new DefaultAuthenticationService(), closeScheduler);
+        String[] sellerTokens = {
+                auctionService.login("default.seller@acme.com", "letsSell"),
+                auctionService.login("fred.seller@acme.com", "sellingIsFun")};
+        String[] buyerTokens = {
+                auctionService.login("sally.buyer@acme.com", "gotToBuy"),
+                auctionService.login("george.buyer@acme.com", "sallyIsAnnoying")};
+
+        long baselineHeapBytes = config.isMeasureMemory() ? usedHeapBytes() : 0;
+        long bytesPerListing = -1;
+
+        PriorityQueue<Event> events = new PriorityQueue<Event>(4, new Comparator<Event>() {
+            public int compare(Event first, Event second) {
+                return Double.compare(first.timeMillis, second.timeMillis);
+            }
+        });
+        Event listingArrival = new Event(Event.LISTING_ARRIVAL);
+        Event bidArrival = new Event(Event.BID_ARRIVAL);
+        Event closeTick = new Event(Event.CLOSE_TICK);
+        listingArrival.timeMillis = config.getListingArrivals().nextInterArrivalMillis(0, random);
+        bidArrival.timeMillis = config.getBidArrivals().nextInterArrivalMillis(0, random);
+        closeTick.timeMillis = config.getCloseTickMillis();
+        events.add(listingArrival);
+        events.add(bidArrival);
+        events.add(closeTick);
+
+        long minAuctionLengthMillis = config.getMinAuctionLengthDays() * MILLIS_PER_DAY;
+        int auctionLengthRange = config.getMaxAuctionLengthDays() - config.getMinAuctionLengthDays() + 1;
+        int createdCount = 0;
+        int oldestOpenCandidate = 0;
+        long bidCount = 0;
+        long closeTickCount = 0;
+        long closeProcessingNanos = 0;
+        long maxCloseTickNanos = 0;
+        long virtualNowMillis = 0;
+        long startNanos = System.nanoTime();
+
+        while (!events.isEmpty()) {
+            Event event = events.poll();
+            long nowMillis = (long) event.timeMillis;
+            timeService.incrementTimeOffset(nowMillis - virtualNowMillis);
+            virtualNowMillis = nowMillis;
+            boolean moreToClose = createdCount < listingCount || closeScheduler.getScheduledCount() > 0;
+
+            switch (event.type) {
+                case Event.LISTING_ARRIVAL:
+                    int auctionLength = config.getMinAuctionLengthDays() + random.nextInt(auctionLengthRange);
+                    listingIds[createdCount] = auctionService.createListing(sellerTokens[createdCount & 1],
+                            config.getStartingPriceCents(), Money.NO_AMOUNT_CENTS, auctionLength);
+                    createdAtMillis[createdCount] = nowMillis;
+                    priceCents[createdCount] = config.getStartingPriceCents();
+                    createdCount++;
+                    if (createdCount < listingCount) {
+                        event.timeMillis += config.getListingArrivals().nextInterArrivalMillis(nowMillis, random);
+                        events.add(event);
+                    } else if (config.isMeasureMemory()) {
+                        bytesPerListing = (usedHeapBytes() - baselineHeapBytes) / listingCount;
+                    }
+                    break;
+                case Event.BID_ARRIVAL:
+                    while (oldestOpenCandidate < createdCount
+                            && createdAtMillis[oldestOpenCandidate] + minAuctionLengthMillis <= nowMillis) {
+                        oldestOpenCandidate++;
+                    }
+                    if (oldestOpenCandidate < createdCount) {
+                        int target = oldestOpenCandidate + random.nextInt(createdCount - oldestOpenCandidate);
+                        priceCents[target] += 100 * (1 + random.nextInt(5));
+                        auctionService.bid(buyerTokens[random.nextInt(2)], listingIds[target], priceCents[target]);
+                        bidCount++;
+                    }
+                    if (moreToClose) {
+                        event.timeMillis += config.getBidArrivals().nextInterArrivalMillis(nowMillis, random);
+                        events.add(event);
+                    }
+                    break;
+                case Event.CLOSE_TICK:
+                    long tickStartNanos = System.nanoTime();
+                    closeScheduler.closeExpiredListings();
+                    long tickNanos = System.nanoTime() - tickStartNanos;
+                    closeTickCount++;
+                    closeProcessingNanos += tickNanos;
+                    maxCloseTickNanos = Math.max(maxCloseTickNanos, tickNanos);
+                    if (moreToClose) {
+                        event.timeMillis += config.getCloseTickMillis();
+                        events.add(event);
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("unknown event type " + event.type);
+            }
+        }
+
+        return new SimulationReport(createdCount, bidCount, closeScheduler.getClosedCount(),
+                virtualNowMillis, System.nanoTime() - startNanos, bytesPerListing,
+                closeScheduler.getTotalCloseLagMillis(), closeScheduler.getMaxCloseLagMillis(),
+                closeTickCount, closeProcessingNanos, maxCloseTickNanos);
+    }
+
+    private static long usedHeapBytes() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Runs a simulation from the command line.
+     * <p/>
+     * Arguments, all optional: listing count, listings per virtual second,
+     * bids per virtual second, Black-Friday style peak multiplier for bids.
+     */
+    public static void main(String[] args) throws AuctionServiceException {
+        int listingCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        double listingRate = args.length > 1 ? Double.parseDouble(args[1]) : 20;
+        double bidRate = args.length > 2 ? Double.parseDouble(args[2]) : 50;
+        double peakMultiplier = args.length > 3 ? Double.parseDouble(args[3]) : 3;
+
+        SimulationConfig config = new SimulationConfig()
+                .setListingCount(listingCount)
+                .setListingArrivals(new PoissonArrivalDistribution(listingRate))
+                .setBidArrivals(new PeakArrivalDistribution(bidRate, peakMultiplier, MILLIS_PER_DAY, MILLIS_PER_DAY));
+        System.out.println(new AuctionSimulation(config).run());
+    }
+
+    /**
+     * Raw clock stopped at the epoch, virtual time is entirely the offset
+     * of the adjustable time service.
+     */
+    private static class EpochTimeService implements TimeService {
+        public Date getTime() {
+            return new Date(0);
+        }
+
+        public long currentTimeMillis() {
+            return 0;
+        }
+    }
+
+    private static class Event {
+        private static final int LISTING_ARRIVAL = 1;
+        private static final int BID_ARRIVAL = 2;
+        private static final int CLOSE_TICK = 3;
+
+        private final int type;
+        private double timeMillis;
+
+        private Event(int type) {
+            this.type = type;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.acme.auction.simulation;
+
+import java.util.Random;
+
+/**
+ * Poisson arrivals whose rate is multiplied during one peak window,
+ * as on a Black-Friday style sales day.
+ */
+public class PeakArrivalDistribution implements ArrivalDistribution {
+    private final PoissonArrivalDistribution baseArrivals;
+    private final PoissonArrivalDistribution peakArrivals;
+    private final long peakStartMillis;
+    private final long peakEndMillis;
+
+    /**
+     * @param baseRatePerSecond average arrivals per virtual second outside the peak
+     * @param peakMultiplier    factor applied to the rate inside the peak
+     * @param peakStartMillis   virtual time the peak starts at
+     * @param peakLengthMillis  length of the peak
+     */
+    public PeakArrivalDistribution(double baseRatePerSecond, double peakMultiplier,
+                                   long peakStartMillis, long peakLengthMillis) {
+        super();
+        this.baseArrivals = new PoissonArrivalDistribution(baseRatePerSecond);
+        this.peakArrivals = new PoissonArrivalDistribution(baseRatePerSecond * peakMultiplier);
+        this.peakStartMillis = peakStartMillis;
+        this.peakEndMillis = peakStartMillis + peakLengthMillis;
+    }
+
+    public double nextInterArrivalMillis(long nowMillis, Random random) {
+        //The rate in force at the previous arrival is used for the whole gap.
+        boolean inPeak = nowMillis >= peakStartMillis && nowMillis < peakEndMillis;
+        return (inPeak ? peakArrivals : baseArrivals).nextInterArrivalMillis(nowMillis, random);
+    }
+}
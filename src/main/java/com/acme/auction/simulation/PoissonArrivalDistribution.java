@@ -0,0 +1,25 @@
+package com.acme.auction.simulation;
+
+import java.util.Random;
+
+/**
+ * Arrivals at a constant average rate with exponentially distributed gaps.
+ */
+public class PoissonArrivalDistribution implements ArrivalDistribution {
+    private final double meanInterArrivalMillis;
+
+    /**
+     * @param ratePerSecond average number of arrivals per virtual second
+     */
+    public PoissonArrivalDistribution(double ratePerSecond) {
+        super();
+        if (ratePerSecond <= 0) {
+            throw new IllegalArgumentException("ratePerSecond must be positive");
+        }
+        this.meanInterArrivalMillis = 1000.0 / ratePerSecond;
+    }
+
+    public double nextInterArrivalMillis(long nowMillis, Random random) {
+        return -Math.log(1.0 - random.nextDouble()) * meanInterArrivalMillis;
+    }
+}
@@ -0,0 +1,109 @@
+package com.acme.auction.simulation;
+
+/**
+ * Settings of an {@link AuctionSimulation}. Setters return the config
+ * so settings can be chained. Virtual time starts at zero.
+ */
+public class SimulationConfig {
+    private int listingCount = 1000000;
+    private ArrivalDistribution listingArrivals = new PoissonArrivalDistribution(20);
+    private ArrivalDistribution bidArrivals = new PoissonArrivalDistribution(50);
+    private int minAuctionLengthDays = 1;
+    private int maxAuctionLengthDays = 7;
+    private long startingPriceCents = 100;
+    private long closeTickMillis = 1000;
+    private long seed = 42;
+    private boolean measureMemory = true;
+
+    public int getListingCount() {
+        return listingCount;
+    }
+
+    /**
+     * @param listingCount number of listings created before arrivals stop
+     */
+    public SimulationConfig setListingCount(int listingCount) {
+        this.listingCount = listingCount;
+        return this;
+    }
+
+    public ArrivalDistribution getListingArrivals() {
+        return listingArrivals;
+    }
+
+    public SimulationConfig setListingArrivals(ArrivalDistribution listingArrivals) {
+        this.listingArrivals = listingArrivals;
+        return this;
+    }
+
+    public ArrivalDistribution getBidArrivals() {
+        return bidArrivals;
+    }
+
+    public SimulationConfig setBidArrivals(ArrivalDistribution bidArrivals) {
+        this.bidArrivals = bidArrivals;
+        return this;
+    }
+
+    public int getMinAuctionLengthDays() {
+        return minAuctionLengthDays;
+    }
+
+    public int getMaxAuctionLengthDays() {
+        return maxAuctionLengthDays;
+    }
+
+    /**
+     * Auction lengths are drawn uniformly from the given range of days.
+     */
+    public SimulationConfig setAuctionLengthDays(int minAuctionLengthDays, int maxAuctionLengthDays) {
+        if (minAuctionLengthDays < 1 || maxAuctionLengthDays < minAuctionLengthDays) {
+            throw new IllegalArgumentException("invalid auction length range");
+        }
+        this.minAuctionLengthDays = minAuctionLengthDays;
+        this.maxAuctionLengthDays = maxAuctionLengthDays;
+        return this;
+    }
+
+    public long getStartingPriceCents() {
+        return startingPriceCents;
+    }
+
+    public SimulationConfig setStartingPriceCents(long startingPriceCents) {
+        this.startingPriceCents = startingPriceCents;
+        return this;
+    }
+
+    public long getCloseTickMillis() {
+        return closeTickMillis;
+    }
+
+    /**
+     * @param closeTickMillis virtual time between two runs of the close scheduler
+     */
+    public SimulationConfig setCloseTickMillis(long closeTickMillis) {
+        this.closeTickMillis = closeTickMillis;
+        return this;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public SimulationConfig setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    public boolean isMeasureMemory() {
+        return measureMemory;
+    }
+
+    /**
+     * @param measureMemory force garbage collections to estimate the heap used per listing
+     */
+    public SimulationConfig setMeasureMemory(boolean measureMemory) {
+        this.measureMemory = measureMemory;
+        return this;
+    }
+}
@@ -0,0 +1,124 @@
+package com.acme.auction.simulation;
+
+import com.google.common.base.Objects;
+
+/**
+ * Outcome of an {@link AuctionSimulation} run.
+ */
+public class SimulationReport {
+    private final int listingCount;
+    private final long bidCount;
+    private final long closedBySchedulerCount;
+    private final long virtualDurationMillis;
+    private final long wallDurationNanos;
+    private final long bytesPerListing;
+    private final long totalCloseLagMillis;
+    private final long maxCloseLagMillis;
+    private final long closeTickCount;
+    private final long closeProcessingNanos;
+    private final long maxCloseTickNanos;
+
+    public SimulationReport(int listingCount, long bidCount, long closedBySchedulerCount,
+                            long virtualDurationMillis, long wallDurationNanos, long bytesPerListing,
+                            long totalCloseLagMillis, long maxCloseLagMillis,
+                            long closeTickCount, long closeProcessingNanos, long maxCloseTickNanos) {
+        super();
+        this.listingCount = listingCount;
+        this.bidCount = bidCount;
+        this.closedBySchedulerCount = closedBySchedulerCount;
+        this.virtualDurationMillis = virtualDurationMillis;
+        this.wallDurationNanos = wallDurationNanos;
+        this.bytesPerListing = bytesPerListing;
+        this.totalCloseLagMillis = totalCloseLagMillis;
+        this.maxCloseLagMillis = maxCloseLagMillis;
+        this.closeTickCount = closeTickCount;
+        this.closeProcessingNanos = closeProcessingNanos;
+        this.maxCloseTickNanos = maxCloseTickNanos;
+    }
+
+    public int getListingCount() {
+        return listingCount;
+    }
+
+    public long getBidCount() {
+        return bidCount;
+    }
+
+    public long getClosedBySchedulerCount() {
+        return closedBySchedulerCount;
+    }
+
+    public long getVirtualDurationMillis() {
+        return virtualDurationMillis;
+    }
+
+    public long getWallDurationNanos() {
+        return wallDurationNanos;
+    }
+
+    /**
+     * @return operations (listings created plus bids) per wall clock second
+     */
+    public double getOperationsPerSecond() {
+        return (listingCount + bidCount) * 1e9 / Math.max(1, wallDurationNanos);
+    }
+
+    public double getAuctionsPerMinute() {
+        return listingCount * 60e9 / Math.max(1, wallDurationNanos);
+    }
+
+    /**
+     * @return estimated heap bytes per listing, or -1 if memory was not measured
+     */
+    public long getBytesPerListing() {
+        return bytesPerListing;
+    }
+
+    /**
+     * @return average virtual time between a listing's ending time and its close
+     */
+    public double getMeanCloseLagMillis() {
+        return closedBySchedulerCount == 0 ? 0 : (double) totalCloseLagMillis / closedBySchedulerCount;
+    }
+
+    public long getMaxCloseLagMillis() {
+        return maxCloseLagMillis;
+    }
+
+    public long getCloseTickCount() {
+        return closeTickCount;
+    }
+
+    /**
+     * @return wall clock time spent in the close scheduler over the whole run
+     */
+    public long getCloseProcessingNanos() {
+        return closeProcessingNanos;
+    }
+
+    /**
+     * @return longest wall clock time a single close tick took
+     */
+    public long getMaxCloseTickNanos() {
+        return maxCloseTickNanos;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("listings", listingCount)
+                .add("bids", bidCount)
+                .add("closedByScheduler", closedBySchedulerCount)
+                .add("virtualHours", virtualDurationMillis / 3600000.0)
+                .add("wallSeconds", wallDurationNanos / 1e9)
+                .add("operationsPerSecond", (long) getOperationsPerSecond())
+                .add("auctionsPerMinute", (long) getAuctionsPerMinute())
+                .add("bytesPerListing", bytesPerListing)
+                .add("meanCloseLagMillis", getMeanCloseLagMillis())
+                .add("maxCloseLagMillis", maxCloseLagMillis)
+                .add("closeTicks", closeTickCount)
+                .add("closeProcessingMillis", closeProcessingNanos / 1e6)
+                .add("maxCloseTickMicros", maxCloseTickNanos / 1e3)
+                .toString();
+    }
+}
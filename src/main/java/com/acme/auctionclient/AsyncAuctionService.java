@@ -0,0 +1,52 @@
+package com.acme.auctionclient;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import javax.annotation.Nullable;
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Non-blocking flavour of {@link AuctionService}.
+ * <p/>
+ * Every operation returns immediately with a future that completes once the
+ * operation has been carried out. Operations that would throw
+ * {@link AuctionServiceException} from AuctionService instead fail the future
+ * with that exception as the cause. The try variants report rejections through
+ * their outcome instead, so their futures only fail on unexpected errors.
+ */
+public interface AsyncAuctionService {
+
+    ListenableFuture<String> login(String username, String password);
+
+    ListenableFuture<Boolean> logout(String authToken);
+
+    ListenableFuture<String> createListing(String authToken, BigDecimal startingPrice,
+                                           @Nullable BigDecimal buyItNowPrice, int auctionLength);
+
+    ListenableFuture<String> createListing(String authToken, long startingPriceCents,
+                                           long buyItNowPriceCents, int auctionLength);
+
+    ListenableFuture<Void> bid(String authToken, String listingId, BigDecimal bidAmount);
+
+    ListenableFuture<Void> bid(String authToken, String listingId, long bidAmountCents);
+
+    ListenableFuture<Void> proxyBid(String authToken, String listingId, BigDecimal maximumBidAmount);
+
+    ListenableFuture<Void> proxyBid(String authToken, String listingId, long maximumBidAmountCents);
+
+    ListenableFuture<OperationStatus[]> bidBatch(List<BatchBid> bids);
+
+    ListenableFuture<Void> buyItNow(String authToken, String listingId);
+
+    ListenableFuture<OperationOutcome> tryCreateListing(String authToken, long startingPriceCents,
+                                                        long buyItNowPriceCents, int auctionLength);
+
+    ListenableFuture<OperationOutcome> tryBid(String authToken, String listingId, long bidAmountCents);
+
+    ListenableFuture<OperationOutcome> tryBuyItNow(String authToken, String listingId);
+
+    ListenableFuture<List<InvoiceLine>> fetchInvoices(String authToken, String listingId);
+
+    ListenableFuture<List<BidRecord>> fetchBidHistory(String authToken, String listingId, int offset, int limit);
+}
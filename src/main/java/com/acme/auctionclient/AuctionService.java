@@ -6,18 +6,100 @@ import java.util.List;
 
 /**
  * Example of a trivial auction service webservice API.
+ * <p/>
+ * Amounts can be passed either as BigDecimal or as long cents (see {@link Money}).
  */
 public interface AuctionService {
 
     String login(String username, String password) throws AuctionServiceException;
 
+    /**
+     * Ends the session of a token, so it is refused from then on. Tokens that cannot
+     * be revoked, such as fixed or self-contained ones, are left valid.
+     *
+     * @return true if the token named a live session
+     */
+    boolean logout(String authToken);
+
     String createListing(String authToken, BigDecimal startingPrice,
                          @Nullable BigDecimal buyItNowPrice, int auctionLength)
             throws AuctionServiceException;
 
+    /**
+     * Cent based variant of {@link #createListing(String, BigDecimal, BigDecimal, int)}.
+     * Pass {@link Money#NO_AMOUNT_CENTS} when there is no buy it now price.
+     */
+    String createListing(String authToken, long startingPriceCents, long buyItNowPriceCents, int auctionLength)
+            throws AuctionServiceException;
+
     void bid(String authToken, String listingId, BigDecimal bidAmount) throws AuctionServiceException;
 
+    void bid(String authToken, String listingId, long bidAmountCents) throws AuctionServiceException;
+
+    /**
+     * Registers the most the user is willing to pay for a listing. The listing then
+     * outbids competitors on the user's behalf, one increment at a time, up to that
+     * maximum so clients do not have to keep re-bidding.
+     */
+    void proxyBid(String authToken, String listingId, BigDecimal maximumBidAmount) throws AuctionServiceException;
+
+    void proxyBid(String authToken, String listingId, long maximumBidAmountCents) throws AuctionServiceException;
+
+    /**
+     * Submits many bids, possibly for many listings and users, in one call.
+     * Rejections are reported through the returned statuses rather than as exceptions.
+     *
+     * @param bids bids in the order they should be applied
+     * @return outcome of every bid, in the same order as bids
+     */
+    OperationStatus[] bidBatch(List<BatchBid> bids);
+
     void buyItNow(String authToken, String listingId) throws AuctionServiceException;
 
+    /**
+     * Variant of {@link #createListing(String, long, long, int)} that reports a bad
+     * token through the returned outcome rather than as an exception. The outcome
+     * carries the new listing id.
+     */
+    OperationOutcome tryCreateListing(String authToken, long startingPriceCents, long buyItNowPriceCents,
+                                      int auctionLength);
+
+    /**
+     * Variant of {@link #bid(String, String, long)} that reports rejections through the
+     * returned outcome rather than as exceptions. Unlike bid, it also tells whether the
+     * bid took the lead ({@link OperationStatus#ACCEPTED}) or was too low
+     * ({@link OperationStatus#OUTBID}), along with the listing price after the bid.
+     */
+    OperationOutcome tryBid(String authToken, String listingId, long bidAmountCents);
+
+    /**
+     * Variant of {@link #buyItNow(String, String)} that reports rejections through the
+     * returned outcome rather than as exceptions. A listing that was already closed
+     * is reported as {@link OperationStatus#CLOSED}.
+     */
+    OperationOutcome tryBuyItNow(String authToken, String listingId);
+
     List<InvoiceLine> fetchInvoices(String authToken, String listingId) throws AuctionServiceException;
+
+    /**
+     * Reads the invoice lines of the authenticated user across all listings: the fees
+     * of the listings the user owns and the purchases of the listings the user won.
+     */
+    InvoiceCursor fetchUserInvoices(String authToken) throws AuctionServiceException;
+
+    /**
+     * Variant of {@link #fetchUserInvoices(String)} limited to the listings ending
+     * from fromMillis, inclusive, to toMillis, exclusive.
+     */
+    InvoiceCursor fetchUserInvoices(String authToken, long fromMillis, long toMillis) throws AuctionServiceException;
+
+    /**
+     * Reads a page of a listing's accepted bids, oldest first. Only the listing owner
+     * and the users who bid on it may read them.
+     *
+     * @param offset index of the first bid to return
+     * @param limit  maximum number of bids to return
+     */
+    List<BidRecord> fetchBidHistory(String authToken, String listingId, int offset, int limit)
+            throws AuctionServiceException;
 }
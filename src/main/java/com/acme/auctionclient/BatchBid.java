@@ -0,0 +1,44 @@
+package com.acme.auctionclient;
+
+import com.google.common.base.Objects;
+
+import java.math.BigDecimal;
+
+/**
+ * A single bid submitted as part of {@link AuctionService#bidBatch(java.util.List)}.
+ */
+public class BatchBid {
+    private final String authToken;
+    private final String listingId;
+    private final long bidAmountCents;
+
+    public BatchBid(String authToken, String listingId, long bidAmountCents) {
+        this.authToken = authToken;
+        this.listingId = listingId;
+        this.bidAmountCents = bidAmountCents;
+    }
+
+    public BatchBid(String authToken, String listingId, BigDecimal bidAmount) {
+        this(authToken, listingId, Money.toCents(bidAmount));
+    }
+
+    public String getAuthToken() {
+        return authToken;
+    }
+
+    public String getListingId() {
+        return listingId;
+    }
+
+    public long getBidAmountCents() {
+        return bidAmountCents;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("listingId", listingId)
+                .add("bidAmount", Money.toString(bidAmountCents))
+                .toString();
+    }
+}
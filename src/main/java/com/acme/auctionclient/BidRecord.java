@@ -0,0 +1,50 @@
+package com.acme.auctionclient;
+
+import com.google.common.base.Objects;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+/**
+ * Entry of a listing's bid history.
+ */
+public class BidRecord {
+    private final String bidder;
+    private final long bidAmountCents;
+    private final long bidTimeMillis;
+
+    public BidRecord(String bidder, long bidAmountCents, long bidTimeMillis) {
+        this.bidder = bidder;
+        this.bidAmountCents = bidAmountCents;
+        this.bidTimeMillis = bidTimeMillis;
+    }
+
+    public String getBidder() {
+        return bidder;
+    }
+
+    public BigDecimal getBidAmount() {
+        return Money.toBigDecimal(bidAmountCents);
+    }
+
+    public long getBidAmountCents() {
+        return bidAmountCents;
+    }
+
+    public Date getBidTime() {
+        return new Date(bidTimeMillis);
+    }
+
+    public long getBidTimeMillis() {
+        return bidTimeMillis;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("bidder", bidder)
+                .add("bidAmount", Money.toString(bidAmountCents))
+                .add("bidTimeMillis", bidTimeMillis)
+                .toString();
+    }
+}
@@ -0,0 +1,333 @@
+package com.acme.auctionclient;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * {@link AuctionService} calling a remote server over {@link BinaryProtocol}.
+ * <p/>
+ * Holds a single blocking connection; calls are serialized on it. BigDecimal amounts
+ * are converted to cents before they are sent. Connection failures surface as
+ * AuctionServiceException, or IllegalStateException from the methods which do not
+ * declare it, and leave the client unusable.
+ * <p/>
+ * Batches too large for one frame are sent as several consecutive batches.
+ */
+public class BinaryAuctionClient implements AuctionService, Closeable {
+    private final SocketChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BinaryProtocol.BUFFER_SIZE);
+
+    public BinaryAuctionClient(InetSocketAddress serverAddress) throws IOException {
+        super();
+        this.channel = SocketChannel.open(serverAddress);
+        this.channel.socket().setTcpNoDelay(true);
+    }
+
+    public synchronized String login(String username, String password) throws AuctionServiceException {
+        ByteBuffer request = begin(BinaryProtocol.LOGIN);
+        BinaryProtocol.putString(request, username);
+        BinaryProtocol.putString(request, password);
+        return BinaryProtocol.getString(call());
+    }
+
+    public synchronized boolean logout(String authToken) {
+        ByteBuffer request = begin(BinaryProtocol.LOGOUT);
+        BinaryProtocol.putString(request, authToken);
+        return callUnchecked().get() != 0;
+    }
+
+    public String createListing(String authToken, BigDecimal startingPrice, BigDecimal buyItNowPrice, int auctionLength) throws AuctionServiceException {
+        return createListing(authToken, toCents(startingPrice), buyItNowPrice == null ? Money.NO_AMOUNT_CENTS : toCents(buyItNowPrice), auctionLength);
+    }
+
+    public synchronized String createListing(String authToken, long startingPriceCents, long buyItNowPriceCents, int auctionLength) throws AuctionServiceException {
+        ByteBuffer request = begin(BinaryProtocol.CREATE_LISTING);
+        BinaryProtocol.putString(request, authToken);
+        request.putLong(startingPriceCents);
+        request.putLong(buyItNowPriceCents);
+        request.putInt(auctionLength);
+        return BinaryProtocol.getString(call());
+    }
+
+    public void bid(String authToken, String listingId, BigDecimal bidAmount) throws AuctionServiceException {
+        bid(authToken, listingId, toCents(bidAmount));
+    }
+
+    public synchronized void bid(String authToken, String listingId, long bidAmountCents) throws AuctionServiceException {
+        ByteBuffer request = begin(BinaryProtocol.BID);
+        BinaryProtocol.putString(request, authToken);
+        BinaryProtocol.putString(request, listingId);
+        request.putLong(bidAmountCents);
+        call();
+    }
+
+    public void proxyBid(String authToken, String listingId, BigDecimal maximumBidAmount) throws AuctionServiceException {
+        proxyBid(authToken, listingId, toCents(maximumBidAmount));
+    }
+
+    public synchronized void proxyBid(String authToken, String listingId, long maximumBidAmountCents) throws AuctionServiceException {
+        ByteBuffer request = begin(BinaryProtocol.PROXY_BID);
+        BinaryProtocol.putString(request, authToken);
+        BinaryProtocol.putString(request, listingId);
+        request.putLong(maximumBidAmountCents);
+        call();
+    }
+
+    public synchronized OperationStatus[] bidBatch(List<BatchBid> bids) {
+        OperationStatus[] outcomes = new OperationStatus[bids.size()];
+        int sent = 0;
+        while (sent < outcomes.length) {
+            ByteBuffer request = begin(BinaryProtocol.BID_BATCH);
+            int countPosition = request.position();
+            request.putInt(0);
+            int count = 0;
+            while (sent + count < outcomes.length) {
+                BatchBid bid = bids.get(sent + count);
+                int bidPosition = request.position();
+                try {
+                    BinaryProtocol.putString(request, bid.getAuthToken());
+                    BinaryProtocol.putString(request, bid.getListingId());
+                    request.putLong(bid.getBidAmountCents());
+                    count++;
+                } catch (BufferOverflowException e) {
+                    request.position(bidPosition);
+                    break;
+                }
+            }
+            if (count == 0) {
+                throw new IllegalArgumentException("Bid does not fit in a frame: " + bids.get(sent));
+            }
+            request.putInt(countPosition, count);
+
+            ByteBuffer response = callUnchecked();
+            int outcomeCount = response.getInt();
+            for (int i = 0; i < outcomeCount; i++) {
+                outcomes[sent + i] = BinaryProtocol.getStatus(response);
+            }
+            sent += count;
+        }
+        return outcomes;
+    }
+
+    public synchronized void buyItNow(String authToken, String listingId) throws AuctionServiceException {
+        ByteBuffer request = begin(BinaryProtocol.BUY_IT_NOW);
+        BinaryProtocol.putString(request, authToken);
+        BinaryProtocol.putString(request, listingId);
+        call();
+    }
+
+    public synchronized OperationOutcome tryCreateListing(String authToken, long startingPriceCents,
+                                                          long buyItNowPriceCents, int auctionLength) {
+        ByteBuffer request = begin(BinaryProtocol.TRY_CREATE_LISTING);
+        BinaryProtocol.putString(request, authToken);
+        request.putLong(startingPriceCents);
+        request.putLong(buyItNowPriceCents);
+        request.putInt(auctionLength);
+        return BinaryProtocol.getOutcome(callUnchecked());
+    }
+
+    public synchronized OperationOutcome tryBid(String authToken, String listingId, long bidAmountCents) {
+        ByteBuffer request = begin(BinaryProtocol.TRY_BID);
+        BinaryProtocol.putString(request, authToken);
+        BinaryProtocol.putString(request, listingId);
+        request.putLong(bidAmountCents);
+        return BinaryProtocol.getOutcome(callUnchecked());
+    }
+
+    public synchronized OperationOutcome tryBuyItNow(String authToken, String listingId) {
+        ByteBuffer request = begin(BinaryProtocol.TRY_BUY_IT_NOW);
+        BinaryProtocol.putString(request, authToken);
+        BinaryProtocol.putString(request, listingId);
+        return BinaryProtocol.getOutcome(callUnchecked());
+    }
+
+    public synchronized List<InvoiceLine> fetchInvoices(String authToken, String listingId) throws AuctionServiceException {
+        ByteBuffer request = begin(BinaryProtocol.FETCH_INVOICES);
+        BinaryProtocol.putString(request, authToken);
+        BinaryProtocol.putString(request, listingId);
+        ByteBuffer response = call();
+        int count = response.getInt();
+        List<InvoiceLine> invoiceLines = new ArrayList<InvoiceLine>(count);
+        for (int i = 0; i < count; i++) {
+            invoiceLines.add(BinaryProtocol.getInvoiceLine(response));
+        }
+        return invoiceLines;
+    }
+
+    public InvoiceCursor fetchUserInvoices(String authToken) throws AuctionServiceException {
+        return fetchUserInvoices(authToken, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * The lines are fetched a frame at a time as the cursor is read. Every page is
+     * read from a fresh cursor on the server, resumed at the position the previous
+     * page ended at.
+     */
+    public InvoiceCursor fetchUserInvoices(String authToken, long fromMillis, long toMillis) throws AuctionServiceException {
+        RemoteInvoiceCursor cursor = new RemoteInvoiceCursor(authToken, fromMillis, toMillis);
+        cursor.fetchPage();
+        return cursor;
+    }
+
+    public synchronized List<BidRecord> fetchBidHistory(String authToken, String listingId, int offset, int limit)
+            throws AuctionServiceException {
+        ByteBuffer request = begin(BinaryProtocol.FETCH_BID_HISTORY);
+        BinaryProtocol.putString(request, authToken);
+        BinaryProtocol.putString(request, listingId);
+        request.putInt(offset);
+        request.putInt(limit);
+        ByteBuffer response = call();
+        int count = response.getInt();
+        List<BidRecord> bidRecords = new ArrayList<BidRecord>(count);
+        for (int i = 0; i < count; i++) {
+            bidRecords.add(BinaryProtocol.getBidRecord(response));
+        }
+        return bidRecords;
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private ByteBuffer begin(byte operation) {
+        buffer.clear();
+        buffer.position(4);
+        buffer.put(operation);
+        return buffer;
+    }
+
+    /**
+     * Sends the request built in the buffer and reads the response into it.
+     *
+     * @return the buffer positioned on the results of a successful operation
+     */
+    private ByteBuffer call() throws AuctionServiceException {
+        byte responseCode;
+        try {
+            buffer.putInt(0, buffer.position() - 4);
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+
+            buffer.clear();
+            buffer.limit(4);
+            readFully();
+            int frameLength = buffer.getInt(0);
+            if (frameLength < 1 || frameLength > BinaryProtocol.MAX_FRAME_SIZE) {
+                throw new IOException("Invalid response frame length " + frameLength);
+            }
+            buffer.limit(4 + frameLength);
+            readFully();
+            buffer.position(4);
+            responseCode = buffer.get();
+        } catch (IOException e) {
+            throw new AuctionServiceException("Auction server connection failed", e);
+        }
+
+        if (responseCode == BinaryProtocol.REJECTED) {
+            throw new AuctionServiceException(BinaryProtocol.getString(buffer));
+        }
+        if (responseCode != BinaryProtocol.OK) {
+            throw new IllegalStateException("Auction server failed: " + BinaryProtocol.getString(buffer));
+        }
+        return buffer;
+    }
+
+    /**
+     * Variant of {@link #call()} for the operations which report rejections as results.
+     */
+    private ByteBuffer callUnchecked() {
+        try {
+            return call();
+        } catch (AuctionServiceException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Converts an amount to cents before it is sent, refusing fractions of a cent
+     * the way the server does.
+     */
+    private static long toCents(BigDecimal amount) throws AuctionServiceException {
+        try {
+            return Money.toCents(amount);
+        } catch (ArithmeticException e) {
+            throw new AuctionServiceException("Amount must be in whole cents: " + amount.toPlainString());
+        }
+    }
+
+    private void readFully() throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Auction server closed the connection");
+            }
+        }
+    }
+
+    private final class RemoteInvoiceCursor implements InvoiceCursor {
+        private final String authToken;
+        private final long fromMillis;
+        private final long toMillis;
+        private final List<InvoiceLine> page = new ArrayList<InvoiceLine>();
+        private int pageIndex;
+        private long position;
+        private boolean more;
+
+        private RemoteInvoiceCursor(String authToken, long fromMillis, long toMillis) {
+            this.authToken = authToken;
+            this.fromMillis = fromMillis;
+            this.toMillis = toMillis;
+        }
+
+        private void fetchPage() throws AuctionServiceException {
+            synchronized (BinaryAuctionClient.this) {
+                ByteBuffer request = begin(BinaryProtocol.FETCH_USER_INVOICES);
+                BinaryProtocol.putString(request, authToken);
+                request.putLong(fromMillis);
+                request.putLong(toMillis);
+                request.putLong(position);
+                ByteBuffer response = call();
+                page.clear();
+                pageIndex = 0;
+                int count = response.getInt();
+                for (int i = 0; i < count; i++) {
+                    page.add(BinaryProtocol.getInvoiceLine(response));
+                }
+                more = response.get() != 0;
+                position = response.getLong();
+            }
+        }
+
+        public boolean hasNext() {
+            if (pageIndex < page.size()) return true;
+            if (!more) return false;
+            try {
+                fetchPage();
+            } catch (AuctionServiceException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+            return pageIndex < page.size();
+        }
+
+        public InvoiceLine next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return page.get(pageIndex++);
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
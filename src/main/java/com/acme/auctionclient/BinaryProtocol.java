@@ -0,0 +1,183 @@
+package com.acme.auctionclient;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Length prefixed binary protocol exposing {@link AuctionService} over a socket.
+ * <p/>
+ * Every message is a frame made of a big endian int length followed by that many
+ * bytes. A request frame starts with an operation code, a response frame with a
+ * response code; the arguments and results follow in the order of the matching
+ * AuctionService method. Amounts always travel as long cents. Strings are written
+ * as an unsigned short byte count followed by modified UTF-8, the format of
+ * {@link java.io.DataOutput#writeUTF(String)}, with {@link #NULL_STRING_LENGTH} as
+ * the count of a null string.
+ * <p/>
+ * Responses come back in request order, so a client may pipeline requests on a
+ * connection.
+ * <p/>
+ * The put methods throw {@link BufferOverflowException} when the value does not
+ * fit in the buffer, leaving the buffer position somewhere after its start.
+ */
+public final class BinaryProtocol {
+    /**
+     * Largest frame, not counting its length prefix.
+     */
+    public static final int MAX_FRAME_SIZE = 64 * 1024;
+    /**
+     * Size of a buffer that holds any frame, length prefix included.
+     */
+    public static final int BUFFER_SIZE = MAX_FRAME_SIZE + 4;
+    public static final int NULL_STRING_LENGTH = 0xFFFF;
+
+    public static final byte LOGIN = 1;
+    public static final byte CREATE_LISTING = 2;
+    public static final byte BID = 3;
+    public static final byte PROXY_BID = 4;
+    public static final byte BID_BATCH = 5;
+    public static final byte BUY_IT_NOW = 6;
+    public static final byte FETCH_INVOICES = 7;
+    /**
+     * Reads a page of {@link AuctionService#fetchUserInvoices(String, long, long)}: the
+     * request carries the position to start at, 0 for the first page. The response holds
+     * as many lines as fit in a frame, a byte telling whether more lines remain and the
+     * opaque position of the next page.
+     */
+    public static final byte FETCH_USER_INVOICES = 8;
+    /**
+     * The response holds at most as many bids as fit in a frame.
+     */
+    public static final byte FETCH_BID_HISTORY = 9;
+    public static final byte TRY_CREATE_LISTING = 10;
+    public static final byte TRY_BID = 11;
+    public static final byte TRY_BUY_IT_NOW = 12;
+    /**
+     * The response holds a byte, 1 if the token named a live session.
+     */
+    public static final byte LOGOUT = 13;
+
+    /**
+     * The results of the operation follow.
+     */
+    public static final byte OK = 0;
+    /**
+     * The operation raised an {@link AuctionServiceException}, its message follows.
+     */
+    public static final byte REJECTED = 1;
+    /**
+     * The request could not be served, a description follows.
+     */
+    public static final byte FAILED = 2;
+
+    private static final OperationStatus[] STATUSES = OperationStatus.values();
+    private static final FeeType[] FEE_TYPES = FeeType.values();
+
+    private BinaryProtocol() {
+    }
+
+    public static void putString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.putShort((short) NULL_STRING_LENGTH);
+            return;
+        }
+        int byteCount = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            byteCount += c >= 0x0001 && c <= 0x007F ? 1 : (c <= 0x07FF ? 2 : 3);
+        }
+        if (byteCount >= NULL_STRING_LENGTH) {
+            throw new IllegalArgumentException("String too long for the protocol: " + byteCount + " bytes");
+        }
+        if (buffer.remaining() < 2 + byteCount) {
+            throw new BufferOverflowException();
+        }
+        buffer.putShort((short) byteCount);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                buffer.put((byte) c);
+            } else if (c <= 0x07FF) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    public static String getString(ByteBuffer buffer) {
+        int byteCount = buffer.getShort() & 0xFFFF;
+        if (byteCount == NULL_STRING_LENGTH) {
+            return null;
+        }
+        return decodeString(buffer, byteCount);
+    }
+
+    /**
+     * Decodes byteCount bytes of modified UTF-8 from the buffer position.
+     */
+    public static String decodeString(ByteBuffer buffer, int byteCount) {
+        char[] chars = new char[byteCount];
+        int charCount = 0;
+        int end = buffer.position() + byteCount;
+        while (buffer.position() < end) {
+            int b = buffer.get() & 0xFF;
+            if (b < 0x80) {
+                chars[charCount++] = (char) b;
+            } else if ((b & 0xE0) == 0xC0) {
+                chars[charCount++] = (char) (((b & 0x1F) << 6) | (buffer.get() & 0x3F));
+            } else {
+                chars[charCount++] = (char) (((b & 0x0F) << 12) | ((buffer.get() & 0x3F) << 6) | (buffer.get() & 0x3F));
+            }
+        }
+        return new String(chars, 0, charCount);
+    }
+
+    public static void putInvoiceLine(ByteBuffer buffer, InvoiceLine invoiceLine) {
+        putString(buffer, invoiceLine.getAuctionId());
+        buffer.put((byte) invoiceLine.getFeeType().ordinal());
+        buffer.putLong(invoiceLine.getAmountCents());
+    }
+
+    public static InvoiceLine getInvoiceLine(ByteBuffer buffer) {
+        String auctionId = getString(buffer);
+        FeeType feeType = FEE_TYPES[buffer.get()];
+        return new InvoiceLine(auctionId, feeType, buffer.getLong());
+    }
+
+    public static void putBidRecord(ByteBuffer buffer, BidRecord bidRecord) {
+        putString(buffer, bidRecord.getBidder());
+        buffer.putLong(bidRecord.getBidAmountCents());
+        buffer.putLong(bidRecord.getBidTimeMillis());
+    }
+
+    public static BidRecord getBidRecord(ByteBuffer buffer) {
+        String bidder = getString(buffer);
+        long bidAmountCents = buffer.getLong();
+        return new BidRecord(bidder, bidAmountCents, buffer.getLong());
+    }
+
+    public static void putStatus(ByteBuffer buffer, OperationStatus status) {
+        buffer.put((byte) status.ordinal());
+    }
+
+    public static OperationStatus getStatus(ByteBuffer buffer) {
+        return STATUSES[buffer.get()];
+    }
+
+    public static void putOutcome(ByteBuffer buffer, OperationOutcome outcome) {
+        putStatus(buffer, outcome.getStatus());
+        buffer.putLong(outcome.getCurrentPriceCents());
+        putString(buffer, outcome.getListingId());
+    }
+
+    public static OperationOutcome getOutcome(ByteBuffer buffer) {
+        OperationStatus status = getStatus(buffer);
+        long currentPriceCents = buffer.getLong();
+        String listingId = getString(buffer);
+        return listingId == null ? OperationOutcome.of(status, currentPriceCents) : OperationOutcome.created(listingId);
+    }
+}
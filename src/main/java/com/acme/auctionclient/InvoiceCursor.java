@@ -0,0 +1,11 @@
+package com.acme.auctionclient;
+
+import java.util.Iterator;
+
+/**
+ * Forward only cursor over invoice lines. Lines are produced as the cursor
+ * advances, so large results are never held in memory at once.
+ * {@link #remove()} is not supported.
+ */
+public interface InvoiceCursor extends Iterator<InvoiceLine> {
+}
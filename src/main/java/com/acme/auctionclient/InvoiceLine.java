@@ -10,16 +10,20 @@ import java.math.BigDecimal;
 public class InvoiceLine {
     private final String auctionId;
     private final FeeType feeType;
-    private final BigDecimal amount;
+    private final long amountCents;
 
-    public InvoiceLine(String auctionId, FeeType feeType, BigDecimal amount) {
+    public InvoiceLine(String auctionId, FeeType feeType, long amountCents) {
         this.auctionId = auctionId;
         this.feeType = feeType;
-        this.amount = amount;
+        this.amountCents = amountCents;
+    }
+
+    public InvoiceLine(String auctionId, FeeType feeType, BigDecimal amount) {
+        this(auctionId, feeType, Money.toCents(amount));
     }
 
     public InvoiceLine(String auctionId, FeeType feeType, String amount) {
-        this(auctionId, feeType, new BigDecimal(amount));
+        this(auctionId, feeType, Money.parseCents(amount));
     }
 
     public String getAuctionId() {
@@ -31,7 +35,11 @@ public class InvoiceLine {
     }
 
     public BigDecimal getAmount() {
-        return amount;
+        return Money.toBigDecimal(amountCents);
+    }
+
+    public long getAmountCents() {
+        return amountCents;
     }
 
     @Override
@@ -39,7 +47,7 @@ public class InvoiceLine {
         return Objects.toStringHelper(this)
                 .add("auctionId", auctionId)
                 .add("feeType", feeType)
-                .add("amount", amount)
+                .add("amount", Money.toString(amountCents))
                 .toString();
     }
 }
@@ -0,0 +1,117 @@
+package com.acme.auctionclient;
+
+import java.math.BigDecimal;
+
+/**
+ * Fixed-point money value stored as a long number of cents.
+ * <p/>
+ * Hot paths work directly on the primitive cent amounts using the static helpers;
+ * instances are only needed where a value object is more convenient. BigDecimal
+ * conversions are provided for the edges of the API.
+ */
+public final class Money implements Comparable<Money> {
+    /**
+     * Number of decimal places represented by a cent amount.
+     */
+    public static final int SCALE = 2;
+    /**
+     * Marker used in place of a null amount by the cent based APIs.
+     */
+    public static final long NO_AMOUNT_CENTS = -1L;
+    public static final Money ZERO = new Money(0);
+
+    private final long cents;
+
+    private Money(long cents) {
+        this.cents = cents;
+    }
+
+    public static Money ofCents(long cents) {
+        return new Money(cents);
+    }
+
+    public static Money of(BigDecimal amount) {
+        return new Money(toCents(amount));
+    }
+
+    public static Money parse(String amount) {
+        return new Money(parseCents(amount));
+    }
+
+    /**
+     * Converts a BigDecimal amount to cents.
+     *
+     * @param amount amount with no more than two decimal places
+     * @return amount in cents
+     * @throws ArithmeticException if the amount has fractional cents or does not fit in a long
+     */
+    public static long toCents(BigDecimal amount) {
+        return amount.movePointRight(SCALE).longValueExact();
+    }
+
+    /**
+     * Null tolerant variant of {@link #toCents(BigDecimal)}.
+     *
+     * @param amount amount or null
+     * @return amount in cents or {@link #NO_AMOUNT_CENTS} if amount is null
+     */
+    public static long toCentsOrNone(BigDecimal amount) {
+        return amount == null ? NO_AMOUNT_CENTS : toCents(amount);
+    }
+
+    public static long parseCents(String amount) {
+        return toCents(new BigDecimal(amount));
+    }
+
+    public static BigDecimal toBigDecimal(long cents) {
+        return BigDecimal.valueOf(cents, SCALE);
+    }
+
+    /**
+     * Null tolerant variant of {@link #toBigDecimal(long)}.
+     *
+     * @param cents amount in cents or {@link #NO_AMOUNT_CENTS}
+     * @return amount or null if cents is {@link #NO_AMOUNT_CENTS}
+     */
+    public static BigDecimal toBigDecimalOrNull(long cents) {
+        return cents == NO_AMOUNT_CENTS ? null : toBigDecimal(cents);
+    }
+
+    public static String toString(long cents) {
+        return toBigDecimal(cents).toPlainString();
+    }
+
+    public long getCents() {
+        return cents;
+    }
+
+    public BigDecimal toBigDecimal() {
+        return toBigDecimal(cents);
+    }
+
+    public Money plus(Money other) {
+        return new Money(cents + other.cents);
+    }
+
+    public int compareTo(Money other) {
+        return cents < other.cents ? -1 : (cents == other.cents ? 0 : 1);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        return cents == ((Money) o).cents;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (cents ^ (cents >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return toString(cents);
+    }
+}
@@ -0,0 +1,102 @@
+package com.acme.auctionclient;
+
+import com.google.common.base.Objects;
+
+import java.math.BigDecimal;
+
+/**
+ * Result of an operation of the exception free API, see for example
+ * {@link AuctionService#tryBid(String, String, long)}.
+ * <p/>
+ * Rejections that carry no price share preallocated instances, so rejecting an
+ * operation allocates nothing.
+ */
+public final class OperationOutcome {
+    private static final OperationOutcome[] WITHOUT_PRICE = new OperationOutcome[OperationStatus.values().length];
+
+    static {
+        for (OperationStatus status : OperationStatus.values()) {
+            WITHOUT_PRICE[status.ordinal()] = new OperationOutcome(status, Money.NO_AMOUNT_CENTS, null);
+        }
+    }
+
+    private final OperationStatus status;
+    private final long currentPriceCents;
+    private final String listingId;
+
+    private OperationOutcome(OperationStatus status, long currentPriceCents, String listingId) {
+        this.status = status;
+        this.currentPriceCents = currentPriceCents;
+        this.listingId = listingId;
+    }
+
+    /**
+     * @param currentPriceCents price of the listing after the operation or {@link Money#NO_AMOUNT_CENTS}
+     */
+    public static OperationOutcome of(OperationStatus status, long currentPriceCents) {
+        if (currentPriceCents == Money.NO_AMOUNT_CENTS) {
+            return WITHOUT_PRICE[status.ordinal()];
+        }
+        return new OperationOutcome(status, currentPriceCents, null);
+    }
+
+    /**
+     * Outcome of a listing creation that was accepted. A new listing has no bid yet,
+     * so there is no current price.
+     */
+    public static OperationOutcome created(String listingId) {
+        return new OperationOutcome(OperationStatus.ACCEPTED, Money.NO_AMOUNT_CENTS, listingId);
+    }
+
+    public OperationStatus getStatus() {
+        return status;
+    }
+
+    public boolean isAccepted() {
+        return status == OperationStatus.ACCEPTED;
+    }
+
+    /**
+     * @return the current bid, or the buy it now price once bought, after the operation;
+     *         {@link Money#NO_AMOUNT_CENTS} if there is none
+     */
+    public long getCurrentPriceCents() {
+        return currentPriceCents;
+    }
+
+    public BigDecimal getCurrentPrice() {
+        return Money.toBigDecimalOrNull(currentPriceCents);
+    }
+
+    /**
+     * @return the id of the created listing, null for any other operation
+     */
+    public String getListingId() {
+        return listingId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        OperationOutcome that = (OperationOutcome) o;
+        return status == that.status
+                && currentPriceCents == that.currentPriceCents
+                && Objects.equal(listingId, that.listingId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(status, currentPriceCents, listingId);
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("status", status)
+                .add("currentPrice", currentPriceCents == Money.NO_AMOUNT_CENTS ? null : Money.toString(currentPriceCents))
+                .add("listingId", listingId)
+                .toString();
+    }
+}
@@ -0,0 +1,8 @@
+package com.acme.auctionclient;
+
+/**
+ * Enumerated outcome of an auction operation.
+ */
+public enum OperationStatus {
+    ACCEPTED, OUTBID, CLOSED, SELF_BID, UNKNOWN_LISTING, BAD_TOKEN, NO_BUY_IT_NOW
+}
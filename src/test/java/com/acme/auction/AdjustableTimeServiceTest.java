@@ -20,6 +20,7 @@ public class AdjustableTimeServiceTest {
     public void testTypicalUsage() {
         TimeService rawTimeService = mock(TimeService.class);
         when(rawTimeService.getTime()).thenReturn(FIRST_DAY);
+        when(rawTimeService.currentTimeMillis()).thenReturn(FIRST_DAY.getTime());
 
         DefaultAdjustableTimeService adjustableTimeService = new DefaultAdjustableTimeService(rawTimeService);
         assertEquals(FIRST_DAY, adjustableTimeService.getTime());
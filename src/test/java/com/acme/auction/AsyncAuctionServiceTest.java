@@ -0,0 +1,89 @@
+package com.acme.auction;
+
+import com.acme.atddharness.User;
+import com.acme.auctionclient.AsyncAuctionService;
+import com.acme.auctionclient.AuctionService;
+import com.acme.auctionclient.AuctionServiceException;
+import com.acme.auctionclient.InvoiceLine;
+import com.acme.auctionclient.OperationOutcome;
+import com.acme.auctionclient.OperationStatus;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the asynchronous auction service as wired by AuctionModule.
+ */
+public class AsyncAuctionServiceTest {
+    private static final long SIX_DAYS_OF_MILLIS = 60L * 60 * 24 * 1000 * 6;
+
+    private AsyncAuctionService asyncAuctionService;
+    private AuctionService auctionService;
+    private AdjustableTimeService adjustableTimeService;
+
+    @Before
+    public void setUp() {
+        Injector injector = Guice.createInjector(new AuctionModule(true, false, 4));
+        asyncAuctionService = injector.getInstance(AsyncAuctionService.class);
+        auctionService = injector.getInstance(AuctionService.class);
+        adjustableTimeService = injector.getInstance(AdjustableTimeService.class);
+    }
+
+    @Test
+    public void testSharesStateWithSynchronousService() throws Exception {
+        String fredToken = asyncAuctionService.login(User.SELLER_FRED.getUsername(), User.SELLER_FRED.getPassword()).get();
+        String sallyToken = auctionService.login(User.BUYER_SALLY.getUsername(), User.BUYER_SALLY.getPassword());
+        String listingId = asyncAuctionService.createListing(fredToken, new BigDecimal("100.00"), null, 5).get();
+
+        List<ListenableFuture<Void>> bids = new ArrayList<ListenableFuture<Void>>();
+        for (long cents = 10000; cents < 10500; cents++) {
+            bids.add(asyncAuctionService.bid(sallyToken, listingId, cents));
+        }
+        Futures.allAsList(bids).get();
+        adjustableTimeService.incrementTimeOffset(SIX_DAYS_OF_MILLIS);
+
+        List<InvoiceLine> sallyInvoices = auctionService.fetchInvoices(sallyToken, listingId);
+        assertEquals(1, sallyInvoices.size());
+        assertEquals(10499L, sallyInvoices.get(0).getAmountCents());
+        assertEquals(sallyInvoices.get(0).getAmountCents(),
+                asyncAuctionService.fetchInvoices(sallyToken, listingId).get().get(0).getAmountCents());
+    }
+
+    @Test
+    public void testTryVariantsReportRejectionsThroughTheOutcome() throws Exception {
+        String fredToken = auctionService.login(User.SELLER_FRED.getUsername(), User.SELLER_FRED.getPassword());
+        String sallyToken = auctionService.login(User.BUYER_SALLY.getUsername(), User.BUYER_SALLY.getPassword());
+        OperationOutcome created = asyncAuctionService.tryCreateListing(fredToken, 1000L, 5000L, 3).get();
+        assertTrue(created.isAccepted());
+        String listingId = created.getListingId();
+
+        assertEquals(OperationStatus.BAD_TOKEN, asyncAuctionService.tryBid("badAuthId", listingId, 1500L).get()
+                .getStatus());
+        assertEquals(OperationStatus.ACCEPTED, asyncAuctionService.tryBid(sallyToken, listingId, 1500L).get()
+                .getStatus());
+        assertTrue(asyncAuctionService.tryBuyItNow(sallyToken, listingId).get().isAccepted());
+        assertEquals(OperationStatus.CLOSED, asyncAuctionService.tryBuyItNow(sallyToken, listingId).get()
+                .getStatus());
+    }
+
+    @Test
+    public void testFailureCompletesFutureExceptionally() throws InterruptedException {
+        ListenableFuture<Void> bid = asyncAuctionService.bid("badAuthId", "noSuchListing", 100L);
+        try {
+            bid.get();
+            fail("Expected bid with bad auth token to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof AuctionServiceException);
+        }
+    }
+}
@@ -1,9 +1,13 @@
 package com.acme.auction;
 
+import com.acme.auctionclient.BidRecord;
+import com.acme.auctionclient.OperationStatus;
 import org.junit.Test;
 
 import java.math.BigDecimal;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.mock;
@@ -25,6 +29,7 @@ public class AuctionListingTest {
     public void testExpiredAuctionWithoutBids() {
         TimeService timeService = mock(TimeService.class);
         when(timeService.getTime()).thenReturn(FIRST_DAY);
+        when(timeService.currentTimeMillis()).thenReturn(FIRST_DAY.getTime());
         AuctionListingFactory listingFactory = new DefaultAuctionListingFactory(timeService);
 
         AuctionListing auctionListing = listingFactory.createAuctionListing("fred", STARTING_PRICE, null, AUCTION_LENGTH_IN_DAYS);
@@ -32,6 +37,7 @@ public class AuctionListingTest {
 
         //Move clock past auction close
         when(timeService.getTime()).thenReturn(THIRD_DAY_AND_ONE_SEC);
+        when(timeService.currentTimeMillis()).thenReturn(THIRD_DAY_AND_ONE_SEC.getTime());
 
         assertNull(auctionListing.getWinningUser());
         assertNull(auctionListing.getWinningPrice());
@@ -43,6 +49,7 @@ public class AuctionListingTest {
     public void testExpiredAuctionWithBids() {
         TimeService timeService = mock(TimeService.class);
         when(timeService.getTime()).thenReturn(FIRST_DAY);
+        when(timeService.currentTimeMillis()).thenReturn(FIRST_DAY.getTime());
         AuctionListingFactory listingFactory = new DefaultAuctionListingFactory(timeService);
 
         AuctionListing auctionListing = listingFactory.createAuctionListing("fred", STARTING_PRICE, null, AUCTION_LENGTH_IN_DAYS);
@@ -51,6 +58,7 @@ public class AuctionListingTest {
         performInitialBidding(auctionListing);
         //Move clock past auction close and bid again.
         when(timeService.getTime()).thenReturn(THIRD_DAY_AND_ONE_SEC);
+        when(timeService.currentTimeMillis()).thenReturn(THIRD_DAY_AND_ONE_SEC.getTime());
 
         //bid should be rejected.
         auctionListing.bid("sally", new BigDecimal("20.00"));
@@ -78,6 +86,7 @@ public class AuctionListingTest {
     private AuctionListing createReadToCloseAuction() {
         TimeService timeService = mock(TimeService.class);
         when(timeService.getTime()).thenReturn(FIRST_DAY);
+        when(timeService.currentTimeMillis()).thenReturn(FIRST_DAY.getTime());
         AuctionListingFactory listingFactory = new DefaultAuctionListingFactory(timeService);
 
         AuctionListing auctionListing = listingFactory.createAuctionListing("fred", STARTING_PRICE, null, AUCTION_LENGTH_IN_DAYS);
@@ -86,6 +95,7 @@ public class AuctionListingTest {
         performInitialBidding(auctionListing);
         //Move clock past auction close and bid again.
         when(timeService.getTime()).thenReturn(THIRD_DAY_AND_ONE_SEC);
+        when(timeService.currentTimeMillis()).thenReturn(THIRD_DAY_AND_ONE_SEC.getTime());
 
         return auctionListing;
     }
@@ -94,6 +104,7 @@ public class AuctionListingTest {
     public void testBoughtUsingBuyItNowAfterSomeBidding() {
         TimeService timeService = mock(TimeService.class);
         when(timeService.getTime()).thenReturn(FIRST_DAY);
+        when(timeService.currentTimeMillis()).thenReturn(FIRST_DAY.getTime());
         AuctionListingFactory listingFactory = new DefaultAuctionListingFactory(timeService);
 
         AuctionListing auctionListing = listingFactory.createAuctionListing("fred", STARTING_PRICE, BUY_IT_NOW_PRICE, AUCTION_LENGTH_IN_DAYS);
@@ -112,6 +123,7 @@ public class AuctionListingTest {
     public void testBoughtUsingBuyItWithNoBidding() {
         TimeService timeService = mock(TimeService.class);
         when(timeService.getTime()).thenReturn(FIRST_DAY);
+        when(timeService.currentTimeMillis()).thenReturn(FIRST_DAY.getTime());
         AuctionListingFactory listingFactory = new DefaultAuctionListingFactory(timeService);
 
         AuctionListing auctionListing = listingFactory.createAuctionListing("fred", STARTING_PRICE, BUY_IT_NOW_PRICE, AUCTION_LENGTH_IN_DAYS);
@@ -130,6 +142,7 @@ public class AuctionListingTest {
     public void testTypicalUsage() {
         TimeService timeService = mock(TimeService.class);
         when(timeService.getTime()).thenReturn(FIRST_DAY);
+        when(timeService.currentTimeMillis()).thenReturn(FIRST_DAY.getTime());
         AuctionListingFactory listingFactory = new DefaultAuctionListingFactory(timeService);
 
         AuctionListing auctionListing = listingFactory.createAuctionListing("fred", STARTING_PRICE, null, AUCTION_LENGTH_IN_DAYS);
@@ -142,6 +155,7 @@ public class AuctionListingTest {
     public void testTypicalUsageWithBuyItNow() {
         TimeService timeService = mock(TimeService.class);
         when(timeService.getTime()).thenReturn(FIRST_DAY);
+        when(timeService.currentTimeMillis()).thenReturn(FIRST_DAY.getTime());
 
         AuctionListingFactory listingFactory = new DefaultAuctionListingFactory(timeService);
 
@@ -152,6 +166,142 @@ public class AuctionListingTest {
         performInitialBidding(auctionListing);
     }
 
+    @Test
+    public void testBidHistoryKeepsAcceptedBidsInOrder() {
+        TimeService timeService = mock(TimeService.class);
+        when(timeService.getTime()).thenReturn(FIRST_DAY);
+        when(timeService.currentTimeMillis()).thenReturn(FIRST_DAY.getTime());
+        AuctionListingFactory listingFactory = new DefaultAuctionListingFactory(timeService);
+
+        AuctionListing auctionListing = listingFactory.createAuctionListing("fred", STARTING_PRICE, null, AUCTION_LENGTH_IN_DAYS);
+        performInitialBidding(auctionListing);
+
+        //Under bids and ties are not part of the history.
+        List<BidRecord> bidHistory = auctionListing.getBidHistory(0, 10);
+        assertEquals(2, auctionListing.getBidCount());
+        assertEquals(2, bidHistory.size());
+        assertEquals("sally", bidHistory.get(0).getBidder());
+        assertEquals(STARTING_PRICE, bidHistory.get(0).getBidAmount());
+        assertEquals("george", bidHistory.get(1).getBidder());
+        assertEquals(GEORGE_SECOND_HIGHER_BID, bidHistory.get(1).getBidAmount());
+        assertEquals(FIRST_DAY, bidHistory.get(1).getBidTime());
+    }
+
+    @Test
+    public void testProxyBiddingChargesSecondPricePlusIncrement() {
+        TimeService timeService = mock(TimeService.class);
+        when(timeService.getTime()).thenReturn(FIRST_DAY);
+        when(timeService.currentTimeMillis()).thenReturn(FIRST_DAY.getTime());
+        AuctionListingFactory listingFactory = new DefaultAuctionListingFactory(timeService);
+
+        AuctionListing auctionListing = listingFactory.createAuctionListing("fred", new BigDecimal("100.00"), null, AUCTION_LENGTH_IN_DAYS);
+
+        //A lone proxy bid only needs to match the starting price.
+        auctionListing.proxyBid("sally", new BigDecimal("150.00"));
+        assertEquals("sally", auctionListing.getCurrentBid().getBidder());
+        assertEquals(new BigDecimal("100.00"), auctionListing.getCurrentBid().getBidValue());
+
+        //Sally's proxy answers george's bid one increment higher.
+        auctionListing.bid("george", new BigDecimal("120.00"));
+        assertEquals("sally", auctionListing.getCurrentBid().getBidder());
+        assertEquals(new BigDecimal("121.00"), auctionListing.getCurrentBid().getBidValue());
+
+        //Raising your own maximum does not raise the price.
+        auctionListing.proxyBid("sally", new BigDecimal("160.00"));
+        assertEquals(new BigDecimal("121.00"), auctionListing.getCurrentBid().getBidValue());
+
+        //A higher maximum takes the lead at the old maximum plus the increment.
+        auctionListing.proxyBid("george", new BigDecimal("200.00"));
+        assertEquals("george", auctionListing.getCurrentBid().getBidder());
+        assertEquals(new BigDecimal("161.00"), auctionListing.getCurrentBid().getBidValue());
+
+        //Matching the leader's maximum leaves the leader ahead at that maximum.
+        auctionListing.proxyBid("sally", new BigDecimal("200.00"));
+        assertEquals("george", auctionListing.getCurrentBid().getBidder());
+        assertEquals(new BigDecimal("200.00"), auctionListing.getCurrentBid().getBidValue());
+
+        when(timeService.getTime()).thenReturn(THIRD_DAY_AND_ONE_SEC);
+
+        when(timeService.currentTimeMillis()).thenReturn(THIRD_DAY_AND_ONE_SEC.getTime());
+        assertEquals("george", auctionListing.getWinningUser());
+        assertEquals(20000L, auctionListing.getWinningPriceCents());
+        assertEquals(5, auctionListing.getBidCount());
+    }
+
+    @Test
+    public void testProxyBidCappedByOwnMaximum() {
+        TimeService timeService = mock(TimeService.class);
+        when(timeService.getTime()).thenReturn(FIRST_DAY);
+        when(timeService.currentTimeMillis()).thenReturn(FIRST_DAY.getTime());
+        AuctionListingFactory listingFactory = new DefaultAuctionListingFactory(timeService);
+
+        AuctionListing auctionListing = listingFactory.createAuctionListing("fred", STARTING_PRICE, null, AUCTION_LENGTH_IN_DAYS);
+        auctionListing.bid("george", 700L);
+        auctionListing.proxyBid("sally", 750L);
+
+        //The increment would take sally past her maximum, so she pays her maximum.
+        assertEquals("sally", auctionListing.getCurrentBid().getBidder());
+        assertEquals(750L, auctionListing.getCurrentBid().getBidValueCents());
+
+        //Proxy bids at or under the current price are rejected.
+        auctionListing.proxyBid("george", 750L);
+        assertEquals("sally", auctionListing.getCurrentBid().getBidder());
+        assertEquals(2, auctionListing.getBidCount());
+    }
+
+    @Test
+    public void testBatchAfterEndingTimeIsClosedEvenForLosingBids() {
+        AuctionListing auctionListing = createReadToCloseAuction();
+
+        //Neither bid could take the lead, they are still reported as closed rather than outbid.
+        OperationStatus[] outcomes = new OperationStatus[2];
+        auctionListing.bid(new String[]{"sally", "sally"}, new long[]{100L, 700L}, 2, outcomes);
+        assertArrayEquals(new OperationStatus[]{OperationStatus.CLOSED, OperationStatus.CLOSED}, outcomes);
+        assertTrue(auctionListing.isAuctionClosed());
+    }
+
+    @Test
+    public void testConcurrentBiddingKeepsHighestBid() throws InterruptedException {
+        TimeService timeService = mock(TimeService.class);
+        when(timeService.getTime()).thenReturn(FIRST_DAY);
+        when(timeService.currentTimeMillis()).thenReturn(FIRST_DAY.getTime());
+        AuctionListingFactory listingFactory = new DefaultAuctionListingFactory(timeService);
+
+        final AuctionListing auctionListing = listingFactory.createAuctionListing("fred", STARTING_PRICE, null, AUCTION_LENGTH_IN_DAYS);
+
+        final int bidderCount = 8;
+        final int bidsPerBidder = 500;
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        Thread[] bidders = new Thread[bidderCount];
+        for (int i = 0; i < bidderCount; i++) {
+            final String bidder = "bidder" + i;
+            final int bidderNumber = i;
+            bidders[i] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        startSignal.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int bid = 0; bid < bidsPerBidder; bid++) {
+                        //Every bidder uses a distinct set of cents so the highest bid is unique.
+                        long cents = 500 + bid * bidderCount + bidderNumber;
+                        auctionListing.bid(bidder, BigDecimal.valueOf(cents, 2));
+                    }
+                }
+            });
+            bidders[i].start();
+        }
+        startSignal.countDown();
+        for (Thread bidder : bidders) {
+            bidder.join();
+        }
+
+        long highestCents = 500 + (bidsPerBidder - 1) * bidderCount + (bidderCount - 1);
+        assertEquals("bidder" + (bidderCount - 1), auctionListing.getCurrentBid().getBidder());
+        assertEquals(BigDecimal.valueOf(highestCents, 2), auctionListing.getCurrentBid().getBidValue());
+    }
+
     private void performInitialBidding(AuctionListing auctionListing) {
         assertEquals(STARTING_PRICE, auctionListing.getStartingPrice());
         assertEquals(AUCTION_LENGTH_IN_DAYS, auctionListing.getAuctionLength());
@@ -0,0 +1,317 @@
+package com.acme.auction;
+
+import com.acme.auctionclient.AuctionServiceException;
+import com.acme.auctionclient.BidRecord;
+import com.acme.auctionclient.FeeType;
+import com.acme.auctionclient.InvoiceLine;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests recovering auction state from snapshots and the write-ahead log.
+ */
+public class AuctionSnapshotsTest {
+    private static final long DAY_MILLIS = 60 * 60 * 24 * 1000L;
+    private static final String[] USERS = {"fred.seller@acme.com", "sally.buyer@acme.com", "george.buyer@acme.com"};
+    private static final String[] PASSWORDS = {"sellingIsFun", "gotToBuy", "sallyIsAnnoying"};
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final TimeService timeService = mock(TimeService.class);
+    private File logDirectory;
+    private File snapshotDirectory;
+
+    @Test
+    public void testRecoveredStateGivesIdenticalInvoices() throws Exception {
+        createDirectories();
+        setTime(1000L);
+        Node original = new Node();
+        String[] tokens = original.login();
+        String fred = tokens[0], sally = tokens[1], george = tokens[2];
+
+        List<String> listingIds = new ArrayList<String>();
+        listingIds.add(original.service.createListing(fred, 1000L, 5000L, 3));
+        listingIds.add(original.service.createListing(fred, 2000L, -1L, 3));
+        listingIds.add(original.service.createListing(sally, 500L, 800L, 5));
+        original.service.proxyBid(sally, listingIds.get(0), 3000L);
+        original.service.bid(george, listingIds.get(0), 2000L);
+        original.service.bid(sally, listingIds.get(1), 2500L);
+        original.snapshots.writeSnapshot();
+
+        setTime(2000L);
+        original.service.bid(george, listingIds.get(0), 3500L);
+        original.service.buyItNow(george, listingIds.get(2));
+        listingIds.add(original.service.createListing(george, 100L, -1L, 1));
+        original.service.bid(sally, listingIds.get(3), 150L);
+        //Refused once the listing has ended, so never logged.
+        setTime(2 * DAY_MILLIS);
+        original.service.bid(fred, listingIds.get(3), 900L);
+        original.service.bid(george, listingIds.get(1), 2600L);
+
+        setTime(10 * DAY_MILLIS);
+        List<String> invoices = fetchAllInvoices(original, tokens, listingIds);
+        original.close();
+
+        Node recovered = new Node();
+        RecoveryStatistics statistics = recovered.snapshots.recover();
+        assertEquals(3, statistics.getSnapshotListingCount());
+        assertEquals(5, statistics.getReplayedRecordCount());
+        assertEquals(statistics, recovered.snapshots.getRecoveryStatistics());
+        assertEquals(invoices, fetchAllInvoices(recovered, tokens, listingIds));
+        assertEquals("[sally, george, george]", bidders(recovered, george, listingIds.get(0)));
+        recovered.close();
+    }
+
+    @Test
+    public void testRecoveryWithoutSnapshotReplaysWholeLog() throws Exception {
+        createDirectories();
+        setTime(1000L);
+        Node original = new Node();
+        String[] tokens = original.login();
+        String listingId = original.service.createListing(tokens[0], 1000L, 5000L, 3);
+        original.service.bid(tokens[1], listingId, 1200L);
+        original.close();
+
+        Node recovered = new Node();
+        RecoveryStatistics statistics = recovered.snapshots.recover();
+        assertNull(statistics.getSnapshotName());
+        assertEquals(2, statistics.getReplayedRecordCount());
+        String[] recoveredTokens = recovered.login();
+        assertEquals(1200L, recovered.service.findListing(ListingIds.parse(listingId)).getCurrentBid().getBidValueCents());
+        assertEquals(1, recovered.service.fetchBidHistory(recoveredTokens[1], listingId, 0, 10).size());
+        recovered.close();
+    }
+
+    @Test
+    public void testBidAtEndingTimeIsReplayedAtTheTimeItWasDecided() throws Exception {
+        createDirectories();
+        setTime(1000L);
+        Node original = new Node();
+        String[] tokens = original.login();
+        List<String> listingIds = new ArrayList<String>();
+        listingIds.add(original.service.createListing(tokens[0], 100L, -1L, 1));
+        long endingMillis = original.service.findListing(ListingIds.parse(listingIds.get(0))).getEndingTime().getTime();
+        original.snapshots.writeSnapshot();
+
+        //The clock ticks past the ending time right after the bid reads it.
+        when(timeService.currentTimeMillis()).thenReturn(endingMillis, endingMillis + 1);
+        original.service.bid(tokens[1], listingIds.get(0), 150L);
+        setTime(10 * DAY_MILLIS);
+        List<String> invoices = fetchAllInvoices(original, tokens, listingIds);
+        original.close();
+
+        Node recovered = new Node();
+        assertEquals(1, recovered.snapshots.recover().getReplayedRecordCount());
+        assertEquals(invoices, fetchAllInvoices(recovered, tokens, listingIds));
+        recovered.close();
+    }
+
+    @Test
+    public void testSnapshotFlushesArchivedListingsToDisk() throws Exception {
+        createDirectories();
+        setTime(1000L);
+        File archiveDirectory = temporaryFolder.newFolder("archive");
+        ListingRegistry registry = new ListingRegistry(timeService, new ListingArchive(archiveDirectory), 0, 100, false);
+        Node original = new Node(registry);
+        String[] tokens = original.login();
+        long listingKey = ListingIds.parse(original.service.createListing(tokens[0], 100L, -1L, 1));
+        original.service.bid(tokens[1], ListingIds.toString(listingKey), 150L);
+        setTime(2 * DAY_MILLIS);
+        assertEquals(1, registry.demoteExpiredListings());
+        original.snapshots.writeSnapshot();
+        //A crash leaves the archive unclosed.
+        original.close();
+
+        ListingArchive reopened = new ListingArchive(archiveDirectory);
+        assertEquals(1, reopened.getDiskTierCount());
+        assertEquals(USERS[1], reopened.find(listingKey).getWinningUser());
+        reopened.close();
+    }
+
+    @Test
+    public void testRecoveredLedgerReconcilesWithInvoices() throws Exception {
+        createDirectories();
+        setTime(1000L);
+        File archiveDirectory = temporaryFolder.newFolder("archive");
+        ListingRegistry registry = new ListingRegistry(timeService, new ListingArchive(archiveDirectory), 0, 100, false);
+        Node original = new Node(registry);
+        String[] tokens = original.login();
+        String fred = tokens[0], sally = tokens[1], george = tokens[2];
+
+        List<String> listingIds = new ArrayList<String>();
+        listingIds.add(original.service.createListing(fred, 100L, -1L, 1));
+        original.service.bid(sally, listingIds.get(0), 150L);
+        setTime(2 * DAY_MILLIS);
+        assertEquals(1, registry.demoteExpiredListings());
+        listingIds.add(original.service.createListing(fred, 1000L, 5000L, 3));
+        listingIds.add(original.service.createListing(sally, 500L, 800L, 5));
+        original.service.buyItNow(george, listingIds.get(2));
+        original.service.bid(george, listingIds.get(1), 1200L);
+        original.snapshots.writeSnapshot();
+
+        listingIds.add(original.service.createListing(george, 100L, 300L, 1));
+        original.service.buyItNow(sally, listingIds.get(3));
+        listingIds.add(original.service.createListing(fred, 100L, -1L, 1));
+        original.service.bid(george, listingIds.get(4), 200L);
+        original.close();
+
+        Node recovered = new Node(new ListingRegistry(timeService, new ListingArchive(archiveDirectory), 0, 100,
+                false));
+        recovered.snapshots.recover();
+        setTime(10 * DAY_MILLIS);
+        long invoiceLineCount = 0;
+        for (int u = 0; u < USERS.length; u++) {
+            long[] invoicedCents = new long[FeeType.values().length];
+            for (String listingId : listingIds) {
+                for (InvoiceLine invoiceLine : recovered.service.fetchInvoices(tokens[u], listingId)) {
+                    invoicedCents[invoiceLine.getFeeType().ordinal()] += invoiceLine.getAmountCents();
+                    invoiceLineCount++;
+                }
+            }
+            for (FeeType feeType : FeeType.values()) {
+                assertEquals(USERS[u] + " " + feeType, invoicedCents[feeType.ordinal()],
+                        recovered.feeLedger.getTotalCents(USERS[u], feeType));
+            }
+        }
+        assertEquals(invoiceLineCount, recovered.feeLedger.getEntryCount());
+        recovered.close();
+    }
+
+    @Test
+    public void testSnapshotTakenWhileBiddingRecoversEveryBid() throws Exception {
+        createDirectories();
+        setTime(1000L);
+        final Node original = new Node();
+        final String[] tokens = original.login();
+        final List<String> listingIds = new ArrayList<String>();
+        for (int i = 0; i < 50; i++) {
+            listingIds.add(original.service.createListing(tokens[0], 100L, -1L, 3));
+        }
+
+        final AtomicBoolean bidding = new AtomicBoolean(true);
+        List<Thread> bidders = new ArrayList<Thread>();
+        for (int t = 1; t <= 2; t++) {
+            final String token = tokens[t];
+            final long offset = t;
+            Thread bidder = new Thread(new Runnable() {
+                public void run() {
+                    long amount = 100L + offset;
+                    while (bidding.get()) {
+                        for (String listingId : listingIds) {
+                            try {
+                                original.service.bid(token, listingId, amount);
+                            } catch (AuctionServiceException e) {
+                                throw new IllegalStateException(e);
+                            }
+                        }
+                        amount += 2;
+                    }
+                }
+            });
+            bidders.add(bidder);
+            bidder.start();
+        }
+        for (int i = 0; i < 3; i++) {
+            original.snapshots.writeSnapshot();
+        }
+        bidding.set(false);
+        for (Thread bidder : bidders) {
+            bidder.join();
+        }
+        List<String> states = new ArrayList<String>();
+        for (String listingId : listingIds) {
+            states.add(state(original, listingId));
+        }
+        original.close();
+        assertEquals(AuctionSnapshots.KEPT_SNAPSHOT_COUNT, snapshotDirectory.list().length);
+
+        Node recovered = new Node();
+        recovered.snapshots.recover();
+        for (int i = 0; i < listingIds.size(); i++) {
+            assertEquals(states.get(i), state(recovered, listingIds.get(i)));
+        }
+        recovered.close();
+    }
+
+    private void createDirectories() throws IOException {
+        logDirectory = temporaryFolder.newFolder("log");
+        snapshotDirectory = temporaryFolder.newFolder("snapshots");
+    }
+
+    private void setTime(long nowMillis) {
+        when(timeService.currentTimeMillis()).thenReturn(nowMillis);
+    }
+
+    private static List<String> fetchAllInvoices(Node node, String[] tokens, List<String> listingIds)
+            throws AuctionServiceException {
+        List<String> invoices = new ArrayList<String>();
+        for (String listingId : listingIds) {
+            for (String token : tokens) {
+                invoices.add(node.service.fetchInvoices(token, listingId).toString());
+            }
+        }
+        return invoices;
+    }
+
+    private static String bidders(Node node, String token, String listingId) throws AuctionServiceException {
+        List<String> bidders = new ArrayList<String>();
+        for (BidRecord bid : node.service.fetchBidHistory(token, listingId, 0, 10)) {
+            bidders.add(bid.getBidder().split("\\.")[0]);
+        }
+        return bidders.toString();
+    }
+
+    private static String state(Node node, String listingId) {
+        AuctionListing listing = node.service.findListing(ListingIds.parse(listingId));
+        return listing.getCurrentBid().getBidder() + " " + listing.getCurrentBid().getBidValueCents()
+                + " " + listing.getBidCount();
+    }
+
+    /**
+     * An auction service with its log and snapshots, as a process would have them.
+     */
+    private final class Node {
+        private final FeeLedger feeLedger = new FeeLedger();
+        private final DefaultAuctionService service;
+        private final WriteAheadLog writeAheadLog;
+        private final AuctionSnapshots snapshots;
+
+        private Node() throws IOException {
+            this(new ListingRegistry());
+        }
+
+        private Node(ListingRegistry listingRegistry) throws IOException {
+            writeAheadLog = new WriteAheadLog(logDirectory, DurabilityPolicy.PER_OP, 1, 1 << 20);
+            service = new DefaultAuctionService(new DefaultAuctionListingFactory(timeService,
+                    new DefaultListingIdGenerator(), feeLedger), new DefaultAuthenticationService(), new LazyAuctionCloseScheduler(), listingRegistry,
+                    writeAheadLog);
+            snapshots = new AuctionSnapshots(snapshotDirectory, service, writeAheadLog, timeService, 2);
+        }
+
+        private String[] login() throws AuctionServiceException {
+            String[] tokens = new String[USERS.length];
+            for (int i = 0; i < USERS.length; i++) {
+                tokens[i] = service.login(USERS[i], PASSWORDS[i]);
+            }
+            return tokens;
+        }
+
+        private void close() throws IOException {
+            writeAheadLog.close();
+        }
+    }
+}
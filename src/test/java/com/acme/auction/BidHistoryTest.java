@@ -0,0 +1,41 @@
+package com.acme.auction;
+
+import com.acme.auctionclient.BidRecord;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the compact append-only bid history.
+ */
+public class BidHistoryTest {
+
+    @Test
+    public void testPagedReadsAcrossGrowth() {
+        BidHistory bidHistory = new BidHistory();
+        for (int i = 0; i < 1000; i++) {
+            bidHistory.append("bidder" + (i % 3), 100 + i, 5000 + i);
+        }
+        assertEquals(1000, bidHistory.size());
+
+        List<BidRecord> page = bidHistory.getBids(990, 20);
+        assertEquals(10, page.size());
+        assertEquals("bidder0", page.get(0).getBidder());
+        assertEquals(1090L, page.get(0).getBidAmountCents());
+        assertEquals(5990L, page.get(0).getBidTimeMillis());
+        assertEquals("bidder1", page.get(1).getBidder());
+        assertEquals("bidder0", page.get(9).getBidder());
+        assertEquals(1099L, page.get(9).getBidAmountCents());
+
+        assertTrue(bidHistory.getBids(1000, 20).isEmpty());
+        assertEquals(3, bidHistory.getBids(0, 3).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeOffsetIsRejected() {
+        new BidHistory().getBids(-1, 10);
+    }
+}
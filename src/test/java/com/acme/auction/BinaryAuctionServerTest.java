@@ -0,0 +1,345 @@
+package com.acme.auction;
+
+import com.acme.atddharness.User;
+import com.acme.auctionclient.AuctionService;
+import com.acme.auctionclient.AuctionServiceException;
+import com.acme.auctionclient.BatchBid;
+import com.acme.auctionclient.BidRecord;
+import com.acme.auctionclient.BinaryAuctionClient;
+import com.acme.auctionclient.BinaryProtocol;
+import com.acme.auctionclient.FeeType;
+import com.acme.auctionclient.InvoiceCursor;
+import com.acme.auctionclient.InvoiceLine;
+import com.acme.auctionclient.Money;
+import com.acme.auctionclient.OperationOutcome;
+import com.acme.auctionclient.OperationStatus;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests the binary protocol server and client over loopback.
+ */
+public class BinaryAuctionServerTest {
+    private static final long SIX_DAYS_OF_MILLIS = 60L * 60 * 24 * 1000 * 6;
+
+    private AuctionService auctionService;
+    private AdjustableTimeService adjustableTimeService;
+    private BinaryAuctionServer server;
+    private InetSocketAddress serverAddress;
+    private BinaryAuctionClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        Injector injector = Guice.createInjector(new AuctionModule(true),
+                new BinaryAuctionServerModule(new InetSocketAddress("127.0.0.1", 0), 2));
+        auctionService = injector.getInstance(AuctionService.class);
+        adjustableTimeService = injector.getInstance(AdjustableTimeService.class);
+        server = injector.getInstance(BinaryAuctionServer.class);
+        server.start();
+        serverAddress = new InetSocketAddress("127.0.0.1", server.getLocalPort());
+        client = new BinaryAuctionClient(serverAddress);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        client.close();
+        server.shutdown();
+    }
+
+    @Test
+    public void testAuctionOverLoopback() throws AuctionServiceException {
+        String fredToken = login(User.SELLER_FRED);
+        String sallyToken = login(User.BUYER_SALLY);
+        String georgeToken = login(User.BUYER_GEORGE);
+
+        String listingId = client.createListing(fredToken, new BigDecimal("100.00"), null, 5);
+        client.bid(sallyToken, listingId, new BigDecimal("101.00"));
+        client.proxyBid(georgeToken, listingId, 15000L);
+        assertEquals(OperationOutcome.of(OperationStatus.OUTBID, 10100L + DefaultAuctionListingFactory.BID_INCREMENT_CENTS),
+                client.tryBid(sallyToken, listingId, 10100L));
+        OperationStatus[] outcomes = client.bidBatch(Arrays.asList(
+                new BatchBid(sallyToken, listingId, 20000L),
+                new BatchBid(fredToken, listingId, 30000L),
+                new BatchBid("badAuthId", listingId, 30000L)));
+        assertArrayEquals(new OperationStatus[]{OperationStatus.ACCEPTED, OperationStatus.SELF_BID,
+                OperationStatus.BAD_TOKEN}, outcomes);
+
+        List<BidRecord> bidHistory = client.fetchBidHistory(sallyToken, listingId, 0, 10);
+        assertEquals(auctionService.fetchBidHistory(sallyToken, listingId, 0, 10).size(), bidHistory.size());
+        assertEquals(User.BUYER_SALLY.getUsername(), bidHistory.get(0).getBidder());
+        assertEquals(10100L, bidHistory.get(0).getBidAmountCents());
+
+        adjustableTimeService.incrementTimeOffset(SIX_DAYS_OF_MILLIS);
+        List<InvoiceLine> sallyInvoices = client.fetchInvoices(sallyToken, listingId);
+        assertEquals(auctionService.fetchInvoices(sallyToken, listingId).toString(), sallyInvoices.toString());
+        assertEquals(FeeType.PURCHASE_FEE, sallyInvoices.get(0).getFeeType());
+        assertEquals(20000L, sallyInvoices.get(0).getAmountCents());
+        assertEquals(OperationStatus.NO_BUY_IT_NOW, client.tryBuyItNow(georgeToken, listingId).getStatus());
+    }
+
+    @Test
+    public void testRejectionsCarryServerMessage() throws AuctionServiceException {
+        String fredToken = login(User.SELLER_FRED);
+        String listingId = client.createListing(fredToken, 500L, Money.NO_AMOUNT_CENTS, 3);
+
+        assertRejected(fredToken, listingId, "Purchasing on your own listings is not allowed");
+        assertRejected("badAuthId", listingId, "Unrecognized auth token");
+        assertRejected(fredToken, "noSuchListing", "invalid listing id");
+        try {
+            client.login(User.SELLER_FRED.getUsername(), "wrongPassword");
+            fail("Expected login to be rejected");
+        } catch (AuctionServiceException ex) {
+            assertEquals("Invalid user/pass combination", ex.getMessage());
+        }
+        //The connection is still usable after the rejections.
+        assertEquals(OperationStatus.BAD_TOKEN, client.tryCreateListing("badAuthId", 500L, 900L, 3).getStatus());
+        assertTrue(client.tryCreateListing(fredToken, 500L, 900L, 3).isAccepted());
+    }
+
+    @Test
+    public void testUserInvoicesSpanSeveralFrames() throws AuctionServiceException {
+        String fredToken = login(User.SELLER_FRED);
+        int listingCount = 5000;
+        for (int i = 0; i < listingCount; i++) {
+            auctionService.createListing(fredToken, 100L, Money.NO_AMOUNT_CENTS, 1);
+        }
+        adjustableTimeService.incrementTimeOffset(SIX_DAYS_OF_MILLIS);
+
+        InvoiceCursor cursor = client.fetchUserInvoices(fredToken);
+        int count = 0;
+        while (cursor.hasNext()) {
+            assertEquals(FeeType.LISTING_FEE, cursor.next().getFeeType());
+            count++;
+        }
+        assertEquals(listingCount, count);
+    }
+
+    @Test
+    public void testUserInvoicePagesResumeWhereTheyEnded() throws AuctionServiceException {
+        String sallyToken = login(User.BUYER_SALLY);
+        String georgeToken = login(User.BUYER_GEORGE);
+        int ownedCount = 10;
+        int wonCount = 5000;
+        for (int i = 0; i < ownedCount; i++) {
+            auctionService.createListing(sallyToken, 100L, Money.NO_AMOUNT_CENTS, 1);
+        }
+        for (int i = 0; i < wonCount; i++) {
+            auctionService.bid(sallyToken, auctionService.createListing(georgeToken, 100L, Money.NO_AMOUNT_CENTS, 1),
+                    200L);
+        }
+        adjustableTimeService.incrementTimeOffset(SIX_DAYS_OF_MILLIS);
+
+        InvoiceCursor cursor = client.fetchUserInvoices(sallyToken);
+        Set<String> lines = new HashSet<String>();
+        assertTrue(lines.add(cursor.next().toString()));
+        //Listings owned by the user are walked first, new ones must not shift the pages of won listings.
+        for (int i = 0; i < 10; i++) {
+            auctionService.createListing(sallyToken, 100L, Money.NO_AMOUNT_CENTS, 1);
+        }
+        int purchaseCount = 0;
+        while (cursor.hasNext()) {
+            InvoiceLine line = cursor.next();
+            assertTrue(line.toString(), lines.add(line.toString()));
+            if (line.getFeeType() == FeeType.PURCHASE_FEE) purchaseCount++;
+        }
+        assertEquals(wonCount, purchaseCount);
+        assertTrue(lines.size() >= ownedCount + wonCount);
+    }
+
+    @Test
+    public void testManyConcurrentConnections() throws Exception {
+        String fredToken = login(User.SELLER_FRED);
+        String listingId = client.createListing(fredToken, 100L, Money.NO_AMOUNT_CENTS, 5);
+
+        List<BinaryAuctionClient> clients = new ArrayList<BinaryAuctionClient>();
+        try {
+            for (int i = 0; i < 500; i++) {
+                BinaryAuctionClient bidder = new BinaryAuctionClient(serverAddress);
+                clients.add(bidder);
+                String token = bidder.login(User.BUYER_SALLY.getUsername(), User.BUYER_SALLY.getPassword());
+                assertTrue(bidder.tryBid(token, listingId, 200L + i).isAccepted());
+            }
+            assertEquals(501, server.getConnectionCount());
+        } finally {
+            for (BinaryAuctionClient bidder : clients) {
+                bidder.close();
+            }
+        }
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (server.getConnectionCount() > 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, server.getConnectionCount());
+    }
+
+    @Test
+    public void testPipelinedFramesArrivingInPieces() throws Exception {
+        ByteBuffer requests = ByteBuffer.allocate(256);
+        for (int i = 0; i < 2; i++) {
+            int lengthPosition = requests.position();
+            requests.putInt(0);
+            requests.put(BinaryProtocol.LOGIN);
+            BinaryProtocol.putString(requests, User.BUYER_GEORGE.getUsername());
+            BinaryProtocol.putString(requests, User.BUYER_GEORGE.getPassword());
+            requests.putInt(lengthPosition, requests.position() - lengthPosition - 4);
+        }
+        requests.flip();
+
+        SocketChannel channel = SocketChannel.open(serverAddress);
+        try {
+            channel.socket().setTcpNoDelay(true);
+            ByteBuffer piece = ByteBuffer.allocate(3);
+            while (requests.hasRemaining()) {
+                piece.clear();
+                while (piece.hasRemaining() && requests.hasRemaining()) {
+                    piece.put(requests.get());
+                }
+                piece.flip();
+                channel.write(piece);
+                Thread.sleep(1);
+            }
+
+            ByteBuffer response = ByteBuffer.allocate(BinaryProtocol.BUFFER_SIZE);
+            for (int i = 0; i < 2; i++) {
+                response.clear();
+                response.limit(4);
+                readFully(channel, response);
+                response.limit(4 + response.getInt(0));
+                readFully(channel, response);
+                response.position(4);
+                assertEquals(BinaryProtocol.OK, response.get());
+                assertNotNull(BinaryProtocol.getString(response));
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    @Test
+    public void testOversizedFrameClosesConnection() throws Exception {
+        SocketChannel channel = SocketChannel.open(serverAddress);
+        try {
+            ByteBuffer frame = ByteBuffer.allocate(8);
+            frame.putInt(BinaryProtocol.MAX_FRAME_SIZE + 1);
+            frame.putInt(0);
+            frame.flip();
+            channel.write(frame);
+            assertEquals(-1, channel.read(ByteBuffer.allocate(8)));
+        } finally {
+            channel.close();
+        }
+    }
+
+    @Test
+    public void testBatchCountLargerThanTheFrameFailsTheRequest() throws Exception {
+        SocketChannel channel = SocketChannel.open(serverAddress);
+        try {
+            ByteBuffer frame = ByteBuffer.allocate(9);
+            frame.putInt(5);
+            frame.put(BinaryProtocol.BID_BATCH);
+            frame.putInt(Integer.MAX_VALUE);
+            frame.flip();
+            channel.write(frame);
+
+            ByteBuffer response = ByteBuffer.allocate(BinaryProtocol.BUFFER_SIZE);
+            response.limit(4);
+            readFully(channel, response);
+            response.limit(4 + response.getInt(0));
+            readFully(channel, response);
+            response.position(4);
+            assertEquals(BinaryProtocol.FAILED, response.get());
+        } finally {
+            channel.close();
+        }
+        //The selector threads are still serving.
+        assertNotNull(login(User.BUYER_GEORGE));
+    }
+
+    @Test(timeout = 10000)
+    public void testBlockedServiceCallHoldsUpOnlyItsConnection() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        AuctionService blockingService = mock(AuctionService.class);
+        when(blockingService.login(eq("slow"), anyString())).thenAnswer(new Answer<String>() {
+            public String answer(InvocationOnMock invocation) throws InterruptedException {
+                release.await();
+                return "slow-token";
+            }
+        });
+        when(blockingService.login("fast", "")).thenReturn("fast-token");
+        BinaryAuctionServer singleSelectorServer = new BinaryAuctionServer(blockingService,
+                new InetSocketAddress("127.0.0.1", 0), 1);
+        singleSelectorServer.start();
+        InetSocketAddress address = new InetSocketAddress("127.0.0.1", singleSelectorServer.getLocalPort());
+        SocketChannel slowChannel = SocketChannel.open(address);
+        BinaryAuctionClient fastClient = new BinaryAuctionClient(address);
+        try {
+            ByteBuffer request = ByteBuffer.allocate(64);
+            request.putInt(0);
+            request.put(BinaryProtocol.LOGIN);
+            BinaryProtocol.putString(request, "slow");
+            BinaryProtocol.putString(request, "");
+            request.putInt(0, request.position() - 4);
+            request.flip();
+            slowChannel.write(request);
+
+            assertEquals("fast-token", fastClient.login("fast", ""));
+
+            release.countDown();
+            ByteBuffer response = ByteBuffer.allocate(BinaryProtocol.BUFFER_SIZE);
+            response.limit(4);
+            readFully(slowChannel, response);
+            response.limit(4 + response.getInt(0));
+            readFully(slowChannel, response);
+            response.position(4);
+            assertEquals(BinaryProtocol.OK, response.get());
+            assertEquals("slow-token", BinaryProtocol.getString(response));
+        } finally {
+            release.countDown();
+            fastClient.close();
+            slowChannel.close();
+            singleSelectorServer.shutdown();
+        }
+    }
+
+    private static void readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                fail("Connection closed by the server");
+            }
+        }
+    }
+
+    private void assertRejected(String authToken, String listingId, String expectedMessage) {
+        try {
+            client.bid(authToken, listingId, 600L);
+            fail("Expected bid to be rejected with " + expectedMessage);
+        } catch (AuctionServiceException ex) {
+            assertEquals(expectedMessage, ex.getMessage());
+        }
+    }
+
+    private String login(User user) throws AuctionServiceException {
+        return client.login(user.getUsername(), user.getPassword());
+    }
+}
@@ -0,0 +1,44 @@
+package com.acme.auction;
+
+import com.google.inject.Guice;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the clocks shared by cached time services.
+ */
+public class CachedTimeServiceTest {
+
+    @Test
+    public void testInstancesShareAClockUntilAllAreShutDown() throws Exception {
+        int clockCount = CachedTimeService.getClockCount();
+        CachedTimeService first = new CachedTimeService(3);
+        CachedTimeService second = new CachedTimeService(3);
+        assertEquals(clockCount + 1, CachedTimeService.getClockCount());
+
+        first.shutdown();
+        first.shutdown();
+        assertEquals(clockCount + 1, CachedTimeService.getClockCount());
+        long startMillis = second.currentTimeMillis();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (second.currentTimeMillis() == startMillis && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(second.currentTimeMillis() > startMillis);
+
+        second.shutdown();
+        assertEquals(clockCount, CachedTimeService.getClockCount());
+    }
+
+    @Test
+    public void testInjectorsAddNoClock() {
+        Guice.createInjector(new AuctionModule(false)).getInstance(TimeService.class);
+        int clockCount = CachedTimeService.getClockCount();
+        for (int i = 0; i < 10; i++) {
+            Guice.createInjector(new AuctionModule(false)).getInstance(TimeService.class);
+        }
+        assertEquals(clockCount, CachedTimeService.getClockCount());
+    }
+}
@@ -0,0 +1,102 @@
+package com.acme.auction;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the primitive long keyed concurrent map behind the listing registry.
+ */
+public class ConcurrentLongObjectMapTest {
+    @Test
+    public void testPutGetRemove() {
+        ConcurrentLongObjectMap<String> map = new ConcurrentLongObjectMap<String>(4, 4);
+        assertNull(map.put(7, "seven"));
+        assertEquals("seven", map.put(7, "SEVEN"));
+        assertEquals("SEVEN", map.putIfAbsent(7, "ignored"));
+        assertEquals("SEVEN", map.get(7));
+        assertNull(map.get(8));
+
+        assertEquals("SEVEN", map.remove(7));
+        assertNull(map.remove(7));
+        assertNull(map.get(7));
+        assertEquals(0, map.size());
+
+        assertNull(map.putIfAbsent(7, "again"));
+        assertEquals("again", map.get(7));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void testGrowsAndDropsTombstones() {
+        ConcurrentLongObjectMap<Long> map = new ConcurrentLongObjectMap<Long>(2, 2);
+        for (long key = 1; key <= 100000; key++) {
+            map.put(key, key);
+        }
+        for (long key = 1; key <= 100000; key += 2) {
+            map.remove(key);
+        }
+        //Churn through tombstoned tables many times over.
+        for (long key = 100001; key <= 300000; key++) {
+            map.put(key, key);
+            map.remove(key);
+        }
+        assertEquals(50000, map.size());
+        for (long key = 1; key <= 100000; key++) {
+            assertEquals(key % 2 == 0 ? Long.valueOf(key) : null, map.get(key));
+        }
+        assertEquals(50000, map.values().size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyKeyIsRejected() {
+        new ConcurrentLongObjectMap<String>().put(ConcurrentLongObjectMap.EMPTY_KEY, "zero");
+    }
+
+    @Test
+    public void testEmptyKeyIsNeverFound() {
+        ConcurrentLongObjectMap<Long> map = new ConcurrentLongObjectMap<Long>(1, 16);
+        for (long key = 1; key <= 100; key++) {
+            map.put(key, key);
+        }
+        assertNull(map.get(ConcurrentLongObjectMap.EMPTY_KEY));
+        assertFalse(map.containsKey(ConcurrentLongObjectMap.EMPTY_KEY));
+    }
+
+    @Test
+    public void testReadersSeeEveryCompletedWriteWhileWritersResize() throws Exception {
+        final ConcurrentLongObjectMap<Long> map = new ConcurrentLongObjectMap<Long>(4, 16);
+        final int keysPerWriter = 50000;
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+        for (int w = 0; w < 4; w++) {
+            final long firstKey = 1 + (long) w * keysPerWriter;
+            futures.add(executor.submit(new Callable<Boolean>() {
+                public Boolean call() {
+                    for (long key = firstKey; key < firstKey + keysPerWriter; key++) {
+                        map.put(key, key);
+                        //Own writes and the previous key must be visible at once.
+                        if (!Long.valueOf(key).equals(map.get(key))) return false;
+                        if (key > firstKey && map.get(key - 1) == null) return false;
+                    }
+                    return true;
+                }
+            }));
+        }
+        for (Future<Boolean> future : futures) {
+            assertTrue(future.get());
+        }
+        executor.shutdown();
+        assertEquals(4 * keysPerWriter, map.size());
+    }
+}
@@ -0,0 +1,129 @@
+package com.acme.auction;
+
+import com.acme.atddharness.User;
+import com.acme.auctionclient.AuctionService;
+import com.acme.auctionclient.AuctionServiceException;
+import com.acme.auctionclient.FeeType;
+import com.acme.auctionclient.InvoiceLine;
+import com.acme.auctionclient.Money;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that the fee ledger reconciles with the invoices of every listing.
+ */
+public class FeeLedgerTest {
+    private static final long SIX_DAYS_OF_MILLIS = 60L * 60 * 24 * 1000 * 6;
+    private static final User[] USERS = {User.SELLER_FRED, User.BUYER_SALLY, User.BUYER_GEORGE};
+
+    private AuctionService auctionService;
+    private AdjustableTimeService adjustableTimeService;
+    private FeeLedger feeLedger;
+
+    @Before
+    public void setUp() {
+        Injector injector = Guice.createInjector(new AuctionModule(true));
+        auctionService = injector.getInstance(AuctionService.class);
+        adjustableTimeService = injector.getInstance(AdjustableTimeService.class);
+        feeLedger = injector.getInstance(FeeLedger.class);
+    }
+
+    @Test
+    public void testFeesArePostedAsListingsAreCreatedAndClosed() throws AuctionServiceException {
+        String fredToken = login(User.SELLER_FRED);
+        String sallyToken = login(User.BUYER_SALLY);
+        String plainListingId = auctionService.createListing(fredToken, 1000L, Money.NO_AMOUNT_CENTS, 3);
+        String buyItNowListingId = auctionService.createListing(fredToken, 1000L, 5000L, 3);
+        assertEquals(500L + 500L + 225L, feeLedger.getBalanceCents(User.SELLER_FRED.getUsername()));
+        assertEquals(225L, feeLedger.getTotalCents(User.SELLER_FRED.getUsername(), FeeType.BUY_IT_NOW_FEE));
+
+        auctionService.buyItNow(sallyToken, buyItNowListingId);
+        assertEquals(5000L, feeLedger.getBalanceCents(User.BUYER_SALLY.getUsername()));
+
+        auctionService.bid(sallyToken, plainListingId, 1200L);
+        assertEquals(5000L, feeLedger.getBalanceCents(User.BUYER_SALLY.getUsername()));
+        adjustableTimeService.incrementTimeOffset(SIX_DAYS_OF_MILLIS);
+        auctionService.fetchInvoices(sallyToken, plainListingId);
+        auctionService.fetchInvoices(sallyToken, plainListingId);
+        assertEquals(6200L, feeLedger.getTotalCents(User.BUYER_SALLY.getUsername(), FeeType.PURCHASE_FEE));
+        assertEquals(5, feeLedger.getEntryCount());
+    }
+
+    @Test
+    public void testLedgerReconcilesWithInvoices() throws Exception {
+        final String[] tokens = new String[USERS.length];
+        for (int i = 0; i < USERS.length; i++) {
+            tokens[i] = login(USERS[i]);
+        }
+        final List<String> listingIds = new ArrayList<String>();
+        for (int i = 0; i < 60; i++) {
+            //Sally lists too, so she both owes fees and wins listings.
+            String ownerToken = i % 4 == 0 ? tokens[1] : tokens[0];
+            listingIds.add(auctionService.createListing(ownerToken, 100L, i % 3 == 0 ? 2000L : Money.NO_AMOUNT_CENTS,
+                    1 + i % 5));
+        }
+
+        List<Thread> bidders = new ArrayList<Thread>();
+        for (int t = 0; t < 2; t++) {
+            final String token = tokens[1 + t];
+            final int parity = t;
+            Thread bidder = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < listingIds.size(); i++) {
+                        String listingId = listingIds.get(i);
+                        try {
+                            if (i % 7 == parity) {
+                                auctionService.buyItNow(token, listingId);
+                            } else {
+                                auctionService.bid(token, listingId, 150L + 10 * i + parity);
+                            }
+                        } catch (AuctionServiceException e) {
+                            //Only purchases on their own listings or without a buy it now price may be refused.
+                            if (!e.getMessage().contains("own listings") && !e.getMessage().contains("no buy it now")) {
+                                throw new IllegalStateException(e);
+                            }
+                        }
+                    }
+                }
+            });
+            bidders.add(bidder);
+        }
+        for (Thread bidder : bidders) {
+            bidder.start();
+        }
+        for (Thread bidder : bidders) {
+            bidder.join();
+        }
+        adjustableTimeService.incrementTimeOffset(SIX_DAYS_OF_MILLIS);
+
+        long invoiceLineCount = 0;
+        for (int u = 0; u < USERS.length; u++) {
+            long[] invoicedCents = new long[FeeType.values().length];
+            for (String listingId : listingIds) {
+                for (InvoiceLine invoiceLine : auctionService.fetchInvoices(tokens[u], listingId)) {
+                    invoicedCents[invoiceLine.getFeeType().ordinal()] += invoiceLine.getAmountCents();
+                    invoiceLineCount++;
+                }
+            }
+            long totalCents = 0;
+            for (FeeType feeType : FeeType.values()) {
+                assertEquals(invoicedCents[feeType.ordinal()],
+                        feeLedger.getTotalCents(USERS[u].getUsername(), feeType));
+                totalCents += invoicedCents[feeType.ordinal()];
+            }
+            assertEquals(totalCents, feeLedger.getBalanceCents(USERS[u].getUsername()));
+        }
+        assertEquals(invoiceLineCount, feeLedger.getEntryCount());
+    }
+
+    private String login(User user) throws AuctionServiceException {
+        return auctionService.login(user.getUsername(), user.getPassword());
+    }
+}
@@ -0,0 +1,292 @@
+package com.acme.auction;
+
+import com.acme.atddharness.User;
+import com.acme.auctionclient.AuctionService;
+import com.acme.auctionclient.FeeType;
+import com.acme.auctionclient.InvoiceLine;
+import com.acme.auctionclient.Money;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the HTTP/JSON gateway over loopback, and its JSON codec.
+ */
+public class HttpAuctionGatewayTest {
+    private static final long SIX_DAYS_OF_MILLIS = 60L * 60 * 24 * 1000 * 6;
+
+    private AdjustableTimeService adjustableTimeService;
+    private HttpAuctionGateway gateway;
+    private String baseUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        Injector injector = Guice.createInjector(new AuctionModule(true),
+                new HttpAuctionGatewayModule(new InetSocketAddress("127.0.0.1", 0), 1000, 30));
+        adjustableTimeService = injector.getInstance(AdjustableTimeService.class);
+        gateway = injector.getInstance(HttpAuctionGateway.class);
+        gateway.start();
+        baseUrl = "http://127.0.0.1:" + gateway.getLocalPort();
+        assertNotNull(injector.getInstance(AuctionService.class));
+    }
+
+    @After
+    public void tearDown() {
+        gateway.shutdown();
+    }
+
+    @Test
+    public void testAuctionOverHttp() throws IOException {
+        String fredToken = login(User.SELLER_FRED);
+        String sallyToken = login(User.BUYER_SALLY);
+        String georgeToken = login(User.BUYER_GEORGE);
+
+        Response created = request("POST", "/listings", fredToken,
+                "{\"startingPrice\": 100.00, \"buyItNowPrice\": null, \"auctionLength\": 5}");
+        assertEquals(201, created.status);
+        String listingId = field(created, "listingId");
+
+        assertEquals(204, request("POST", "/listings/" + listingId + "/bids", sallyToken, "{\"amount\": 101.5}").status);
+        assertEquals(204, request("POST", "/listings/" + listingId + "/bids", georgeToken, "{\"note\":{\"skipped\":[1,true]},\"amount\":120}").status);
+        adjustableTimeService.incrementTimeOffset(SIX_DAYS_OF_MILLIS);
+
+        Response invoices = request("GET", "/listings/" + listingId + "/invoices", georgeToken, null);
+        assertEquals(200, invoices.status);
+        assertEquals("[{\"auctionId\":\"" + listingId + "\",\"feeType\":\"PURCHASE_FEE\",\"amount\":120.00}]", invoices.body);
+
+        Response buyItNowListing = request("POST", "/listings", fredToken,
+                "{\"startingPrice\": 10, \"buyItNowPrice\": 25.00, \"auctionLength\": 5}");
+        String buyItNowListingId = field(buyItNowListing, "listingId");
+        assertEquals(204, request("POST", "/listings/" + buyItNowListingId + "/buy-it-now", sallyToken, null).status);
+        Response fredInvoices = request("GET", "/listings/" + buyItNowListingId + "/invoices", fredToken, null);
+        JsonReader reader = new JsonReader(fredInvoices.body.getBytes("UTF-8"), fredInvoices.body.getBytes("UTF-8").length);
+        reader.beginArray();
+        int count = 0;
+        while (reader.hasNext()) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("feeType")) {
+                    assertNotNull(FeeType.valueOf(reader.nextString()));
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            count++;
+        }
+        reader.endArray();
+        assertEquals(2, count);
+    }
+
+    @Test
+    public void testRejectionsMapToStatusCodes() throws IOException {
+        String fredToken = login(User.SELLER_FRED);
+        String listingId = field(request("POST", "/listings", fredToken,
+                "{\"startingPrice\": 5.00, \"auctionLength\": 3}"), "listingId");
+
+        assertError(request("POST", "/listings/" + listingId + "/bids", "badAuthId", "{\"amount\": 6}"),
+                401, "Unrecognized auth token");
+        assertError(request("POST", "/listings/" + listingId + "/bids", null, "{\"amount\": 6}"),
+                401, "Unrecognized auth token");
+        assertError(request("POST", "/listings/noSuchListing/bids", fredToken, "{\"amount\": 6}"),
+                404, "invalid listing id");
+        assertError(request("POST", "/listings/" + listingId + "/bids", fredToken, "{\"amount\": 6}"),
+                400, "Purchasing on your own listings is not allowed");
+        assertEquals(400, request("POST", "/listings/" + listingId + "/bids", fredToken, "{\"amount\": 6.001}").status);
+        assertEquals(400, request("POST", "/listings", fredToken, "{\"startingPrice\": 5.00").status);
+        assertEquals(400, request("POST", "/login", null,
+                "{\"username\":\"" + User.SELLER_FRED.getUsername() + "\",\"password\":\"wrong\"}").status);
+        assertEquals(405, request("GET", "/listings/" + listingId + "/bids", fredToken, null).status);
+        assertEquals(404, request("GET", "/nothing", fredToken, null).status);
+        assertError(request("POST", "/logout", "badAuthId", null), 401, "Unrecognized auth token");
+    }
+
+    @Test
+    public void testRequestBodyMayFillTheLimit() throws IOException {
+        String fredToken = login(User.SELLER_FRED);
+        String sallyToken = login(User.BUYER_SALLY);
+        String listingId = field(request("POST", "/listings", fredToken,
+                "{\"startingPrice\": 5.00, \"auctionLength\": 3}"), "listingId");
+        String bid = "{\"amount\": 6}";
+
+        assertEquals(204, request("POST", "/listings/" + listingId + "/bids", sallyToken,
+                padded(bid, HttpAuctionGateway.MAX_REQUEST_BODY_SIZE)).status);
+        assertError(request("POST", "/listings/" + listingId + "/bids", sallyToken,
+                padded(bid, HttpAuctionGateway.MAX_REQUEST_BODY_SIZE + 1)), 400, "Request body too large");
+    }
+
+    @Test
+    public void testConcurrentKeepAliveClients() throws Exception {
+        final String fredToken = login(User.SELLER_FRED);
+        final String sallyToken = login(User.BUYER_SALLY);
+        final String listingId = field(request("POST", "/listings", fredToken,
+                "{\"startingPrice\": 1.00, \"auctionLength\": 5}"), "listingId");
+
+        final int clientCount = 100;
+        final int requestsPerClient = 10;
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        final AtomicInteger accepted = new AtomicInteger();
+        List<Thread> clients = new ArrayList<Thread>();
+        for (int i = 0; i < clientCount; i++) {
+            final int client = i;
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        startSignal.await();
+                        for (int j = 0; j < requestsPerClient; j++) {
+                            long cents = 200 + client * requestsPerClient + j;
+                            if (request("POST", "/listings/" + listingId + "/bids", sallyToken,
+                                    "{\"amount\": " + Money.toString(cents) + "}").status == 204) {
+                                accepted.incrementAndGet();
+                            }
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            thread.start();
+            clients.add(thread);
+        }
+        startSignal.countDown();
+        for (Thread thread : clients) {
+            thread.join();
+        }
+
+        assertEquals(clientCount * requestsPerClient, accepted.get());
+        adjustableTimeService.incrementTimeOffset(SIX_DAYS_OF_MILLIS);
+        Response invoices = request("GET", "/listings/" + listingId + "/invoices", sallyToken, null);
+        assertTrue(invoices.body, invoices.body.contains("\"amount\":" + Money.toString(200 + clientCount * requestsPerClient - 1)));
+    }
+
+    @Test
+    public void testJsonCodec() throws IOException {
+        String text = "quote\" backslash\\ tab\t \u00e9\u20ac\ud83d\ude00 \u0001";
+        JsonWriter writer = new JsonWriter(4).beginObject()
+                .name("text").value(text)
+                .name("amounts").beginArray().centsValue(0).centsValue(5).centsValue(123456).centsValue(-150)
+                .centsValue(Money.NO_AMOUNT_CENTS).endArray()
+                .name("line").invoiceLine(new InvoiceLine("id", FeeType.LISTING_FEE, 500L))
+                .name("count").value(-42)
+                .endObject();
+        String json = new String(writer.toByteArray(), "UTF-8");
+        assertEquals("{\"text\":\"quote\\\" backslash\\\\ tab\\u0009 \u00e9\u20ac\ud83d\ude00 \\u0001\","
+                + "\"amounts\":[0.00,0.05,1234.56,-1.50,null],"
+                + "\"line\":{\"auctionId\":\"id\",\"feeType\":\"LISTING_FEE\",\"amount\":5.00},\"count\":-42}", json);
+
+        JsonReader reader = new JsonReader(writer.bytes(), writer.length());
+        reader.beginObject();
+        assertEquals("text", reader.nextName());
+        assertEquals(text, reader.nextString());
+        assertTrue(reader.hasNext());
+        assertEquals("amounts", reader.nextName());
+        reader.beginArray();
+        long[] expectedCents = {0, 5, 123456, -150, Money.NO_AMOUNT_CENTS};
+        for (long cents : expectedCents) {
+            assertTrue(reader.hasNext());
+            assertEquals(cents, reader.nextCents());
+        }
+        assertFalse(reader.hasNext());
+        reader.endArray();
+        assertTrue(reader.hasNext());
+        assertEquals("line", reader.nextName());
+        reader.skipValue();
+        assertTrue(reader.hasNext());
+        assertEquals("count", reader.nextName());
+        assertEquals(-42, reader.nextInt());
+        assertFalse(reader.hasNext());
+        reader.endObject();
+        reader.endDocument();
+
+        byte[] escaped = "\"\\u00e9\\n\\/\"".getBytes("UTF-8");
+        assertEquals("\u00e9\n/", new JsonReader(escaped, escaped.length).nextString());
+        byte[] amount = " 7.5 ".getBytes("UTF-8");
+        assertEquals(750L, new JsonReader(amount, amount.length).nextCents());
+    }
+
+    private String login(User user) throws IOException {
+        Response response = request("POST", "/login", null,
+                "{\"username\":\"" + user.getUsername() + "\",\"password\":\"" + user.getPassword() + "\"}");
+        assertEquals(response.body, 200, response.status);
+        return field(response, "authToken");
+    }
+
+    private static String field(Response response, String name) throws IOException {
+        byte[] bytes = response.body.getBytes("UTF-8");
+        JsonReader reader = new JsonReader(bytes, bytes.length);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals(name)) {
+                return reader.nextString();
+            }
+            reader.skipValue();
+        }
+        fail("No " + name + " in " + response.body);
+        return null;
+    }
+
+    private static String padded(String body, int length) {
+        StringBuilder padded = new StringBuilder(length);
+        while (padded.length() < length - body.length()) {
+            padded.append(' ');
+        }
+        return padded.append(body).toString();
+    }
+
+    private static void assertError(Response response, int status, String message) throws IOException {
+        assertEquals(response.body, status, response.status);
+        assertEquals(message, field(response, "error"));
+    }
+
+    private Response request(String method, String path, String authToken, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setRequestMethod(method);
+        if (authToken != null) {
+            connection.setRequestProperty("Authorization", "Bearer " + authToken);
+        }
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            OutputStream output = connection.getOutputStream();
+            output.write(body.getBytes("UTF-8"));
+            output.close();
+        }
+
+        Response response = new Response();
+        response.status = connection.getResponseCode();
+        InputStream input = response.status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        if (input != null) {
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = input.read(buffer)) >= 0) {
+                bytes.write(buffer, 0, read);
+            }
+            //Reading to the end and closing hands the connection back for keep-alive.
+            input.close();
+        }
+        response.body = bytes.toString("UTF-8");
+        return response;
+    }
+
+    private static final class Response {
+        private int status;
+        private String body;
+    }
+}
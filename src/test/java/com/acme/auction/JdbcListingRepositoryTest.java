@@ -0,0 +1,266 @@
+package com.acme.auction;
+
+import com.acme.auctionclient.AuctionServiceException;
+import com.acme.auctionclient.FeeType;
+import com.acme.auctionclient.InvoiceCursor;
+import com.acme.auctionclient.InvoiceLine;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests storing listings in an embedded H2 database.
+ */
+public class JdbcListingRepositoryTest {
+    private static final long DAY_MILLIS = 60 * 60 * 24 * 1000L;
+    private static final String[] USERS = {"fred.seller@acme.com", "sally.buyer@acme.com", "george.buyer@acme.com"};
+    private static final String[] PASSWORDS = {"sellingIsFun", "gotToBuy", "sallyIsAnnoying"};
+    private static int databaseCount;
+
+    private final TimeService timeService = mock(TimeService.class);
+    private JdbcDataSource dataSource;
+    private Connection keepAlive;
+
+    @Before
+    public void setUp() throws SQLException {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:listings" + (databaseCount++));
+        //An in-memory H2 database lives as long as a connection to it is open.
+        keepAlive = dataSource.getConnection();
+        when(timeService.currentTimeMillis()).thenReturn(1000L);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        keepAlive.close();
+    }
+
+    @Test
+    public void testChangesToOneListingAreCoalesced() throws Exception {
+        JdbcListingRepository repository = new JdbcListingRepository(dataSource, timeService, 0, false);
+        DefaultAuctionService service = newService(repository);
+        String[] tokens = login(service);
+        String listingId = service.createListing(tokens[0], 100L, -1L, 3);
+        for (int i = 1; i <= 20; i++) {
+            service.bid(tokens[1 + i % 2], listingId, 100L + i);
+        }
+
+        repository.flush();
+        assertEquals(1, repository.getWriteCount());
+        assertEquals(1, repository.getListingRowCount());
+        assertEquals(20, repository.getBidRowCount());
+        assertEquals(1, count("SELECT COUNT(*) FROM auction_listing"));
+        assertEquals(20, count("SELECT COUNT(*) FROM auction_bid"));
+
+        service.bid(tokens[1], listingId, 500L);
+        repository.flush();
+        assertEquals(2, repository.getListingRowCount());
+        assertEquals(21, count("SELECT COUNT(*) FROM auction_bid"));
+        assertEquals(500L, count("SELECT current_bid_cents FROM auction_listing"));
+
+        repository.flush();
+        assertEquals(2, repository.getWriteCount());
+        repository.close();
+    }
+
+    @Test
+    public void testColdServiceReadsListingsBackWithIdenticalInvoices() throws Exception {
+        JdbcListingRepository repository = new JdbcListingRepository(dataSource, timeService, 0, false);
+        DefaultAuctionService original = newService(repository);
+        String[] tokens = login(original);
+        List<String> listingIds = new ArrayList<String>();
+        listingIds.add(original.createListing(tokens[0], 1000L, 5000L, 3));
+        listingIds.add(original.createListing(tokens[0], 2000L, -1L, 3));
+        listingIds.add(original.createListing(tokens[1], 500L, 800L, 5));
+        original.proxyBid(tokens[1], listingIds.get(0), 3000L);
+        original.bid(tokens[2], listingIds.get(0), 2000L);
+        original.bid(tokens[1], listingIds.get(1), 2500L);
+        original.buyItNow(tokens[2], listingIds.get(2));
+
+        when(timeService.currentTimeMillis()).thenReturn(10 * DAY_MILLIS);
+        List<String> invoices = fetchAllInvoices(original, tokens, listingIds);
+        repository.close();
+
+        JdbcListingRepository coldRepository = new JdbcListingRepository(dataSource, timeService, 0, false);
+        DefaultAuctionService cold = newService(coldRepository);
+        String[] coldTokens = login(cold);
+        assertEquals(invoices, fetchAllInvoices(cold, coldTokens, listingIds));
+        assertEquals(original.fetchBidHistory(tokens[0], listingIds.get(0), 0, 10).toString(),
+                cold.fetchBidHistory(coldTokens[0], listingIds.get(0), 0, 10).toString());
+
+        //Once read the listing is served from the registry.
+        long listingKey = ListingIds.parse(listingIds.get(1));
+        assertSame(cold.findListing(listingKey), cold.findListing(listingKey));
+        assertNull(coldRepository.find(ListingIds.parse(listingIds.get(2)) + 1000));
+        coldRepository.close();
+    }
+
+    @Test
+    public void testColdLedgerReconcilesWithInvoices() throws Exception {
+        JdbcListingRepository repository = new JdbcListingRepository(dataSource, timeService, 0, false);
+        DefaultAuctionService original = newService(repository);
+        String[] tokens = login(original);
+        List<String> listingIds = new ArrayList<String>();
+        listingIds.add(original.createListing(tokens[0], 1000L, 5000L, 3));
+        listingIds.add(original.createListing(tokens[0], 2000L, -1L, 3));
+        listingIds.add(original.createListing(tokens[1], 500L, 800L, 5));
+        original.bid(tokens[2], listingIds.get(0), 2000L);
+        original.bid(tokens[1], listingIds.get(1), 2500L);
+        original.buyItNow(tokens[2], listingIds.get(2));
+        repository.close();
+
+        FeeLedger feeLedger = new FeeLedger();
+        JdbcListingRepository coldRepository = new JdbcListingRepository(dataSource, timeService, feeLedger, 0,
+                false);
+        DefaultAuctionService cold = new DefaultAuctionService(new DefaultAuctionListingFactory(timeService,
+                new DefaultListingIdGenerator(), feeLedger), new DefaultAuthenticationService(),
+                new LazyAuctionCloseScheduler(), new ListingRegistry(), new NullMutationLog(), coldRepository);
+        String[] coldTokens = login(cold);
+        when(timeService.currentTimeMillis()).thenReturn(10 * DAY_MILLIS);
+        long invoiceLineCount = 0;
+        for (int u = 0; u < USERS.length; u++) {
+            long[] invoicedCents = new long[FeeType.values().length];
+            for (String listingId : listingIds) {
+                for (InvoiceLine invoiceLine : cold.fetchInvoices(coldTokens[u], listingId)) {
+                    invoicedCents[invoiceLine.getFeeType().ordinal()] += invoiceLine.getAmountCents();
+                    invoiceLineCount++;
+                }
+            }
+            for (FeeType feeType : FeeType.values()) {
+                assertEquals(USERS[u] + " " + feeType, invoicedCents[feeType.ordinal()],
+                        feeLedger.getTotalCents(USERS[u], feeType));
+            }
+        }
+        assertEquals(invoiceLineCount, feeLedger.getEntryCount());
+        coldRepository.close();
+    }
+
+    @Test
+    public void testStoredListingsAreRegisteredAndIndexedAtStartup() throws Exception {
+        JdbcListingRepository repository = new JdbcListingRepository(dataSource, timeService, 0, false);
+        DefaultAuctionService original = newService(repository);
+        String[] tokens = login(original);
+        String openListingId = original.createListing(tokens[0], 2000L, -1L, 3);
+        original.bid(tokens[1], openListingId, 2500L);
+        String boughtListingId = original.createListing(tokens[0], 500L, 800L, 5);
+        original.buyItNow(tokens[2], boughtListingId);
+        int[] userInvoiceLineCounts = new int[USERS.length];
+        for (int u = 0; u < USERS.length; u++) {
+            userInvoiceLineCounts[u] = countUserInvoiceLines(original, tokens[u]);
+        }
+        repository.close();
+
+        JdbcDataSource coldDataSource = spy(dataSource);
+        JdbcListingRepository coldRepository = new JdbcListingRepository(coldDataSource, timeService, 0, false);
+        DefaultAuctionService cold = newService(coldRepository);
+        coldRepository.registerStoredListings(cold);
+        String[] coldTokens = login(cold);
+        //Only the open listing is registered, the closed one is read from the database when asked for.
+        assertEquals(1, cold.findListing(ListingIds.parse(openListingId)).getBidCount());
+        assertNull(cold.findListing(ListingIds.parse(boughtListingId)));
+        for (int u = 0; u < USERS.length; u++) {
+            assertEquals(USERS[u], userInvoiceLineCounts[u], countUserInvoiceLines(cold, coldTokens[u]));
+        }
+
+        //A key found missing is not looked up in the database again.
+        long unknownKey = ListingIds.parse(boughtListingId) + 1000;
+        assertNull(coldRepository.find(unknownKey));
+        doThrow(new IllegalStateException("Database unavailable")).when(coldDataSource).getConnection();
+        assertNull(coldRepository.find(unknownKey));
+        doCallRealMethod().when(coldDataSource).getConnection();
+        coldRepository.close();
+    }
+
+    @Test
+    public void testWriterSurvivesRuntimeFailuresAndKeepsTheBatch() throws Exception {
+        JdbcDataSource failingDataSource = spy(dataSource);
+        JdbcListingRepository repository = new JdbcListingRepository(failingDataSource, timeService, 5, true);
+        DefaultAuctionService service = newService(repository);
+        String[] tokens = login(service);
+
+        //Listings that cannot be recorded are not queued at all.
+        AuctionListing mappedListing = mock(AuctionListing.class);
+        when(mappedListing.getListingKey()).thenReturn(42L);
+        repository.listingChanged(mappedListing);
+
+        doThrow(new IllegalStateException("Connection pool closed")).when(failingDataSource).getConnection();
+        service.createListing(tokens[0], 100L, -1L, 3);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (repository.getLastWriteFailure() == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(repository.getLastWriteFailure() instanceof IllegalStateException);
+
+        //The writer is still scheduled and the failed listing was queued again.
+        doCallRealMethod().when(failingDataSource).getConnection();
+        while (repository.getLastWriteFailure() != null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        repository.close();
+        assertNull(repository.getLastWriteFailure());
+        assertEquals(1, count("SELECT COUNT(*) FROM auction_listing"));
+    }
+
+    private DefaultAuctionService newService(ListingRepository repository) {
+        return new DefaultAuctionService(new DefaultAuctionListingFactory(timeService),
+                new DefaultAuthenticationService(), new LazyAuctionCloseScheduler(), new ListingRegistry(),
+                new NullMutationLog(), repository);
+    }
+
+    private static int countUserInvoiceLines(DefaultAuctionService service, String authToken)
+            throws AuctionServiceException {
+        int lineCount = 0;
+        for (InvoiceCursor cursor = service.fetchUserInvoices(authToken); cursor.hasNext(); cursor.next()) {
+            lineCount++;
+        }
+        return lineCount;
+    }
+
+    private static String[] login(DefaultAuctionService service) throws AuctionServiceException {
+        String[] tokens = new String[USERS.length];
+        for (int i = 0; i < USERS.length; i++) {
+            tokens[i] = service.login(USERS[i], PASSWORDS[i]);
+        }
+        return tokens;
+    }
+
+    private static List<String> fetchAllInvoices(DefaultAuctionService service, String[] tokens,
+                                                 List<String> listingIds) throws AuctionServiceException {
+        List<String> invoices = new ArrayList<String>();
+        for (String listingId : listingIds) {
+            for (String token : tokens) {
+                invoices.add(service.fetchInvoices(token, listingId).toString());
+            }
+        }
+        return invoices;
+    }
+
+    private long count(String query) throws SQLException {
+        Statement statement = keepAlive.createStatement();
+        try {
+            ResultSet resultSet = statement.executeQuery(query);
+            resultSet.next();
+            return resultSet.getLong(1);
+        } finally {
+            statement.close();
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.acme.auction;
+
+import com.acme.auctionclient.AuctionService;
+import com.acme.auctionclient.FeeType;
+import com.acme.auctionclient.InvoiceLine;
+import com.acme.auctionclient.Money;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests archiving closed listings out of the live registry.
+ */
+public class ListingArchiveTest {
+    private static final long DAY_MILLIS = 60 * 60 * 24 * 1000L;
+    private static final Date FIRST_DAY = new Date(0);
+    private static final Date FOURTH_DAY = new Date(DAY_MILLIS * 3 + 1000);
+    private static final Date FIFTH_DAY = new Date(DAY_MILLIS * 4 + 1000);
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testArchivedListingKeepsClosedState() throws Exception {
+        TimeService timeService = mockTimeService(FIRST_DAY);
+        AuctionListing listing = new DefaultAuctionListingFactory(timeService)
+                .createAuctionListing("fred", 1000L, Money.NO_AMOUNT_CENTS, 3);
+        listing.proxyBid("sally", 5000L);
+        listing.bid("george", 2000L);
+        listing.bid("george", 6000L);
+        setTime(timeService, FOURTH_DAY);
+        assertTrue(listing.isAuctionClosed());
+
+        AuctionListing archived = ArchivedListing.decode(ArchivedListing.of(listing).encode());
+        assertEquals(listing.getListingKey(), archived.getListingKey());
+        assertEquals(listing.getListingId(), archived.getListingId());
+        assertEquals("fred", archived.getListingOwner());
+        assertEquals(1000L, archived.getStartingPriceCents());
+        assertEquals(Money.NO_AMOUNT_CENTS, archived.getBuyItNowPriceCents());
+        assertNull(archived.getBuyItNowPrice());
+        assertEquals(3, archived.getAuctionLength());
+        assertEquals(listing.getStartingTime(), archived.getStartingTime());
+        assertEquals(listing.getEndingTime(), archived.getEndingTime());
+        assertEquals("george", archived.getWinningUser());
+        assertEquals(6000L, archived.getWinningPriceCents());
+        assertEquals("george", archived.getCurrentBid().getBidder());
+        assertEquals(listing.getBidCount(), archived.getBidCount());
+        assertEquals(listing.getBidHistory(0, 10).toString(), archived.getBidHistory(0, 10).toString());
+        assertTrue(archived.isAuctionClosed());
+
+        archived.bid("sally", 9000L);
+        assertEquals(6000L, archived.getWinningPriceCents());
+    }
+
+    @Test
+    public void testArchiveSpillsToDiskAndSurvivesReopening() throws Exception {
+        TimeService timeService = mockTimeService(FIRST_DAY);
+        DefaultAuctionListingFactory factory = new DefaultAuctionListingFactory(timeService);
+        File directory = temporaryFolder.newFolder("archive");
+        ListingArchive archive = new ListingArchive(directory, 1024, 4, 4096);
+        long[] keys = new long[200];
+        for (int i = 0; i < keys.length; i++) {
+            AuctionListing listing = factory.createAuctionListing("seller" + (i % 3), 100L + i, 900L, 5);
+            listing.bid("buyer" + i, 200L + i);
+            listing.buyItNow("collector");
+            archive.archive(listing);
+            keys[i] = listing.getListingKey();
+        }
+        assertTrue(archive.getMemoryTierBytes() <= 1024);
+        assertTrue(archive.getDiskTierCount() > 0);
+        assertEquals(keys.length, archive.getMemoryTierCount() + archive.getDiskTierCount());
+        assertNull(archive.find(ListingIds.NO_KEY + 1));
+        AuctionListing first = archive.find(keys[0]);
+        assertSame(first, archive.find(keys[0]));
+        archive.close();
+
+        ListingArchive reopened = new ListingArchive(directory);
+        assertEquals(keys.length, reopened.getDiskTierCount());
+        for (int i = 0; i < keys.length; i++) {
+            AuctionListing listing = reopened.find(keys[i]);
+            assertEquals(keys[i], listing.getListingKey());
+            assertEquals("seller" + (i % 3), listing.getListingOwner());
+            assertEquals("collector", listing.getWinningUser());
+            assertEquals(900L, listing.getWinningPriceCents());
+            assertEquals("buyer" + i, listing.getBidHistory(0, 1).get(0).getBidder());
+        }
+        reopened.close();
+    }
+
+    @Test
+    public void testInvoicesOfDemotedListings() throws Exception {
+        TimeService timeService = mockTimeService(FIRST_DAY);
+        ListingArchive archive = new ListingArchive(temporaryFolder.newFolder("archive"));
+        ListingRegistry registry = new ListingRegistry(timeService, archive, DAY_MILLIS, 100, false);
+        AuctionService auctionService = new DefaultAuctionService(new DefaultAuctionListingFactory(timeService),
+                new DefaultAuthenticationService(), new LazyAuctionCloseScheduler(), registry);
+        String fredToken = auctionService.login("fred.seller@acme.com", "sellingIsFun");
+        String sallyToken = auctionService.login("sally.buyer@acme.com", "gotToBuy");
+        String listingId = auctionService.createListing(fredToken, 1000L, 5000L, 3);
+        auctionService.bid(sallyToken, listingId, 1500L);
+
+        setTime(timeService, FOURTH_DAY);
+        assertEquals(0, registry.demoteExpiredListings());
+        assertEquals(1, registry.getLiveCount());
+
+        setTime(timeService, FIFTH_DAY);
+        assertEquals(1, registry.demoteExpiredListings());
+        assertEquals(0, registry.getLiveCount());
+        assertTrue(archive.contains(ListingIds.parse(listingId)));
+
+        List<InvoiceLine> sellerInvoice = auctionService.fetchInvoices(fredToken, listingId);
+        assertEquals(2, sellerInvoice.size());
+        assertEquals(FeeType.BUY_IT_NOW_FEE, sellerInvoice.get(1).getFeeType());
+        List<InvoiceLine> buyerInvoice = auctionService.fetchInvoices(sallyToken, listingId);
+        assertEquals(1, buyerInvoice.size());
+        assertEquals(1500L, buyerInvoice.get(0).getAmountCents());
+        assertEquals(1, auctionService.fetchBidHistory(sallyToken, listingId, 0, 10).size());
+        archive.close();
+    }
+
+    @Test
+    public void testBoughtListingsAreDemotedAGracePeriodAfterTheirPurchase() throws Exception {
+        TimeService timeService = mockTimeService(FIRST_DAY);
+        ListingArchive archive = new ListingArchive(temporaryFolder.newFolder("archive"));
+        ListingRegistry registry = new ListingRegistry(timeService, archive, DAY_MILLIS, 100, false);
+        AuctionService auctionService = new DefaultAuctionService(new DefaultAuctionListingFactory(timeService),
+                new DefaultAuthenticationService(), new LazyAuctionCloseScheduler(), registry);
+        String fredToken = auctionService.login("fred.seller@acme.com", "sellingIsFun");
+        String sallyToken = auctionService.login("sally.buyer@acme.com", "gotToBuy");
+        String boughtListingId = auctionService.createListing(fredToken, 1000L, 5000L, 3);
+        String openListingId = auctionService.createListing(fredToken, 1000L, 5000L, 3);
+        auctionService.buyItNow(sallyToken, boughtListingId);
+
+        setTime(timeService, new Date(DAY_MILLIS + 1000));
+        assertEquals(1, registry.demoteExpiredListings());
+        assertTrue(archive.contains(ListingIds.parse(boughtListingId)));
+        assertFalse(archive.contains(ListingIds.parse(openListingId)));
+
+        //Its demotion at the ending time finds it gone.
+        setTime(timeService, FIFTH_DAY);
+        assertEquals(1, registry.demoteExpiredListings());
+        assertEquals(0, registry.getLiveCount());
+        assertEquals(5000L, auctionService.fetchInvoices(sallyToken, boughtListingId).get(0).getAmountCents());
+        archive.close();
+    }
+
+    @Test
+    public void testFailedDemotionKeepsListingLive() throws Exception {
+        TimeService timeService = mockTimeService(FIRST_DAY);
+        ListingArchive archive = spy(new ListingArchive(temporaryFolder.newFolder("archive")));
+        ListingRegistry registry = new ListingRegistry(timeService, archive, 0, 100, false);
+        AuctionListing listing = new DefaultAuctionListingFactory(timeService)
+                .createAuctionListing("fred", 1000L, Money.NO_AMOUNT_CENTS, 3);
+        registry.register(listing);
+
+        doThrow(new IllegalStateException("Disk full")).when(archive).archive(listing);
+        setTime(timeService, FOURTH_DAY);
+        assertEquals(0, registry.demoteExpiredListings());
+        assertEquals(1, registry.getLiveCount());
+        assertSame(listing, registry.find(listing.getListingKey()));
+        assertTrue(registry.getLastDemotionFailure() != null);
+
+        doCallRealMethod().when(archive).archive(listing);
+        setTime(timeService, new Date(FOURTH_DAY.getTime() + 1000));
+        assertEquals(1, registry.demoteExpiredListings());
+        assertEquals(0, registry.getLiveCount());
+        assertNull(registry.getLastDemotionFailure());
+        archive.close();
+    }
+
+    private static TimeService mockTimeService(Date now) {
+        TimeService timeService = mock(TimeService.class);
+        setTime(timeService, now);
+        return timeService;
+    }
+
+    private static void setTime(TimeService timeService, Date now) {
+        when(timeService.getTime()).thenReturn(now);
+        when(timeService.currentTimeMillis()).thenReturn(now.getTime());
+    }
+}
@@ -0,0 +1,76 @@
+package com.acme.auction;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests listing key generation and the listing id string form.
+ */
+public class ListingIdGeneratorTest {
+    @Test
+    public void testKeysStrictlyIncreaseAndCarryTheNode() {
+        DefaultListingIdGenerator generator = new DefaultListingIdGenerator(5);
+        long previous = ListingIds.NO_KEY;
+        for (int i = 0; i < 100000; i++) {
+            long key = generator.nextListingKey();
+            assertTrue(key > previous);
+            assertEquals(5, (key >>> DefaultListingIdGenerator.SEQUENCE_BITS) & DefaultListingIdGenerator.MAX_NODE_ID);
+            previous = key;
+        }
+    }
+
+    @Test
+    public void testKeysAreUniqueAcrossThreads() throws Exception {
+        final DefaultListingIdGenerator generator = new DefaultListingIdGenerator();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<long[]>> futures = new ArrayList<Future<long[]>>();
+        for (int t = 0; t < 4; t++) {
+            futures.add(executor.submit(new Callable<long[]>() {
+                public long[] call() {
+                    long[] keys = new long[50000];
+                    for (int i = 0; i < keys.length; i++) {
+                        keys[i] = generator.nextListingKey();
+                    }
+                    return keys;
+                }
+            }));
+        }
+        Set<Long> allKeys = new HashSet<Long>();
+        for (Future<long[]> future : futures) {
+            for (long key : future.get()) {
+                assertTrue(allKeys.add(key));
+            }
+        }
+        executor.shutdown();
+        assertEquals(200000, allKeys.size());
+    }
+
+    @Test
+    public void testListingIdRoundTrip() {
+        long key = new DefaultListingIdGenerator(DefaultListingIdGenerator.MAX_NODE_ID).nextListingKey();
+        String listingId = ListingIds.toString(key);
+        assertEquals(ListingIds.ID_LENGTH, listingId.length());
+        assertEquals(key, ListingIds.parse(listingId));
+        assertEquals("0000000000000abc", ListingIds.toString(0xABCL));
+    }
+
+    @Test
+    public void testMalformedListingIdsParseToNoKey() {
+        assertEquals(ListingIds.NO_KEY, ListingIds.parse(null));
+        assertEquals(ListingIds.NO_KEY, ListingIds.parse("abc"));
+        assertEquals(ListingIds.NO_KEY, ListingIds.parse("000000000000000g"));
+        assertEquals(ListingIds.NO_KEY, ListingIds.parse("000000000000000A"));
+        assertEquals(ListingIds.NO_KEY, ListingIds.parse("listing123"));
+    }
+}
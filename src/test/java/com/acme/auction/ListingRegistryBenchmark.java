@@ -0,0 +1,102 @@
+package com.acme.auction;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compares the listing registry map against the String keyed ConcurrentHashMap it replaced.
+ * <p/>
+ * Not a unit test, run the main method with a listing count as the optional argument,
+ * preferably with a fixed heap such as -Xmx4g so the heap figures are comparable.
+ */
+public class ListingRegistryBenchmark {
+    private static final int LOOKUPS = 20000000;
+
+    public static void main(String[] args) {
+        int listingCount = args.length > 0 ? Integer.parseInt(args[0]) : 5000000;
+        long[] keys = new long[listingCount];
+        String[] ids = new String[listingCount];
+        DefaultListingIdGenerator generator = new DefaultListingIdGenerator();
+        for (int i = 0; i < listingCount; i++) {
+            keys[i] = generator.nextListingKey();
+            ids[i] = ListingIds.toString(keys[i]);
+        }
+        Object listing = new Object();
+        int[] probes = new int[LOOKUPS];
+        Random random = new Random(1);
+        for (int i = 0; i < LOOKUPS; i++) {
+            probes[i] = random.nextInt(listingCount);
+        }
+
+        for (int round = 0; round < 3; round++) {
+            System.out.println("round " + round);
+            benchmarkStringMap(ids, probes, listing);
+            benchmarkLongMap(ids, keys, probes, listing);
+        }
+    }
+
+    private static void benchmarkStringMap(String[] ids, int[] probes, Object listing) {
+        long heapBefore = usedHeapBytes();
+        long start = System.nanoTime();
+        Map<String, Object> map = new ConcurrentHashMap<String, Object>();
+        for (String id : ids) {
+            map.put(id, listing);
+        }
+        long insertNanos = System.nanoTime() - start;
+        long heapBytes = usedHeapBytes() - heapBefore;
+
+        //Wire lookups start from fresh id strings, as requests off the wire would.
+        long found = 0;
+        start = System.nanoTime();
+        for (int index : probes) {
+            if (map.get(new String(ids[index].toCharArray())) != null) found++;
+        }
+        long wireLookupNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int index : probes) {
+            if (map.get(ids[index]) != null) found++;
+        }
+        report("ConcurrentHashMap<String>", ids.length, insertNanos, wireLookupNanos,
+                System.nanoTime() - start, heapBytes, found);
+    }
+
+    private static void benchmarkLongMap(String[] ids, long[] keys, int[] probes, Object listing) {
+        long heapBefore = usedHeapBytes();
+        long start = System.nanoTime();
+        ConcurrentLongObjectMap<Object> map = new ConcurrentLongObjectMap<Object>();
+        for (long key : keys) {
+            map.put(key, listing);
+        }
+        long insertNanos = System.nanoTime() - start;
+        long heapBytes = usedHeapBytes() - heapBefore;
+
+        long found = 0;
+        start = System.nanoTime();
+        for (int index : probes) {
+            if (map.get(ListingIds.parse(new String(ids[index].toCharArray()))) != null) found++;
+        }
+        long wireLookupNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int index : probes) {
+            if (map.get(keys[index]) != null) found++;
+        }
+        report("ConcurrentLongObjectMap", ids.length, insertNanos, wireLookupNanos,
+                System.nanoTime() - start, heapBytes, found);
+    }
+
+    private static void report(String name, int entries, long insertNanos, long wireLookupNanos,
+                               long keyLookupNanos, long heapBytes, long found) {
+        System.out.printf("  %-26s insert %6.1f ns  wire lookup %6.1f ns  key lookup %6.1f ns  heap %5.1f bytes/entry"
+                + "  (%d found)%n", name, (double) insertNanos / entries, (double) wireLookupNanos / LOOKUPS,
+                (double) keyLookupNanos / LOOKUPS, (double) heapBytes / entries, found);
+    }
+
+    private static long usedHeapBytes() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,197 @@
+package com.acme.auction;
+
+import com.acme.auctionclient.AuctionService;
+import com.acme.auctionclient.FeeType;
+import com.acme.auctionclient.InvoiceCursor;
+import com.acme.auctionclient.InvoiceLine;
+import com.acme.auctionclient.Money;
+import com.acme.auctionclient.OperationStatus;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.util.Modules;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the memory-mapped listing store and its flyweight listings.
+ */
+public class MappedListingStoreTest {
+    private static final Date FIRST_DAY = new Date(0);
+    private static final Date FOURTH_DAY = new Date(60 * 60 * 24 * 1000 * 3 + 1000);
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testBiddingRulesAndClosingMatchDefaultListing() throws Exception {
+        TimeService timeService = mockTimeService(FIRST_DAY);
+        MappedListingStore store = new MappedListingStore(temporaryFolder.newFolder("store"));
+        MappedAuctionListingFactory factory = new MappedAuctionListingFactory(store, timeService,
+                new DefaultListingIdGenerator());
+
+        AuctionListing listing = factory.createAuctionListing("fred", 1000L, Money.NO_AMOUNT_CENTS, 3);
+        listing.bid("sally", 900L);
+        assertNull(listing.getCurrentBid());
+        listing.proxyBid("sally", 5000L);
+        assertEquals(1000L, listing.getCurrentBid().getBidValueCents());
+        listing.bid("george", 2000L);
+        assertEquals("sally", listing.getCurrentBid().getBidder());
+        assertEquals(2100L, listing.getCurrentBid().getBidValueCents());
+
+        OperationStatus[] outcomes = new OperationStatus[2];
+        listing.bid(new String[]{"george", "george"}, new long[]{4000L, 6000L}, 2, outcomes);
+        assertEquals(OperationStatus.OUTBID, outcomes[0]);
+        assertEquals(OperationStatus.ACCEPTED, outcomes[1]);
+        assertEquals(6000L, listing.getCurrentBid().getBidValueCents());
+        assertEquals(4, listing.getBidCount());
+        assertFalse(listing.isAuctionClosed());
+
+        when(timeService.getTime()).thenReturn(FOURTH_DAY);
+        when(timeService.currentTimeMillis()).thenReturn(FOURTH_DAY.getTime());
+        assertTrue(listing.isAuctionClosed());
+        assertEquals("george", listing.getWinningUser());
+        assertEquals(6000L, listing.getWinningPriceCents());
+        assertFalse(listing.isBoughtUsingBuyItNow());
+        store.close();
+    }
+
+    @Test
+    public void testRecordsSurviveReopeningAcrossSegments() throws Exception {
+        TimeService timeService = mockTimeService(FIRST_DAY);
+        File directory = temporaryFolder.newFolder("store");
+        MappedListingStore store = new MappedListingStore(directory, 4);
+        MappedAuctionListingFactory factory = new MappedAuctionListingFactory(store, timeService,
+                new DefaultListingIdGenerator());
+        long[] keys = new long[50];
+        for (int i = 0; i < keys.length; i++) {
+            AuctionListing listing = factory.createAuctionListing("seller" + (i % 3), 100L + i, 900L, 5);
+            listing.bid("buyer", 200L + i);
+            if (i % 10 == 0) listing.buyItNow("collector");
+            keys[i] = listing.getListingKey();
+        }
+        store.close();
+
+        MappedListingStore reopened = new MappedListingStore(directory);
+        MappedAuctionListingFactory reopenedFactory = new MappedAuctionListingFactory(reopened, timeService,
+                new DefaultListingIdGenerator());
+        assertNull(reopenedFactory.findListing(ListingIds.NO_KEY + 1));
+        for (int i = 0; i < keys.length; i++) {
+            AuctionListing listing = reopenedFactory.findListing(keys[i]);
+            assertEquals(keys[i], listing.getListingKey());
+            assertEquals("seller" + (i % 3), listing.getListingOwner());
+            assertEquals(100L + i, listing.getStartingPriceCents());
+            assertEquals(200L + i, listing.getCurrentBid().getBidValueCents());
+            assertEquals(i % 10 == 0, listing.isAuctionClosed());
+            assertEquals(i % 10 == 0 ? "collector" : null, listing.getWinningUser());
+        }
+        assertEquals(5, reopened.getUserDictionary().size());
+        reopened.close();
+    }
+
+    @Test
+    public void testAuctionServiceOverMappedListings() throws Exception {
+        Injector injector = Guice.createInjector(Modules.override(new AuctionModule(true))
+                .with(new MappedListingStoreModule(temporaryFolder.newFolder("store"))));
+        AuctionService auctionService = injector.getInstance(AuctionService.class);
+        String fredToken = auctionService.login("fred.seller@acme.com", "sellingIsFun");
+        String sallyToken = auctionService.login("sally.buyer@acme.com", "gotToBuy");
+
+        String listingId = auctionService.createListing(fredToken, 1000L, 5000L, 3);
+        auctionService.bid(sallyToken, listingId, 1500L);
+        auctionService.buyItNow(sallyToken, listingId);
+
+        List<InvoiceLine> invoiceLines = auctionService.fetchInvoices(sallyToken, listingId);
+        assertEquals(1, invoiceLines.size());
+        assertEquals(5000L, invoiceLines.get(0).getAmountCents());
+        injector.getInstance(MappedListingStore.class).close();
+    }
+
+    @Test
+    public void testAuctionServiceFindsStoredListingsAfterRestart() throws Exception {
+        File directory = temporaryFolder.newFolder("store");
+        Injector injector = Guice.createInjector(Modules.override(new AuctionModule(true))
+                .with(new MappedListingStoreModule(directory)));
+        AuctionService auctionService = injector.getInstance(AuctionService.class);
+        String fredToken = auctionService.login("fred.seller@acme.com", "sellingIsFun");
+        String sallyToken = auctionService.login("sally.buyer@acme.com", "gotToBuy");
+        String openListingId = auctionService.createListing(fredToken, 1000L, -1L, 3);
+        auctionService.bid(sallyToken, openListingId, 1500L);
+        String boughtListingId = auctionService.createListing(fredToken, 1000L, 5000L, 3);
+        auctionService.buyItNow(sallyToken, boughtListingId);
+        int sellerLineCount = countUserInvoiceLines(auctionService, fredToken);
+        injector.getInstance(MappedListingStore.class).close();
+
+        Injector restarted = Guice.createInjector(Modules.override(new AuctionModule(true))
+                .with(new MappedListingStoreModule(directory)));
+        auctionService = restarted.getInstance(AuctionService.class);
+        fredToken = auctionService.login("fred.seller@acme.com", "sellingIsFun");
+        sallyToken = auctionService.login("sally.buyer@acme.com", "gotToBuy");
+        //Only the open listing is registered, the closed one is read from the store when asked for.
+        DefaultAuctionService defaultAuctionService = (DefaultAuctionService) auctionService;
+        assertTrue(defaultAuctionService.findListing(ListingIds.parse(openListingId)) != null);
+        assertNull(defaultAuctionService.findListing(ListingIds.parse(boughtListingId)));
+
+        assertEquals(5000L, auctionService.fetchInvoices(sallyToken, boughtListingId).get(0).getAmountCents());
+        String georgeToken = auctionService.login("george.buyer@acme.com", "sallyIsAnnoying");
+        assertEquals(OperationStatus.OUTBID, auctionService.tryBid(georgeToken, openListingId, 1200L).getStatus());
+        assertEquals(sellerLineCount, countUserInvoiceLines(auctionService, fredToken));
+
+        //The ledger is rebuilt from the store and told about listings closing after the restart.
+        restarted.getInstance(AdjustableTimeService.class).incrementTimeOffset(4L * 24 * 60 * 60 * 1000);
+        FeeLedger feeLedger = restarted.getInstance(FeeLedger.class);
+        assertEquals(sumInvoices(auctionService, fredToken, openListingId, boughtListingId),
+                feeLedger.getBalanceCents("fred.seller@acme.com"));
+        assertEquals(sumInvoices(auctionService, sallyToken, openListingId, boughtListingId),
+                feeLedger.getBalanceCents("sally.buyer@acme.com"));
+        assertEquals(6500L, feeLedger.getTotalCents("sally.buyer@acme.com", FeeType.PURCHASE_FEE));
+        //The leader of the open stored listing is indexed, so her user invoices include its win.
+        assertEquals(feeLedger.getBalanceCents("sally.buyer@acme.com"), sumUserInvoices(auctionService, sallyToken));
+        restarted.getInstance(MappedListingStore.class).close();
+    }
+
+    private static int countUserInvoiceLines(AuctionService auctionService, String authToken) throws Exception {
+        int lineCount = 0;
+        for (InvoiceCursor cursor = auctionService.fetchUserInvoices(authToken); cursor.hasNext(); cursor.next()) {
+            lineCount++;
+        }
+        return lineCount;
+    }
+
+    private static long sumUserInvoices(AuctionService auctionService, String authToken) throws Exception {
+        long totalCents = 0;
+        for (InvoiceCursor cursor = auctionService.fetchUserInvoices(authToken); cursor.hasNext(); ) {
+            totalCents += cursor.next().getAmountCents();
+        }
+        return totalCents;
+    }
+
+    private static long sumInvoices(AuctionService auctionService, String authToken, String... listingIds)
+            throws Exception {
+        long totalCents = 0;
+        for (String listingId : listingIds) {
+            for (InvoiceLine invoiceLine : auctionService.fetchInvoices(authToken, listingId)) {
+                totalCents += invoiceLine.getAmountCents();
+            }
+        }
+        return totalCents;
+    }
+
+    private static TimeService mockTimeService(Date now) {
+        TimeService timeService = mock(TimeService.class);
+        when(timeService.getTime()).thenReturn(now);
+        when(timeService.currentTimeMillis()).thenReturn(now.getTime());
+        return timeService;
+    }
+}
@@ -0,0 +1,191 @@
+package com.acme.auction;
+
+import com.acme.auctionclient.AuctionService;
+import com.acme.auctionclient.AuctionServiceException;
+import com.acme.auctionclient.BinaryAuctionClient;
+import com.acme.auctionclient.OperationStatus;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.util.Modules;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests expiry of login sessions.
+ */
+public class SessionStoreTest {
+    private static final long IDLE_MILLIS = 10000;
+    private static final long ABSOLUTE_MILLIS = 60000;
+    private static final long TICK_MILLIS = 100;
+
+    private final TimeService timeService = mock(TimeService.class);
+    private SessionStore sessionStore;
+
+    @Before
+    public void setUp() {
+        setTime(1000L);
+        sessionStore = new SessionStore(timeService, IDLE_MILLIS, ABSOLUTE_MILLIS, TICK_MILLIS, false);
+    }
+
+    @Test
+    public void testTokensResolveToTheirUser() {
+        String fredToken = sessionStore.openSession("fred");
+        String otherFredToken = sessionStore.openSession("fred");
+        String sallyToken = sessionStore.openSession("sally");
+
+        assertEquals(SessionStore.TOKEN_LENGTH, fredToken.length());
+        assertFalse(fredToken.equals(otherFredToken));
+        assertEquals("fred", sessionStore.findUser(fredToken));
+        assertEquals("fred", sessionStore.findUser(otherFredToken));
+        assertEquals("sally", sessionStore.findUser(sallyToken));
+
+        assertNull(sessionStore.findUser(null));
+        assertNull(sessionStore.findUser("not a token"));
+        assertNull(sessionStore.findUser(fredToken.substring(0, 16) + sallyToken.substring(16)));
+        assertNull(sessionStore.findUser(fredToken.substring(0, 31) + "x"));
+    }
+
+    @Test
+    public void testIdleSessionsExpireAndUsedOnesStay() {
+        String idleToken = sessionStore.openSession("fred");
+        String usedToken = sessionStore.openSession("sally");
+
+        for (long time = 1000L; time <= 1000L + 3 * IDLE_MILLIS; time += IDLE_MILLIS / 4) {
+            setTime(time);
+            assertEquals("sally", sessionStore.findUser(usedToken));
+            sessionStore.expireSessions();
+        }
+        assertNull(sessionStore.findUser(idleToken));
+        assertEquals(1, sessionStore.getSessionCount());
+    }
+
+    @Test
+    public void testSessionsEndAtTheirAbsoluteTimeout() {
+        String token = sessionStore.openSession("fred");
+        int expiredCount = 0;
+        for (long time = 1000L; time < 1000L + 2 * ABSOLUTE_MILLIS; time += IDLE_MILLIS / 2) {
+            setTime(time);
+            if (time < 1000L + ABSOLUTE_MILLIS) {
+                assertEquals("fred", sessionStore.findUser(token));
+            } else {
+                assertNull(sessionStore.findUser(token));
+            }
+            expiredCount += sessionStore.expireSessions();
+        }
+        assertEquals(1, expiredCount);
+        assertEquals(0, sessionStore.getSessionCount());
+    }
+
+    @Test
+    public void testExpiryRemovesEverySessionWithoutLookups() {
+        for (int i = 0; i < 10000; i++) {
+            sessionStore.openSession("user" + (i % 100));
+        }
+        assertEquals(10000, sessionStore.getSessionCount());
+
+        setTime(1000L + IDLE_MILLIS - TICK_MILLIS);
+        assertEquals(0, sessionStore.expireSessions());
+        setTime(1000L + IDLE_MILLIS + TICK_MILLIS);
+        assertEquals(10000, sessionStore.expireSessions());
+        assertEquals(0, sessionStore.getSessionCount());
+    }
+
+    @Test
+    public void testTickerSurvivesFailingTicks() throws Exception {
+        SessionStore tickingStore = new SessionStore(timeService, IDLE_MILLIS, ABSOLUTE_MILLIS, 5, true);
+        when(timeService.currentTimeMillis()).thenThrow(new IllegalStateException("Clock unavailable"))
+                .thenReturn(1000L);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (tickingStore.getLastExpiryFailure() == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(tickingStore.getLastExpiryFailure() instanceof IllegalStateException);
+
+        //The ticker is still scheduled after the failure.
+        tickingStore.openSession("fred");
+        setTime(1000L + IDLE_MILLIS + 10);
+        while (tickingStore.getSessionCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(0, tickingStore.getSessionCount());
+        tickingStore.shutdown();
+    }
+
+    @Test
+    public void testClosedSessionsAreRejected() {
+        String token = sessionStore.openSession("fred");
+        assertTrue(sessionStore.closeSession(token));
+        assertFalse(sessionStore.closeSession(token));
+        assertNull(sessionStore.findUser(token));
+
+        setTime(1000L + IDLE_MILLIS + TICK_MILLIS);
+        assertEquals(0, sessionStore.expireSessions());
+    }
+
+    @Test
+    public void testClosedSessionsAreSweptFromTheWheels() {
+        List<String> tokens = new ArrayList<String>();
+        for (int i = 0; i < 3000; i++) {
+            tokens.add(sessionStore.openSession("user" + (i % 100)));
+        }
+        for (int i = 0; i < 2000; i++) {
+            assertTrue(sessionStore.closeSession(tokens.get(i)));
+        }
+        assertEquals(1000, sessionStore.getSessionCount());
+        assertEquals(3000, sessionStore.getScheduledCount());
+
+        assertEquals(0, sessionStore.expireSessions());
+        assertEquals(1000, sessionStore.getScheduledCount());
+        assertEquals("user0", sessionStore.findUser(tokens.get(2000)));
+
+        //The live sessions still expire from the rebuilt wheels.
+        setTime(1000L + IDLE_MILLIS + TICK_MILLIS);
+        assertEquals(1000, sessionStore.expireSessions());
+        assertEquals(0, sessionStore.getScheduledCount());
+    }
+
+    @Test
+    public void testAuctionServiceWithSessions() throws Exception {
+        Injector injector = Guice.createInjector(Modules.override(new AuctionModule(true))
+                .with(new SessionModule(IDLE_MILLIS, ABSOLUTE_MILLIS)),
+                new BinaryAuctionServerModule(new InetSocketAddress("127.0.0.1", 0), 1));
+        AuctionService auctionService = injector.getInstance(AuctionService.class);
+
+        String token = auctionService.login("fred.seller@acme.com", "sellingIsFun");
+        auctionService.createListing(token, 100L, -1L, 3);
+        assertTrue(auctionService.logout(token));
+        assertFalse(auctionService.logout(token));
+        try {
+            auctionService.createListing(token, 100L, -1L, 3);
+            fail("Expected the token to be refused after logout");
+        } catch (AuctionServiceException ex) {
+            assertEquals("Unrecognized auth token", ex.getMessage());
+        }
+
+        BinaryAuctionServer server = injector.getInstance(BinaryAuctionServer.class);
+        server.start();
+        BinaryAuctionClient client = new BinaryAuctionClient(new InetSocketAddress("127.0.0.1",
+                server.getLocalPort()));
+        String remoteToken = client.login("sally.buyer@acme.com", "gotToBuy");
+        assertTrue(client.logout(remoteToken));
+        assertEquals(OperationStatus.BAD_TOKEN, client.tryCreateListing(remoteToken, 100L, -1L, 3).getStatus());
+        client.close();
+        server.shutdown();
+    }
+
+    private void setTime(long nowMillis) {
+        when(timeService.currentTimeMillis()).thenReturn(nowMillis);
+    }
+}
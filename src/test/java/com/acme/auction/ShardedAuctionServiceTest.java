@@ -0,0 +1,444 @@
+package com.acme.auction;
+
+import com.acme.atddharness.User;
+import com.acme.auctionclient.AuctionService;
+import com.acme.auctionclient.AuctionServiceException;
+import com.acme.auctionclient.BatchBid;
+import com.acme.auctionclient.BidRecord;
+import com.acme.auctionclient.FeeType;
+import com.acme.auctionclient.InvoiceCursor;
+import com.acme.auctionclient.InvoiceLine;
+import com.acme.auctionclient.Money;
+import com.acme.auctionclient.OperationOutcome;
+import com.acme.auctionclient.OperationStatus;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.util.Modules;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the sharded single writer engine through the AuctionService API.
+ */
+public class ShardedAuctionServiceTest {
+    private static final long SIX_DAYS_OF_MILLIS = 60L * 60 * 24 * 1000 * 6;
+
+    private ShardedAuctionService auctionService;
+    private AdjustableTimeService adjustableTimeService;
+
+    @Before
+    public void setUp() {
+        Injector injector = Guice.createInjector(new AuctionModule(true, true));
+        auctionService = (ShardedAuctionService) injector.getInstance(AuctionService.class);
+        adjustableTimeService = injector.getInstance(AdjustableTimeService.class);
+    }
+
+    @After
+    public void tearDown() {
+        auctionService.shutdown();
+    }
+
+    @Test
+    public void testHighestBidWinsAcrossShards() throws Exception {
+        String fredToken = login(User.SELLER_FRED);
+        final String sallyToken = login(User.BUYER_SALLY);
+        final String georgeToken = login(User.BUYER_GEORGE);
+
+        final String[] listingIds = new String[32];
+        for (int i = 0; i < listingIds.length; i++) {
+            listingIds[i] = auctionService.createListing(fredToken, new BigDecimal("1.00"), null, 5);
+        }
+
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        Thread sally = bidder(startSignal, sallyToken, listingIds, 0);
+        Thread george = bidder(startSignal, georgeToken, listingIds, 1);
+        startSignal.countDown();
+        sally.join();
+        george.join();
+
+        adjustableTimeService.incrementTimeOffset(SIX_DAYS_OF_MILLIS);
+
+        for (String listingId : listingIds) {
+            //George always bids the odd, and so the final highest, amount.
+            List<InvoiceLine> georgeInvoices = auctionService.fetchInvoices(georgeToken, listingId);
+            assertEquals(1, georgeInvoices.size());
+            assertEquals(FeeType.PURCHASE_FEE, georgeInvoices.get(0).getFeeType());
+            assertEquals(999L, georgeInvoices.get(0).getAmountCents());
+            assertTrue(auctionService.fetchInvoices(sallyToken, listingId).isEmpty());
+            assertEquals(1, auctionService.fetchInvoices(fredToken, listingId).size());
+        }
+    }
+
+    @Test
+    public void testBuyItNow() throws AuctionServiceException {
+        String fredToken = login(User.SELLER_FRED);
+        String sallyToken = login(User.BUYER_SALLY);
+        String listingId = auctionService.createListing(fredToken, 10000L, 25000L, 5);
+
+        auctionService.bid(sallyToken, listingId, new BigDecimal("102.00"));
+        auctionService.buyItNow(sallyToken, listingId);
+
+        List<InvoiceLine> sallyInvoices = auctionService.fetchInvoices(sallyToken, listingId);
+        assertEquals(1, sallyInvoices.size());
+        assertEquals(new BigDecimal("250.00"), sallyInvoices.get(0).getAmount());
+        assertEquals(2, auctionService.fetchInvoices(fredToken, listingId).size());
+    }
+
+    @Test
+    public void testBuyItNowRefusedWithoutBuyItNowPrice() throws AuctionServiceException {
+        String fredToken = login(User.SELLER_FRED);
+        String sallyToken = login(User.BUYER_SALLY);
+        String listingId = auctionService.createListing(fredToken, 10000L, Money.NO_AMOUNT_CENTS, 5);
+        auctionService.bid(sallyToken, listingId, 10100L);
+
+        try {
+            auctionService.buyItNow(sallyToken, listingId);
+            fail("Expected buy it now to be refused");
+        } catch (AuctionServiceException ex) {
+            assertEquals("Listing has no buy it now price", ex.getMessage());
+        }
+        assertEquals(OperationOutcome.of(OperationStatus.NO_BUY_IT_NOW, 10100L),
+                auctionService.tryBuyItNow(sallyToken, listingId));
+
+        //The listing stays open and is won by bidding.
+        adjustableTimeService.incrementTimeOffset(SIX_DAYS_OF_MILLIS);
+        List<InvoiceLine> sallyInvoices = auctionService.fetchInvoices(sallyToken, listingId);
+        assertEquals(1, sallyInvoices.size());
+        assertEquals(10100L, sallyInvoices.get(0).getAmountCents());
+    }
+
+    @Test
+    public void testAmountsWithFractionalCentsAreRejected() throws AuctionServiceException {
+        String fredToken = login(User.SELLER_FRED);
+        String sallyToken = login(User.BUYER_SALLY);
+        String listingId = auctionService.createListing(fredToken, new BigDecimal("10.00"), null, 5);
+
+        assertFractionalCentsRejected(sallyToken, listingId, false);
+        assertFractionalCentsRejected(sallyToken, listingId, true);
+        try {
+            auctionService.createListing(fredToken, new BigDecimal("10.005"), null, 5);
+            fail("Expected listing with fractional cents to be rejected");
+        } catch (AuctionServiceException ex) {
+            assertEquals("Amount must be in whole cents: 10.005", ex.getMessage());
+        }
+        //Trailing zeros are not fractions of a cent.
+        auctionService.bid(sallyToken, listingId, new BigDecimal("10.5000"));
+        assertEquals(OperationOutcome.of(OperationStatus.OUTBID, 1050L), auctionService.tryBid(sallyToken, listingId, 1000L));
+    }
+
+    @Test
+    public void testProxyBidInvoicedAtSecondPricePlusIncrement() throws AuctionServiceException {
+        String fredToken = login(User.SELLER_FRED);
+        String sallyToken = login(User.BUYER_SALLY);
+        String georgeToken = login(User.BUYER_GEORGE);
+        String listingId = auctionService.createListing(fredToken, 10000L, Money.NO_AMOUNT_CENTS, 5);
+
+        auctionService.proxyBid(sallyToken, listingId, new BigDecimal("300.00"));
+        auctionService.bid(georgeToken, listingId, 15000L);
+        auctionService.proxyBid(georgeToken, listingId, 20000L);
+        adjustableTimeService.incrementTimeOffset(SIX_DAYS_OF_MILLIS);
+
+        List<InvoiceLine> sallyInvoices = auctionService.fetchInvoices(sallyToken, listingId);
+        assertEquals(1, sallyInvoices.size());
+        assertEquals(20000L + DefaultAuctionListingFactory.BID_INCREMENT_CENTS, sallyInvoices.get(0).getAmountCents());
+        assertTrue(auctionService.fetchInvoices(georgeToken, listingId).isEmpty());
+    }
+
+    @Test
+    public void testBidHistoryKeepsProxyMaximumPrivate() throws AuctionServiceException {
+        String fredToken = login(User.SELLER_FRED);
+        String sallyToken = login(User.BUYER_SALLY);
+        String georgeToken = login(User.BUYER_GEORGE);
+        String listingId = auctionService.createListing(fredToken, 10000L, Money.NO_AMOUNT_CENTS, 5);
+
+        auctionService.proxyBid(sallyToken, listingId, 30000L);
+        auctionService.bid(georgeToken, listingId, 15000L);
+        auctionService.proxyBid(sallyToken, listingId, 40000L);
+
+        //George sees every bid, but only at the prices they set.
+        List<BidRecord> bidHistory = auctionService.fetchBidHistory(georgeToken, listingId, 0, 10);
+        assertEquals(3, bidHistory.size());
+        for (BidRecord bid : bidHistory) {
+            assertTrue(bid.toString(), bid.getBidAmountCents() <= 15000L + DefaultAuctionListingFactory.BID_INCREMENT_CENTS);
+        }
+        assertEquals(10000L, bidHistory.get(0).getBidAmountCents());
+        assertEquals(15000L, bidHistory.get(1).getBidAmountCents());
+        assertEquals(15100L, bidHistory.get(2).getBidAmountCents());
+
+        //The maximum still decides the winner.
+        auctionService.bid(georgeToken, listingId, 35000L);
+        adjustableTimeService.incrementTimeOffset(SIX_DAYS_OF_MILLIS);
+        assertEquals(35100L, auctionService.fetchInvoices(sallyToken, listingId).get(0).getAmountCents());
+    }
+
+    @Test
+    public void testBidHistoryOnlyShownToOwnerAndBidders() throws AuctionServiceException {
+        String fredToken = login(User.SELLER_FRED);
+        String sallyToken = login(User.BUYER_SALLY);
+        String georgeToken = login(User.BUYER_GEORGE);
+        String listingId = auctionService.createListing(fredToken, 10000L, Money.NO_AMOUNT_CENTS, 5);
+        auctionService.bid(sallyToken, listingId, 10000L);
+
+        assertEquals(1, auctionService.fetchBidHistory(fredToken, listingId, 0, 10).size());
+        assertEquals(1, auctionService.fetchBidHistory(sallyToken, listingId, 0, 10).size());
+        try {
+            auctionService.fetchBidHistory(georgeToken, listingId, 0, 10);
+            fail("Expected the bid history to be refused to a user who did not bid");
+        } catch (AuctionServiceException ex) {
+            assertEquals("Only the listing owner and its bidders can see its bids", ex.getMessage());
+        }
+        try {
+            auctionService.fetchBidHistory(fredToken, listingId, -1, 10);
+            fail("Expected a negative offset to be rejected");
+        } catch (AuctionServiceException ex) {
+            assertEquals("offset and limit must not be negative", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testBidBatchSpanningShards() throws AuctionServiceException {
+        String fredToken = login(User.SELLER_FRED);
+        String sallyToken = login(User.BUYER_SALLY);
+
+        List<BatchBid> bids = new ArrayList<BatchBid>();
+        String[] listingIds = new String[16];
+        for (int i = 0; i < listingIds.length; i++) {
+            listingIds[i] = auctionService.createListing(fredToken, 500L, Money.NO_AMOUNT_CENTS, 5);
+            bids.add(new BatchBid(sallyToken, listingIds[i], 600L));
+            bids.add(new BatchBid(sallyToken, listingIds[i], 550L));
+            bids.add(new BatchBid(fredToken, listingIds[i], 900L));
+        }
+
+        OperationStatus[] outcomes = auctionService.bidBatch(bids);
+
+        for (int i = 0; i < listingIds.length; i++) {
+            assertEquals(OperationStatus.ACCEPTED, outcomes[i * 3]);
+            assertEquals(OperationStatus.OUTBID, outcomes[i * 3 + 1]);
+            assertEquals(OperationStatus.SELF_BID, outcomes[i * 3 + 2]);
+        }
+    }
+
+    @Test
+    public void testRejectionsAreReportedToCaller() throws AuctionServiceException {
+        String fredToken = login(User.SELLER_FRED);
+        String listingId = auctionService.createListing(fredToken, new BigDecimal("5.00"), null, 3);
+
+        assertRejected(fredToken, listingId, "Purchasing on your own listings is not allowed");
+        assertRejected("badAuthId", listingId, "Unrecognized auth token");
+        assertRejected(fredToken, "noSuchListing", "invalid listing id");
+    }
+
+    @Test
+    public void testOutcomeReturningOperations() throws AuctionServiceException {
+        String fredToken = login(User.SELLER_FRED);
+        String sallyToken = login(User.BUYER_SALLY);
+        String georgeToken = login(User.BUYER_GEORGE);
+
+        assertEquals(OperationStatus.BAD_TOKEN, auctionService.tryCreateListing("badAuthId", 500L, 900L, 3).getStatus());
+        OperationOutcome created = auctionService.tryCreateListing(fredToken, 500L, 900L, 3);
+        assertTrue(created.isAccepted());
+        String listingId = created.getListingId();
+        assertNotNull(listingId);
+
+        assertEquals(OperationOutcome.of(OperationStatus.ACCEPTED, 600L), auctionService.tryBid(sallyToken, listingId, 600L));
+        //Too low bids are silently ignored by bid, here they are reported with the price to beat.
+        assertEquals(OperationOutcome.of(OperationStatus.OUTBID, 600L), auctionService.tryBid(georgeToken, listingId, 550L));
+        assertEquals(OperationOutcome.of(OperationStatus.SELF_BID, 600L), auctionService.tryBid(fredToken, listingId, 700L));
+        assertEquals(OperationStatus.BAD_TOKEN, auctionService.tryBid("badAuthId", listingId, 700L).getStatus());
+        assertEquals(OperationStatus.UNKNOWN_LISTING, auctionService.tryBid(sallyToken, "noSuchListing", 700L).getStatus());
+
+        assertEquals(OperationOutcome.of(OperationStatus.ACCEPTED, 900L), auctionService.tryBuyItNow(georgeToken, listingId));
+        assertEquals(OperationOutcome.of(OperationStatus.CLOSED, 900L), auctionService.tryBuyItNow(sallyToken, listingId));
+        assertEquals(OperationOutcome.of(OperationStatus.CLOSED, 900L), auctionService.tryBid(sallyToken, listingId, 1000L));
+        assertEquals(900L, auctionService.fetchInvoices(georgeToken, listingId).get(0).getAmountCents());
+
+        String endedListingId = auctionService.createListing(fredToken, 500L, Money.NO_AMOUNT_CENTS, 1);
+        adjustableTimeService.incrementTimeOffset(SIX_DAYS_OF_MILLIS);
+        assertEquals(OperationStatus.CLOSED, auctionService.tryBid(sallyToken, endedListingId, 400L).getStatus());
+    }
+
+    @Test
+    public void testRoutineRejectionsCarryNoStackTrace() throws AuctionServiceException {
+        String fredToken = login(User.SELLER_FRED);
+        String listingId = auctionService.createListing(fredToken, 500L, Money.NO_AMOUNT_CENTS, 3);
+        try {
+            auctionService.bid("badAuthId", listingId, 600L);
+            fail("Expected bid to be rejected");
+        } catch (AuctionServiceException ex) {
+            assertEquals(0, ex.getStackTrace().length);
+        }
+    }
+
+    @Test
+    public void testUserInvoicesAcrossListingsAndShards() throws Exception {
+        String fredToken = login(User.SELLER_FRED);
+        String sallyToken = login(User.BUYER_SALLY);
+        String georgeToken = login(User.BUYER_GEORGE);
+        long now = adjustableTimeService.currentTimeMillis();
+
+        List<String> shortListingIds = new ArrayList<String>();
+        for (int i = 0; i < 20; i++) {
+            String listingId = auctionService.createListing(fredToken, 100L, i % 2 == 0 ? 900L : Money.NO_AMOUNT_CENTS, 1);
+            shortListingIds.add(listingId);
+            auctionService.bid(i % 3 == 0 ? georgeToken : sallyToken, listingId, 200L + i);
+        }
+        String longListingId = auctionService.createListing(fredToken, 100L, Money.NO_AMOUNT_CENTS, 5);
+        auctionService.bid(sallyToken, longListingId, 150L);
+        adjustableTimeService.incrementTimeOffset(SIX_DAYS_OF_MILLIS);
+
+        //Ten buy it now listings carry two fees, ten one, and the long listing one.
+        assertEquals(31, drain(auctionService.fetchUserInvoices(fredToken)).size());
+        List<InvoiceLine> georgeInvoices = drain(auctionService.fetchUserInvoices(georgeToken));
+        assertEquals(7, georgeInvoices.size());
+        for (InvoiceLine invoiceLine : georgeInvoices) {
+            assertEquals(FeeType.PURCHASE_FEE, invoiceLine.getFeeType());
+            assertEquals(invoiceLine, auctionService.fetchInvoices(georgeToken, invoiceLine.getAuctionId()).get(0));
+        }
+        assertEquals(14, drain(auctionService.fetchUserInvoices(sallyToken)).size());
+
+        //Only the long listing ends later than two days from the start.
+        List<InvoiceLine> laterInvoices = drain(auctionService.fetchUserInvoices(sallyToken,
+                now + SIX_DAYS_OF_MILLIS / 3, Long.MAX_VALUE));
+        assertEquals(1, laterInvoices.size());
+        assertEquals(longListingId, laterInvoices.get(0).getAuctionId());
+        assertFalse(auctionService.fetchUserInvoices(login(User.BUYER_SALLY), now, now).hasNext());
+    }
+
+    @Test
+    public void testUserInvoiceCursorResumesAtItsPosition() throws Exception {
+        String fredToken = login(User.SELLER_FRED);
+        for (int i = 0; i < 40; i++) {
+            auctionService.createListing(fredToken, 100L, 900L, 1);
+        }
+        adjustableTimeService.incrementTimeOffset(SIX_DAYS_OF_MILLIS);
+
+        List<InvoiceLine> allLines = drain(auctionService.fetchUserInvoices(fredToken));
+        ResumableInvoiceCursor cursor = (ResumableInvoiceCursor) auctionService.fetchUserInvoices(fredToken);
+        for (int i = 0; i < 25; i++) {
+            cursor.next();
+        }
+        ResumableInvoiceCursor resumed = (ResumableInvoiceCursor) auctionService.fetchUserInvoices(fredToken);
+        resumed.seek(cursor.getPosition());
+        assertEquals(allLines.subList(25, allLines.size()).toString(), drain(resumed).toString());
+
+        drain(cursor);
+        ResumableInvoiceCursor atEnd = (ResumableInvoiceCursor) auctionService.fetchUserInvoices(fredToken);
+        atEnd.seek(cursor.getPosition());
+        assertFalse(atEnd.hasNext());
+    }
+
+    @Test
+    public void testListingsAreClosedByTheirShardThread() throws Exception {
+        final List<String> closingThreads = new CopyOnWriteArrayList<String>();
+        Injector injector = Guice.createInjector(Modules.override(new AuctionModule(true, true, 1, 10, 1))
+                .with(new AbstractModule() {
+                    @Override
+                    protected void configure() {
+                        bind(AuctionListingListener.class).toInstance(new NullAuctionListingListener() {
+                            @Override
+                            public void listingClosed(AuctionListing auctionListing) {
+                                closingThreads.add(Thread.currentThread().getName());
+                            }
+                        });
+                    }
+                }));
+        ShardedAuctionService closingService = (ShardedAuctionService) injector.getInstance(AuctionService.class);
+        try {
+            String fredToken = closingService.login(User.SELLER_FRED.getUsername(), User.SELLER_FRED.getPassword());
+            for (int i = 0; i < 8; i++) {
+                closingService.createListing(fredToken, 100L, Money.NO_AMOUNT_CENTS, 1);
+            }
+            injector.getInstance(AdjustableTimeService.class).incrementTimeOffset(SIX_DAYS_OF_MILLIS);
+
+            //Nothing reads the listings, so only the shards' timing wheels close them.
+            long deadline = System.currentTimeMillis() + 5000;
+            while (closingThreads.size() < 8 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(8, closingThreads.size());
+            for (String closingThread : closingThreads) {
+                assertTrue(closingThread, closingThread.startsWith("auction-shard-"));
+            }
+        } finally {
+            closingService.shutdown();
+        }
+    }
+
+    @Test
+    public void testCommandsFailOnceShutDown() throws AuctionServiceException {
+        String fredToken = login(User.SELLER_FRED);
+        String listingId = auctionService.createListing(fredToken, 100L, Money.NO_AMOUNT_CENTS, 1);
+        auctionService.shutdown();
+
+        try {
+            auctionService.bid(login(User.BUYER_SALLY), listingId, 200L);
+            fail("Expected the bid to fail once shut down");
+        } catch (IllegalStateException ex) {
+            assertEquals("Auction shard has been shut down", ex.getMessage());
+        }
+    }
+
+    private static List<InvoiceLine> drain(InvoiceCursor cursor) {
+        List<InvoiceLine> invoiceLines = new ArrayList<InvoiceLine>();
+        while (cursor.hasNext()) {
+            invoiceLines.add(cursor.next());
+        }
+        return invoiceLines;
+    }
+
+    private void assertRejected(String authToken, String listingId, String expectedMessage) {
+        try {
+            auctionService.bid(authToken, listingId, 600L);
+            fail("Expected bid to be rejected with " + expectedMessage);
+        } catch (AuctionServiceException ex) {
+            assertEquals(expectedMessage, ex.getMessage());
+        }
+    }
+
+    private void assertFractionalCentsRejected(String authToken, String listingId, boolean proxy) {
+        try {
+            if (proxy) {
+                auctionService.proxyBid(authToken, listingId, new BigDecimal("10.005"));
+            } else {
+                auctionService.bid(authToken, listingId, new BigDecimal("10.005"));
+            }
+            fail("Expected bid with fractional cents to be rejected");
+        } catch (AuctionServiceException ex) {
+            assertEquals("Amount must be in whole cents: 10.005", ex.getMessage());
+        }
+    }
+
+    private Thread bidder(final CountDownLatch startSignal, final String authToken,
+                          final String[] listingIds, final int parity) {
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    startSignal.await();
+                    for (long cents = 100 + parity; cents < 1000; cents += 2) {
+                        for (String listingId : listingIds) {
+                            auctionService.bid(authToken, listingId, cents);
+                        }
+                    }
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private String login(User user) throws AuctionServiceException {
+        return auctionService.login(user.getUsername(), user.getPassword());
+    }
+}
@@ -0,0 +1,167 @@
+package com.acme.auction;
+
+import com.acme.auctionclient.AuctionService;
+import com.acme.auctionclient.AuctionServiceException;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.util.Modules;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests signed, self-contained auth tokens.
+ */
+public class SignedTokenAuthenticationServiceTest {
+    private static final byte[] FIRST_SECRET = "first secret of 32 bytes or more".getBytes();
+    private static final byte[] SECOND_SECRET = "second secret, also long enough!".getBytes();
+    private static final long LIFETIME_MILLIS = 60000;
+    private static final String FRED = "fred.seller@acme.com";
+    private static final String SALLY = "sally.buyer@acme.com";
+
+    private final TimeService timeService = mock(TimeService.class);
+    private TokenSigningKeys signingKeys;
+    private SignedTokenAuthenticationService authenticationService;
+
+    @Before
+    public void setUp() {
+        setTime(1000000L);
+        signingKeys = new TokenSigningKeys(1, FIRST_SECRET);
+        authenticationService = new SignedTokenAuthenticationService(timeService, signingKeys, LIFETIME_MILLIS);
+    }
+
+    @Test
+    public void testTokensCarryTheirUser() throws AuctionServiceException {
+        String fredToken = authenticationService.login(FRED, "sellingIsFun");
+        String sallyToken = authenticationService.login(SALLY, "gotToBuy");
+
+        assertEquals(SignedTokenAuthenticationService.TOKEN_LENGTH, fredToken.length());
+        assertEquals(FRED, authenticationService.validateTokenAndAcquireUser(fredToken));
+        assertEquals(SALLY, authenticationService.validateTokenAndAcquireUser(sallyToken));
+
+        //Another node with the same keys accepts the tokens without having seen the login.
+        SignedTokenAuthenticationService otherNode = new SignedTokenAuthenticationService(timeService,
+                new TokenSigningKeys(1, FIRST_SECRET), LIFETIME_MILLIS);
+        assertEquals(FRED, otherNode.validateTokenAndAcquireUser(fredToken));
+    }
+
+    @Test
+    public void testTamperedTokensAreRejected() throws AuctionServiceException {
+        String token = authenticationService.login(FRED, "sellingIsFun");
+        for (int i = 0; i < token.length(); i++) {
+            for (char replacement : new char[]{'A', 'B', '_'}) {
+                if (replacement == token.charAt(i)) continue;
+                assertRejected(token.substring(0, i) + replacement + token.substring(i + 1),
+                        "Unrecognized auth token");
+            }
+        }
+        assertRejected(token.substring(1), "Unrecognized auth token");
+        assertRejected(token.substring(1) + "!", "Unrecognized auth token");
+        assertRejected(null, "Unrecognized auth token");
+
+        SignedTokenAuthenticationService otherKeys = new SignedTokenAuthenticationService(timeService,
+                new TokenSigningKeys(1, SECOND_SECRET), LIFETIME_MILLIS);
+        try {
+            otherKeys.validateTokenAndAcquireUser(token);
+            fail("Expected a token signed with another key to be rejected");
+        } catch (AuctionServiceException ex) {
+            assertEquals("Unrecognized auth token", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testTokensExpire() throws AuctionServiceException {
+        String token = authenticationService.login(FRED, "sellingIsFun");
+        setTime(1000000L + LIFETIME_MILLIS - 1000);
+        assertEquals(FRED, authenticationService.validateTokenAndAcquireUser(token));
+        setTime(1000000L + LIFETIME_MILLIS);
+        assertRejected(token, "Expired auth token");
+    }
+
+    @Test
+    public void testKeyRotation() throws AuctionServiceException {
+        String oldToken = authenticationService.login(FRED, "sellingIsFun");
+        signingKeys.addKey(2, SECOND_SECRET);
+        signingKeys.activate(2);
+        String newToken = authenticationService.login(FRED, "sellingIsFun");
+
+        assertEquals(FRED, authenticationService.validateTokenAndAcquireUser(oldToken));
+        assertEquals(FRED, authenticationService.validateTokenAndAcquireUser(newToken));
+
+        signingKeys.retire(1);
+        assertRejected(oldToken, "Unrecognized auth token");
+        assertEquals(FRED, authenticationService.validateTokenAndAcquireUser(newToken));
+
+        //Reusing a retired id with a new secret must not revive its old tokens.
+        signingKeys.addKey(1, SECOND_SECRET);
+        assertRejected(oldToken, "Unrecognized auth token");
+    }
+
+    @Test
+    public void testLoginsRacingKeyRotation() throws Exception {
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final AtomicBoolean rotating = new AtomicBoolean(true);
+        Thread loginThread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    while (rotating.get()) {
+                        authenticationService.login(FRED, "sellingIsFun");
+                    }
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }
+        });
+        loginThread.start();
+        //Retiring the previous key right after activating the next one.
+        for (int i = 0; i < 20000 && failure.get() == null; i++) {
+            int keyId = 1 + (i + 1) % 3;
+            signingKeys.addKey(keyId, i % 2 == 0 ? SECOND_SECRET : FIRST_SECRET);
+            signingKeys.activate(keyId);
+            signingKeys.retire(1 + i % 3);
+        }
+        rotating.set(false);
+        loginThread.join();
+        assertNull(failure.get());
+
+        //Replacing the secret of the active key signs with the new secret.
+        int activeKeyId = signingKeys.getActiveKeyId();
+        signingKeys.addKey(activeKeyId, FIRST_SECRET);
+        String token = authenticationService.login(FRED, "sellingIsFun");
+        assertEquals(FRED, authenticationService.validateTokenAndAcquireUser(token));
+    }
+
+    @Test
+    public void testAuctionServiceWithSignedTokens() throws AuctionServiceException {
+        Injector injector = Guice.createInjector(Modules.override(new AuctionModule(true))
+                .with(new SignedTokenModule(7, FIRST_SECRET)));
+        AuctionService auctionService = injector.getInstance(AuctionService.class);
+
+        String fredToken = auctionService.login(FRED, "sellingIsFun");
+        String sallyToken = auctionService.login(SALLY, "gotToBuy");
+        String listingId = auctionService.createListing(fredToken, 100L, -1L, 3);
+        auctionService.bid(sallyToken, listingId, 200L);
+        assertEquals(1, auctionService.fetchBidHistory(fredToken, listingId, 0, 10).size());
+    }
+
+    private void assertRejected(String token, String expectedMessage) {
+        try {
+            authenticationService.validateTokenAndAcquireUser(token);
+            fail("Expected " + token + " to be rejected with " + expectedMessage);
+        } catch (AuctionServiceException ex) {
+            assertEquals(expectedMessage, ex.getMessage());
+        }
+    }
+
+    private void setTime(long nowMillis) {
+        when(timeService.currentTimeMillis()).thenReturn(nowMillis);
+    }
+}
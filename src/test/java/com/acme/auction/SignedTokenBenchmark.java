@@ -0,0 +1,65 @@
+package com.acme.auction;
+
+import com.acme.auctionclient.AuctionServiceException;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Compares validating signed tokens against the token map lookup of
+ * {@link DefaultAuthenticationService}, in time and in bytes allocated per call.
+ * <p/>
+ * Not a unit test, run the main method with the number of validations per round
+ * as the optional argument. Allocation figures need a JVM supporting
+ * com.sun.management.ThreadMXBean.
+ */
+public class SignedTokenBenchmark {
+    private static final String[][] USERS = {
+            {"fred.seller@acme.com", "sellingIsFun"},
+            {"sally.buyer@acme.com", "gotToBuy"},
+            {"george.buyer@acme.com", "sallyIsAnnoying"}};
+
+    public static void main(String[] args) throws AuctionServiceException {
+        int validations = args.length > 0 ? Integer.parseInt(args[0]) : 5000000;
+        TimeService timeService = new DefaultTimeService();
+        AuthenticationService mapService = new DefaultAuthenticationService();
+        AuthenticationService signedService = new SignedTokenAuthenticationService(timeService,
+                new TokenSigningKeys(1, "benchmark secret of 32 bytes ...".getBytes()));
+        String[] mapTokens = login(mapService);
+        String[] signedTokens = login(signedService);
+
+        for (int round = 0; round < 3; round++) {
+            System.out.println("round " + round);
+            run("token map", mapService, mapTokens, validations);
+            run("signed token", signedService, signedTokens, validations);
+        }
+    }
+
+    private static String[] login(AuthenticationService authenticationService) throws AuctionServiceException {
+        String[] tokens = new String[USERS.length];
+        for (int i = 0; i < USERS.length; i++) {
+            //Fresh copies, as tokens arriving off the wire would be.
+            tokens[i] = new String(authenticationService.login(USERS[i][0], USERS[i][1]).toCharArray());
+        }
+        return tokens;
+    }
+
+    private static void run(String name, AuthenticationService authenticationService, String[] tokens,
+                            int validations) throws AuctionServiceException {
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        int check = 0;
+        for (int i = 0; i < validations; i++) {
+            check += authenticationService.validateTokenAndAcquireUser(tokens[i % tokens.length]).length();
+        }
+        long nanos = System.nanoTime() - start;
+        long allocated = allocatedBytes() - allocatedBefore;
+        System.out.printf("  %-13s %7.1f ns/validation  %5.2f bytes/validation  (%d)%n", name,
+                (double) nanos / validations, (double) allocated / validations, check);
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (!(threadMXBean instanceof com.sun.management.ThreadMXBean)) return 0;
+        return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
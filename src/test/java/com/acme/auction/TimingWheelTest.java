@@ -0,0 +1,144 @@
+package com.acme.auction;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the timing wheel and the listing close scheduler built on it.
+ */
+public class TimingWheelTest {
+    private static final long TICK_MILLIS = 10;
+
+    @Test
+    public void testItemsAreDueNoEarlierThanDeadlineAndWithinOneTick() {
+        TimingWheel<Long> timingWheel = new TimingWheel<Long>(TICK_MILLIS, 8, 0);
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            long deadline = 1 + random.nextInt(100000);
+            timingWheel.schedule(deadline, deadline);
+        }
+
+        long now = 0;
+        int dueCount = 0;
+        while (timingWheel.size() > 0) {
+            now += 1 + random.nextInt(25);
+            for (Long deadline : timingWheel.advanceTo(now)) {
+                assertTrue("due before deadline " + deadline + " at " + now, deadline <= now);
+                dueCount++;
+            }
+        }
+        assertEquals(2000, dueCount);
+    }
+
+    @Test
+    public void testSteppingThroughEveryMillisecondIsExact() {
+        TimingWheel<Long> timingWheel = new TimingWheel<Long>(1, 4, 0);
+        for (long deadline = 1; deadline <= 500; deadline += 7) {
+            timingWheel.schedule(deadline, deadline);
+        }
+        for (long now = 1; now <= 500; now++) {
+            for (Long deadline : timingWheel.advanceTo(now)) {
+                assertEquals(now, (long) deadline);
+            }
+        }
+        assertEquals(0, timingWheel.size());
+    }
+
+    @Test
+    public void testLargeClockJumpHandsOutEverythingDue() {
+        TimingWheel<String> timingWheel = new TimingWheel<String>(TICK_MILLIS, 16, 1000);
+        timingWheel.schedule("soon", 1050);
+        timingWheel.schedule("tomorrow", 1000 + 24 * 60 * 60 * 1000L);
+        timingWheel.schedule("next week", 1000 + 7 * 24 * 60 * 60 * 1000L);
+
+        assertTrue(timingWheel.advanceTo(1049).isEmpty());
+        List<String> due = timingWheel.advanceTo(1000 + 3 * 24 * 60 * 60 * 1000L);
+        assertEquals(2, due.size());
+        assertTrue(due.contains("soon"));
+        assertTrue(due.contains("tomorrow"));
+        assertEquals(1, timingWheel.size());
+    }
+
+    @Test
+    public void testPastDeadlineIsDueOnNextAdvance() {
+        TimingWheel<String> timingWheel = new TimingWheel<String>(TICK_MILLIS, 16, 1000);
+        timingWheel.advanceTo(5000);
+        timingWheel.schedule("late", 10);
+        assertEquals(1, timingWheel.advanceTo(5000).size());
+    }
+
+    @Test
+    public void testSchedulerClosesListingsAfterTimeJump() {
+        TimeService rawTimeService = mock(TimeService.class);
+        when(rawTimeService.getTime()).thenReturn(new Date(0));
+        when(rawTimeService.currentTimeMillis()).thenReturn(new Date(0).getTime());
+        DefaultAdjustableTimeService timeService = new DefaultAdjustableTimeService(rawTimeService);
+        DefaultAuctionListingFactory factory = new DefaultAuctionListingFactory(timeService);
+        TimingWheelAuctionCloseScheduler scheduler = new TimingWheelAuctionCloseScheduler(timeService, 1000, false);
+
+        List<AuctionListing> listings = new ArrayList<AuctionListing>();
+        for (int auctionLength = 1; auctionLength <= 3; auctionLength++) {
+            AuctionListing listing = factory.createAuctionListing("owner", 100L, -1L, auctionLength);
+            scheduler.scheduleClose(listing);
+            listings.add(listing);
+        }
+        assertEquals(0, scheduler.closeExpiredListings());
+
+        timeService.incrementTimeOffset(2 * 24 * 60 * 60 * 1000L + 1000);
+        assertEquals(2, scheduler.closeExpiredListings());
+        assertEquals(1, scheduler.getScheduledCount());
+
+        //Closed listings no longer depend on the clock.
+        timeService.incrementTimeOffset(-2 * 24 * 60 * 60 * 1000L - 1000);
+        assertTrue(listings.get(0).isAuctionClosed());
+        assertTrue(listings.get(1).isAuctionClosed());
+        assertFalse(listings.get(2).isAuctionClosed());
+    }
+
+    @Test
+    public void testTickerSurvivesListingsFailingToClose() throws Exception {
+        TimeService timeService = mock(TimeService.class);
+        when(timeService.currentTimeMillis()).thenReturn(0L);
+        TimingWheelAuctionCloseScheduler scheduler = new TimingWheelAuctionCloseScheduler(timeService, TICK_MILLIS,
+                true);
+        AuctionListing failing = mock(AuctionListing.class);
+        when(failing.getEndingTime()).thenReturn(new Date(100));
+        when(failing.closeIfEnded(anyLong())).thenThrow(new IllegalStateException("Listener failed"));
+        AuctionListing closing = mock(AuctionListing.class);
+        when(closing.getEndingTime()).thenReturn(new Date(100));
+        when(closing.closeIfEnded(anyLong())).thenReturn(true);
+        scheduler.scheduleClose(failing);
+        scheduler.scheduleClose(closing);
+
+        when(timeService.currentTimeMillis()).thenReturn(1000L);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (scheduler.getClosedCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(1, scheduler.getClosedCount());
+        assertTrue(scheduler.getLastCloseFailure() instanceof IllegalStateException);
+
+        //The ticker is still scheduled after the failure.
+        AuctionListing later = mock(AuctionListing.class);
+        when(later.getEndingTime()).thenReturn(new Date(1500));
+        when(later.closeIfEnded(anyLong())).thenReturn(true);
+        scheduler.scheduleClose(later);
+        when(timeService.currentTimeMillis()).thenReturn(2000L);
+        while (scheduler.getClosedCount() == 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(2, scheduler.getClosedCount());
+        scheduler.shutdown();
+    }
+}
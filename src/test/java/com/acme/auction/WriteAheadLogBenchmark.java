@@ -0,0 +1,65 @@
+package com.acme.auction;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how many bids per second the write-ahead log takes under each durability policy.
+ * <p/>
+ * Not a unit test, run the main method with the log directory, which should be on
+ * the disk being measured, and optionally the number of caller threads and seconds
+ * per policy. The directory is emptied first.
+ */
+public class WriteAheadLogBenchmark {
+    public static void main(String[] args) throws Exception {
+        File directory = new File(args.length > 0 ? args[0] : "target/wal-benchmark");
+        int threadCount = args.length > 1 ? Integer.parseInt(args[1]) : 256;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        for (DurabilityPolicy durabilityPolicy : DurabilityPolicy.values()) {
+            deleteSegments(directory);
+            WriteAheadLog log = new WriteAheadLog(directory, durabilityPolicy);
+            long bids = run(log, threadCount, seconds);
+            System.out.println(String.format("%-8s %10d bids/s %8d syncs %8.1f bids/sync",
+                    durabilityPolicy, bids / seconds, log.getSyncCount(),
+                    bids / (double) Math.max(1, log.getSyncCount())));
+            log.close();
+        }
+        deleteSegments(directory);
+    }
+
+    private static long run(final WriteAheadLog log, int threadCount, int seconds) throws InterruptedException {
+        final AtomicLong bids = new AtomicLong();
+        final long endNanos = System.nanoTime() + seconds * 1000000000L;
+        final CountDownLatch done = new CountDownLatch(threadCount);
+        for (int t = 0; t < threadCount; t++) {
+            final String bidder = "bidder" + t + "@acme.com";
+            final long listingKey = t + 1;
+            new Thread(new Runnable() {
+                public void run() {
+                    long count = 0;
+                    while (System.nanoTime() < endNanos) {
+                        log.awaitDurable(log.logBid(listingKey, bidder, 1000L + count, System.currentTimeMillis()));
+                        count++;
+                    }
+                    bids.addAndGet(count);
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        return bids.get();
+    }
+
+    private static void deleteSegments(File directory) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            if (!file.delete()) {
+                throw new IOException("Unable to delete " + file);
+            }
+        }
+    }
+}
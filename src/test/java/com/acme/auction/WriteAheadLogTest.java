@@ -0,0 +1,191 @@
+package com.acme.auction;
+
+import com.acme.auctionclient.AuctionService;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.util.Modules;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the write-ahead log of auction service changes.
+ */
+public class WriteAheadLogTest {
+    private static final int SEGMENT_SIZE = 1 << 20;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testRecordsAreReadBackInOrderAcrossSegmentsAndReopening() throws Exception {
+        File directory = temporaryFolder.newFolder("log");
+        WriteAheadLog log = new WriteAheadLog(directory, DurabilityPolicy.PER_OP, 1, SEGMENT_SIZE);
+        int bidCount = 40000;
+        long position = 0;
+        for (int i = 0; i < bidCount; i++) {
+            long nextPosition = log.logBid(i + 1, "bidder" + i, 100L + i, 5000L);
+            assertTrue(nextPosition > position);
+            position = nextPosition;
+        }
+        log.awaitDurable(position);
+        assertEquals(position, log.getDurablePosition());
+        log.close();
+        assertTrue(new File(directory, WriteAheadLog.segmentName(1)).isFile());
+
+        WriteAheadLog reopened = new WriteAheadLog(directory, DurabilityPolicy.PER_OP, 1, SEGMENT_SIZE);
+        assertEquals(position, reopened.getAppendedPosition());
+        reopened.logBuyItNow(7L, "collector", 5000L);
+        reopened.close();
+
+        WriteAheadLogReader reader = new WriteAheadLogReader(directory);
+        for (int i = 0; i < bidCount; i++) {
+            assertTrue(reader.next());
+            assertEquals(WriteAheadLog.BID, reader.getType());
+            assertEquals(i + 1, reader.getListingKey());
+            assertEquals("bidder" + i, reader.getUser());
+            assertEquals(100L + i, reader.getAmountCents());
+            assertEquals(5000L, reader.getTimeMillis());
+        }
+        assertTrue(reader.next());
+        assertEquals(WriteAheadLog.BUY_IT_NOW, reader.getType());
+        assertEquals("collector", reader.getUser());
+        assertFalse(reader.next());
+        reader.close();
+    }
+
+    @Test
+    public void testTornRecordEndsTheLog() throws Exception {
+        File directory = temporaryFolder.newFolder("log");
+        WriteAheadLog log = new WriteAheadLog(directory, DurabilityPolicy.PER_OP, 1, SEGMENT_SIZE);
+        long tornRecordStart = log.logBid(1L, "sally", 100L, 5000L);
+        log.logBid(1L, "george", 200L, 5000L);
+        log.logBid(1L, "george", 300L, 5000L);
+        log.close();
+
+        RandomAccessFile segment = new RandomAccessFile(new File(directory, WriteAheadLog.segmentName(0)), "rw");
+        segment.seek(tornRecordStart + WriteAheadLog.RECORD_HEADER_SIZE + 2);
+        segment.write(0x7F);
+        segment.close();
+
+        WriteAheadLog reopened = new WriteAheadLog(directory, DurabilityPolicy.PER_OP, 1, SEGMENT_SIZE);
+        assertEquals(tornRecordStart, reopened.getAppendedPosition());
+        reopened.logBid(1L, "fred", 400L, 5000L);
+        reopened.close();
+
+        List<String> bidders = new ArrayList<String>();
+        WriteAheadLogReader reader = new WriteAheadLogReader(directory);
+        while (reader.next()) {
+            bidders.add(reader.getUser());
+        }
+        reader.close();
+        assertEquals("[sally, fred]", bidders.toString());
+    }
+
+    @Test
+    public void testConcurrentCallersShareSyncs() throws Exception {
+        final WriteAheadLog log = new WriteAheadLog(temporaryFolder.newFolder("log"), DurabilityPolicy.PER_OP, 1,
+                SEGMENT_SIZE);
+        final int threadCount = 8;
+        final int bidsPerThread = 500;
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int t = 0; t < threadCount; t++) {
+            final String bidder = "bidder" + t;
+            futures.add(executor.submit(new Callable<Void>() {
+                public Void call() {
+                    for (int i = 0; i < bidsPerThread; i++) {
+                        long position = log.logBid(1L, bidder, i, 5000L);
+                        log.awaitDurable(position);
+                        assertTrue(log.getDurablePosition() >= position);
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        assertEquals(log.getAppendedPosition(), log.getDurablePosition());
+        assertTrue(log.getSyncCount() <= threadCount * bidsPerThread);
+        log.close();
+    }
+
+    @Test
+    public void testAuctionServiceLogsChanges() throws Exception {
+        File directory = temporaryFolder.newFolder("log");
+        Injector injector = Guice.createInjector(Modules.override(new AuctionModule(true))
+                .with(new WriteAheadLogModule(directory, DurabilityPolicy.BATCHED)));
+        AuctionService auctionService = injector.getInstance(AuctionService.class);
+        String fredToken = auctionService.login("fred.seller@acme.com", "sellingIsFun");
+        String sallyToken = auctionService.login("sally.buyer@acme.com", "gotToBuy");
+
+        String listingId = auctionService.createListing(fredToken, 1000L, 5000L, 3);
+        auctionService.bid(sallyToken, listingId, 1500L);
+        auctionService.proxyBid(sallyToken, listingId, 2500L);
+        auctionService.buyItNow(sallyToken, listingId);
+        WriteAheadLog log = injector.getInstance(WriteAheadLog.class);
+        assertEquals(log.getAppendedPosition(), log.getDurablePosition());
+        log.close();
+
+        WriteAheadLogReader reader = new WriteAheadLogReader(directory);
+        assertTrue(reader.next());
+        assertEquals(WriteAheadLog.LISTING_CREATED, reader.getType());
+        assertEquals(ListingIds.parse(listingId), reader.getListingKey());
+        assertEquals("fred.seller@acme.com", reader.getUser());
+        assertEquals(1000L, reader.getAmountCents());
+        assertEquals(5000L, reader.getBuyItNowPriceCents());
+        assertEquals(3, reader.getAuctionLength());
+        assertTrue(reader.next());
+        assertEquals(WriteAheadLog.BID, reader.getType());
+        assertEquals(1500L, reader.getAmountCents());
+        assertTrue(reader.next());
+        assertEquals(WriteAheadLog.PROXY_BID, reader.getType());
+        assertTrue(reader.next());
+        assertEquals(WriteAheadLog.BUY_IT_NOW, reader.getType());
+        assertEquals("sally.buyer@acme.com", reader.getUser());
+        assertFalse(reader.next());
+        reader.close();
+    }
+
+    @Test
+    public void testShardedEngineLogsChanges() throws Exception {
+        File directory = temporaryFolder.newFolder("log");
+        Injector injector = Guice.createInjector(Modules.override(new AuctionModule(true, true))
+                .with(new WriteAheadLogModule(directory, DurabilityPolicy.BATCHED)));
+        ShardedAuctionService auctionService = (ShardedAuctionService) injector.getInstance(AuctionService.class);
+        String fredToken = auctionService.login("fred.seller@acme.com", "sellingIsFun");
+        String sallyToken = auctionService.login("sally.buyer@acme.com", "gotToBuy");
+
+        String listingId = auctionService.createListing(fredToken, 1000L, 5000L, 3);
+        auctionService.bid(sallyToken, listingId, 1500L);
+        auctionService.shutdown();
+        WriteAheadLog log = injector.getInstance(WriteAheadLog.class);
+        assertEquals(log.getAppendedPosition(), log.getDurablePosition());
+        log.close();
+
+        WriteAheadLogReader reader = new WriteAheadLogReader(directory);
+        assertTrue(reader.next());
+        assertEquals(WriteAheadLog.LISTING_CREATED, reader.getType());
+        assertEquals(ListingIds.parse(listingId), reader.getListingKey());
+        assertTrue(reader.next());
+        assertEquals(WriteAheadLog.BID, reader.getType());
+        assertEquals(1500L, reader.getAmountCents());
+        assertFalse(reader.next());
+        reader.close();
+    }
+}
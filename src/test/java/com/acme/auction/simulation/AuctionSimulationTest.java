@@ -0,0 +1,33 @@
+package com.acme.auction.simulation;
+
+import com.acme.auctionclient.AuctionServiceException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the discrete-event auction simulation on a small population.
+ */
+public class AuctionSimulationTest {
+    @Test
+    public void testEveryListingIsClosedWithinOneTick() throws AuctionServiceException {
+        SimulationConfig config = new SimulationConfig()
+                .setListingCount(5000)
+                .setListingArrivals(new PoissonArrivalDistribution(1))
+                .setBidArrivals(new PeakArrivalDistribution(5, 20, 24L * 60 * 60 * 1000, 60L * 60 * 1000))
+                .setAuctionLengthDays(1, 3)
+                .setCloseTickMillis(5000)
+                .setMeasureMemory(false);
+
+        SimulationReport report = new AuctionSimulation(config).run();
+
+        assertEquals(5000, report.getListingCount());
+        assertEquals(5000, report.getClosedBySchedulerCount());
+        assertTrue(report.getBidCount() > 0);
+        assertTrue(report.getMaxCloseLagMillis() <= 5000);
+        //Virtual time covers the arrivals and the longest auctions, far beyond the wall time taken.
+        assertTrue(report.getVirtualDurationMillis() > 24L * 60 * 60 * 1000);
+        assertEquals(-1, report.getBytesPerListing());
+    }
+}
@@ -0,0 +1,95 @@
+package com.acme.auctionclient;
+
+import com.acme.atddharness.User;
+import com.acme.auction.DefaultAuctionListingFactory;
+import com.acme.auction.DefaultAuctionService;
+import com.acme.auction.TimeService;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static com.acme.auctionclient.OperationStatus.*;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Batch bidding focused tests of DefaultAuctionService.
+ */
+public class AuctionServiceBidBatchTest {
+    private static final Date FIRST_DAY = new Date(0);
+    private static final Date SIXTH_DAY = new Date(60L * 60 * 24 * 1000 * 6);
+
+    private TimeService timeService;
+    private AuctionService auctionService;
+    private String fredToken;
+    private String sallyToken;
+    private String georgeToken;
+
+    @Before
+    public void setUp() throws AuctionServiceException {
+        timeService = mock(TimeService.class);
+        when(timeService.getTime()).thenReturn(FIRST_DAY);
+        when(timeService.currentTimeMillis()).thenReturn(FIRST_DAY.getTime());
+        auctionService = new DefaultAuctionService(new DefaultAuctionListingFactory(timeService));
+
+        fredToken = auctionService.login(User.SELLER_FRED.getUsername(), User.SELLER_FRED.getPassword());
+        sallyToken = auctionService.login(User.BUYER_SALLY.getUsername(), User.BUYER_SALLY.getPassword());
+        georgeToken = auctionService.login(User.BUYER_GEORGE.getUsername(), User.BUYER_GEORGE.getPassword());
+    }
+
+    @Test
+    public void testBatchAcrossListings() throws AuctionServiceException {
+        String firstListingId = auctionService.createListing(fredToken, 10000L, Money.NO_AMOUNT_CENTS, 5);
+        String secondListingId = auctionService.createListing(fredToken, 500L, Money.NO_AMOUNT_CENTS, 5);
+        auctionService.bid(georgeToken, secondListingId, 700L);
+
+        List<BatchBid> bids = Arrays.asList(
+                new BatchBid(sallyToken, firstListingId, 10200L),
+                new BatchBid(georgeToken, firstListingId, 10550L),
+                new BatchBid(sallyToken, secondListingId, 650L),
+                new BatchBid(sallyToken, firstListingId, 10699L),
+                new BatchBid(georgeToken, firstListingId, 10699L),
+                new BatchBid(sallyToken, secondListingId, 800L),
+                new BatchBid(fredToken, firstListingId, 20000L),
+                new BatchBid("badAuthId", firstListingId, 20000L),
+                new BatchBid(sallyToken, "noSuchListing", 20000L));
+
+        OperationStatus[] outcomes = auctionService.bidBatch(bids);
+
+        assertArrayEquals(new OperationStatus[]{
+                ACCEPTED, ACCEPTED, OUTBID, ACCEPTED, OUTBID, ACCEPTED, SELF_BID, BAD_TOKEN, UNKNOWN_LISTING},
+                outcomes);
+
+        when(timeService.getTime()).thenReturn(SIXTH_DAY);
+
+        when(timeService.currentTimeMillis()).thenReturn(SIXTH_DAY.getTime());
+        assertPurchase(sallyToken, firstListingId, 10699L);
+        assertPurchase(sallyToken, secondListingId, 800L);
+    }
+
+    @Test
+    public void testBatchOnClosedListing() throws AuctionServiceException {
+        String listingId = auctionService.createListing(fredToken, 500L, Money.NO_AMOUNT_CENTS, 5);
+        when(timeService.getTime()).thenReturn(SIXTH_DAY);
+        when(timeService.currentTimeMillis()).thenReturn(SIXTH_DAY.getTime());
+
+        OperationStatus[] outcomes = auctionService.bidBatch(Arrays.asList(
+                new BatchBid(sallyToken, listingId, 600L),
+                new BatchBid(georgeToken, listingId, 700L)));
+
+        assertArrayEquals(new OperationStatus[]{CLOSED, CLOSED}, outcomes);
+        assertEquals(0, auctionService.fetchInvoices(sallyToken, listingId).size());
+    }
+
+    private void assertPurchase(String authToken, String listingId, long expectedCents) throws AuctionServiceException {
+        List<InvoiceLine> invoiceLines = auctionService.fetchInvoices(authToken, listingId);
+        assertEquals(1, invoiceLines.size());
+        assertEquals(FeeType.PURCHASE_FEE, invoiceLines.get(0).getFeeType());
+        assertEquals(expectedCents, invoiceLines.get(0).getAmountCents());
+    }
+}
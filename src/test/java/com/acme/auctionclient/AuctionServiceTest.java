@@ -4,10 +4,14 @@ import com.acme.atddharness.User;
 import com.acme.auction.AuctionListing;
 import com.acme.auction.AuctionListingFactory;
 import com.acme.auction.DefaultAuctionService;
+import com.acme.auction.ListingIds;
 import org.junit.Test;
 
 import java.math.BigDecimal;
+import java.util.List;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.*;
 
@@ -56,7 +60,8 @@ public class AuctionServiceTest {
 
         AuctionService auctionService = new DefaultAuctionService(auctionListingFactory);
         AuctionListing fredFirstListing = mock(AuctionListing.class, "fredFirstListing");
-        when(fredFirstListing.getListingId()).thenReturn("fredFirstListing123");
+        when(fredFirstListing.getListingKey()).thenReturn(0x123L);
+        when(fredFirstListing.getListingId()).thenReturn(ListingIds.toString(0x123L));
 
         String fredAuthToken = auctionService.login(User.SELLER_FRED.getUsername(), User.SELLER_FRED.getPassword());
         BigDecimal startingPriceA = new BigDecimal("5.00");
@@ -80,11 +85,14 @@ public class AuctionServiceTest {
         //Mock listings, the mock AuctionListingFactory will eventually be set to return.
         //Behavior for which to return is defined later closer to the call that causes it.
         AuctionListing fredFirstListing = mock(AuctionListing.class, "fredFirstListing");
-        when(fredFirstListing.getListingId()).thenReturn("fred123");
+        when(fredFirstListing.getListingKey()).thenReturn(0xF123L);
+        when(fredFirstListing.getListingId()).thenReturn(ListingIds.toString(0xF123L));
         AuctionListing fredSecondListing = mock(AuctionListing.class, "fredSecondListing");
-        when(fredSecondListing.getListingId()).thenReturn("fred456");
+        when(fredSecondListing.getListingKey()).thenReturn(0xF456L);
+        when(fredSecondListing.getListingId()).thenReturn(ListingIds.toString(0xF456L));
         AuctionListing sallyOnlyListing = mock(AuctionListing.class, "sallyOnlyListing");
-        when(sallyOnlyListing.getListingId()).thenReturn("sally123");
+        when(sallyOnlyListing.getListingKey()).thenReturn(0x5123L);
+        when(sallyOnlyListing.getListingId()).thenReturn(ListingIds.toString(0x5123L));
 
         AuctionService auctionService = new DefaultAuctionService(auctionListingFactory);
 
@@ -124,4 +132,40 @@ public class AuctionServiceTest {
         verify(sallyOnlyListing).bid(User.BUYER_GEORGE.getUsername(), georgeFavoriteFirstBid);
 
     }
+
+    @Test
+    public void testInvoicesOfClosedListingAreBuiltOnce() throws AuctionServiceException {
+        AuctionListingFactory auctionListingFactory = mock(AuctionListingFactory.class);
+        AuctionListing fredListing = mock(AuctionListing.class, "fredListing");
+        when(fredListing.getListingKey()).thenReturn(0xF789L);
+        when(fredListing.getListingId()).thenReturn(ListingIds.toString(0xF789L));
+        when(fredListing.getListingOwner()).thenReturn(User.SELLER_FRED.getUsername());
+        when(fredListing.getBuyItNowPriceCents()).thenReturn(Money.NO_AMOUNT_CENTS);
+        when(fredListing.getWinningUser()).thenReturn(User.BUYER_SALLY.getUsername());
+        when(fredListing.getWinningPriceCents()).thenReturn(1200L);
+
+        AuctionService auctionService = new DefaultAuctionService(auctionListingFactory);
+        String fredAuthToken = auctionService.login(User.SELLER_FRED.getUsername(), User.SELLER_FRED.getPassword());
+        String sallyAuthToken = auctionService.login(User.BUYER_SALLY.getUsername(), User.BUYER_SALLY.getPassword());
+        String georgeAuthToken = auctionService.login(User.BUYER_GEORGE.getUsername(), User.BUYER_GEORGE.getPassword());
+        when(auctionListingFactory.createAuctionListing(User.SELLER_FRED.getUsername(), 500L, Money.NO_AMOUNT_CENTS, 3))
+                .thenReturn(fredListing);
+        String listingId = auctionService.createListing(fredAuthToken, 500L, Money.NO_AMOUNT_CENTS, 3);
+
+        //Open listings are asked every time.
+        auctionService.fetchInvoices(sallyAuthToken, listingId);
+        auctionService.fetchInvoices(sallyAuthToken, listingId);
+        verify(fredListing, times(2)).getWinningUser();
+
+        when(fredListing.isAuctionClosed()).thenReturn(true);
+        List<InvoiceLine> sallyInvoices = auctionService.fetchInvoices(sallyAuthToken, listingId);
+        assertEquals(1, sallyInvoices.size());
+        assertEquals(FeeType.PURCHASE_FEE, sallyInvoices.get(0).getFeeType());
+        assertEquals(new BigDecimal("12.00"), sallyInvoices.get(0).getAmount());
+        assertSame(sallyInvoices, auctionService.fetchInvoices(sallyAuthToken, listingId));
+        assertEquals(1, auctionService.fetchInvoices(fredAuthToken, listingId).size());
+        assertTrue(auctionService.fetchInvoices(georgeAuthToken, listingId).isEmpty());
+        verify(fredListing, times(3)).getWinningUser();
+        verify(fredListing, times(3)).isAuctionClosed();
+    }
 }
@@ -0,0 +1,48 @@
+package com.acme.auctionclient;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the fixed-point Money type and its BigDecimal adapters.
+ */
+public class MoneyTest {
+
+    @Test
+    public void testBigDecimalRoundTrip() {
+        assertEquals(10699L, Money.toCents(new BigDecimal("106.99")));
+        assertEquals(500L, Money.toCents(new BigDecimal("5")));
+        assertEquals(new BigDecimal("106.99"), Money.toBigDecimal(10699L));
+        assertEquals(new BigDecimal("5.00"), Money.toBigDecimal(Money.parseCents("5")));
+    }
+
+    @Test
+    public void testNullAdapters() {
+        assertEquals(Money.NO_AMOUNT_CENTS, Money.toCentsOrNone(null));
+        assertNull(Money.toBigDecimalOrNull(Money.NO_AMOUNT_CENTS));
+        assertEquals(new BigDecimal("2.25"), Money.toBigDecimalOrNull(225L));
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testFractionalCentsAreRejected() {
+        Money.toCents(new BigDecimal("1.005"));
+    }
+
+    @Test
+    public void testValueSemantics() {
+        assertEquals(Money.parse("2.25"), Money.ofCents(225));
+        assertTrue(Money.ofCents(100).compareTo(Money.ofCents(101)) < 0);
+        assertEquals(Money.ofCents(325), Money.ofCents(100).plus(Money.of(new BigDecimal("2.25"))));
+        assertEquals("2.25", Money.ofCents(225).toString());
+    }
+
+    @Test
+    public void testInvoiceLineCentsAndBigDecimalAgree() {
+        InvoiceLine invoiceLine = new InvoiceLine("listing", FeeType.PURCHASE_FEE, "250.00");
+        assertEquals(25000L, invoiceLine.getAmountCents());
+        assertEquals(new BigDecimal("250.00"), invoiceLine.getAmount());
+    }
+}